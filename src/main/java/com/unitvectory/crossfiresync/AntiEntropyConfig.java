@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for AntiEntropyScanner allows for customization.
+ *
+ * By default, the configuration will use the following environment variables:
+ *
+ * <ul>
+ * <li><b>REPLICATION_MODE</b>: The type of replication</li>
+ * <li><b>SOURCE_DATABASE</b>: The Firestore database name treated as the source of truth</li>
+ * <li><b>DATABASE</b>: The Firestore database name compared against the source</li>
+ * <li><b>COLLECTION_GROUPS</b>: Comma separated collection group ids to compare</li>
+ * <li><b>REPAIR</b>: Set to true to repair the divergent documents</li>
+ * </ul>
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class AntiEntropyConfig {
+
+    /**
+     * The type of replication
+     *
+     * Use the REPLICATION_MODE environment variable to set this value.
+     *
+     * @see ReplicationMode
+     */
+    @Builder.Default
+    private final ReplicationMode replicationMode =
+            ReplicationMode.parseFallbackToNone(System.getenv("REPLICATION_MODE"));
+
+    /**
+     * The Firestore database name treated as the source of truth
+     *
+     * Use the SOURCE_DATABASE environment variable to set this value.
+     */
+    @Builder.Default
+    private final String sourceDatabaseName = System.getenv("SOURCE_DATABASE");
+
+    /**
+     * The Firestore database name compared against the source
+     *
+     * Use the DATABASE environment variable to set this value.
+     */
+    @Builder.Default
+    private final String databaseName = System.getenv("DATABASE");
+
+    /**
+     * The collection group ids to compare
+     *
+     * Use the COLLECTION_GROUPS environment variable to set this value as a comma separated list.
+     */
+    @Builder.Default
+    private final List<String> collectionGroups =
+            ConfigValues.parseList(System.getenv("COLLECTION_GROUPS"));
+
+    /**
+     * The depth of the Merkle tree built for each collection group; the tree has 2^depth leaves
+     */
+    @Builder.Default
+    private final int treeDepth = 12;
+
+    /**
+     * The average number of documents in each range of consecutive paths in the Merkle tree; the
+     * ranges that differ are listed again to find the divergent documents
+     */
+    @Builder.Default
+    private final int rangeSize = 64;
+
+    /**
+     * The number of documents read per page
+     */
+    @Builder.Default
+    private final int pageSize = 500;
+
+    /**
+     * Repair the divergent documents by writing the source document to the target database
+     *
+     * Use the REPAIR environment variable to set this value.
+     */
+    @Builder.Default
+    private final boolean repair = ConfigValues.parseBoolean(System.getenv("REPAIR"), false);
+
+    /**
+     * The Firestore factory
+     *
+     * Implement the ConfigFirestoreFactory interface to create a custom factory to provide a
+     * customized Firestore instance.
+     */
+    @Builder.Default
+    private final ConfigFirestoreFactory firestoreFactory = new ConfigFirestoreFactoryDefault();
+}
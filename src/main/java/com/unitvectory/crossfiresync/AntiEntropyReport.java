@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The result of an AntiEntropyScanner run.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class AntiEntropyReport {
+
+    /**
+     * The documents that differ between the databases.
+     */
+    private final List<Divergence> divergences;
+
+    /**
+     * The number of documents read from the source database.
+     */
+    private final long sourceDocuments;
+
+    /**
+     * The number of documents read from the target database.
+     */
+    private final long targetDocuments;
+
+    /**
+     * The number of Merkle tree nodes compared.
+     */
+    private final long nodesCompared;
+
+    /**
+     * The number of divergent documents that were repaired.
+     */
+    private final long repaired;
+
+    /**
+     * Test if the databases are consistent.
+     *
+     * @return true if no documents differ
+     */
+    public boolean isConsistent() {
+        return this.divergences.isEmpty();
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.cloud.Timestamp;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import lombok.NonNull;
+
+/**
+ * This class is responsible for finding the documents that have diverged between two databases.
+ *
+ * A Merkle tree of the document content hashes is built for each collection group in both
+ * databases in parallel. The roots are compared and only the subtrees whose hashes differ are
+ * descended into, so the comparison is proportional to the amount of divergence rather than the
+ * number of documents. The leaves hold ranges of consecutive document paths and the trees only
+ * keep the hashes and the bounds of the ranges; when leaves differ only the ranges in those leaves
+ * are listed again from each database to find the divergent paths. The content hash
+ * excludes the crossfiresync attributes so documents that were replicated compare equal to the
+ * original.
+ *
+ * When repair is enabled the source document is written to the target database through the same
+ * stale-write guard used by PubSubChangeConsumer; documents missing in the source are deleted in
+ * single region primary mode but only reported in multi region primary mode where they may be new
+ * writes that have not replicated yet. As the databases are listed at different moments, a
+ * document is only deleted if it is still missing in the source and the target copy has not been
+ * written since the scan started, and the delete has a precondition on that update time.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class AntiEntropyScanner {
+
+    private static final Logger logger = Logger.getLogger(AntiEntropyScanner.class.getName());
+
+    private final ReplicationMode replicationMode;
+
+    private final List<String> collectionGroups;
+
+    private final int treeDepth;
+
+    private final int rangeSize;
+
+    private final int pageSize;
+
+    private final boolean repair;
+
+    private final CrossFireSyncFirestore source;
+
+    private final CrossFireSyncFirestore target;
+
+    private final FirestoreDocumentReplicator replicator;
+
+    private final boolean configured;
+
+    /**
+     * Create a new AntiEntropyScanner.
+     */
+    public AntiEntropyScanner() {
+        this(AntiEntropyConfig.builder().build());
+    }
+
+    /**
+     * Create a new AntiEntropyScanner.
+     *
+     * @param config the configuration
+     */
+    public AntiEntropyScanner(@NonNull AntiEntropyConfig config) {
+        this.replicationMode = config.getReplicationMode();
+        this.collectionGroups = config.getCollectionGroups();
+        this.treeDepth = config.getTreeDepth();
+        this.rangeSize = config.getRangeSize();
+        this.pageSize = config.getPageSize();
+        this.repair = config.isRepair();
+
+        CrossFireSyncFirestore sourceFirestore = null;
+        CrossFireSyncFirestore targetFirestore = null;
+        try {
+            sourceFirestore = config.getFirestoreFactory().getFirestore(ConfigFirestoreSettings
+                    .builder().databaseName(config.getSourceDatabaseName()).build());
+            targetFirestore = config.getFirestoreFactory().getFirestore(
+                    ConfigFirestoreSettings.builder().databaseName(config.getDatabaseName()).build());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to load CrossFireSyncFirestore.", e);
+            sourceFirestore = null;
+            targetFirestore = null;
+        }
+
+        this.source = sourceFirestore;
+        this.target = targetFirestore;
+        this.replicator = new FirestoreDocumentReplicator(this.replicationMode,
+                config.getSourceDatabaseName(), config.getDatabaseName(), this.target);
+
+        this.configured = isConfigured(config);
+    }
+
+    private boolean isConfigured(AntiEntropyConfig config) {
+        boolean valid = true;
+
+        if (config.getSourceDatabaseName() == null || config.getSourceDatabaseName().isBlank()) {
+            logger.severe("Source database name is not set.");
+            valid = false;
+        }
+
+        if (config.getDatabaseName() == null || config.getDatabaseName().isBlank()) {
+            logger.severe("Database name is not set.");
+            valid = false;
+        }
+
+        if (ReplicationMode.NONE.equals(this.replicationMode)) {
+            // Replication mode must be set to be used
+            logger.severe("ReplicationMode is not properly set.");
+            valid = false;
+        }
+
+        if (this.collectionGroups == null || this.collectionGroups.isEmpty()) {
+            logger.severe("Collection groups are not set.");
+            valid = false;
+        }
+
+        if (this.treeDepth < 0 || this.treeDepth > 20) {
+            logger.severe("Tree depth must be between 0 and 20.");
+            valid = false;
+        }
+
+        if (this.rangeSize <= 0) {
+            logger.severe("Range size must be positive.");
+            valid = false;
+        }
+
+        if (this.pageSize <= 0) {
+            logger.severe("Page size must be positive.");
+            valid = false;
+        }
+
+        if (this.source == null || this.target == null) {
+            logger.severe("CrossFireSyncFirestore is not set.");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Compare all of the configured collection groups.
+     *
+     * @return the report
+     */
+    public AntiEntropyReport run() {
+        if (!this.configured) {
+            logger.severe("Not configured, anti-entropy scan will not be performed.");
+            return AntiEntropyReport.builder().divergences(Collections.emptyList()).build();
+        }
+
+        List<Divergence> divergences = new ArrayList<>();
+        AtomicLong sourceDocuments = new AtomicLong();
+        AtomicLong targetDocuments = new AtomicLong();
+        long nodesCompared = 0;
+        long repaired = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (String collectionGroup : this.collectionGroups) {
+                // Documents written in the target after this may be changes not yet listed
+                Timestamp scanStart = this.target.now();
+
+                // Build both trees at the same time, each one only reads its own database
+                Future<MerkleTree> sourceTree = executor
+                        .submit(() -> buildTree(this.source, collectionGroup, sourceDocuments));
+                Future<MerkleTree> targetTree = executor
+                        .submit(() -> buildTree(this.target, collectionGroup, targetDocuments));
+
+                BitSet leaves = new BitSet();
+                MerkleTree sourceRanges = sourceTree.get();
+                MerkleTree targetRanges = targetTree.get();
+                nodesCompared += MerkleTree.compare(sourceRanges, targetRanges, leaves);
+
+                List<Divergence> found = new ArrayList<>();
+                if (!leaves.isEmpty()) {
+                    // Each database lists its own ranges in the leaves that differ
+                    Future<Map<String, Long>> sourceLeaves = executor.submit(() -> listLeaves(
+                            this.source, collectionGroup, sourceRanges, leaves));
+                    Future<Map<String, Long>> targetLeaves = executor.submit(() -> listLeaves(
+                            this.target, collectionGroup, targetRanges, leaves));
+                    MerkleTree.compareLeaves(sourceLeaves.get(), targetLeaves.get(), found::add);
+                }
+                logger.info("Found " + found.size() + " divergent documents in " + collectionGroup);
+
+                if (this.repair) {
+                    for (Divergence divergence : found) {
+                        if (repair(divergence, scanStart)) {
+                            repaired++;
+                        }
+                    }
+                }
+
+                divergences.addAll(found);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            logger.severe("Failed to build Merkle tree.");
+            throw new CrossFireSyncException("Failed to build Merkle tree.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return AntiEntropyReport.builder().divergences(Collections.unmodifiableList(divergences))
+                .sourceDocuments(sourceDocuments.get()).targetDocuments(targetDocuments.get())
+                .nodesCompared(nodesCompared).repaired(repaired).build();
+    }
+
+    private MerkleTree buildTree(CrossFireSyncFirestore firestore, String collectionGroup,
+            AtomicLong documents) {
+        MerkleTree tree = new MerkleTree(this.treeDepth, this.rangeSize);
+        list(firestore, collectionGroup, document -> {
+            documents.incrementAndGet();
+            if (isLive(document)) {
+                tree.add(document.getDocumentPath(),
+                        DocumentHasher.hashDocument(document.getData()));
+            } else {
+                tree.skip(document.getDocumentPath());
+            }
+        });
+        tree.seal();
+        return tree;
+    }
+
+    /**
+     * List the content hashes of the documents in the ranges of the leaves that differ.
+     */
+    private Map<String, Long> listLeaves(CrossFireSyncFirestore firestore,
+            String collectionGroup, MerkleTree tree, BitSet leaves) {
+        Map<String, Long> hashes = new HashMap<>();
+        for (MerkleTree.PathRange range : tree.getRanges(leaves)) {
+            listRange(firestore, collectionGroup, tree, range, document -> {
+                if (isLive(document)) {
+                    hashes.put(document.getDocumentPath(),
+                            DocumentHasher.hashDocument(document.getData()));
+                }
+            });
+        }
+        return hashes;
+    }
+
+    /**
+     * List the documents of a range, from the cursor before it until the start of the next range.
+     */
+    private void listRange(CrossFireSyncFirestore firestore, String collectionGroup,
+            MerkleTree tree, MerkleTree.PathRange range, Consumer<FirestoreDocument> consumer) {
+        String afterDocumentPath = range.getAfterDocumentPath();
+        int remaining = range.getDocuments();
+        while (true) {
+            // One more than the documents listed before to reach the start of the next range
+            int limit = Math.min(this.pageSize, Math.max(remaining, 0) + 1);
+            List<FirestoreDocument> page =
+                    firestore.listDocuments(collectionGroup, afterDocumentPath, limit);
+            for (FirestoreDocument document : page) {
+                String documentPath = document.getDocumentPath();
+                if (tree.isBoundary(documentPath)
+                        && !documentPath.equals(range.getStartDocumentPath())) {
+                    return;
+                }
+
+                afterDocumentPath = documentPath;
+                remaining--;
+                consumer.accept(document);
+            }
+
+            if (page.size() < limit) {
+                return;
+            }
+        }
+    }
+
+    private void list(CrossFireSyncFirestore firestore, String collectionGroup,
+            Consumer<FirestoreDocument> consumer) {
+        String afterDocumentPath = null;
+        while (true) {
+            List<FirestoreDocument> page =
+                    firestore.listDocuments(collectionGroup, afterDocumentPath, this.pageSize);
+            for (FirestoreDocument document : page) {
+                afterDocumentPath = document.getDocumentPath();
+                consumer.accept(document);
+            }
+
+            if (page.size() < this.pageSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Documents flagged for delete are treated as already deleted.
+     */
+    private static boolean isLive(FirestoreDocument document) {
+        return document.getData() != null
+                && !document.getData().containsKey(CrossFireSyncAttributes.DELETE_FIELD);
+    }
+
+    private boolean repair(Divergence divergence, Timestamp scanStart) {
+        switch (divergence.getType()) {
+            case MISSING_IN_TARGET:
+            case CONTENT_MISMATCH:
+                FirestoreDocument document = this.source.readDocument(divergence.getDocumentPath());
+                return document != null && this.replicator.replicate(document);
+            case MISSING_IN_SOURCE:
+                if (ReplicationMode.SINGLE_REGION_PRIMARY.equals(this.replicationMode)) {
+                    return deleteFromTarget(divergence.getDocumentPath(), scanStart);
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private boolean deleteFromTarget(String documentPath, Timestamp scanStart) {
+        // Created in the source after the source was listed
+        if (this.source.readDocument(documentPath) != null) {
+            return false;
+        }
+
+        // Written in the target since the scan started, such as a replicated change to a document
+        // created and deleted again in the source during the scan
+        FirestoreDocument document = this.target.readDocument(documentPath);
+        if (document == null || document.getUpdateTime() == null
+                || document.getUpdateTime().compareTo(scanStart) >= 0) {
+            return false;
+        }
+
+        // The precondition on the update time skips a document written after it was read
+        return this.target.bulkDelete(List.of(document), 0) == 1;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import com.google.cloud.Timestamp;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+
+/**
+ * The cursor positions of a catch-up sync stored in a local properties file.
+ *
+ * Each collection group has a timestamp and document path cursor. The file is replaced atomically
+ * each time it is saved so a crash leaves either the previous or the new checkpoint.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class CatchUpCheckpoint {
+
+    private final Path file;
+
+    private final Properties properties;
+
+    /**
+     * Create a new CatchUpCheckpoint; the file is loaded if it exists.
+     *
+     * @param file the checkpoint file; null keeps the checkpoint in memory only
+     */
+    CatchUpCheckpoint(Path file) {
+        this.file = file;
+        this.properties = new Properties();
+
+        if (file != null && Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                this.properties.load(in);
+            } catch (IOException e) {
+                throw new CrossFireSyncException("Failed to load checkpoint.", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the timestamp cursor for the collection group.
+     *
+     * @param collectionGroup the collection group
+     * @param defaultValue the value to use if there is no checkpoint
+     * @return the timestamp
+     */
+    Timestamp getTimestamp(String collectionGroup, Timestamp defaultValue) {
+        String seconds = this.properties.getProperty(collectionGroup + ".seconds");
+        String nanos = this.properties.getProperty(collectionGroup + ".nanos");
+        if (seconds == null || nanos == null) {
+            return defaultValue;
+        }
+
+        return Timestamp.ofTimeSecondsAndNanos(Long.parseLong(seconds), Integer.parseInt(nanos));
+    }
+
+    /**
+     * Gets the document path cursor for the collection group.
+     *
+     * @param collectionGroup the collection group
+     * @return the document path, or null if there is no checkpoint
+     */
+    String getDocumentPath(String collectionGroup) {
+        return this.properties.getProperty(collectionGroup + ".documentPath");
+    }
+
+    /**
+     * Updates the cursor for the collection group and saves the checkpoint.
+     *
+     * @param collectionGroup the collection group
+     * @param timestamp the timestamp of the last processed document
+     * @param documentPath the path of the last processed document
+     */
+    void update(String collectionGroup, Timestamp timestamp, String documentPath) {
+        this.properties.setProperty(collectionGroup + ".seconds",
+                Long.toString(timestamp.getSeconds()));
+        this.properties.setProperty(collectionGroup + ".nanos",
+                Integer.toString(timestamp.getNanos()));
+        this.properties.setProperty(collectionGroup + ".documentPath", documentPath);
+        save();
+    }
+
+    private void save() {
+        if (this.file == null) {
+            return;
+        }
+
+        try {
+            Path parent = this.file.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, this.file.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                this.properties.store(out, "crossfiresync catch-up checkpoint");
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to save checkpoint.", e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import com.google.cloud.Timestamp;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for CatchUpSync allows for customization.
+ *
+ * By default, the configuration will use the following environment variables:
+ *
+ * <ul>
+ * <li><b>REPLICATION_MODE</b>: The type of replication</li>
+ * <li><b>SOURCE_DATABASE</b>: The Firestore database name to read changes from</li>
+ * <li><b>DATABASE</b>: The Firestore database name to write changes to</li>
+ * <li><b>COLLECTION_GROUPS</b>: Comma separated collection group ids to catch up</li>
+ * <li><b>CHECKPOINT_FILE</b>: The local file the cursors are persisted to</li>
+ * <li><b>CATCH_UP_TIMESTAMP_FIELD</b>: The top level timestamp field used to find changed
+ * documents</li>
+ * </ul>
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class CatchUpConfig {
+
+    /**
+     * The type of replication
+     *
+     * Use the REPLICATION_MODE environment variable to set this value.
+     *
+     * @see ReplicationMode
+     */
+    @Builder.Default
+    private final ReplicationMode replicationMode =
+            ReplicationMode.parseFallbackToNone(System.getenv("REPLICATION_MODE"));
+
+    /**
+     * The Firestore database name changes are read from
+     *
+     * Use the SOURCE_DATABASE environment variable to set this value.
+     */
+    @Builder.Default
+    private final String sourceDatabaseName = System.getenv("SOURCE_DATABASE");
+
+    /**
+     * The Firestore database name changes are written to
+     *
+     * Use the DATABASE environment variable to set this value.
+     */
+    @Builder.Default
+    private final String databaseName = System.getenv("DATABASE");
+
+    /**
+     * The collection group ids to catch up
+     *
+     * Use the COLLECTION_GROUPS environment variable to set this value as a comma separated list.
+     */
+    @Builder.Default
+    private final List<String> collectionGroups =
+            ConfigValues.parseList(System.getenv("COLLECTION_GROUPS"));
+
+    /**
+     * The top level timestamp field used to find changed documents
+     *
+     * Use the CATCH_UP_TIMESTAMP_FIELD environment variable to set this value. Defaults to
+     * crossfiresync:timestamp which is only present on documents that have been replicated in
+     * multi region primary mode; use an application maintained updated-at field to also catch up
+     * documents written directly to the source database, which is required in single region
+     * primary mode. The field requires a collection group index ordered by the field and the
+     * document id.
+     */
+    @Builder.Default
+    private final String timestampField = ConfigValues.parseString(
+            System.getenv("CATCH_UP_TIMESTAMP_FIELD"), CrossFireSyncAttributes.TIMESTAMP_FIELD);
+
+    /**
+     * Documents updated after this time are caught up when there is no checkpoint
+     */
+    @Builder.Default
+    private final Timestamp since = Timestamp.MIN_VALUE;
+
+    /**
+     * The number of documents read per page
+     */
+    @Builder.Default
+    private final int pageSize = 500;
+
+    /**
+     * The local file the cursors are persisted to after each page
+     *
+     * Use the CHECKPOINT_FILE environment variable to set this value. When not set the cursors
+     * are only kept in memory and a restart begins again from the since timestamp.
+     */
+    @Builder.Default
+    private final String checkpointFile = System.getenv("CHECKPOINT_FILE");
+
+    /**
+     * The Firestore factory
+     *
+     * Implement the ConfigFirestoreFactory interface to create a custom factory to provide a
+     * customized Firestore instance.
+     */
+    @Builder.Default
+    private final ConfigFirestoreFactory firestoreFactory = new ConfigFirestoreFactoryDefault();
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.cloud.Timestamp;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import lombok.NonNull;
+
+/**
+ * This class is responsible for catching up a database that missed changes, such as after a
+ * consumer outage longer than the Pub/Sub retention.
+ *
+ * The documents in the source database updated after the checkpoint are read in pages ordered by
+ * the timestamp field and document path, so the time taken scales with the number of changed
+ * documents. Each document is written to the target database through the same stale-write guard
+ * used by PubSubChangeConsumer and the cursor is saved to the checkpoint file after every page so
+ * an interrupted run resumes where it left off.
+ *
+ * Deletes are not caught up as the source database has no record of deleted documents.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class CatchUpSync {
+
+    private static final Logger logger = Logger.getLogger(CatchUpSync.class.getName());
+
+    private final List<String> collectionGroups;
+
+    private final String timestampField;
+
+    private final Timestamp since;
+
+    private final int pageSize;
+
+    private final CrossFireSyncFirestore source;
+
+    private final FirestoreDocumentReplicator replicator;
+
+    private final CatchUpCheckpoint checkpoint;
+
+    private final boolean configured;
+
+    /**
+     * Create a new CatchUpSync.
+     */
+    public CatchUpSync() {
+        this(CatchUpConfig.builder().build());
+    }
+
+    /**
+     * Create a new CatchUpSync.
+     *
+     * @param config the configuration
+     */
+    public CatchUpSync(@NonNull CatchUpConfig config) {
+        this.collectionGroups = config.getCollectionGroups();
+        this.timestampField = config.getTimestampField();
+        this.since = config.getSince();
+        this.pageSize = config.getPageSize();
+
+        CrossFireSyncFirestore sourceFirestore = null;
+        CrossFireSyncFirestore targetFirestore = null;
+        try {
+            sourceFirestore = config.getFirestoreFactory().getFirestore(ConfigFirestoreSettings
+                    .builder().databaseName(config.getSourceDatabaseName()).build());
+            targetFirestore = config.getFirestoreFactory().getFirestore(
+                    ConfigFirestoreSettings.builder().databaseName(config.getDatabaseName()).build());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to load CrossFireSyncFirestore.", e);
+            sourceFirestore = null;
+            targetFirestore = null;
+        }
+
+        this.source = sourceFirestore;
+        this.replicator = new FirestoreDocumentReplicator(config.getReplicationMode(),
+                config.getSourceDatabaseName(), config.getDatabaseName(), targetFirestore);
+
+        String checkpointFile = config.getCheckpointFile();
+        this.checkpoint = new CatchUpCheckpoint(
+                checkpointFile == null || checkpointFile.isBlank() ? null : Path.of(checkpointFile));
+
+        this.configured = isConfigured(config, targetFirestore);
+    }
+
+    private boolean isConfigured(CatchUpConfig config, CrossFireSyncFirestore target) {
+        boolean valid = true;
+
+        if (config.getSourceDatabaseName() == null || config.getSourceDatabaseName().isBlank()) {
+            logger.severe("Source database name is not set.");
+            valid = false;
+        }
+
+        if (config.getDatabaseName() == null || config.getDatabaseName().isBlank()) {
+            logger.severe("Database name is not set.");
+            valid = false;
+        }
+
+        if (ReplicationMode.NONE.equals(config.getReplicationMode())) {
+            // Replication mode must be set to be used
+            logger.severe("ReplicationMode is not properly set.");
+            valid = false;
+        }
+
+        if (this.collectionGroups == null || this.collectionGroups.isEmpty()) {
+            logger.severe("Collection groups are not set.");
+            valid = false;
+        }
+
+        if (this.pageSize <= 0) {
+            logger.severe("Page size must be positive.");
+            valid = false;
+        }
+
+        if (this.source == null || target == null) {
+            logger.severe("CrossFireSyncFirestore is not set.");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Catch up all of the configured collection groups.
+     *
+     * @return the result
+     */
+    public CatchUpResult run() {
+        long pages = 0;
+        long documentsRead = 0;
+        long documentsReplicated = 0;
+
+        if (!this.configured) {
+            logger.severe("Not configured, catch-up will not be performed.");
+            return CatchUpResult.builder().build();
+        }
+
+        for (String collectionGroup : this.collectionGroups) {
+            Timestamp afterTimestamp = this.checkpoint.getTimestamp(collectionGroup, this.since);
+            String afterDocumentPath = this.checkpoint.getDocumentPath(collectionGroup);
+
+            while (true) {
+                List<FirestoreDocument> page = this.source.queryUpdatedAfter(collectionGroup,
+                        this.timestampField, afterTimestamp, afterDocumentPath, this.pageSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                pages++;
+                for (FirestoreDocument document : page) {
+                    documentsRead++;
+                    if (this.replicator.replicate(document)) {
+                        documentsReplicated++;
+                    }
+
+                    Object timestamp = document.getData() == null ? null
+                            : document.getData().get(this.timestampField);
+                    if (timestamp instanceof Timestamp) {
+                        afterTimestamp = (Timestamp) timestamp;
+                    }
+                    afterDocumentPath = document.getDocumentPath();
+                }
+
+                // The page has been applied, persist the cursor before reading the next page
+                this.checkpoint.update(collectionGroup, afterTimestamp, afterDocumentPath);
+                logger.info("Caught up " + page.size() + " documents in " + collectionGroup
+                        + " through " + afterTimestamp);
+
+                if (page.size() < this.pageSize) {
+                    break;
+                }
+            }
+        }
+
+        return CatchUpResult.builder().pages(pages).documentsRead(documentsRead)
+                .documentsReplicated(documentsReplicated).build();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Value;
+
+/**
+ * The digest of the documents in a top level collection.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+public class CollectionDigest {
+
+    /**
+     * The top level collection.
+     */
+    private final String collection;
+
+    /**
+     * The order independent digest of the document paths and content.
+     */
+    private final long digest;
+
+    /**
+     * The net number of documents added to the collection.
+     */
+    private final long count;
+}
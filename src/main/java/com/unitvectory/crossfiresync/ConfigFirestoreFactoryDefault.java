@@ -13,7 +13,6 @@
  */
 package com.unitvectory.crossfiresync;
 
-import com.google.cloud.firestore.FirestoreOptions;
 import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
 import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
 import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
@@ -27,7 +26,11 @@ class ConfigFirestoreFactoryDefault implements ConfigFirestoreFactory {
 
     @Override
     public CrossFireSyncFirestore getFirestore(ConfigFirestoreSettings settings) {
-        return new CrossFireSyncFirestoreDefault(FirestoreOptions.newBuilder()
-                .setDatabaseId(settings.getDatabaseName()).build().getService());
+        return new CrossFireSyncFirestoreDefault(
+                TransportOptions
+                        .firestoreOptions(settings.getDatabaseName(), settings.getTransport())
+                        .getService(),
+                settings.getTransactionMaxAttempts(), settings.getLockStripes(),
+                settings.getContentionTracker(), settings.getReferenceCacheSize());
     }
 }
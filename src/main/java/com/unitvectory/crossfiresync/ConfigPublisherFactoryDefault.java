@@ -14,11 +14,15 @@
 package com.unitvectory.crossfiresync;
 
 import java.io.IOException;
+import java.util.logging.Logger;
 import com.google.cloud.pubsub.v1.Publisher;
 import com.google.pubsub.v1.ProjectTopicName;
 import com.unitvectory.crossfiresync.pubsub.ConfigPublisherFactory;
 import com.unitvectory.crossfiresync.pubsub.ConfigPublisherSettings;
 import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.FlowController;
+import com.unitvectory.crossfiresync.pubsub.MessageSpool;
+import com.unitvectory.crossfiresync.pubsub.SpoolingPublish;
 
 /**
  * The default factory for the Publisher configuration.
@@ -27,11 +31,41 @@ import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
  */
 class ConfigPublisherFactoryDefault implements ConfigPublisherFactory {
 
+    private static final Logger logger =
+            Logger.getLogger(ConfigPublisherFactoryDefault.class.getName());
+
     @Override
     public CrossFireSyncPublish getPublisher(ConfigPublisherSettings settings) throws IOException {
+        Publisher publish = createPublisher(settings);
+        CrossFireSyncPublish crossFireSyncPublish = new CrossFireSyncPublishDefault(publish,
+                new FlowController(settings.getFlowControl()));
+        if (settings.getSpool() == null) {
+            return crossFireSyncPublish;
+        }
+
+        if (System.getenv("FUNCTION_TARGET") != null) {
+            // A spooled message is acknowledged, so it must not be lost with the instance
+            logger.severe("SPOOL_DIRECTORY is ignored on Cloud Functions, which have no "
+                    + "persistent disk for the spool.");
+            return crossFireSyncPublish;
+        }
+
+        return new SpoolingPublish(crossFireSyncPublish, new MessageSpool(settings.getSpool()),
+                settings.getSpool().getDrainIntervalMillis());
+    }
+
+    /**
+     * Create the Pub/Sub Publisher for the topic.
+     * 
+     * @param settings the settings
+     * @return the Publisher
+     * @throws IOException if the Publisher could not be created
+     */
+    Publisher createPublisher(ConfigPublisherSettings settings) throws IOException {
         ProjectTopicName topicName =
                 ProjectTopicName.of(settings.getProject(), settings.getTopic());
-        Publisher publish = Publisher.newBuilder(topicName).setEnableMessageOrdering(true).build();
-        return new CrossFireSyncPublishDefault(publish);
+        return TransportOptions
+                .publisherBuilder(topicName, settings.isMessageOrdering(), settings.getTransport())
+                .build();
     }
 }
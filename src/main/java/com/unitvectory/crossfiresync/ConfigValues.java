@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.experimental.UtilityClass;
+
+/**
+ * The ConfigValues utility class parses environment variable values for the configuration.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@UtilityClass
+class ConfigValues {
+
+    /**
+     * Parse a comma separated list, blank entries are ignored.
+     *
+     * @param value the value
+     * @return the list; empty if the value is null
+     */
+    public static List<String> parseList(String value) {
+        if (value == null || value.isBlank()) {
+            return Collections.emptyList();
+        }
+
+        List<String> list = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                list.add(item.trim());
+            }
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Parse an integer, but if the value is invalid the default will be used.
+     *
+     * @param value the value
+     * @param defaultValue the default value
+     * @return the integer
+     */
+    public static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parse a long, but if the value is invalid the default will be used.
+     *
+     * @param value the value
+     * @param defaultValue the default value
+     * @return the long
+     */
+    public static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parse a double, but if the value is invalid the default will be used.
+     *
+     * @param value the value
+     * @param defaultValue the default value
+     * @return the double
+     */
+    public static double parseDouble(String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parse a boolean, but if the value is not set the default will be used.
+     *
+     * @param value the value
+     * @param defaultValue the default value
+     * @return the boolean
+     */
+    public static boolean parseBoolean(String value, boolean defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Parse a string, but if the value is not set the default will be used.
+     *
+     * @param value the value
+     * @param defaultValue the default value
+     * @return the string
+     */
+    public static String parseString(String value, String defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+
+        return value.trim();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+/**
+ * Runs the PubSubChangeConsumer as a standalone executable, the entry point of the
+ * crossfiresync-consumer native executable.
+ * 
+ * The arguments are the options and event files of FunctionMain without the function.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ConsumerMain {
+
+    /**
+     * Run the PubSubChangeConsumer.
+     * 
+     * @param args the options and the event files
+     * @throws Exception if the function could not be started
+     */
+    public static void main(String[] args) throws Exception {
+        FunctionMain.run(FunctionMain.CONSUMER, args);
+    }
+}
@@ -16,12 +16,12 @@ package com.unitvectory.crossfiresync;
 import lombok.experimental.UtilityClass;
 
 /**
- * The CrossFireSyncAttributes class.
+ * The names of the attributes crossfiresync adds to replicated documents.
  * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 @UtilityClass
-class CrossFireSyncAttributes {
+public class CrossFireSyncAttributes {
 
     /**
      * Name of the timestamp attribute
@@ -37,4 +37,10 @@ class CrossFireSyncAttributes {
      * Name of the delete attribute
      */
     public static final String DELETE_FIELD = "crossfiresync:delete";
+
+    /**
+     * Name of the content hash attribute, only sent in the old value of the changes published by
+     * the ListenerPublisher which does not keep the other fields of the old value
+     */
+    public static final String CONTENT_HASH_FIELD = "crossfiresync:contenthash";
 }
@@ -13,25 +13,52 @@
  */
 package com.unitvectory.crossfiresync;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterOptions;
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.TransactionOptions;
+import com.google.cloud.firestore.WriteResult;
+import com.google.events.cloud.firestore.v1.Document;
 import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.CollectionGroupListener;
+import com.unitvectory.crossfiresync.firestore.ContentionTracker;
 import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
-import lombok.AllArgsConstructor;
+import com.unitvectory.crossfiresync.firestore.DocumentReferenceCache;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocumentChange;
+import com.unitvectory.crossfiresync.firestore.ReferenceCacheStats;
+import com.unitvectory.crossfiresync.retry.ErrorClassification;
+import com.unitvectory.crossfiresync.retry.ErrorClassifier;
 
 /**
  * The CrossFireSyncFirestore Default implementation.
  * 
+ * Transactions are serialized in process by document path using striped locks so concurrent
+ * changes to the same document never abort each other's transactions; only contention with other
+ * instances and regions remains, which is counted by the ContentionTracker.
+ * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
-@AllArgsConstructor
 class CrossFireSyncFirestoreDefault implements CrossFireSyncFirestore {
 
     private static final Logger logger =
@@ -39,6 +66,76 @@ class CrossFireSyncFirestoreDefault implements CrossFireSyncFirestore {
 
     private final Firestore db;
 
+    private final int transactionMaxAttempts;
+
+    private final TransactionOptions transactionOptions;
+
+    private final ReentrantLock[] locks;
+
+    private final ContentionTracker contentionTracker;
+
+    private final DocumentReferenceCache referenceCache;
+
+    private final Function<String, DocumentReference> referenceLoader = this::getDocument;
+
+    private DirectDocumentWriter directWriter;
+
+    /**
+     * Create a new CrossFireSyncFirestoreDefault with the default transaction settings.
+     * 
+     * @param db the Firestore instance
+     */
+    CrossFireSyncFirestoreDefault(Firestore db) {
+        this(db, 5, 64, null, 0);
+    }
+
+    /**
+     * Create a new CrossFireSyncFirestoreDefault.
+     * 
+     * @param db the Firestore instance
+     * @param transactionMaxAttempts the maximum number of attempts for each transaction
+     * @param lockStripes the number of locks transactions are striped across; 0 to not lock
+     * @param contentionTracker the tracker of aborted attempts; null to not track them
+     */
+    CrossFireSyncFirestoreDefault(Firestore db, int transactionMaxAttempts, int lockStripes,
+            ContentionTracker contentionTracker) {
+        this(db, transactionMaxAttempts, lockStripes, contentionTracker, 0);
+    }
+
+    /**
+     * Create a new CrossFireSyncFirestoreDefault.
+     * 
+     * @param db the Firestore instance
+     * @param transactionMaxAttempts the maximum number of attempts for each transaction
+     * @param lockStripes the number of locks transactions are striped across; 0 to not lock
+     * @param contentionTracker the tracker of aborted attempts; null to not track them
+     * @param referenceCacheSize the maximum number of referenced documents cached; 0 to not cache
+     */
+    CrossFireSyncFirestoreDefault(Firestore db, int transactionMaxAttempts, int lockStripes,
+            ContentionTracker contentionTracker, int referenceCacheSize) {
+        this.db = db;
+        this.transactionMaxAttempts = Math.max(1, transactionMaxAttempts);
+        this.transactionOptions = TransactionOptions.createReadWriteOptionsBuilder()
+                .setNumberOfAttempts(this.transactionMaxAttempts).build();
+        this.contentionTracker = contentionTracker;
+        this.referenceCache =
+                referenceCacheSize > 0 ? new DocumentReferenceCache(referenceCacheSize) : null;
+
+        if (lockStripes > 0) {
+            // Round up to a power of two so the stripe is selected with a mask
+            int stripes = Integer.highestOneBit(lockStripes);
+            if (stripes < lockStripes) {
+                stripes <<= 1;
+            }
+            this.locks = new ReentrantLock[stripes];
+            for (int i = 0; i < this.locks.length; i++) {
+                this.locks[i] = new ReentrantLock();
+            }
+        } else {
+            this.locks = null;
+        }
+    }
+
     @Override
     public DocumentReference getDocument(String documentPath) {
         try {
@@ -49,54 +146,94 @@ class CrossFireSyncFirestoreDefault implements CrossFireSyncFirestore {
         }
     }
 
+    @Override
+    public DocumentReference convert(String referenceValue, String documentPath) {
+        if (this.referenceCache == null) {
+            return getDocument(documentPath);
+        }
+
+        return this.referenceCache.get(documentPath, this.referenceLoader);
+    }
+
+    @Override
+    public ReferenceCacheStats getReferenceCacheStats() {
+        return this.referenceCache == null ? null : this.referenceCache.getStats();
+    }
+
     @Override
     public Timestamp now() {
         return Timestamp.now();
     }
 
     @Override
-    public void updateTransaction(DocumentReference documentReference, Timestamp updatedTime,
+    public boolean updateTransaction(DocumentReference documentReference, Timestamp updatedTime,
             Map<String, Object> record) {
-        ApiFuture<Void> transaction = db.runTransaction((Transaction.Function<Void>) t -> {
+        Transaction.Function<Boolean> update = t -> {
             // Attempt to retrieve the existing document
             DocumentSnapshot snapshot = t.get(documentReference).get();
 
-            boolean shouldWrite = false;
-            if (!snapshot.exists()) {
-                // Document does not exist
-                shouldWrite = true;
-            } else {
-                // Check if the timestamp is older or not present
-                Timestamp existingTimestamp =
-                        snapshot.contains(CrossFireSyncAttributes.TIMESTAMP_FIELD)
-                                ? snapshot.getTimestamp(CrossFireSyncAttributes.TIMESTAMP_FIELD)
-                                : null;
-                if (existingTimestamp == null || updatedTime.compareTo(existingTimestamp) > 0) {
-                    shouldWrite = true;
-                }
-            }
-
             // If conditions are met, proceed to write
-            if (shouldWrite) {
+            if (shouldWrite(snapshot, updatedTime)) {
                 t.set(documentReference, record);
+                return true;
+            } else {
+                return false;
             }
-
-            return null; // Transaction must return null if void
-        });
+        };
 
         // Wait for the transaction to complete
         try {
-            transaction.get();
+            return runTransaction(documentReference, update);
         } catch (Exception e) {
             logger.severe("Failed to update transaction: " + documentReference.getPath());
             throw new CrossFireSyncException("Failed to update transaction.", e);
         }
     }
 
+    @Override
+    public boolean writeDocument(DocumentReference documentReference, Timestamp updatedTime,
+            Document document, String sourceDatabase) {
+        String documentPath = documentReference.getPath();
+        DirectDocumentWriter writer = directWriter();
+        com.google.firestore.v1.Document update =
+                writer.toDocument(documentPath, document, sourceDatabase);
+
+        ReentrantLock lock = lock(documentPath);
+        try {
+            for (int attempt = 1;; attempt++) {
+                DocumentSnapshot snapshot = documentReference.get().get();
+                if (!shouldWrite(snapshot, updatedTime)) {
+                    recordContention(documentPath, attempt - 1);
+                    return false;
+                }
+
+                try {
+                    // The precondition fails if the document was written since it was checked
+                    writer.commit(update, snapshot.exists() ? snapshot.getUpdateTime() : null);
+                    recordContention(documentPath, attempt - 1);
+                    return true;
+                } catch (ApiException e) {
+                    String code = ErrorClassifier.statusCode(e);
+                    if (attempt >= this.transactionMaxAttempts
+                            || !("FAILED_PRECONDITION".equals(code)
+                                    || "ALREADY_EXISTS".equals(code))) {
+                        recordContention(documentPath, attempt);
+                        throw e;
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException | ApiException e) {
+            logger.severe("Failed to write document: " + documentPath);
+            throw new CrossFireSyncException("Failed to write document.", e);
+        } finally {
+            unlock(lock);
+        }
+    }
+
     @Override
     public boolean deleteFlagTransaction(DocumentReference documentReference,
             Map<String, Object> updates) {
-        ApiFuture<Boolean> transaction = db.runTransaction((Transaction.Function<Boolean>) t -> {
+        Transaction.Function<Boolean> deleteFlag = t -> {
             // Attempt to retrieve the existing document
             DocumentSnapshot snapshot = t.get(documentReference).get();
 
@@ -107,27 +244,347 @@ class CrossFireSyncFirestoreDefault implements CrossFireSyncFirestore {
             } else {
                 return false;
             }
-        });
+        };
 
         // Wait for the transaction to complete
         try {
-            return transaction.get();
+            return runTransaction(documentReference, deleteFlag);
         } catch (Exception e) {
             logger.severe("Failed to delete flag transaction: " + documentReference.getPath());
             throw new CrossFireSyncException("Failed to delete flag transaction.", e);
         }
     }
 
+    @Override
+    public boolean tombstoneTransaction(DocumentReference documentReference, Timestamp deletedTime,
+            Map<String, Object> tombstone) {
+        Transaction.Function<Boolean> write = t -> {
+            // Attempt to retrieve the existing document
+            DocumentSnapshot snapshot = t.get(documentReference).get();
+
+            // A write after the deleted version wins, as does an existing tombstone
+            if (snapshot.exists() && snapshot.contains(CrossFireSyncAttributes.TIMESTAMP_FIELD)) {
+                Timestamp existingTimestamp =
+                        snapshot.getTimestamp(CrossFireSyncAttributes.TIMESTAMP_FIELD);
+                int compare = existingTimestamp == null ? -1
+                        : existingTimestamp.compareTo(deletedTime);
+                if (compare > 0 || (compare == 0
+                        && snapshot.contains(CrossFireSyncAttributes.DELETE_FIELD))) {
+                    return false;
+                }
+            }
+
+            t.set(documentReference, tombstone);
+            return true;
+        };
+
+        // Wait for the transaction to complete
+        try {
+            return runTransaction(documentReference, write);
+        } catch (Exception e) {
+            logger.severe("Failed to tombstone transaction: " + documentReference.getPath());
+            throw new CrossFireSyncException("Failed to tombstone transaction.", e);
+        }
+    }
+
+    @Override
+    public boolean deleteWithPrecondition(DocumentReference documentReference,
+            Timestamp deleteTimestamp) {
+        String documentPath = documentReference.getPath();
+        ReentrantLock lock = lock(documentPath);
+        try {
+            for (int attempt = 1;; attempt++) {
+                DocumentSnapshot snapshot = documentReference.get().get();
+                if (!snapshot.exists()) {
+                    return false;
+                }
+
+                // A write newer than the delete wins
+                Timestamp existingTimestamp =
+                        snapshot.contains(CrossFireSyncAttributes.TIMESTAMP_FIELD)
+                                ? snapshot.getTimestamp(CrossFireSyncAttributes.TIMESTAMP_FIELD)
+                                : null;
+                if (existingTimestamp != null && existingTimestamp.compareTo(deleteTimestamp) > 0) {
+                    return false;
+                }
+
+                try {
+                    // The precondition fails if the document was written since it was checked
+                    documentReference.delete(Precondition.updatedAt(snapshot.getUpdateTime()))
+                            .get();
+                    recordContention(documentPath, attempt - 1);
+                    return true;
+                } catch (ExecutionException e) {
+                    if (attempt >= this.transactionMaxAttempts
+                            || !"FAILED_PRECONDITION".equals(ErrorClassifier.statusCode(e))) {
+                        recordContention(documentPath, attempt);
+                        throw e;
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            logger.severe("Failed to delete document with precondition: " + documentPath);
+            throw new CrossFireSyncException("Failed to delete document with precondition.", e);
+        } finally {
+            unlock(lock);
+        }
+    }
+
     @Override
     public void deleteDocument(String documentPath) {
         DocumentReference documentReference = this.db.document(documentPath);
         try {
             documentReference.delete().get();
-            logger.info("Deleted: "
-                    + DocumentResourceNameUtil.getDocumentPath(documentReference.getId()));
+            logger.fine(() -> "Deleted: " + documentPath);
         } catch (InterruptedException | ExecutionException e) {
             logger.severe("Failed to delete document: " + documentPath);
             throw new CrossFireSyncException("Failed to delete document.", e);
         }
     }
+
+    @Override
+    public List<FirestoreDocument> queryUpdatedAfter(String collectionGroup,
+            String timestampField, Timestamp afterTimestamp, String afterDocumentPath,
+            int limit) {
+        Query query = this.db.collectionGroup(collectionGroup)
+                .orderBy(FieldPath.of(timestampField)).orderBy(FieldPath.documentId());
+
+        // Ties on the timestamp are broken by the document path so paging never skips documents
+        if (afterDocumentPath != null) {
+            query = query.startAfter(afterTimestamp, this.db.document(afterDocumentPath));
+        } else {
+            query = query.startAfter(afterTimestamp);
+        }
+
+        try {
+            return toFirestoreDocuments(query.limit(limit).get().get().getDocuments());
+        } catch (InterruptedException | ExecutionException e) {
+            logger.severe("Failed to query collection group: " + collectionGroup);
+            throw new CrossFireSyncException("Failed to query collection group.", e);
+        }
+    }
+
+    @Override
+    public List<FirestoreDocument> listDocuments(String collectionGroup, String afterDocumentPath,
+            int limit) {
+        Query query = this.db.collectionGroup(collectionGroup).orderBy(FieldPath.documentId());
+        if (afterDocumentPath != null) {
+            query = query.startAfter(this.db.document(afterDocumentPath));
+        }
+
+        try {
+            return toFirestoreDocuments(query.limit(limit).get().get().getDocuments());
+        } catch (InterruptedException | ExecutionException e) {
+            logger.severe("Failed to list collection group: " + collectionGroup);
+            throw new CrossFireSyncException("Failed to list collection group.", e);
+        }
+    }
+
+    @Override
+    public List<FirestoreDocument> queryFlaggedForDelete(String collectionGroup,
+            Timestamp flaggedBefore, Timestamp afterTimestamp, String afterDocumentPath,
+            int limit) {
+        FieldPath timestampField = FieldPath.of(CrossFireSyncAttributes.TIMESTAMP_FIELD);
+        Query query = this.db.collectionGroup(collectionGroup)
+                .whereEqualTo(FieldPath.of(CrossFireSyncAttributes.DELETE_FIELD), true)
+                .whereLessThan(timestampField, flaggedBefore).orderBy(timestampField)
+                .orderBy(FieldPath.documentId());
+
+        if (afterTimestamp != null && afterDocumentPath != null) {
+            query = query.startAfter(afterTimestamp, this.db.document(afterDocumentPath));
+        } else if (afterTimestamp != null) {
+            query = query.startAfter(afterTimestamp);
+        }
+
+        try {
+            return toFirestoreDocuments(query.limit(limit).get().get().getDocuments());
+        } catch (InterruptedException | ExecutionException e) {
+            logger.severe("Failed to query flagged documents: " + collectionGroup);
+            throw new CrossFireSyncException("Failed to query flagged documents.", e);
+        }
+    }
+
+    @Override
+    public int bulkDelete(List<FirestoreDocument> documents, int maxOpsPerSecond) {
+        BulkWriterOptions.Builder options = BulkWriterOptions.builder();
+        if (maxOpsPerSecond > 0) {
+            options.setInitialOpsPerSecond(maxOpsPerSecond).setMaxOpsPerSecond(maxOpsPerSecond);
+        }
+
+        List<ApiFuture<WriteResult>> deletes = new ArrayList<>(documents.size());
+        BulkWriter bulkWriter = this.db.bulkWriter(options.build());
+        try {
+            for (FirestoreDocument document : documents) {
+                // The precondition skips documents that were written since they were read
+                deletes.add(bulkWriter.delete(this.db.document(document.getDocumentPath()),
+                        Precondition.updatedAt(document.getUpdateTime())));
+            }
+        } finally {
+            bulkWriter.close();
+        }
+
+        int deleted = 0;
+        for (int i = 0; i < deletes.size(); i++) {
+            try {
+                deletes.get(i).get();
+                deleted++;
+            } catch (ExecutionException e) {
+                if (!"FAILED_PRECONDITION".equals(ErrorClassifier.statusCode(e))) {
+                    logger.warning("Failed to delete document: "
+                            + documents.get(i).getDocumentPath() + " " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CrossFireSyncException("Interrupted while deleting documents.", e);
+            }
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public FirestoreDocument readDocument(String documentPath) {
+        try {
+            DocumentSnapshot snapshot = this.db.document(documentPath).get().get();
+            if (!snapshot.exists()) {
+                return null;
+            }
+
+            return FirestoreDocument.builder().documentPath(documentPath)
+                    .data(snapshot.getData()).updateTime(snapshot.getUpdateTime()).build();
+        } catch (InterruptedException | ExecutionException e) {
+            logger.severe("Failed to read document: " + documentPath);
+            throw new CrossFireSyncException("Failed to read document.", e);
+        }
+    }
+
+    @Override
+    public ListenerRegistration listen(String collectionGroup, CollectionGroupListener listener) {
+        return this.db.collectionGroup(collectionGroup).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                logger.warning("Listener failed for collection group: " + collectionGroup + " "
+                        + error.getMessage());
+                listener.onError(error);
+                return;
+            }
+
+            List<FirestoreDocumentChange> changes =
+                    new ArrayList<>(snapshot.getDocumentChanges().size());
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                QueryDocumentSnapshot document = change.getDocument();
+                changes.add(FirestoreDocumentChange.builder()
+                        .type(FirestoreDocumentChange.Type.valueOf(change.getType().name()))
+                        .document(FirestoreDocument.builder()
+                                .documentPath(document.getReference().getPath())
+                                .data(document.getData()).updateTime(document.getUpdateTime())
+                                .build())
+                        .build());
+            }
+            listener.onSnapshot(snapshot.getReadTime(), changes);
+        });
+    }
+
+    /**
+     * Run a transaction on a document holding the in-process lock for the document and record the
+     * aborted attempts.
+     * 
+     * @param <T> the result type
+     * @param documentReference the document the transaction is for
+     * @param function the transaction
+     * @return the result of the transaction
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException if the transaction failed
+     */
+    private <T> T runTransaction(DocumentReference documentReference,
+            Transaction.Function<T> function) throws InterruptedException, ExecutionException {
+        String documentPath = documentReference.getPath();
+        AtomicInteger attempts = new AtomicInteger();
+        ReentrantLock lock = lock(documentPath);
+
+        try {
+            ApiFuture<T> transaction = this.db.runTransaction((Transaction.Function<T>) t -> {
+                attempts.incrementAndGet();
+                return function.updateCallback(t);
+            }, this.transactionOptions);
+
+            T result = transaction.get();
+            recordContention(documentPath, attempts.get() - 1);
+            return result;
+        } catch (ExecutionException e) {
+            // Every attempt but the last was aborted, the last was too if it failed as aborted
+            int aborted = Math.max(0, attempts.get() - 1);
+            if (ErrorClassification.CONTENTION.equals(ErrorClassifier.classify(e))) {
+                aborted++;
+            }
+            recordContention(documentPath, aborted);
+            throw e;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Test if a replicated change should be written over the existing document.
+     * 
+     * @param snapshot the existing document
+     * @param updatedTime the updated time of the change
+     * @return true if the document does not exist or has an older or no crossfiresync timestamp
+     */
+    private static boolean shouldWrite(DocumentSnapshot snapshot, Timestamp updatedTime) {
+        if (!snapshot.exists()) {
+            return true;
+        }
+
+        Timestamp existingTimestamp = snapshot.contains(CrossFireSyncAttributes.TIMESTAMP_FIELD)
+                ? snapshot.getTimestamp(CrossFireSyncAttributes.TIMESTAMP_FIELD)
+                : null;
+        return existingTimestamp == null || updatedTime.compareTo(existingTimestamp) > 0;
+    }
+
+    private synchronized DirectDocumentWriter directWriter() {
+        if (this.directWriter == null) {
+            this.directWriter = new DirectDocumentWriter(this.db.getOptions());
+        }
+        return this.directWriter;
+    }
+
+    /**
+     * Acquire the in-process lock for a document.
+     * 
+     * @param documentPath the document path
+     * @return the lock; null if locking is disabled
+     */
+    private ReentrantLock lock(String documentPath) {
+        if (this.locks == null) {
+            return null;
+        }
+
+        ReentrantLock lock =
+                this.locks[(int) DocumentHasher.hashString(documentPath) & (this.locks.length - 1)];
+        lock.lock();
+        return lock;
+    }
+
+    private static void unlock(ReentrantLock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    private void recordContention(String documentPath, int aborted) {
+        if (this.contentionTracker != null) {
+            this.contentionTracker.record(documentPath, aborted);
+        }
+    }
+
+    private static List<FirestoreDocument> toFirestoreDocuments(
+            List<QueryDocumentSnapshot> snapshots) {
+        List<FirestoreDocument> documents = new ArrayList<>(snapshots.size());
+        for (QueryDocumentSnapshot snapshot : snapshots) {
+            documents.add(FirestoreDocument.builder()
+                    .documentPath(snapshot.getReference().getPath()).data(snapshot.getData())
+                    .updateTime(snapshot.getUpdateTime()).build());
+        }
+        return documents;
+    }
 }
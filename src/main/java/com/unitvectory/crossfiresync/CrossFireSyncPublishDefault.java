@@ -13,17 +13,31 @@
  */
 package com.unitvectory.crossfiresync;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.pubsub.v1.Publisher;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Timestamp;
 import com.google.pubsub.v1.PubsubMessage;
 import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
 import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.FlowControlSettings;
+import com.unitvectory.crossfiresync.pubsub.FlowControlStats;
+import com.unitvectory.crossfiresync.pubsub.FlowController;
 import lombok.AllArgsConstructor;
 
 /**
  * The CrossFireSyncPublish Default implementation
  * 
+ * Each message holds capacity in the FlowController until Pub/Sub acknowledges it. When waiting
+ * changes are shed, the order of each change is read from the update time of the document in the
+ * Firestore event of the message.
+ * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 @AllArgsConstructor
@@ -34,24 +48,149 @@ class CrossFireSyncPublishDefault implements CrossFireSyncPublish {
 
     private final Publisher publisher;
 
+    private final FlowController flowController;
+
+    /**
+     * Create a new CrossFireSyncPublishDefault without limits on the outstanding messages.
+     * 
+     * @param publisher the publisher
+     */
+    CrossFireSyncPublishDefault(Publisher publisher) {
+        this(publisher, new FlowController(FlowControlSettings.NONE));
+    }
+
     /**
      * Publish the message to Pub/Sub
      * 
      * @param message the message
+     * @return the message ID; SUPERSEDED if a newer change to the document replaced it
      */
     @Override
     public String publishMessage(PubsubMessage message) {
+        int size = message.getSerializedSize();
+        long changeOrder = this.flowController.isShedding() ? changeOrder(message)
+                : FlowController.ARRIVAL_ORDER;
+        if (!this.flowController.acquire(message.getOrderingKey(), changeOrder, size)) {
+            logger.fine(() -> "Superseded by a newer change, not published: "
+                    + message.getOrderingKey());
+            return SUPERSEDED;
+        }
+
         try {
             ApiFuture<String> future = publisher.publish(message);
             publisher.publishAllOutstanding();
             String messageId = future.get();
 
             // Wait on the future to ensure message is sent
-            logger.fine("Published " + message.getOrderingKey() + " with message ID: " + messageId);
+            logger.fine(() -> "Published " + message.getOrderingKey() + " with message ID: "
+                    + messageId);
             return messageId;
         } catch (Exception e) {
             logger.severe("Failed to publish message: " + message.getOrderingKey());
+
+            // The failure paused the ordering key, so later changes to the document would fail
+            resumePublish(message.getOrderingKey());
             throw new CrossFireSyncException("Failed to publish message.", e);
+        } finally {
+            this.flowController.release(size);
         }
     }
+
+    /**
+     * Publish the message to Pub/Sub without waiting for it; the message is sent with the batch it
+     * is added to, or when flush() is called.
+     * 
+     * @param message the message
+     * @return the future of the message ID; SUPERSEDED if a newer change to the document replaced
+     *         it
+     */
+    @Override
+    public CompletableFuture<String> publishMessageAsync(PubsubMessage message) {
+        int size = message.getSerializedSize();
+        long changeOrder = this.flowController.isShedding() ? changeOrder(message)
+                : FlowController.ARRIVAL_ORDER;
+        if (!this.flowController.acquire(message.getOrderingKey(), changeOrder, size)) {
+            logger.fine(() -> "Superseded by a newer change, not published: "
+                    + message.getOrderingKey());
+            return CompletableFuture.completedFuture(SUPERSEDED);
+        }
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        ApiFuture<String> future;
+        try {
+            future = publisher.publish(message);
+        } catch (RuntimeException e) {
+            this.flowController.release(size);
+            result.completeExceptionally(
+                    new CrossFireSyncException("Failed to publish message.", e));
+            return result;
+        }
+
+        ApiFutures.addCallback(future, new ApiFutureCallback<String>() {
+            @Override
+            public void onSuccess(String messageId) {
+                flowController.release(size);
+                logger.fine(() -> "Published " + message.getOrderingKey() + " with message ID: "
+                        + messageId);
+                result.complete(messageId);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                flowController.release(size);
+                logger.severe("Failed to publish message: " + message.getOrderingKey());
+
+                // The failure paused the ordering key, so later changes to the document would fail
+                resumePublish(message.getOrderingKey());
+                result.completeExceptionally(
+                        new CrossFireSyncException("Failed to publish message.", t));
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    @Override
+    public void flush() {
+        publisher.publishAllOutstanding();
+    }
+
+    @Override
+    public void resumePublish(String orderingKey) {
+        if (orderingKey != null && !orderingKey.isEmpty()) {
+            publisher.resumePublish(orderingKey);
+        }
+    }
+
+    /**
+     * Gets the order of the change in a message: the update time of the document in nanoseconds,
+     * doubled so a delete, which has the update time of the version it deleted, comes after that
+     * version.
+     * 
+     * @param message the message of a Firestore event
+     * @return the order; ARRIVAL_ORDER if the message is not a Firestore event with a document
+     */
+    static long changeOrder(PubsubMessage message) {
+        DocumentEventData event;
+        try {
+            event = DocumentEventData.parseFrom(message.getData());
+        } catch (InvalidProtocolBufferException e) {
+            return FlowController.ARRIVAL_ORDER;
+        }
+
+        if (event.hasValue() && event.getValue().hasUpdateTime()) {
+            return nanos(event.getValue().getUpdateTime()) * 2;
+        } else if (event.hasOldValue() && event.getOldValue().hasUpdateTime()) {
+            return nanos(event.getOldValue().getUpdateTime()) * 2 + 1;
+        }
+        return FlowController.ARRIVAL_ORDER;
+    }
+
+    private static long nanos(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000_000L + timestamp.getNanos();
+    }
+
+    @Override
+    public FlowControlStats getFlowControlStats() {
+        return this.flowController.isEnabled() ? this.flowController.getStats() : null;
+    }
 }
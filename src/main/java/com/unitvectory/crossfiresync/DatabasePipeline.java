@@ -0,0 +1,203 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The publisher and consumer of one database in a MultiDatabaseRuntime.
+ * 
+ * The events of the database are limited to a number processed at once, so a burst of changes to
+ * one database waits or is redelivered instead of occupying every thread and shared client of the
+ * process. A failure only fails the event that caused it.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class DatabasePipeline {
+
+    private static final Logger logger = Logger.getLogger(DatabasePipeline.class.getName());
+
+    @Getter
+    private final String database;
+
+    @Getter
+    private final FirestoreChangePublisher publisher;
+
+    @Getter
+    private final PubSubChangeConsumer consumer;
+
+    private final int maxConcurrentEvents;
+
+    private final long acquireTimeoutMillis;
+
+    private final Semaphore permits;
+
+    private long publishedEvents;
+
+    private long consumedEvents;
+
+    private long failures;
+
+    private long rejected;
+
+    /**
+     * Create a new DatabasePipeline.
+     * 
+     * @param database the database name
+     * @param publisher the publisher; null if the database is not published
+     * @param consumer the consumer; null if the database is not consumed
+     * @param maxConcurrentEvents the maximum events processed at once; 0 for no limit
+     * @param acquireTimeoutMillis how long an event waits to be processed
+     */
+    DatabasePipeline(@NonNull String database, FirestoreChangePublisher publisher,
+            PubSubChangeConsumer consumer, int maxConcurrentEvents, long acquireTimeoutMillis) {
+        this.database = database;
+        this.publisher = publisher;
+        this.consumer = consumer;
+        this.maxConcurrentEvents = Math.max(0, maxConcurrentEvents);
+        this.acquireTimeoutMillis = Math.max(0, acquireTimeoutMillis);
+        this.permits = this.maxConcurrentEvents > 0 ? new Semaphore(this.maxConcurrentEvents)
+                : null;
+    }
+
+    /**
+     * Publish a Firestore event of the database.
+     * 
+     * @param firestoreEventData the Firestore event
+     * @param data the raw data
+     * @param eventId the ID of the CloudEvent; null if not known
+     */
+    void publish(DocumentEventData firestoreEventData, byte[] data, String eventId) {
+        if (this.publisher == null) {
+            throw new CrossFireSyncException(
+                    "Database " + this.database + " has no publisher.", null);
+        }
+
+        acquire();
+        try {
+            this.publisher.process(firestoreEventData, data, eventId);
+            synchronized (this) {
+                this.publishedEvents++;
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                this.failures++;
+            }
+            throw e;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Apply a Pub/Sub message to the database.
+     * 
+     * @param data the Pub/Sub message
+     * @throws InvalidProtocolBufferException if the message is not a valid Firestore event
+     */
+    void consume(PubSubPublish data) throws InvalidProtocolBufferException {
+        if (this.consumer == null) {
+            throw new CrossFireSyncException(
+                    "Database " + this.database + " has no consumer.", null);
+        }
+
+        acquire();
+        try {
+            this.consumer.process(data);
+            synchronized (this) {
+                this.consumedEvents++;
+            }
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            synchronized (this) {
+                this.failures++;
+            }
+            throw e;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Gets the statistics of the pipeline.
+     * 
+     * @return the statistics
+     */
+    synchronized DatabasePipelineStats getStats() {
+        return DatabasePipelineStats.builder().database(this.database)
+                .publishedEvents(this.publishedEvents).consumedEvents(this.consumedEvents)
+                .failures(this.failures).rejected(this.rejected)
+                .inFlight(this.permits == null ? 0
+                        : this.maxConcurrentEvents - this.permits.availablePermits())
+                .maxConcurrentEvents(this.maxConcurrentEvents).build();
+    }
+
+    /**
+     * Close the publisher and consumer, saving their state. A failure to close one is logged so
+     * the other is still closed.
+     */
+    void close() {
+        if (this.publisher != null) {
+            try {
+                this.publisher.close();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to close the publisher of " + this.database, e);
+            }
+        }
+        if (this.consumer != null) {
+            try {
+                this.consumer.close();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to close the consumer of " + this.database, e);
+            }
+        }
+    }
+
+    private void acquire() {
+        if (this.permits == null) {
+            return;
+        }
+
+        boolean acquired;
+        try {
+            acquired = this.permits.tryAcquire(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CrossFireSyncException("Interrupted waiting for database " + this.database,
+                    e);
+        }
+
+        if (!acquired) {
+            synchronized (this) {
+                this.rejected++;
+            }
+            throw new CrossFireSyncException(
+                    "Database " + this.database + " is at its concurrency limit.", null);
+        }
+    }
+
+    private void release() {
+        if (this.permits != null) {
+            this.permits.release();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of the pipelines of one database in a MultiDatabaseRuntime.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class DatabasePipelineStats {
+
+    /**
+     * The database name.
+     */
+    private final String database;
+
+    /**
+     * The number of Firestore events processed by the publisher of the database.
+     */
+    private final long publishedEvents;
+
+    /**
+     * The number of Pub/Sub messages processed by the consumer of the database.
+     */
+    private final long consumedEvents;
+
+    /**
+     * The number of events that failed so they are redelivered.
+     */
+    private final long failures;
+
+    /**
+     * The number of events rejected as the database was at its concurrency limit.
+     */
+    private final long rejected;
+
+    /**
+     * The number of events being processed.
+     */
+    private final int inFlight;
+
+    /**
+     * The maximum number of events processed at once; 0 for no limit.
+     */
+    private final int maxConcurrentEvents;
+}
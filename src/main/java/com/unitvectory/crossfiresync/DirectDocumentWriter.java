@@ -0,0 +1,193 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.Map;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.spi.v1.FirestoreRpc;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.firestore.v1.ArrayValue;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.MapValue;
+import com.google.firestore.v1.Precondition;
+import com.google.firestore.v1.Write;
+
+/**
+ * Writes replicated documents by copying the field values of the change straight into a commit
+ * request, without converting them to a map and back.
+ *
+ * The Document of a Firestore event has the same fields as the Firestore API Document, so each
+ * value is copied to the API type as it is, sharing the timestamp, bytes, and geo point messages.
+ * Only the resource names of reference values are rewritten for the target database and the
+ * crossfiresync attributes are added.
+ *
+ * The commit is sent with the RPC service of the Firestore instance, so it uses the same channel,
+ * endpoint, emulator host, credentials, and transport settings and is closed with it.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class DirectDocumentWriter {
+
+    private static final String DOCUMENTS_SEGMENT = "/documents/";
+
+    private final FirestoreRpc rpc;
+
+    private final String databaseName;
+
+    private final String documentsPrefix;
+
+    /**
+     * Create a new DirectDocumentWriter.
+     *
+     * @param options the options of the Firestore instance written to
+     */
+    DirectDocumentWriter(FirestoreOptions options) {
+        this.rpc = options.getFirestoreRpc();
+        this.databaseName =
+                "projects/" + options.getProjectId() + "/databases/" + options.getDatabaseId();
+        this.documentsPrefix = this.databaseName + DOCUMENTS_SEGMENT;
+    }
+
+    /**
+     * Build the document to write for a replicated change.
+     *
+     * @param documentPath the document path
+     * @param document the document from the change
+     * @param sourceDatabase the database the change came from; null to not add the crossfiresync
+     *        attributes
+     * @return the document to write
+     */
+    com.google.firestore.v1.Document toDocument(String documentPath, Document document,
+            String sourceDatabase) {
+        return toDocument(this.documentsPrefix, documentPath, document, sourceDatabase);
+    }
+
+    /**
+     * Commit a document only if it was not written since it was read.
+     *
+     * @param update the document to write
+     * @param existingUpdateTime the update time of the document that was read; null if it did not
+     *        exist
+     */
+    void commit(com.google.firestore.v1.Document update, Timestamp existingUpdateTime) {
+        Precondition precondition = existingUpdateTime == null
+                ? Precondition.newBuilder().setExists(false).build()
+                : Precondition.newBuilder().setUpdateTime(existingUpdateTime.toProto()).build();
+
+        this.rpc.commitCallable().call(CommitRequest.newBuilder().setDatabase(this.databaseName)
+                .addWrites(Write.newBuilder().setUpdate(update).setCurrentDocument(precondition))
+                .build());
+    }
+
+    /**
+     * Build the document to write for a replicated change.
+     *
+     * @param documentsPrefix the resource name prefix of the documents in the target database
+     * @param documentPath the document path
+     * @param document the document from the change
+     * @param sourceDatabase the database the change came from; null to not add the crossfiresync
+     *        attributes
+     * @return the document to write
+     */
+    static com.google.firestore.v1.Document toDocument(String documentsPrefix,
+            String documentPath, Document document, String sourceDatabase) {
+        // The times are set by the server and the name is the target database's
+        com.google.firestore.v1.Document.Builder builder = com.google.firestore.v1.Document
+                .newBuilder().setName(documentsPrefix + documentPath);
+
+        for (Map.Entry<String, Value> entry : document.getFieldsMap().entrySet()) {
+            builder.putFields(entry.getKey(), toValue(entry.getValue(), documentsPrefix));
+        }
+
+        if (sourceDatabase != null) {
+            builder.putFields(CrossFireSyncAttributes.TIMESTAMP_FIELD,
+                    com.google.firestore.v1.Value.newBuilder()
+                            .setTimestampValue(document.getUpdateTime()).build());
+            builder.putFields(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD,
+                    com.google.firestore.v1.Value.newBuilder().setStringValue(sourceDatabase)
+                            .build());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Copy a value of a change to the Firestore API type, pointing its references at the target
+     * database.
+     *
+     * @param value the value of the change
+     * @param documentsPrefix the resource name prefix of the documents in the target database
+     * @return the value to write
+     */
+    static com.google.firestore.v1.Value toValue(Value value, String documentsPrefix) {
+        com.google.firestore.v1.Value.Builder builder = com.google.firestore.v1.Value.newBuilder();
+        switch (value.getValueTypeCase()) {
+            case NULL_VALUE:
+                return builder.setNullValue(value.getNullValue()).build();
+            case BOOLEAN_VALUE:
+                return builder.setBooleanValue(value.getBooleanValue()).build();
+            case INTEGER_VALUE:
+                return builder.setIntegerValue(value.getIntegerValue()).build();
+            case DOUBLE_VALUE:
+                return builder.setDoubleValue(value.getDoubleValue()).build();
+            case TIMESTAMP_VALUE:
+                return builder.setTimestampValue(value.getTimestampValue()).build();
+            case STRING_VALUE:
+                return builder.setStringValue(value.getStringValue()).build();
+            case BYTES_VALUE:
+                return builder.setBytesValue(value.getBytesValue()).build();
+            case GEO_POINT_VALUE:
+                return builder.setGeoPointValue(value.getGeoPointValue()).build();
+            case REFERENCE_VALUE:
+                return builder
+                        .setReferenceValue(
+                                rewriteReference(value.getReferenceValue(), documentsPrefix))
+                        .build();
+            case ARRAY_VALUE:
+                ArrayValue.Builder arrayValue = ArrayValue.newBuilder();
+                for (Value item : value.getArrayValue().getValuesList()) {
+                    arrayValue.addValues(toValue(item, documentsPrefix));
+                }
+                return builder.setArrayValue(arrayValue).build();
+            case MAP_VALUE:
+                MapValue.Builder mapValue = MapValue.newBuilder();
+                for (Map.Entry<String, Value> entry : value.getMapValue().getFieldsMap()
+                        .entrySet()) {
+                    mapValue.putFields(entry.getKey(), toValue(entry.getValue(), documentsPrefix));
+                }
+                return builder.setMapValue(mapValue).build();
+            default:
+                return builder.build();
+        }
+    }
+
+    /**
+     * Point a reference at the target database.
+     *
+     * @param referenceValue the resource name of the referenced document
+     * @param documentsPrefix the resource name prefix of the documents in the target database
+     * @return the resource name in the target database
+     */
+    static String rewriteReference(String referenceValue, String documentsPrefix) {
+        if (referenceValue.startsWith(documentsPrefix)) {
+            return referenceValue;
+        }
+        int documents = referenceValue.indexOf(DOCUMENTS_SEGMENT);
+        String documentPath = documents < 0 ? referenceValue
+                : referenceValue.substring(documents + DOCUMENTS_SEGMENT.length());
+        return documentsPrefix + documentPath;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Value;
+
+/**
+ * A document that differs between the source and target databases.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+public class Divergence {
+
+    /**
+     * The document path.
+     */
+    private final String documentPath;
+
+    /**
+     * How the document differs.
+     */
+    private final DivergenceType type;
+
+    /**
+     * The way a document differs between the source and target databases.
+     */
+    public enum DivergenceType {
+
+        /**
+         * The document exists in the source database but not the target database.
+         */
+        MISSING_IN_TARGET,
+
+        /**
+         * The document exists in the target database but not the source database.
+         */
+        MISSING_IN_SOURCE,
+
+        /**
+         * The document exists in both databases with different content.
+         */
+        CONTENT_MISMATCH,
+
+        ;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import java.util.Map;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.GeoPoint;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.MapValue;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.NullValue;
+import com.google.type.LatLng;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import lombok.experimental.UtilityClass;
+
+/**
+ * The DocumentEventConverter utility class builds the protocol buffer event a Firestore trigger
+ * delivers from documents read as maps, the inverse of FirestoreProto2Map.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@UtilityClass
+class DocumentEventConverter {
+
+    /**
+     * Build the event for a change to a document.
+     *
+     * @param project the GCP project
+     * @param database the database name
+     * @param oldValue the document before the change; null for an insert
+     * @param value the document after the change; null for a delete
+     * @return the event
+     */
+    public static DocumentEventData toDocumentEventData(String project, String database,
+            FirestoreDocument oldValue, FirestoreDocument value) {
+        DocumentEventData.Builder builder = DocumentEventData.newBuilder();
+        if (oldValue != null) {
+            builder.setOldValue(toDocument(project, database, oldValue));
+        }
+        if (value != null) {
+            builder.setValue(toDocument(project, database, value));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Build the protocol buffer document.
+     *
+     * @param project the GCP project
+     * @param database the database name
+     * @param document the document
+     * @return the protocol buffer document
+     */
+    public static Document toDocument(String project, String database,
+            FirestoreDocument document) {
+        Document.Builder builder = Document.newBuilder()
+                .setName(resourceName(project, database, document.getDocumentPath()));
+        if (document.getUpdateTime() != null) {
+            builder.setUpdateTime(document.getUpdateTime().toProto());
+        }
+        for (Map.Entry<String, Object> entry : document.getData().entrySet()) {
+            builder.putFields(entry.getKey(), toValue(project, database, entry.getValue()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Build the resource name of a document.
+     *
+     * @param project the GCP project
+     * @param database the database name
+     * @param documentPath the document path
+     * @return the resource name
+     */
+    public static String resourceName(String project, String database, String documentPath) {
+        return "projects/" + project + "/databases/" + database + "/documents/" + documentPath;
+    }
+
+    /**
+     * Convert a value read by the Firestore SDK.
+     *
+     * @param project the GCP project
+     * @param database the database name references are resolved in
+     * @param value the value
+     * @return the protocol buffer value
+     * @throws CrossFireSyncException if the type of the value is not supported, such as a vector,
+     *         so it is never replicated as a different value
+     */
+    static Value toValue(String project, String database, Object value) {
+        Value.Builder builder = Value.newBuilder();
+        if (value == null) {
+            builder.setNullValue(NullValue.NULL_VALUE);
+        } else if (value instanceof Boolean) {
+            builder.setBooleanValue((Boolean) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            builder.setIntegerValue(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            builder.setDoubleValue(((Number) value).doubleValue());
+        } else if (value instanceof Timestamp) {
+            builder.setTimestampValue(((Timestamp) value).toProto());
+        } else if (value instanceof String) {
+            builder.setStringValue((String) value);
+        } else if (value instanceof Blob) {
+            builder.setBytesValue(((Blob) value).toByteString());
+        } else if (value instanceof DocumentReference) {
+            builder.setReferenceValue(
+                    resourceName(project, database, ((DocumentReference) value).getPath()));
+        } else if (value instanceof GeoPoint) {
+            GeoPoint geoPoint = (GeoPoint) value;
+            builder.setGeoPointValue(LatLng.newBuilder().setLatitude(geoPoint.getLatitude())
+                    .setLongitude(geoPoint.getLongitude()));
+        } else if (value instanceof List) {
+            ArrayValue.Builder arrayValue = ArrayValue.newBuilder();
+            for (Object item : (List<?>) value) {
+                arrayValue.addValues(toValue(project, database, item));
+            }
+            builder.setArrayValue(arrayValue);
+        } else if (value instanceof Map) {
+            MapValue.Builder mapValue = MapValue.newBuilder();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                mapValue.putFields(String.valueOf(entry.getKey()),
+                        toValue(project, database, entry.getValue()));
+            }
+            builder.setMapValue(mapValue);
+        } else {
+            throw new CrossFireSyncException(
+                    "Unsupported value type: " + value.getClass().getName(), null);
+        }
+        return builder.build();
+    }
+}
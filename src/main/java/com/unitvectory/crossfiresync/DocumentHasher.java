@@ -0,0 +1,303 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import java.util.Map;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.GeoPoint;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import lombok.experimental.UtilityClass;
+
+/**
+ * The DocumentHasher utility class computes a 64-bit hash of the content of a document.
+ *
+ * The hash only depends on the document content so the same document has the same hash in every
+ * region: the crossfiresync bookkeeping attributes are excluded, references are hashed by their
+ * document path rather than their resource name, and map entries are combined so their order does
+ * not matter.
+ *
+ * The hash of a document converted to a map by the Firestore SDK or FirestoreProto2Map is the same
+ * as the hash of the protocol buffer document it was converted from. The protocol buffer variant
+ * does not convert or copy any values so it can be used on the replication hot path.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@UtilityClass
+class DocumentHasher {
+
+    /**
+     * The prefix shared by the bookkeeping attributes that are not part of the content
+     */
+    static final String ATTRIBUTE_PREFIX = "crossfiresync:";
+
+    static final long TAG_NULL = 1;
+
+    static final long TAG_BOOLEAN = 2;
+
+    static final long TAG_INTEGER = 3;
+
+    static final long TAG_DOUBLE = 4;
+
+    static final long TAG_TIMESTAMP = 5;
+
+    static final long TAG_STRING = 6;
+
+    static final long TAG_BYTES = 7;
+
+    static final long TAG_REFERENCE = 8;
+
+    static final long TAG_GEO_POINT = 9;
+
+    static final long TAG_ARRAY = 10;
+
+    static final long TAG_MAP = 11;
+
+    static final long TAG_OTHER = 12;
+
+    private static final String DOCUMENTS_SEGMENT = "/documents/";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Hash the content of a document.
+     *
+     * @param data the document data
+     * @return the content hash
+     */
+    public static long hashDocument(Map<String, Object> data) {
+        long sum = 0;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (!entry.getKey().startsWith(ATTRIBUTE_PREFIX)) {
+                sum += combine(hashString(entry.getKey()), hashValue(entry.getValue()));
+            }
+        }
+        return combine(TAG_MAP, sum);
+    }
+
+    /**
+     * Hash the content of a protocol buffer document.
+     *
+     * @param document the document
+     * @return the content hash
+     */
+    public static long hashDocument(Document document) {
+        long sum = 0;
+        for (Map.Entry<String, Value> entry : document.getFieldsMap().entrySet()) {
+            if (!entry.getKey().startsWith(ATTRIBUTE_PREFIX)) {
+                sum += combine(hashString(entry.getKey()), hashValue(entry.getValue()));
+            }
+        }
+        return combine(TAG_MAP, sum);
+    }
+
+    /**
+     * Hash a document path and its content hash into a single entry hash.
+     *
+     * @param documentPath the document path
+     * @param contentHash the content hash
+     * @return the entry hash
+     */
+    public static long hashEntry(String documentPath, long contentHash) {
+        return combine(hashString(documentPath), contentHash);
+    }
+
+    /**
+     * Hash a value from a document.
+     *
+     * @param value the value
+     * @return the hash
+     */
+    static long hashValue(Object value) {
+        if (value == null) {
+            return mix(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            return combine(TAG_BOOLEAN, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            return combine(TAG_INTEGER, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return combine(TAG_DOUBLE, Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            return combine(combine(TAG_TIMESTAMP, timestamp.getSeconds()), timestamp.getNanos());
+        } else if (value instanceof String) {
+            return combine(TAG_STRING, hashString((String) value));
+        } else if (value instanceof Blob) {
+            return combine(TAG_BYTES, hashBytes(((Blob) value).toByteString()));
+        } else if (value instanceof DocumentReference) {
+            return combine(TAG_REFERENCE, hashString(((DocumentReference) value).getPath()));
+        } else if (value instanceof GeoPoint) {
+            GeoPoint geoPoint = (GeoPoint) value;
+            return combine(combine(TAG_GEO_POINT, Double.doubleToLongBits(geoPoint.getLatitude())),
+                    Double.doubleToLongBits(geoPoint.getLongitude()));
+        } else if (value instanceof List) {
+            long hash = TAG_ARRAY;
+            for (Object item : (List<?>) value) {
+                hash = combine(hash, hashValue(item));
+            }
+            return hash;
+        } else if (value instanceof Map) {
+            long sum = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sum += combine(hashString(String.valueOf(entry.getKey())),
+                        hashValue(entry.getValue()));
+            }
+            return combine(TAG_MAP, sum);
+        } else {
+            return combine(TAG_OTHER, hashString(value.toString()));
+        }
+    }
+
+    /**
+     * Hash a protocol buffer value from a document.
+     *
+     * @param value the value
+     * @return the hash
+     */
+    static long hashValue(Value value) {
+        switch (value.getValueTypeCase()) {
+            case NULL_VALUE:
+                return mix(TAG_NULL);
+            case BOOLEAN_VALUE:
+                return combine(TAG_BOOLEAN, value.getBooleanValue() ? 1 : 0);
+            case INTEGER_VALUE:
+                return combine(TAG_INTEGER, value.getIntegerValue());
+            case DOUBLE_VALUE:
+                return combine(TAG_DOUBLE, Double.doubleToLongBits(value.getDoubleValue()));
+            case TIMESTAMP_VALUE:
+                return combine(combine(TAG_TIMESTAMP, value.getTimestampValue().getSeconds()),
+                        value.getTimestampValue().getNanos());
+            case STRING_VALUE:
+                return combine(TAG_STRING, hashString(value.getStringValue()));
+            case BYTES_VALUE:
+                return combine(TAG_BYTES, hashBytes(value.getBytesValue()));
+            case REFERENCE_VALUE:
+                // Only the document path is hashed so references match across databases
+                String referenceValue = value.getReferenceValue();
+                int documents = referenceValue.indexOf(DOCUMENTS_SEGMENT);
+                int offset = documents < 0 ? 0 : documents + DOCUMENTS_SEGMENT.length();
+                return combine(TAG_REFERENCE, hashString(referenceValue, offset));
+            case GEO_POINT_VALUE:
+                return combine(
+                        combine(TAG_GEO_POINT,
+                                Double.doubleToLongBits(value.getGeoPointValue().getLatitude())),
+                        Double.doubleToLongBits(value.getGeoPointValue().getLongitude()));
+            case ARRAY_VALUE:
+                ArrayValue arrayValue = value.getArrayValue();
+                long hash = TAG_ARRAY;
+                int count = arrayValue.getValuesCount();
+                for (int i = 0; i < count; i++) {
+                    hash = combine(hash, hashValue(arrayValue.getValues(i)));
+                }
+                return hash;
+            case MAP_VALUE:
+                long sum = 0;
+                for (Map.Entry<String, Value> entry : value.getMapValue().getFieldsMap()
+                        .entrySet()) {
+                    sum += combine(hashString(entry.getKey()), hashValue(entry.getValue()));
+                }
+                return combine(TAG_MAP, sum);
+            default:
+                return mix(TAG_NULL);
+        }
+    }
+
+    /**
+     * Hash a string.
+     *
+     * @param value the string
+     * @return the hash
+     */
+    static long hashString(String value) {
+        return hashString(value, 0);
+    }
+
+    /**
+     * Hash the end of a string starting at an offset.
+     *
+     * @param value the string
+     * @param offset the offset of the first character to hash
+     * @return the hash
+     */
+    static long hashString(String value, int offset) {
+        return hashString(value, offset, value.length());
+    }
+
+    /**
+     * Hash a range of characters in a string.
+     *
+     * @param value the string
+     * @param offset the offset of the first character to hash
+     * @param end the offset after the last character to hash
+     * @return the hash
+     */
+    static long hashString(String value, int offset, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = offset; i < end; i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash ^ (end - offset));
+    }
+
+    /**
+     * Hash bytes.
+     *
+     * @param value the bytes
+     * @return the hash
+     */
+    static long hashBytes(ByteString value) {
+        long hash = FNV_OFFSET;
+        int size = value.size();
+        for (int i = 0; i < size; i++) {
+            hash ^= value.byteAt(i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash ^ size);
+    }
+
+    /**
+     * Combine two hashes, the order of the arguments matters.
+     *
+     * @param hash the running hash
+     * @param value the value to add
+     * @return the combined hash
+     */
+    static long combine(long hash, long value) {
+        return mix(hash * 0x9e3779b97f4a7c15L + value);
+    }
+
+    /**
+     * The finalization step of MurmurHash3 to spread the bits of a hash.
+     *
+     * @param hash the hash
+     * @return the mixed hash
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.unitvectory.crossfiresync.capture.CapturedEvent;
+import com.unitvectory.crossfiresync.capture.CapturedEventType;
+import com.unitvectory.crossfiresync.capture.EventCaptureReader;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * This class replays a capture log through a FirestoreChangePublisher and PubSubChangeConsumer to
+ * reproduce production traffic offline.
+ *
+ * Events are dispatched at their captured arrival times scaled by the replay speed, or as fast as
+ * possible, through the same process methods the functions use. The backends the events are
+ * replayed against are whatever the publisher and consumer were configured with. Up to the
+ * configured concurrency events are processed at the same time; when all are busy the next event
+ * waits, so a captured burst queues the way it did in production and the wait is reported as
+ * latency.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class EventReplay {
+
+    private static final Logger logger = Logger.getLogger(EventReplay.class.getName());
+
+    private final String captureFile;
+
+    private final double speed;
+
+    private final int concurrency;
+
+    private final FirestoreChangePublisher publisher;
+
+    private final PubSubChangeConsumer consumer;
+
+    /**
+     * Create a new EventReplay.
+     */
+    public EventReplay() {
+        this(EventReplayConfig.builder().build());
+    }
+
+    /**
+     * Create a new EventReplay.
+     *
+     * @param config the configuration
+     */
+    public EventReplay(@NonNull EventReplayConfig config) {
+        this.captureFile = config.getCaptureFile();
+        this.speed = config.getSpeed();
+        this.concurrency = config.getConcurrency();
+        this.publisher = config.getPublisher();
+        this.consumer = config.getConsumer();
+    }
+
+    private boolean isConfigured() {
+        boolean valid = true;
+
+        if (this.captureFile == null || this.captureFile.isBlank()) {
+            logger.severe("Capture file is not set.");
+            valid = false;
+        }
+
+        if (this.concurrency <= 0) {
+            logger.severe("Concurrency must be positive.");
+            valid = false;
+        }
+
+        if (this.publisher == null && this.consumer == null) {
+            logger.severe("Neither a publisher nor a consumer is set.");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Replay the capture log.
+     *
+     * @return the report
+     */
+    public EventReplayReport run() {
+        if (!isConfigured()) {
+            logger.severe("Not configured, events will not be replayed.");
+            return EventReplayReport.builder().build();
+        }
+
+        Latencies latencies = new Latencies();
+        AtomicLong failures = new AtomicLong();
+        long publisherEvents = 0;
+        long consumerEvents = 0;
+        long skippedEvents = 0;
+
+        Semaphore permits = new Semaphore(this.concurrency);
+        ExecutorService executor = this.concurrency > 1
+                ? Executors.newFixedThreadPool(this.concurrency, r -> {
+                    Thread thread = new Thread(r, "crossfiresync-replay");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+
+        long start = System.nanoTime();
+        try (EventCaptureReader reader = new EventCaptureReader(Paths.get(this.captureFile))) {
+            Instant firstArrival = null;
+            CapturedEvent event;
+            while ((event = reader.next()) != null) {
+                Runnable replay = replay(event);
+                if (replay == null) {
+                    skippedEvents++;
+                    continue;
+                } else if (CapturedEventType.PUBLISHER.equals(event.getType())) {
+                    publisherEvents++;
+                } else {
+                    consumerEvents++;
+                }
+
+                // Wait until the event is due, relative to the first event
+                long due;
+                if (this.speed > 0) {
+                    if (firstArrival == null) {
+                        firstArrival = event.getArrivalTime();
+                    }
+                    long offset = Duration.between(firstArrival, event.getArrivalTime()).toNanos();
+                    due = start + (long) (offset / this.speed);
+                    sleepUntil(due);
+                    permits.acquire();
+                } else {
+                    permits.acquire();
+                    due = System.nanoTime();
+                }
+
+                Runnable task = () -> {
+                    try {
+                        replay.run();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        logger.log(Level.FINE, "Failed to replay event.", e);
+                    } finally {
+                        latencies.add(System.nanoTime() - due);
+                        permits.release();
+                    }
+                };
+
+                if (executor == null) {
+                    task.run();
+                } else {
+                    executor.execute(task);
+                }
+            }
+
+            // Wait for the events still being processed
+            permits.acquire(this.concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CrossFireSyncException("Interrupted while replaying events.", e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = latencies.sorted();
+        EventReplayReport report = EventReplayReport.builder()
+                .events(publisherEvents + consumerEvents).publisherEvents(publisherEvents)
+                .consumerEvents(consumerEvents).skippedEvents(skippedEvents)
+                .failures(failures.get()).elapsedNanos(elapsed)
+                .p50Nanos(percentile(sorted, 0.50)).p90Nanos(percentile(sorted, 0.90))
+                .p99Nanos(percentile(sorted, 0.99))
+                .maxNanos(sorted.length == 0 ? 0 : sorted[sorted.length - 1]).build();
+        logger.info("Replayed " + report.getEvents() + " events at " + report.getThroughput()
+                + " events per second, p99 latency " + report.getP99Nanos() + "ns");
+        return report;
+    }
+
+    /**
+     * Prepare the replay of an event through the same path as the function that captured it.
+     *
+     * @param event the event
+     * @return the replay; null if there is nothing to replay it through
+     */
+    private Runnable replay(CapturedEvent event) {
+        switch (event.getType()) {
+            case PUBLISHER:
+                if (this.publisher == null) {
+                    return null;
+                }
+                return () -> {
+                    try {
+                        this.publisher.process(DocumentEventData.parseFrom(event.getData()),
+                                event.getData());
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new CrossFireSyncException("Invalid captured event.", e);
+                    }
+                };
+            case CONSUMER:
+                if (this.consumer == null) {
+                    return null;
+                }
+                return () -> {
+                    try {
+                        this.consumer.process(event.toPubSubPublish());
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new CrossFireSyncException("Invalid captured event.", e);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    private static void sleepUntil(long due) throws InterruptedException {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * The nearest rank percentile.
+     *
+     * @param sorted the sorted values
+     * @param percentile the percentile between 0 and 1
+     * @return the value; 0 if there are no values
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * The latencies recorded by the replaying threads, in a growable array.
+     */
+    private static final class Latencies {
+
+        private long[] values = new long[1024];
+
+        private int size;
+
+        private synchronized void add(long value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        private synchronized long[] sorted() {
+            long[] sorted = Arrays.copyOf(this.values, this.size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
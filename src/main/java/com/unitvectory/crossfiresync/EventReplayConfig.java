@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for EventReplay allows for customization.
+ *
+ * By default, the configuration will use the following environment variables:
+ *
+ * <ul>
+ * <li><b>CAPTURE_FILE</b>: The capture log to replay</li>
+ * <li><b>REPLAY_SPEED</b>: The speed relative to the captured arrival times, or MAX</li>
+ * <li><b>REPLAY_CONCURRENCY</b>: The number of events processed at the same time</li>
+ * </ul>
+ *
+ * The publisher and consumer the events are replayed through must be configured without a capture
+ * log; they determine the backends, such as the in-memory stand-ins, the events are replayed
+ * against.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class EventReplayConfig {
+
+    /**
+     * The capture log to replay
+     *
+     * Use the CAPTURE_FILE environment variable to set this value.
+     */
+    @Builder.Default
+    private final String captureFile = System.getenv("CAPTURE_FILE");
+
+    /**
+     * The replay speed relative to the captured arrival times; 1 replays at the captured rate, 10
+     * at ten times the rate, and 0 as fast as possible
+     *
+     * Use the REPLAY_SPEED environment variable to set this value, MAX for as fast as possible.
+     */
+    @Builder.Default
+    private final double speed = parseSpeed(System.getenv("REPLAY_SPEED"));
+
+    /**
+     * The number of events processed at the same time, like the concurrent function instances
+     * that received them
+     *
+     * Use the REPLAY_CONCURRENCY environment variable to set this value. Events with the same
+     * ordering key may be processed out of order when greater than 1.
+     */
+    @Builder.Default
+    private final int concurrency =
+            ConfigValues.parseInt(System.getenv("REPLAY_CONCURRENCY"), 1);
+
+    /**
+     * The publisher the captured Firestore trigger events are replayed through; skipped if null
+     */
+    @Builder.Default
+    private final FirestoreChangePublisher publisher = null;
+
+    /**
+     * The consumer the captured Pub/Sub messages are replayed through; skipped if null
+     */
+    @Builder.Default
+    private final PubSubChangeConsumer consumer = null;
+
+    /**
+     * Parse the replay speed.
+     *
+     * @param value the value
+     * @return the speed; 0 for as fast as possible
+     */
+    static double parseSpeed(String value) {
+        if (value != null && value.trim().equalsIgnoreCase("MAX")) {
+            return 0;
+        }
+
+        double speed = ConfigValues.parseDouble(value, 1);
+        return speed < 0 ? 1 : speed;
+    }
+}
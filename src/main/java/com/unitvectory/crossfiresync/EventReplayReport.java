@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The report of an EventReplay run.
+ *
+ * The latency of an event is measured from the time it was due to be replayed, so when the
+ * backends cannot keep up with a burst the time the event waited is included.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class EventReplayReport {
+
+    /**
+     * The number of events replayed.
+     */
+    private final long events;
+
+    /**
+     * The number of Firestore trigger events replayed through the publisher.
+     */
+    private final long publisherEvents;
+
+    /**
+     * The number of Pub/Sub messages replayed through the consumer.
+     */
+    private final long consumerEvents;
+
+    /**
+     * The number of events skipped because no publisher or consumer was configured for them.
+     */
+    private final long skippedEvents;
+
+    /**
+     * The number of events that failed.
+     */
+    private final long failures;
+
+    /**
+     * The time taken to replay the events.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * The median latency.
+     */
+    private final long p50Nanos;
+
+    /**
+     * The 90th percentile latency.
+     */
+    private final long p90Nanos;
+
+    /**
+     * The 99th percentile latency.
+     */
+    private final long p99Nanos;
+
+    /**
+     * The maximum latency.
+     */
+    private final long maxNanos;
+
+    /**
+     * Gets the number of events replayed per second.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+        return this.elapsedNanos == 0 ? 0 : this.events * 1e9 / this.elapsedNanos;
+    }
+}
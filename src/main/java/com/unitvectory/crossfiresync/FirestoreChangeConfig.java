@@ -13,9 +13,20 @@
  */
 package com.unitvectory.crossfiresync;
 
+import com.unitvectory.crossfiresync.capture.EventCaptureLog;
 import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.config.TransportProfile;
+import com.unitvectory.crossfiresync.config.TransportSettings;
 import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import com.unitvectory.crossfiresync.logging.LogLimits;
 import com.unitvectory.crossfiresync.pubsub.ConfigPublisherFactory;
+import com.unitvectory.crossfiresync.pubsub.FlowControlBehavior;
+import com.unitvectory.crossfiresync.pubsub.FlowControlSettings;
+import com.unitvectory.crossfiresync.pubsub.SpoolSettings;
+import com.unitvectory.crossfiresync.retry.DeadLetterSink;
+import com.unitvectory.crossfiresync.retry.FileDeadLetterSink;
+import com.unitvectory.crossfiresync.retry.RetryPolicy;
+import com.unitvectory.crossfiresync.tracing.Tracer;
 import lombok.Builder;
 import lombok.Value;
 
@@ -29,12 +40,25 @@ import lombok.Value;
  * <li><b>DATABASE</b>: The Firestore database name</li>
  * <li><b>GOOGLE_CLOUD_PROJECT</b>: The GCP project</li>
  * <li><b>TOPIC</b>: The PubSub topic</li>
+ * <li><b>UNORDERED_DELIVERY</b>: Publish without ordering keys</li>
+ * <li><b>TRANSPORT_PROFILE</b>: The preset of the gRPC transport tuning</li>
+ * <li><b>PUBLISH_MAX_OUTSTANDING_MESSAGES</b>: The maximum messages being published at once</li>
+ * <li><b>PUBLISH_MAX_OUTSTANDING_BYTES</b>: The maximum bytes being published at once</li>
+ * <li><b>PUBLISH_FLOW_CONTROL</b>: What a publish does when a limit is reached</li>
+ * <li><b>SPOOL_DIRECTORY</b>: The directory messages that cannot be published are spooled to</li>
+ * <li><b>RETRY_MAX_ATTEMPTS</b>: The maximum attempts for each publish</li>
+ * <li><b>DEAD_LETTER_FILE</b>: The file changes that cannot be replicated are written to</li>
+ * <li><b>CAPTURE_FILE</b>: The file the incoming events are captured to</li>
+ * <li><b>STATE_SNAPSHOT_DIRECTORY</b>: The directory the replication state is saved to</li>
+ * <li><b>STATE_SNAPSHOT_INTERVAL_SECONDS</b>: How often the replication state is saved</li>
+ * <li><b>LOG_RATE_LIMIT</b>: The maximum messages logged per second for each kind of message</li>
+ * <li><b>LOG_SAMPLE_RATE</b>: Log one in this many messages of each kind</li>
  * </ul>
  * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 @Value
-@Builder
+@Builder(toBuilder = true)
 public class FirestoreChangeConfig {
 
     /**
@@ -72,6 +96,18 @@ public class FirestoreChangeConfig {
     @Builder.Default
     private final String topic = System.getenv("TOPIC");
 
+    /**
+     * Publish without an ordering key so changes to the same document are published and delivered
+     * in parallel
+     * 
+     * Use the UNORDERED_DELIVERY environment variable to set this value. The consumers must also
+     * use unordered delivery so conflicts are resolved by the crossfiresync timestamp; documents
+     * deleted in other regions are left flagged for delete until swept by the TombstoneSweeper.
+     */
+    @Builder.Default
+    private final boolean unorderedDelivery =
+            ConfigValues.parseBoolean(System.getenv("UNORDERED_DELIVERY"), false);
+
     /**
      * The Firestore factory
      * 
@@ -89,4 +125,141 @@ public class FirestoreChangeConfig {
      */
     @Builder.Default
     private final ConfigPublisherFactory publisherFactory = new ConfigPublisherFactoryDefault();
+
+    /**
+     * The tuning of the gRPC transport of the Firestore and Pub/Sub clients
+     * 
+     * Use the TRANSPORT_PROFILE environment variable to select a TransportProfile preset:
+     * LOW_LATENCY, HIGH_THROUGHPUT, or SERVERLESS_MINIMAL. The library defaults are used when not
+     * set. Only applied by the default factories.
+     */
+    @Builder.Default
+    private final TransportSettings transport = TransportProfile
+            .parseFallbackToDefault(System.getenv("TRANSPORT_PROFILE")).getSettings();
+
+    /**
+     * The limits on the messages the publisher has outstanding
+     * 
+     * Use the PUBLISH_MAX_OUTSTANDING_MESSAGES and PUBLISH_MAX_OUTSTANDING_BYTES environment
+     * variables to set the limits (default 1000 messages and 64 MiB, 0 for no limit) and
+     * PUBLISH_FLOW_CONTROL to set what happens at a limit: BLOCK, FAIL_FAST, or SHED_SUPERSEDED.
+     * 
+     * @see FlowControlBehavior
+     */
+    @Builder.Default
+    private final FlowControlSettings flowControl = FlowControlSettings.builder()
+            .maxOutstandingMessages(ConfigValues
+                    .parseInt(System.getenv("PUBLISH_MAX_OUTSTANDING_MESSAGES"), 1000))
+            .maxOutstandingBytes(ConfigValues
+                    .parseLong(System.getenv("PUBLISH_MAX_OUTSTANDING_BYTES"), 64L << 20))
+            .behavior(FlowControlBehavior
+                    .parseFallbackToBlock(System.getenv("PUBLISH_FLOW_CONTROL")))
+            .build();
+
+    /**
+     * The spool for the messages that cannot be published
+     * 
+     * Use the SPOOL_DIRECTORY environment variable to spool messages that fail to publish to
+     * memory-mapped segment files in that directory and publish them in the background once
+     * Pub/Sub recovers. SPOOL_SEGMENT_BYTES sets the size of each segment (default 16 MiB) and
+     * SPOOL_MAX_BYTES the maximum size of the spool (default 1 GiB). By default messages are not
+     * spooled. A spooled message counts as published, so the directory must be on a persistent
+     * disk; the spool is ignored on Cloud Functions.
+     */
+    @Builder.Default
+    private final SpoolSettings spool = System.getenv("SPOOL_DIRECTORY") == null ? null
+            : SpoolSettings.builder().directory(System.getenv("SPOOL_DIRECTORY"))
+                    .segmentBytes(ConfigValues.parseInt(System.getenv("SPOOL_SEGMENT_BYTES"),
+                            16 << 20))
+                    .maxBytes(ConfigValues.parseLong(System.getenv("SPOOL_MAX_BYTES"), 1L << 30))
+                    .build();
+
+    /**
+     * The tombstones of the documents deleted by the PubSubChangeConsumer in DIRECT delete mode
+     * 
+     * Share the same TombstoneStore between the FirestoreChangePublisher and PubSubChangeConsumer
+     * running in the same process so replicated deletes are not published back.
+     */
+    @Builder.Default
+    private final TombstoneStore tombstoneStore = null;
+
+    /**
+     * The digest updated with each published change
+     * 
+     * Share the same ReplicationDigest between the FirestoreChangePublisher and
+     * PubSubChangeConsumer running in the same process. By default no digest is maintained.
+     */
+    @Builder.Default
+    private final ReplicationDigest digest = null;
+
+    /**
+     * The policy for retrying failed publishes and deletes in process
+     * 
+     * Use the RETRY_MAX_ATTEMPTS environment variable to set the maximum attempts. By default a
+     * single attempt is made and failures are retried by redelivering the message.
+     */
+    @Builder.Default
+    private final RetryPolicy retryPolicy = RetryPolicy.builder()
+            .maxAttempts(ConfigValues.parseInt(System.getenv("RETRY_MAX_ATTEMPTS"), 1)).build();
+
+    /**
+     * The sink for changes that cannot be replicated
+     * 
+     * Use the DEAD_LETTER_FILE environment variable to write them to a file, or set a
+     * TopicDeadLetterSink to publish them to a topic. By default failures are thrown so the
+     * message is redelivered.
+     */
+    @Builder.Default
+    private final DeadLetterSink deadLetterSink =
+            FileDeadLetterSink.fromPath(System.getenv("DEAD_LETTER_FILE"));
+
+    /**
+     * The log the raw incoming events are captured to
+     * 
+     * Use the CAPTURE_FILE environment variable to capture to a file that EventReplay can replay.
+     * By default events are not captured.
+     */
+    @Builder.Default
+    private final EventCaptureLog captureLog =
+            EventCaptureLog.fromPath(System.getenv("CAPTURE_FILE"));
+
+    /**
+     * The directory the in-memory replication state is periodically saved to and loaded from at
+     * startup, so a restarted instance does not start cold
+     * 
+     * Use the STATE_SNAPSHOT_DIRECTORY environment variable to set this value. By default the
+     * state is not saved.
+     */
+    @Builder.Default
+    private final String stateSnapshotDirectory = System.getenv("STATE_SNAPSHOT_DIRECTORY");
+
+    /**
+     * How often the replication state is saved
+     * 
+     * Use the STATE_SNAPSHOT_INTERVAL_SECONDS environment variable to set this value.
+     */
+    @Builder.Default
+    private final long stateSnapshotIntervalSeconds =
+            ConfigValues.parseLong(System.getenv("STATE_SNAPSHOT_INTERVAL_SECONDS"), 60);
+
+    /**
+     * The limits for the messages logged for every event
+     * 
+     * Use the LOG_RATE_LIMIT environment variable to set the maximum messages per second for each
+     * kind of message (default 100, 0 for no limit) and LOG_SAMPLE_RATE to log only one in that
+     * many messages. Suppressed messages are counted in the next message logged.
+     */
+    @Builder.Default
+    private final LogLimits logLimits = LogLimits.builder()
+            .maxPerSecond(ConfigValues.parseInt(System.getenv("LOG_RATE_LIMIT"), 100))
+            .sampleRate(ConfigValues.parseInt(System.getenv("LOG_SAMPLE_RATE"), 1)).build();
+
+    /**
+     * The tracer the spans of each event are recorded with
+     * 
+     * The publisher starts a trace for each event and propagates it in the traceparent attribute
+     * of the Pub/Sub message so the consumer continues it. By default nothing is recorded.
+     */
+    @Builder.Default
+    private final Tracer tracer = Tracer.NOOP;
 }
@@ -20,18 +20,35 @@ import com.google.events.cloud.firestore.v1.Value;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Timestamp;
 import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.capture.EventCaptureLog;
 import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.dedupe.EventDeduplicator;
 import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
 import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.logging.RateLimitedLogger;
 import com.unitvectory.crossfiresync.pubsub.ConfigPublisherSettings;
 import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.FlowControlStats;
+import com.unitvectory.crossfiresync.pubsub.SpoolStats;
+import com.unitvectory.crossfiresync.retry.DeadLetter;
+import com.unitvectory.crossfiresync.retry.RetryExecutor;
+import com.unitvectory.crossfiresync.retry.RetryStats;
+import com.unitvectory.crossfiresync.tracing.Span;
+import com.unitvectory.crossfiresync.tracing.SpanContext;
+import com.unitvectory.crossfiresync.tracing.Tracer;
 import io.cloudevents.CloudEvent;
 import lombok.NonNull;
 
 import com.google.protobuf.ByteString;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +61,7 @@ import java.util.logging.Logger;
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 @SuppressWarnings("null")
-public class FirestoreChangePublisher implements CloudEventsFunction {
+public class FirestoreChangePublisher implements CloudEventsFunction, AutoCloseable {
 
     private static final Logger logger = Logger.getLogger(FirestoreChangePublisher.class.getName());
 
@@ -52,10 +69,26 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
 
     private final String database;
 
+    private final boolean unorderedDelivery;
+
     private final CrossFireSyncFirestore firestore;
 
     private final CrossFireSyncPublish publisher;
 
+    private final TombstoneStore tombstoneStore;
+
+    private final ReplicationDigest digest;
+
+    private final StateSnapshot stateSnapshot;
+
+    private final RetryExecutor retryExecutor;
+
+    private final EventCaptureLog captureLog;
+
+    private final RateLimitedLogger eventLogger;
+
+    private final Tracer tracer;
+
     private final boolean configured;
 
     /**
@@ -73,6 +106,18 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
     public FirestoreChangePublisher(@NonNull FirestoreChangeConfig config) {
         this.replicationMode = config.getReplicationMode();
         this.database = config.getDatabaseName();
+        this.unorderedDelivery = config.isUnorderedDelivery();
+        this.tombstoneStore = config.getTombstoneStore();
+        this.digest = config.getDigest();
+
+        // Start warm from the state saved by the previous instance
+        this.stateSnapshot = StateSnapshot.open(config.getStateSnapshotDirectory(),
+                "publisher-" + config.getDatabaseName(), config.getStateSnapshotIntervalSeconds(),
+                Collections.singletonMap("tombstones", this.tombstoneStore));
+        this.retryExecutor = new RetryExecutor(config.getRetryPolicy(), config.getDeadLetterSink());
+        this.captureLog = config.getCaptureLog();
+        this.eventLogger = new RateLimitedLogger(logger, config.getLogLimits());
+        this.tracer = config.getTracer();
 
         CrossFireSyncFirestore crossFireSyncFirestore = null;
         CrossFireSyncPublish crossFireSyncPublish = null;
@@ -96,10 +141,19 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
         this.firestore = crossFireSyncFirestore;
         this.publisher = crossFireSyncPublish;
 
-        this.configured = isConfigured();
+        this.configured = checkConfigured();
+    }
+
+    /**
+     * Checks if the publisher is configured, so the events it processes are replicated.
+     * 
+     * @return true if configured properly; otherwise false
+     */
+    boolean isConfigured() {
+        return this.configured;
     }
 
-    private boolean isConfigured() {
+    private boolean checkConfigured() {
         boolean valid = true;
 
         if (this.database == null || this.database.isBlank()) {
@@ -126,6 +180,74 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
         return valid;
     }
 
+    /**
+     * Gets the Firestore of the database changes are published from.
+     * 
+     * @return the Firestore; null if it could not be loaded
+     */
+    CrossFireSyncFirestore getFirestore() {
+        return this.firestore;
+    }
+
+    /**
+     * Gets the statistics of the flow control on the outstanding messages.
+     * 
+     * @return the statistics, or null if the outstanding messages are not limited
+     */
+    public FlowControlStats getFlowControlStats() {
+        return this.publisher == null ? null : this.publisher.getFlowControlStats();
+    }
+
+    /**
+     * Gets the statistics of the spool of the messages that could not be published.
+     * 
+     * @return the statistics, or null if messages are not spooled
+     */
+    public SpoolStats getSpoolStats() {
+        return this.publisher == null ? null : this.publisher.getSpoolStats();
+    }
+
+    /**
+     * Gets the statistics of the snapshot of the replication state.
+     * 
+     * @return the statistics, or null if the state is not saved
+     */
+    public StateSnapshotStats getStateSnapshotStats() {
+        return this.stateSnapshot == null ? null : this.stateSnapshot.getStats();
+    }
+
+    /**
+     * Gets the statistics for the retried publishes and deletes.
+     * 
+     * @return the statistics
+     */
+    public RetryStats getRetryStats() {
+        return this.retryExecutor.getStats();
+    }
+
+    /**
+     * Send the messages that are held, close the spool, and save the state snapshot and digest.
+     */
+    @Override
+    public void close() {
+        if (this.publisher != null) {
+            try {
+                this.publisher.flush();
+                if (this.publisher instanceof AutoCloseable) {
+                    ((AutoCloseable) this.publisher).close();
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to close CrossFireSyncPublish.", e);
+            }
+        }
+        if (this.stateSnapshot != null) {
+            this.stateSnapshot.close();
+        }
+        if (this.digest != null) {
+            this.digest.close();
+        }
+    }
+
     @Override
     public void accept(CloudEvent event) throws InvalidProtocolBufferException {
 
@@ -135,7 +257,7 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
         DocumentEventData firestoreEventData = DocumentEventData.parseFrom(data);
 
         // Process the request
-        process(firestoreEventData, data);
+        process(firestoreEventData, data, event.getId());
     }
 
     /**
@@ -145,6 +267,59 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
      * @param data the raw data; used for PubSub message replication
      */
     public void process(DocumentEventData firestoreEventData, byte[] data) {
+        process(firestoreEventData, data, null);
+    }
+
+    /**
+     * Process the Firestore event for replication.
+     * 
+     * @param firestoreEventData the Firestore event; parsed from the data
+     * @param data the raw data; used for PubSub message replication
+     * @param eventId the ID of the CloudEvent, sent so consumers can skip redeliveries; null if
+     *        not known
+     */
+    public void process(DocumentEventData firestoreEventData, byte[] data, String eventId) {
+
+        // Capture the raw event for replay
+        if (this.captureLog != null) {
+            this.captureLog.capturePublisherEvent(data);
+        }
+
+        // Check if the consumer is configured properly
+        if (!this.configured) {
+            logger.severe(
+                    "Not configured, document will not be replicated and databases will be out of sync.");
+            return;
+        }
+
+        Span span = this.tracer.startSpan("crossfiresync.publish");
+        try {
+            replicate(firestoreEventData, data, eventId, span, null);
+        } catch (RuntimeException e) {
+            span.recordError(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Process the Firestore event for replication without waiting for its message to be sent. A
+     * message that is published is added to the pending publishes, which are sent together and
+     * waited on by awaitPublished.
+     * 
+     * @param firestoreEventData the Firestore event; parsed from the data
+     * @param data the raw data; used for PubSub message replication
+     * @param eventId the ID of the CloudEvent; null if not known
+     * @param pending the publishes that have not been waited on
+     */
+    void processAsync(DocumentEventData firestoreEventData, byte[] data, String eventId,
+            List<PendingPublish> pending) {
+
+        // Capture the raw event for replay
+        if (this.captureLog != null) {
+            this.captureLog.capturePublisherEvent(data);
+        }
 
         // Check if the consumer is configured properly
         if (!this.configured) {
@@ -153,6 +328,68 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
             return;
         }
 
+        Span span = this.tracer.startSpan("crossfiresync.publish");
+        int count = pending.size();
+        try {
+            replicate(firestoreEventData, data, eventId, span, pending);
+        } catch (RuntimeException e) {
+            span.recordError(e);
+            span.end();
+            throw e;
+        }
+
+        if (pending.size() == count) {
+            // Nothing was published, the span is ended by the pending publish otherwise
+            span.end();
+        }
+    }
+
+    /**
+     * Send the pending publishes together and wait for each of them. Every publish is waited on
+     * before the first failure is thrown.
+     * 
+     * @param pending the publishes that have not been waited on
+     */
+    void awaitPublished(List<PendingPublish> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        RuntimeException failure = null;
+        try {
+            this.publisher.flush();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        for (PendingPublish publish : pending) {
+            try {
+                publish.await();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        pending.clear();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Replicate the Firestore event by publishing it unless it should be skipped.
+     * 
+     * @param firestoreEventData the Firestore event
+     * @param data the raw data
+     * @param eventId the ID of the CloudEvent; null if not known
+     * @param span the span of the event
+     * @param pending the publishes the message is added to without waiting for it; null to wait
+     */
+    private void replicate(DocumentEventData firestoreEventData, byte[] data, String eventId,
+            Span span, List<PendingPublish> pending) {
+
         // Get the resource name for the document for insert/update/delete
         String resourceName = null;
         if (firestoreEventData.hasValue()) {
@@ -181,32 +418,194 @@ public class FirestoreChangePublisher implements CloudEventsFunction {
             return;
         }
 
+        span.setAttribute("document", documentPath);
+        span.setAttribute("database", database);
+        if (firestoreEventData.hasValue()) {
+            // The commit time the lag to each region is measured from
+            span.setAttribute("commitTimeMicros",
+                    Tracer.epochMicros(firestoreEventData.getValue().getUpdateTime()));
+        }
+
         // Check to see if this is a delete
         if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)
                 && firestoreEventData.hasValue() && firestoreEventData.getValue()
                         .containsFields(CrossFireSyncAttributes.DELETE_FIELD)) {
+            if (this.unorderedDelivery) {
+                // The flagged document is kept so changes delivered after the delete do not
+                // recreate it; the TombstoneSweeper deletes it later
+                span.setAttribute("outcome", "skip");
+                this.eventLogger.fine("skip", () -> "Keeping tombstone " + documentPath);
+                return;
+            }
+
             // The delete field being present is the signal to delete the record in the
             // local region without publishing to the PubSub topic.
-            this.firestore.deleteDocument(documentPath);
+            span.setAttribute("outcome", "delete");
+            this.retryExecutor.run(() -> this.firestore.deleteDocument(documentPath),
+                    DeadLetter.builder().operation("delete").documentPath(documentPath)
+                            .database(database).change(firestoreEventData));
             return;
         }
 
+        // Check the tombstones of the documents deleted directly by replication
+        if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)
+                && this.tombstoneStore != null) {
+            if (!firestoreEventData.hasValue()) {
+                if (this.tombstoneStore.isReplicatedDelete(documentPath, database)) {
+                    span.setAttribute("outcome", "skip");
+                    this.eventLogger.fine("skip-delete",
+                            () -> "Skipping replicated delete " + documentPath);
+                    return;
+                }
+            } else {
+                // The document was written again so a later delete is not a replicated delete
+                this.tombstoneStore.remove(documentPath);
+            }
+        }
+
         // Check to see if the record should be replicated
         if (!shouldReplicate(firestoreEventData)) {
-            logger.fine("Skipping " + documentPath);
+            span.setAttribute("outcome", "skip");
+            this.eventLogger.fine("skip", () -> "Skipping " + documentPath);
             return;
         }
 
         // Preparing attributes for Pub/Sub message
         Map<String, String> attributes = new HashMap<>();
         attributes.put("database", database);
+        if (eventId != null) {
+            // Redeliveries of the same event have the same ID
+            attributes.put(EventDeduplicator.EVENT_ID, eventId);
+        }
+        if (span.isRecording()) {
+            // Continue the trace in the consumer of each region
+            attributes.put(SpanContext.TRACEPARENT, span.getContext().toTraceparent());
+        }
 
-        // Prepare the message to be published
-        PubsubMessage pubsubMessage = PubsubMessage.newBuilder().setOrderingKey(documentPath)
-                .setData(ByteString.copyFrom(data)).putAllAttributes(attributes).build();
+        // Prepare the message to be published, changes to a document are published in order
+        // unless they are resolved by timestamp
+        PubsubMessage.Builder builder = PubsubMessage.newBuilder()
+                .setData(ByteString.copyFrom(data)).putAllAttributes(attributes);
+        if (!this.unorderedDelivery) {
+            builder.setOrderingKey(documentPath);
+        }
+        PubsubMessage pubsubMessage = builder.build();
 
         // Publish the message
-        this.publisher.publishMessage(pubsubMessage);
+        span.setAttribute("outcome", "publish");
+        Span publish = span.startChild("publish");
+        if (pending != null) {
+            pending.add(new PendingPublish(pubsubMessage, documentPath, database,
+                    firestoreEventData, span, publish,
+                    this.publisher.publishMessageAsync(pubsubMessage)));
+            return;
+        }
+
+        boolean published;
+        AtomicBoolean superseded = new AtomicBoolean();
+        try {
+            published = publishWithRetry(pubsubMessage, superseded, documentPath, database,
+                    firestoreEventData);
+        } finally {
+            publish.end();
+        }
+
+        published(published, superseded.get(), documentPath, firestoreEventData, span);
+    }
+
+    /**
+     * Publish the message, retrying it with the retry policy and dead-lettering it once the
+     * attempts are exhausted.
+     * 
+     * @return true if the message was published; false if it was dead-lettered
+     */
+    private boolean publishWithRetry(PubsubMessage pubsubMessage, AtomicBoolean superseded,
+            String documentPath, String database, DocumentEventData firestoreEventData) {
+        return this.retryExecutor.run(
+                () -> superseded.set(CrossFireSyncPublish.SUPERSEDED
+                        .equals(this.publisher.publishMessage(pubsubMessage))),
+                DeadLetter.builder().operation("publish").documentPath(documentPath)
+                        .database(database).change(firestoreEventData));
+    }
+
+    /**
+     * Record the outcome of a publish.
+     */
+    private void published(boolean published, boolean superseded, String documentPath,
+            DocumentEventData firestoreEventData, Span span) {
+        if (superseded) {
+            // The newer change to the document is published in its place
+            span.setAttribute("outcome", "superseded");
+            this.eventLogger.fine("superseded",
+                    () -> "Superseded by a newer change, not published: " + documentPath);
+            return;
+        }
+
+        // Track the published change, dead-lettered changes were not published
+        if (published && this.digest != null) {
+            this.digest.apply(documentPath, firestoreEventData);
+        }
+    }
+
+    /**
+     * A message that was published without waiting for it to be sent.
+     */
+    final class PendingPublish {
+
+        private final PubsubMessage message;
+
+        private final String documentPath;
+
+        private final String database;
+
+        private final DocumentEventData firestoreEventData;
+
+        private final Span span;
+
+        private final Span publish;
+
+        private final CompletableFuture<String> future;
+
+        private PendingPublish(PubsubMessage message, String documentPath, String database,
+                DocumentEventData firestoreEventData, Span span, Span publish,
+                CompletableFuture<String> future) {
+            this.message = message;
+            this.documentPath = documentPath;
+            this.database = database;
+            this.firestoreEventData = firestoreEventData;
+            this.span = span;
+            this.publish = publish;
+            this.future = future;
+        }
+
+        /**
+         * Wait for the message to be sent. A message that failed is published again with the
+         * retry policy on this thread, as it would have been without waiting.
+         */
+        private void await() {
+            try {
+                boolean published = true;
+                boolean superseded;
+                try {
+                    superseded = CrossFireSyncPublish.SUPERSEDED.equals(this.future.join());
+                } catch (CompletionException | CancellationException e) {
+                    AtomicBoolean retried = new AtomicBoolean();
+                    published = publishWithRetry(this.message, retried, this.documentPath,
+                            this.database, this.firestoreEventData);
+                    superseded = retried.get();
+                }
+                this.publish.end();
+
+                published(published, superseded, this.documentPath, this.firestoreEventData,
+                        this.span);
+            } catch (RuntimeException e) {
+                this.span.recordError(e);
+                throw e;
+            } finally {
+                this.publish.end();
+                this.span.end();
+            }
+        }
     }
 
     /**
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import lombok.AllArgsConstructor;
+
+/**
+ * Writes a document read from a source database into a target database the same way
+ * PubSubChangeConsumer would write it had it received the change through Pub/Sub.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@AllArgsConstructor
+class FirestoreDocumentReplicator {
+
+    private final ReplicationMode replicationMode;
+
+    private final String sourceDatabase;
+
+    private final String targetDatabase;
+
+    private final CrossFireSyncFirestore target;
+
+    /**
+     * Replicate the document to the target database.
+     *
+     * The write goes through the stale-write guard of updateTransaction so a document that is
+     * already newer in the target database is left unchanged. A document that was replicated into
+     * the source from the target database is skipped, as the publisher skips it on the live path,
+     * because the original in the target has no crossfiresync timestamp to guard it.
+     *
+     * @param document the document from the source database
+     * @return true if the document was sent to the target; false if it was skipped
+     */
+    boolean replicate(FirestoreDocument document) {
+        Map<String, Object> data = document.getData();
+        if (data == null) {
+            return false;
+        }
+
+        // Documents flagged for delete are pending removal in the source region
+        if (data.containsKey(CrossFireSyncAttributes.DELETE_FIELD)) {
+            return false;
+        }
+
+        // Documents replicated from the target database are older copies of its originals
+        if (this.targetDatabase != null && this.targetDatabase
+                .equals(data.get(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD))) {
+            return false;
+        }
+
+        Timestamp updatedTime = document.getUpdateTime();
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> record = (Map<String, Object>) rewriteReferences(data);
+        if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)) {
+            record.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, updatedTime);
+            record.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, this.sourceDatabase);
+        }
+
+        DocumentReference documentReference = this.target.getDocument(document.getDocumentPath());
+        this.target.updateTransaction(documentReference, updatedTime, record);
+        return true;
+    }
+
+    /**
+     * Copies the value replacing references to the source database with references to the target
+     * database.
+     *
+     * @param value the value
+     * @return the copied value
+     */
+    private Object rewriteReferences(Object value) {
+        if (value instanceof DocumentReference) {
+            return this.target.getDocument(((DocumentReference) value).getPath());
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Map<String, Object> copy = new HashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                copy.put((String) entry.getKey(), rewriteReferences(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(rewriteReferences(item));
+            }
+            return copy;
+        } else {
+            return value;
+        }
+    }
+}
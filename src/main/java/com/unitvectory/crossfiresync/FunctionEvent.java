@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.net.URI;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.Set;
+import io.cloudevents.CloudEvent;
+import io.cloudevents.CloudEventData;
+import io.cloudevents.SpecVersion;
+import lombok.NonNull;
+
+/**
+ * A CloudEvent received by the FunctionMain, with only the attributes the functions use.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class FunctionEvent implements CloudEvent {
+
+    private static final Set<String> ATTRIBUTE_NAMES =
+            Set.of("specversion", "id", "type", "source");
+
+    private final String id;
+
+    private final String type;
+
+    private final URI source;
+
+    private final byte[] data;
+
+    /**
+     * Create a new FunctionEvent.
+     * 
+     * @param id the event ID
+     * @param type the event type
+     * @param source the event source
+     * @param data the data
+     */
+    FunctionEvent(@NonNull String id, @NonNull String type, @NonNull URI source,
+            @NonNull byte[] data) {
+        this.id = id;
+        this.type = type;
+        this.source = source;
+        this.data = data;
+    }
+
+    @Override
+    public CloudEventData getData() {
+        return () -> this.data;
+    }
+
+    @Override
+    public SpecVersion getSpecVersion() {
+        return SpecVersion.V1;
+    }
+
+    @Override
+    public String getId() {
+        return this.id;
+    }
+
+    @Override
+    public String getType() {
+        return this.type;
+    }
+
+    @Override
+    public URI getSource() {
+        return this.source;
+    }
+
+    @Override
+    public String getDataContentType() {
+        return null;
+    }
+
+    @Override
+    public URI getDataSchema() {
+        return null;
+    }
+
+    @Override
+    public String getSubject() {
+        return null;
+    }
+
+    @Override
+    public OffsetDateTime getTime() {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String attributeName) {
+        switch (attributeName) {
+            case "specversion":
+                return getSpecVersion();
+            case "id":
+                return this.id;
+            case "type":
+                return this.type;
+            case "source":
+                return this.source;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the names of the attributes that are set.
+     * 
+     * @return the attribute names
+     */
+    public Set<String> getAttributeNames() {
+        return ATTRIBUTE_NAMES;
+    }
+
+    @Override
+    public Object getExtension(String extensionName) {
+        return null;
+    }
+
+    @Override
+    public Set<String> getExtensionNames() {
+        return Collections.emptySet();
+    }
+}
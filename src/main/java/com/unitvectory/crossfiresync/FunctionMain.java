@@ -0,0 +1,327 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.cloud.functions.CloudEventsFunction;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+import io.cloudevents.CloudEvent;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Runs the FirestoreChangePublisher or the PubSubChangeConsumer as a standalone executable, so it
+ * can be built as a native image that starts without a JVM.
+ * 
+ * Without event files the function is served over HTTP on the PORT environment variable
+ * (default 8080), receiving CloudEvents in binary content mode as Eventarc and Pub/Sub push
+ * subscriptions deliver them. With event files the data of each file is processed as one event
+ * and the executable exits, failing if any event failed. The function is the first argument,
+ * publisher or consumer; the PublisherMain and ConsumerMain entry points of the native executables
+ * run one function without it. The options are:
+ * 
+ * <ul>
+ * <li><b>--in-memory</b>: Use the in-memory Firestore and Pub/Sub instead of the services</li>
+ * <li><b>--database name</b>: The database name instead of the DATABASE environment variable</li>
+ * <li><b>--replication-mode mode</b>: The replication mode instead of the REPLICATION_MODE
+ * environment variable</li>
+ * <li><b>--report</b>: Print the startup time, events, failures, and peak RSS when done</li>
+ * </ul>
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FunctionMain {
+
+    private static final Logger logger = Logger.getLogger(FunctionMain.class.getName());
+
+    static final String PUBLISHER = "publisher";
+
+    static final String CONSUMER = "consumer";
+
+    static final String FIRESTORE_EVENT_TYPE = "google.cloud.firestore.document.v1.written";
+
+    static final String PUBSUB_EVENT_TYPE = "google.cloud.pubsub.topic.v1.messagePublished";
+
+    @Getter
+    private final String function;
+
+    private final CloudEventsFunction cloudEventsFunction;
+
+    private final AtomicLong events = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Create a new FunctionMain.
+     * 
+     * @param function the function, publisher or consumer
+     * @param cloudEventsFunction the function the events are passed to
+     */
+    FunctionMain(@NonNull String function, @NonNull CloudEventsFunction cloudEventsFunction) {
+        this.function = function;
+        this.cloudEventsFunction = cloudEventsFunction;
+    }
+
+    /**
+     * Create the function.
+     * 
+     * @param function the function, publisher or consumer
+     * @param inMemory true to use the in-memory Firestore and Pub/Sub
+     * @param database the database name; null to use the DATABASE environment variable
+     * @param replicationMode the replication mode; null to use the REPLICATION_MODE environment
+     *        variable
+     * @return the FunctionMain
+     */
+    static FunctionMain create(String function, boolean inMemory, String database,
+            ReplicationMode replicationMode) {
+        InMemoryFirestoreFactory firestoreFactory =
+                inMemory ? new InMemoryFirestoreFactory() : null;
+        if (PUBLISHER.equals(function)) {
+            FirestoreChangeConfig.FirestoreChangeConfigBuilder builder =
+                    FirestoreChangeConfig.builder();
+            if (database != null) {
+                builder.databaseName(database);
+            }
+            if (replicationMode != null) {
+                builder.replicationMode(replicationMode);
+            }
+            if (inMemory) {
+                builder.project("crossfiresync").topic("crossfiresync")
+                        .firestoreFactory(firestoreFactory)
+                        .publisherFactory(new InMemoryPublisherFactory());
+            }
+            return new FunctionMain(function, new FirestoreChangePublisher(builder.build()));
+        } else if (CONSUMER.equals(function)) {
+            PubSubChangeConfig.PubSubChangeConfigBuilder builder = PubSubChangeConfig.builder();
+            if (database != null) {
+                builder.databaseName(database);
+            }
+            if (replicationMode != null) {
+                builder.replicationMode(replicationMode);
+            }
+            if (inMemory) {
+                builder.firestoreFactory(firestoreFactory);
+            }
+            return new FunctionMain(function, new PubSubChangeConsumer(builder.build()));
+        }
+
+        throw new CrossFireSyncException("Unknown function " + function, null);
+    }
+
+    /**
+     * Process the data of one event.
+     * 
+     * @param id the event ID
+     * @param data the data; the Firestore event for the publisher, the Pub/Sub push JSON for the
+     *        consumer
+     * @return true if the event was processed
+     */
+    boolean process(String id, byte[] data) {
+        String type = PUBLISHER.equals(this.function) ? FIRESTORE_EVENT_TYPE : PUBSUB_EVENT_TYPE;
+        return process(new FunctionEvent(id, type, URI.create("//crossfiresync"), data));
+    }
+
+    /**
+     * Process one event.
+     * 
+     * @param event the event
+     * @return true if the event was processed
+     */
+    boolean process(CloudEvent event) {
+        this.events.incrementAndGet();
+        try {
+            this.cloudEventsFunction.accept(event);
+            return true;
+        } catch (Exception e) {
+            this.failures.incrementAndGet();
+            logger.log(Level.SEVERE, "Failed to process event " + event.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of events processed.
+     * 
+     * @return the number of events
+     */
+    long getEvents() {
+        return this.events.get();
+    }
+
+    /**
+     * Gets the number of events that failed.
+     * 
+     * @return the number of failures
+     */
+    long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * Serve the function over HTTP until the process is stopped.
+     * 
+     * @param port the port
+     * @throws IOException if the server could not be started
+     */
+    void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        logger.info(() -> "Serving " + this.function + " on port " + port);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] data = input.readAllBytes();
+            String id = exchange.getRequestHeaders().getFirst("ce-id");
+            String type = exchange.getRequestHeaders().getFirst("ce-type");
+            String source = exchange.getRequestHeaders().getFirst("ce-source");
+            if (id == null || type == null || source == null) {
+                respond(exchange, 400, "Missing CloudEvent headers");
+                return;
+            }
+
+            boolean processed = process(new FunctionEvent(id, type, URI.create(source), data));
+            respond(exchange, processed ? 200 : 500, processed ? "OK" : "Failed");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Gets the report of the startup time, events, failures, and peak RSS.
+     * 
+     * @param startup the time from the process start until the function was created
+     * @return the report
+     */
+    String report(Duration startup) {
+        return "startupMillis=" + startup.toMillis() + " events=" + getEvents() + " failures="
+                + getFailures() + " maxRssKb=" + peakRssKb();
+    }
+
+    /**
+     * Gets the peak resident set size of the process from procfs.
+     * 
+     * @return the peak RSS in KiB; -1 if not known
+     */
+    static long peakRssKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not available on this platform
+        }
+        return -1;
+    }
+
+    /**
+     * Run the function.
+     * 
+     * @param args the function followed by the options and the event files
+     * @throws Exception if the function could not be started
+     */
+    public static void main(String[] args) throws Exception {
+        run(null, args);
+    }
+
+    /**
+     * Run the function.
+     * 
+     * @param function the function, publisher or consumer; null to take it from the arguments
+     * @param args the options and the event files
+     * @throws Exception if the function could not be started
+     */
+    static void run(String function, String[] args) throws Exception {
+        boolean inMemory = false;
+        boolean report = false;
+        String database = null;
+        ReplicationMode replicationMode = null;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--in-memory".equals(arg)) {
+                inMemory = true;
+            } else if ("--report".equals(arg)) {
+                report = true;
+            } else if ("--database".equals(arg) && i + 1 < args.length) {
+                database = args[++i];
+            } else if ("--replication-mode".equals(arg) && i + 1 < args.length) {
+                replicationMode = ReplicationMode.parseFallbackToNone(args[++i]);
+            } else if (function == null && (PUBLISHER.equals(arg) || CONSUMER.equals(arg))) {
+                function = arg;
+            } else {
+                files.add(Path.of(arg));
+            }
+        }
+
+        if (function == null) {
+            System.err.println("Usage: crossfiresync publisher|consumer [--in-memory] "
+                    + "[--database name] [--replication-mode mode] [--report] [event files]");
+            System.exit(2);
+            return;
+        }
+
+        FunctionMain main = create(function, inMemory, database, replicationMode);
+        Duration startup = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now())).orElse(Duration.ZERO);
+
+        if (files.isEmpty()) {
+            String port = System.getenv("PORT");
+            main.serve(port == null ? 8080 : Integer.parseInt(port));
+            if (report) {
+                System.out.println(main.report(startup));
+            }
+            return;
+        }
+
+        for (Path file : files) {
+            main.process(file.getFileName().toString(), Files.readAllBytes(file));
+        }
+        if (report) {
+            System.out.println(main.report(startup));
+        }
+        System.exit(main.getFailures() == 0 ? 0 : 1);
+    }
+}
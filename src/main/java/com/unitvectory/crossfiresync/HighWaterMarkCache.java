@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import com.google.cloud.Timestamp;
+import lombok.NonNull;
+
+/**
+ * The HighWaterMarkCache records the update time of the latest change the PubSubChangeConsumer
+ * applied to each document, so an older change can be skipped without reading the document.
+ *
+ * Once a change is applied the document has that update time or a newer one, so a change at or
+ * before the high-water mark would not be written by the transaction either. The marks are kept
+ * in a compact table keyed by the hash of the document path, optionally off the heap, so a
+ * million documents cost about 50 MB. When the cache is full the oldest marks are evicted.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class HighWaterMarkCache implements SnapshotState {
+
+    /**
+     * The age of the marks first evicted when the cache is full
+     */
+    private static final long EVICT_SECONDS = 3600;
+
+    private final int maxSize;
+
+    private final PathTimestampTable table;
+
+    private long hits;
+
+    private long misses;
+
+    private long skips;
+
+    private long evictions;
+
+    /**
+     * Create a new HighWaterMarkCache.
+     *
+     * @param maxSize the maximum number of documents
+     * @param offHeap true to keep the marks off the heap
+     */
+    public HighWaterMarkCache(int maxSize, boolean offHeap) {
+        this.maxSize = Math.max(1, maxSize);
+        this.table = new PathTimestampTable(Math.min(this.maxSize, 1024), offHeap);
+    }
+
+    /**
+     * Checks if a change is at or before the high-water mark of the document.
+     *
+     * @param documentPath the document path
+     * @param timestamp the update time of the change
+     * @return true if a change at or after the timestamp was already applied
+     */
+    public synchronized boolean isStale(@NonNull String documentPath,
+            @NonNull Timestamp timestamp) {
+        int slot = this.table.find(PathTimestampTable.key(documentPath));
+        if (slot < 0) {
+            this.misses++;
+            return false;
+        }
+
+        this.hits++;
+        if (PathTimestampTable.compare(this.table.seconds(slot), this.table.nanos(slot),
+                timestamp.getSeconds(), timestamp.getNanos()) >= 0) {
+            this.skips++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record that a change was applied to a document.
+     *
+     * @param documentPath the document path
+     * @param timestamp the update time of the change
+     */
+    public synchronized void record(@NonNull String documentPath, @NonNull Timestamp timestamp) {
+        if (this.table.size() >= this.maxSize) {
+            evict(timestamp);
+        }
+
+        this.table.putIfNewer(PathTimestampTable.key(documentPath), timestamp.getSeconds(),
+                timestamp.getNanos(), 0);
+    }
+
+    /**
+     * Remove the high-water mark of a document that was deleted.
+     *
+     * @param documentPath the document path
+     */
+    public synchronized void remove(@NonNull String documentPath) {
+        if (this.table.size() > 0) {
+            this.table.remove(PathTimestampTable.key(documentPath));
+        }
+    }
+
+    /**
+     * Gets the statistics of the cache.
+     *
+     * @return the statistics
+     */
+    public synchronized HighWaterMarkStats getStats() {
+        return HighWaterMarkStats.builder().hits(this.hits).misses(this.misses).skips(this.skips)
+                .evictions(this.evictions).size(this.table.size()).maxSize(this.maxSize).build();
+    }
+
+    @Override
+    public synchronized StateSection saveState(String name) {
+        return new StateSection(name, Collections.emptyList(), this.table.copyEntries());
+    }
+
+    @Override
+    public synchronized int loadState(StateSection section) {
+        ByteBuffer entries = section.getEntries();
+        int loaded = 0;
+        while (entries.hasRemaining() && this.table.size() < this.maxSize) {
+            long key = entries.getLong();
+            long seconds = entries.getLong();
+            int nanos = entries.getInt();
+            entries.getInt();
+            this.table.putIfNewer(key, seconds, nanos, 0);
+            loaded++;
+        }
+        return loaded;
+    }
+
+    /**
+     * Remove the marks older than an hour before the timestamp, halving the age until the cache
+     * is below three quarters full, and if still full every mark.
+     */
+    private void evict(Timestamp now) {
+        int before = this.table.size();
+        int target = this.maxSize - this.maxSize / 4;
+        for (long age = EVICT_SECONDS; age > 0 && this.table.size() > target; age /= 2) {
+            this.table.removeOlderThan(now.getSeconds() - age, 0);
+        }
+
+        if (this.table.size() >= this.maxSize) {
+            this.table.clear();
+        }
+
+        this.evictions += before - this.table.size();
+    }
+}
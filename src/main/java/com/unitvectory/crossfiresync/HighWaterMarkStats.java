@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a HighWaterMarkCache.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class HighWaterMarkStats {
+
+    /**
+     * The number of changes to documents with a high-water mark.
+     */
+    private final long hits;
+
+    /**
+     * The number of changes to documents without a high-water mark.
+     */
+    private final long misses;
+
+    /**
+     * The number of changes skipped as at or before the high-water mark.
+     */
+    private final long skips;
+
+    /**
+     * The number of marks evicted to stay within the maximum size.
+     */
+    private final long evictions;
+
+    /**
+     * The number of documents with a high-water mark.
+     */
+    private final int size;
+
+    /**
+     * The maximum number of documents.
+     */
+    private final int maxSize;
+
+    /**
+     * Gets the fraction of changes to documents with a high-water mark.
+     *
+     * @return the hit rate; 0 if there have been no changes
+     */
+    public double getHitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.unitvectory.crossfiresync.firestore.CollectionGroupListener;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocumentChange;
+import lombok.NonNull;
+
+/**
+ * This class is responsible for publishing the changes to a Firestore database from long-running
+ * collection group listeners instead of a function invoked for each write.
+ *
+ * Each snapshot of a listener is a batch of document changes that are converted to the same
+ * Firestore event a trigger delivers and passed to a FirestoreChangePublisher, so they are
+ * filtered by the same replication rules and published as the same messages. An update needs the
+ * previous version of the document for those rules, so the replication attributes of every
+ * document in the collection groups are kept in memory and sent as the old value, along with the
+ * content hash of the document so the collection digests subtract the same hash a full old value
+ * would. The messages of a snapshot are published without waiting for each of them, then sent
+ * with one flush and waited on together, so a large snapshot is sent in batches.
+ *
+ * The read time of each snapshot is saved to the checkpoint once its changes are published. The
+ * first snapshot of a listener has every document: documents updated after the checkpoint are
+ * published and the rest are skipped, and without a checkpoint the whole snapshot is skipped so
+ * publishing starts from the time the listener starts. When a listener fails it reconnects after
+ * a backoff and resumes the same way; documents known before the failure that are missing from
+ * the first snapshot were deleted while disconnected and are published as deletes. A snapshot
+ * that fails to publish is not checkpointed and the listener reconnects so it is published again.
+ * Each change is sent with an event ID of the document path and its update time so the consumer
+ * can skip changes published twice.
+ *
+ * Deletes made while the process was stopped are not published as the deleted documents are not
+ * known after a restart.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ListenerPublisher implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ListenerPublisher.class.getName());
+
+    /**
+     * The fields kept for each document as the replication rules only compare these
+     */
+    private static final Set<String> TRACKED_FIELDS =
+            Set.of(CrossFireSyncAttributes.TIMESTAMP_FIELD,
+                    CrossFireSyncAttributes.SOURCE_DATABASE_FIELD,
+                    CrossFireSyncAttributes.DELETE_FIELD);
+
+    private final FirestoreChangePublisher publisher;
+
+    private final CrossFireSyncFirestore firestore;
+
+    private final String project;
+
+    private final String database;
+
+    private final List<String> collectionGroups;
+
+    private final CatchUpCheckpoint checkpoint;
+
+    private final long reconnectDelayMillis;
+
+    private final long maxReconnectDelayMillis;
+
+    private final boolean configured;
+
+    private final Map<String, GroupListener> listeners = new LinkedHashMap<>();
+
+    private final LongAdder snapshots = new LongAdder();
+
+    private final LongAdder changes = new LongAdder();
+
+    private final LongAdder skipped = new LongAdder();
+
+    private final LongAdder missedDeletes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder reconnects = new LongAdder();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new ListenerPublisher.
+     */
+    public ListenerPublisher() {
+        this(ListenerPublisherConfig.builder().build());
+    }
+
+    /**
+     * Create a new ListenerPublisher.
+     *
+     * @param config the configuration
+     */
+    public ListenerPublisher(@NonNull ListenerPublisherConfig config) {
+        FirestoreChangeConfig publisherConfig = config.getPublisherConfig();
+        this.publisher = new FirestoreChangePublisher(publisherConfig);
+        this.firestore = this.publisher.getFirestore();
+        this.project = publisherConfig.getProject() == null ? "-" : publisherConfig.getProject();
+        this.database = publisherConfig.getDatabaseName();
+        this.collectionGroups = config.getCollectionGroups();
+        this.reconnectDelayMillis = config.getReconnectDelayMillis();
+        this.maxReconnectDelayMillis = config.getMaxReconnectDelayMillis();
+
+        String checkpointFile = config.getCheckpointFile();
+        this.checkpoint = new CatchUpCheckpoint(checkpointFile == null || checkpointFile.isBlank()
+                ? null : Path.of(checkpointFile));
+
+        this.configured = isConfigured();
+    }
+
+    private boolean isConfigured() {
+        boolean valid = true;
+
+        if (this.collectionGroups == null || this.collectionGroups.isEmpty()) {
+            logger.severe("Collection groups are not set.");
+            valid = false;
+        }
+
+        if (this.reconnectDelayMillis <= 0
+                || this.maxReconnectDelayMillis < this.reconnectDelayMillis) {
+            logger.severe("Reconnect delay must be positive and at most the maximum delay.");
+            valid = false;
+        }
+
+        if (this.firestore == null) {
+            logger.severe("CrossFireSyncFirestore is not set.");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Gets the publisher the changes are passed to.
+     *
+     * @return the publisher
+     */
+    public FirestoreChangePublisher getPublisher() {
+        return this.publisher;
+    }
+
+    /**
+     * Gets the statistics of the listeners.
+     *
+     * @return the statistics
+     */
+    public synchronized ListenerPublisherStats getStats() {
+        long trackedDocuments = 0;
+        for (GroupListener listener : this.listeners.values()) {
+            trackedDocuments += listener.size();
+        }
+
+        return ListenerPublisherStats.builder().snapshots(this.snapshots.sum())
+                .changes(this.changes.sum()).skipped(this.skipped.sum())
+                .missedDeletes(this.missedDeletes.sum()).failures(this.failures.sum())
+                .reconnects(this.reconnects.sum()).trackedDocuments(trackedDocuments).build();
+    }
+
+    /**
+     * Start listening to the configured collection groups.
+     */
+    public synchronized void start() {
+        if (this.scheduler != null) {
+            return;
+        } else if (!this.configured) {
+            logger.severe("Not configured, changes will not be published.");
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crossfiresync-listener");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String collectionGroup : this.collectionGroups) {
+            GroupListener listener = new GroupListener(collectionGroup, this.scheduler);
+            this.listeners.put(collectionGroup, listener);
+            listener.connect();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (GroupListener listener : this.listeners.values()) {
+            listener.close();
+        }
+        this.listeners.clear();
+
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Pass a change to the publisher as the Firestore event a trigger would deliver.
+     *
+     * @param oldValue the document before the change; null for an insert
+     * @param value the document after the change; null for a delete
+     * @param time the update time of the change, or the read time of a delete
+     * @param pending the publishes of the snapshot that have not been waited on
+     */
+    private void publish(FirestoreDocument oldValue, FirestoreDocument value, Timestamp time,
+            List<FirestoreChangePublisher.PendingPublish> pending) {
+        DocumentEventData firestoreEventData =
+                DocumentEventConverter.toDocumentEventData(this.project, this.database, oldValue,
+                        value);
+        String documentPath = value != null ? value.getDocumentPath() : oldValue.getDocumentPath();
+        this.publisher.processAsync(firestoreEventData, firestoreEventData.toByteArray(),
+                "listener:" + documentPath + "@" + time, pending);
+        this.changes.increment();
+    }
+
+    /**
+     * Keep only the replication attributes and the content hash of a document.
+     */
+    private static FirestoreDocument tracked(FirestoreDocument document) {
+        Map<String, Object> data = new HashMap<>();
+        if (document.getData() != null) {
+            for (String field : TRACKED_FIELDS) {
+                if (document.getData().containsKey(field)) {
+                    data.put(field, document.getData().get(field));
+                }
+            }
+            data.put(CrossFireSyncAttributes.CONTENT_HASH_FIELD,
+                    DocumentHasher.hashDocument(document.getData()));
+        }
+
+        return FirestoreDocument.builder().documentPath(document.getDocumentPath()).data(data)
+                .updateTime(document.getUpdateTime()).build();
+    }
+
+    /**
+     * The listener of one collection group, reconnected when it fails.
+     */
+    private final class GroupListener {
+
+        private final String collectionGroup;
+
+        private final ScheduledExecutorService scheduler;
+
+        /**
+         * The replication attributes and content hash of each document by path
+         */
+        private final Map<String, FirestoreDocument> documents = new HashMap<>();
+
+        private ListenerRegistration registration;
+
+        /**
+         * Incremented for each connection so callbacks from a replaced listener are ignored
+         */
+        private int generation;
+
+        private boolean initial;
+
+        private int failuresInRow;
+
+        private boolean closed;
+
+        private GroupListener(String collectionGroup, ScheduledExecutorService scheduler) {
+            this.collectionGroup = collectionGroup;
+            this.scheduler = scheduler;
+        }
+
+        private synchronized int size() {
+            return this.documents.size();
+        }
+
+        private synchronized void connect() {
+            if (this.closed) {
+                return;
+            }
+
+            int connection = ++this.generation;
+            this.initial = true;
+            try {
+                ListenerRegistration listenerRegistration =
+                        firestore.listen(this.collectionGroup, new CollectionGroupListener() {
+                            @Override
+                            public void onSnapshot(Timestamp readTime,
+                                    List<FirestoreDocumentChange> changes) {
+                                snapshot(connection, readTime, changes);
+                            }
+
+                            @Override
+                            public void onError(Exception error) {
+                                fail(connection, error);
+                            }
+                        });
+
+                if (connection == this.generation) {
+                    this.registration = listenerRegistration;
+                } else {
+                    // Failed while delivering the first snapshot
+                    listenerRegistration.remove();
+                }
+            } catch (RuntimeException e) {
+                fail(connection, e);
+            }
+        }
+
+        private synchronized void snapshot(int connection, Timestamp readTime,
+                List<FirestoreDocumentChange> changes) {
+            if (connection != this.generation || this.closed) {
+                return;
+            }
+
+            snapshots.increment();
+            boolean first = this.initial;
+            this.initial = false;
+            Timestamp after = checkpoint.getTimestamp(this.collectionGroup, null);
+
+            // The documents are updated once the whole snapshot is published, so a snapshot
+            // published again after a failure compares against the same old values
+            Map<String, FirestoreDocument> updates = new HashMap<>();
+            Set<String> missing =
+                    first ? new HashSet<>(this.documents.keySet()) : new HashSet<>();
+            String lastDocumentPath = null;
+            List<FirestoreChangePublisher.PendingPublish> pending = new ArrayList<>();
+            try {
+                try {
+                    for (FirestoreDocumentChange change : changes) {
+                        FirestoreDocument document = change.getDocument();
+                        String documentPath = document.getDocumentPath();
+                        lastDocumentPath = documentPath;
+                        missing.remove(documentPath);
+
+                        if (FirestoreDocumentChange.Type.REMOVED.equals(change.getType())) {
+                            updates.put(documentPath, null);
+                            publish(document, null, readTime, pending);
+                            continue;
+                        }
+
+                        updates.put(documentPath, tracked(document));
+                        if (first && (after == null || document.getUpdateTime() == null
+                                || document.getUpdateTime().compareTo(after) <= 0)) {
+                            // Unchanged since the checkpoint, or before the listener first started
+                            skipped.increment();
+                            continue;
+                        }
+
+                        publish(this.documents.get(documentPath), document,
+                                document.getUpdateTime() == null ? readTime
+                                        : document.getUpdateTime(),
+                                pending);
+                    }
+
+                    // Deleted while the listener was disconnected
+                    for (String documentPath : new ArrayList<>(missing)) {
+                        updates.put(documentPath, null);
+                        publish(this.documents.get(documentPath), null, readTime, pending);
+                        missedDeletes.increment();
+                    }
+                } finally {
+                    // The messages of the snapshot are sent together and waited on once
+                    publisher.awaitPublished(pending);
+                }
+            } catch (RuntimeException e) {
+                failures.increment();
+                fail(connection, e);
+                return;
+            }
+
+            for (Map.Entry<String, FirestoreDocument> update : updates.entrySet()) {
+                if (update.getValue() == null) {
+                    this.documents.remove(update.getKey());
+                } else {
+                    this.documents.put(update.getKey(), update.getValue());
+                }
+            }
+
+            synchronized (checkpoint) {
+                Timestamp saved = checkpoint.getTimestamp(this.collectionGroup, null);
+                if (saved == null || readTime.compareTo(saved) > 0) {
+                    checkpoint.update(this.collectionGroup, readTime,
+                            lastDocumentPath == null ? "" : lastDocumentPath);
+                }
+            }
+            this.failuresInRow = 0;
+        }
+
+        private synchronized void fail(int connection, Exception error) {
+            if (connection != this.generation || this.closed) {
+                return;
+            }
+
+            // Ignore anything more from the failed listener
+            this.generation++;
+            if (this.registration != null) {
+                this.registration.remove();
+                this.registration = null;
+            }
+
+            long delay = Math.min(maxReconnectDelayMillis,
+                    reconnectDelayMillis << Math.min(this.failuresInRow, 20));
+            this.failuresInRow++;
+            logger.log(Level.WARNING, "Listener for " + this.collectionGroup
+                    + " failed, reconnecting in " + delay + " ms", error);
+            try {
+                this.scheduler.schedule(() -> {
+                    reconnects.increment();
+                    connect();
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed while failing
+            }
+        }
+
+        private synchronized void close() {
+            this.closed = true;
+            if (this.registration != null) {
+                this.registration.remove();
+                this.registration = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for ListenerPublisher allows for customization.
+ *
+ * By default, the configuration will use the following environment variables:
+ *
+ * <ul>
+ * <li><b>COLLECTION_GROUPS</b>: Comma separated collection group ids to listen to</li>
+ * <li><b>CHECKPOINT_FILE</b>: The local file the read time of each listener is persisted to</li>
+ * <li><b>LISTENER_RECONNECT_DELAY_MILLIS</b>: The delay before a failed listener reconnects</li>
+ * <li><b>LISTENER_MAX_RECONNECT_DELAY_MILLIS</b>: The maximum delay between reconnects</li>
+ * </ul>
+ *
+ * The changes are published as configured by the FirestoreChangeConfig.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class ListenerPublisherConfig {
+
+    /**
+     * The configuration of the publisher the changes are passed to
+     */
+    @Builder.Default
+    private final FirestoreChangeConfig publisherConfig = FirestoreChangeConfig.builder().build();
+
+    /**
+     * The collection group ids to listen to
+     *
+     * Use the COLLECTION_GROUPS environment variable to set this value as a comma separated list.
+     */
+    @Builder.Default
+    private final List<String> collectionGroups =
+            ConfigValues.parseList(System.getenv("COLLECTION_GROUPS"));
+
+    /**
+     * The local file the read time of each listener is persisted to after each snapshot
+     *
+     * Use the CHECKPOINT_FILE environment variable to set this value. When not set the read times
+     * are only kept in memory and a restarted publisher does not publish the changes made while it
+     * was stopped.
+     */
+    @Builder.Default
+    private final String checkpointFile = System.getenv("CHECKPOINT_FILE");
+
+    /**
+     * The delay before a failed listener reconnects, doubled for each failure in a row
+     *
+     * Use the LISTENER_RECONNECT_DELAY_MILLIS environment variable to set this value.
+     */
+    @Builder.Default
+    private final long reconnectDelayMillis =
+            ConfigValues.parseLong(System.getenv("LISTENER_RECONNECT_DELAY_MILLIS"), 1000);
+
+    /**
+     * The maximum delay between reconnects
+     *
+     * Use the LISTENER_MAX_RECONNECT_DELAY_MILLIS environment variable to set this value.
+     */
+    @Builder.Default
+    private final long maxReconnectDelayMillis =
+            ConfigValues.parseLong(System.getenv("LISTENER_MAX_RECONNECT_DELAY_MILLIS"), 60000);
+}
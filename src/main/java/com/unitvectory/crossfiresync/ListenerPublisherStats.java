@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a ListenerPublisher.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class ListenerPublisherStats {
+
+    /**
+     * The number of snapshots received.
+     */
+    private final long snapshots;
+
+    /**
+     * The number of document changes passed to the publisher.
+     */
+    private final long changes;
+
+    /**
+     * The number of documents in a first snapshot skipped as unchanged since the checkpoint.
+     */
+    private final long skipped;
+
+    /**
+     * The number of deletes found by comparing the first snapshot after a reconnect with the
+     * documents known before it.
+     */
+    private final long missedDeletes;
+
+    /**
+     * The number of snapshots that failed to publish and were retried by reconnecting.
+     */
+    private final long failures;
+
+    /**
+     * The number of times a listener was reconnected.
+     */
+    private final long reconnects;
+
+    /**
+     * The number of documents whose replication attributes are tracked.
+     */
+    private final long trackedDocuments;
+}
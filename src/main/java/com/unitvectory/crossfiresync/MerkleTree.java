@@ -0,0 +1,280 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import com.unitvectory.crossfiresync.Divergence.DivergenceType;
+import lombok.Value;
+
+/**
+ * A Merkle tree of the document content hashes in a collection.
+ *
+ * Documents are added in path order and split into ranges of consecutive paths. A range starts at
+ * each document whose path hash is a multiple of the range size, so the ranges only depend on the
+ * paths and a document that is missing in one database only changes the ranges around it. Each
+ * range is placed into a leaf by the hash of its first path so the same range lands in the same
+ * leaf in every database. The nodes are stored as an implicit binary heap with the root at index 1
+ * and the leaves in the second half of the array. Only the hashes and the bounds of the ranges are
+ * kept; the ranges of the leaves that differ are listed again to find the divergent paths.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class MerkleTree {
+
+    private final int depth;
+
+    private final int leafCount;
+
+    private final int rangeSize;
+
+    private final long[] nodes;
+
+    private final List<PathRange> ranges = new ArrayList<>();
+
+    private String lastDocumentPath;
+
+    private String rangeAfterDocumentPath;
+
+    private String rangeStartDocumentPath;
+
+    private int rangeLeaf;
+
+    private int rangeDocuments;
+
+    private boolean sealed;
+
+    /**
+     * A range of consecutive document paths listed from a database.
+     */
+    @Value
+    static class PathRange {
+
+        /**
+         * The path of the document listed before the range; null for the first range
+         */
+        private final String afterDocumentPath;
+
+        /**
+         * The path of the first document; null if the first range does not start at a boundary
+         */
+        private final String startDocumentPath;
+
+        /**
+         * The number of documents listed in the range
+         */
+        private final int documents;
+
+        /**
+         * The leaf the range is placed in
+         */
+        private final int leaf;
+    }
+
+    /**
+     * Create a new MerkleTree.
+     *
+     * @param depth the depth of the tree; the tree has 2^depth leaves
+     * @param rangeSize the average number of documents in each range
+     */
+    MerkleTree(int depth, int rangeSize) {
+        if (depth < 0 || depth > 20) {
+            throw new IllegalArgumentException("depth must be between 0 and 20");
+        }
+
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("rangeSize must be positive");
+        }
+
+        this.depth = depth;
+        this.leafCount = 1 << depth;
+        this.rangeSize = rangeSize;
+        this.nodes = new long[2 << depth];
+    }
+
+    /**
+     * Add a document to the tree; documents must be added in the order they are listed.
+     *
+     * @param documentPath the document path
+     * @param contentHash the document content hash
+     */
+    void add(String documentPath, long contentHash) {
+        skip(documentPath);
+        this.nodes[this.leafCount + this.rangeLeaf] +=
+                DocumentHasher.hashEntry(documentPath, contentHash);
+    }
+
+    /**
+     * Add a listed document that is not part of the content, such as one flagged for delete, so
+     * the ranges match the documents listed again.
+     *
+     * @param documentPath the document path
+     */
+    void skip(String documentPath) {
+        if (this.sealed) {
+            throw new IllegalStateException("MerkleTree is sealed");
+        }
+
+        boolean boundary = isBoundary(documentPath);
+        if (boundary || this.rangeDocuments == 0) {
+            closeRange();
+            this.rangeAfterDocumentPath = this.lastDocumentPath;
+            this.rangeStartDocumentPath = boundary ? documentPath : null;
+            this.rangeLeaf = leafIndex(this.rangeStartDocumentPath);
+        }
+
+        this.lastDocumentPath = documentPath;
+        this.rangeDocuments++;
+    }
+
+    private void closeRange() {
+        if (this.rangeDocuments > 0) {
+            this.ranges.add(new PathRange(this.rangeAfterDocumentPath,
+                    this.rangeStartDocumentPath, this.rangeDocuments, this.rangeLeaf));
+            this.rangeDocuments = 0;
+        }
+    }
+
+    /**
+     * Compute the hashes of the inner nodes, no documents can be added afterwards.
+     */
+    void seal() {
+        closeRange();
+        for (int i = this.leafCount - 1; i >= 1; i--) {
+            this.nodes[i] = DocumentHasher.combine(this.nodes[2 * i], this.nodes[2 * i + 1]);
+        }
+        this.sealed = true;
+    }
+
+    /**
+     * Gets the hash of the root of the tree.
+     *
+     * @return the root hash
+     */
+    long getRoot() {
+        return this.nodes[1];
+    }
+
+    /**
+     * Checks if a document starts a new range.
+     *
+     * @param documentPath the document path
+     * @return true if the document is the first of a range
+     */
+    boolean isBoundary(String documentPath) {
+        return this.rangeSize == 1 || Long
+                .remainderUnsigned(DocumentHasher.hashString(documentPath), this.rangeSize) == 0;
+    }
+
+    /**
+     * Gets the leaf a range is placed in.
+     *
+     * @param startDocumentPath the path of the first document of the range; null for a first
+     *        range that does not start at a boundary
+     * @return the leaf index
+     */
+    int leafIndex(String startDocumentPath) {
+        if (this.depth == 0) {
+            return 0;
+        }
+
+        String path = startDocumentPath == null ? "" : startDocumentPath;
+        return (int) (DocumentHasher.hashString(path) >>> (64 - this.depth));
+    }
+
+    /**
+     * Gets the ranges placed in the leaves.
+     *
+     * @param leaves the leaf indexes
+     * @return the ranges in the order they were listed
+     */
+    List<PathRange> getRanges(BitSet leaves) {
+        if (!this.sealed) {
+            throw new IllegalStateException("MerkleTree is not sealed");
+        }
+
+        List<PathRange> selected = new ArrayList<>();
+        for (PathRange range : this.ranges) {
+            if (leaves.get(range.getLeaf())) {
+                selected.add(range);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Compare two trees descending only into the nodes that differ.
+     *
+     * @param source the tree of the source database
+     * @param target the tree of the target database
+     * @param leaves receives the index of each leaf that differs
+     * @return the number of nodes compared
+     */
+    static long compare(MerkleTree source, MerkleTree target, BitSet leaves) {
+        if (source.depth != target.depth) {
+            throw new IllegalArgumentException("MerkleTree depth does not match");
+        }
+
+        if (!source.sealed || !target.sealed) {
+            throw new IllegalStateException("MerkleTree is not sealed");
+        }
+
+        return compare(source, target, 1, leaves);
+    }
+
+    private static long compare(MerkleTree source, MerkleTree target, int node, BitSet leaves) {
+        if (source.nodes[node] == target.nodes[node]) {
+            return 1;
+        }
+
+        if (node >= source.leafCount) {
+            leaves.set(node - source.leafCount);
+            return 1;
+        }
+
+        return 1 + compare(source, target, 2 * node, leaves)
+                + compare(source, target, 2 * node + 1, leaves);
+    }
+
+    /**
+     * Compare the documents of the leaves that differ.
+     *
+     * @param source the content hashes of the source documents by path
+     * @param target the content hashes of the target documents by path
+     * @param divergences receives each document that differs
+     */
+    static void compareLeaves(Map<String, Long> source, Map<String, Long> target,
+            Consumer<Divergence> divergences) {
+        for (Map.Entry<String, Long> entry : source.entrySet()) {
+            Long targetHash = target.get(entry.getKey());
+            if (targetHash == null) {
+                divergences.accept(
+                        new Divergence(entry.getKey(), DivergenceType.MISSING_IN_TARGET));
+            } else if (!targetHash.equals(entry.getValue())) {
+                divergences.accept(
+                        new Divergence(entry.getKey(), DivergenceType.CONTENT_MISMATCH));
+            }
+        }
+
+        for (String documentPath : target.keySet()) {
+            if (!source.containsKey(documentPath)) {
+                divergences
+                        .accept(new Divergence(documentPath, DivergenceType.MISSING_IN_SOURCE));
+            }
+        }
+    }
+}
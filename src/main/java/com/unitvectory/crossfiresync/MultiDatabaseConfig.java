@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for the MultiDatabaseRuntime.
+ * 
+ * The pipelines of every database are created from the publisher and consumer templates with the
+ * database name replaced, so the templates are configured by the same environment variables as a
+ * single database deployment. By default, the configuration will also use the following
+ * environment variables:
+ * 
+ * <ul>
+ * <li><b>DATABASES</b>: The comma separated Firestore database names</li>
+ * <li><b>MULTI_DATABASE_PUBLISH</b>: Run a publisher pipeline for each database</li>
+ * <li><b>MULTI_DATABASE_CONSUME</b>: Run a consumer pipeline for each database</li>
+ * <li><b>SUBSCRIPTION_PREFIX</b>: The prefix of the subscription name before the database</li>
+ * <li><b>DATABASE_MAX_CONCURRENT_EVENTS</b>: The maximum events processed at once per
+ * database</li>
+ * <li><b>DATABASE_ACQUIRE_TIMEOUT_MILLIS</b>: How long an event waits for its database</li>
+ * <li><b>SHARED_EXECUTOR_THREADS</b>: The threads of the executor shared by the publishers</li>
+ * </ul>
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder(toBuilder = true)
+public class MultiDatabaseConfig {
+
+    /**
+     * The Firestore database names.
+     * 
+     * Use the DATABASES environment variable to set this value.
+     */
+    @Builder.Default
+    private final List<String> databases = ConfigValues.parseList(System.getenv("DATABASES"));
+
+    /**
+     * The configuration the publisher of each database is created from.
+     */
+    @Builder.Default
+    private final FirestoreChangeConfig publisherTemplate = FirestoreChangeConfig.builder().build();
+
+    /**
+     * The configuration the consumer of each database is created from.
+     */
+    @Builder.Default
+    private final PubSubChangeConfig consumerTemplate = PubSubChangeConfig.builder().build();
+
+    /**
+     * Run a publisher pipeline for each database.
+     * 
+     * Use the MULTI_DATABASE_PUBLISH environment variable to set this value.
+     */
+    @Builder.Default
+    private final boolean publish =
+            ConfigValues.parseBoolean(System.getenv("MULTI_DATABASE_PUBLISH"), true);
+
+    /**
+     * Run a consumer pipeline for each database.
+     * 
+     * Use the MULTI_DATABASE_CONSUME environment variable to set this value.
+     */
+    @Builder.Default
+    private final boolean consume =
+            ConfigValues.parseBoolean(System.getenv("MULTI_DATABASE_CONSUME"), true);
+
+    /**
+     * The prefix of the subscription name; a message received on the subscription named the
+     * prefix followed by a database name is applied to that database.
+     * 
+     * Use the SUBSCRIPTION_PREFIX environment variable to set this value.
+     */
+    @Builder.Default
+    private final String subscriptionPrefix = System.getenv("SUBSCRIPTION_PREFIX") == null
+            ? "crossfiresync-"
+            : System.getenv("SUBSCRIPTION_PREFIX");
+
+    /**
+     * The maximum number of events processed at once for each database; 0 for no limit.
+     * 
+     * Use the DATABASE_MAX_CONCURRENT_EVENTS environment variable to set this value.
+     */
+    @Builder.Default
+    private final int maxConcurrentEvents =
+            ConfigValues.parseInt(System.getenv("DATABASE_MAX_CONCURRENT_EVENTS"), 16);
+
+    /**
+     * How long an event waits for its database to be below its limit before it fails so it is
+     * redelivered.
+     * 
+     * Use the DATABASE_ACQUIRE_TIMEOUT_MILLIS environment variable to set this value.
+     */
+    @Builder.Default
+    private final long acquireTimeoutMillis =
+            ConfigValues.parseLong(System.getenv("DATABASE_ACQUIRE_TIMEOUT_MILLIS"), 10000);
+
+    /**
+     * The number of threads of the executor shared by the Pub/Sub publishers of every database.
+     * 
+     * Use the SHARED_EXECUTOR_THREADS environment variable to set this value.
+     */
+    @Builder.Default
+    private final int sharedExecutorThreads = ConfigValues.parseInt(
+            System.getenv("SHARED_EXECUTOR_THREADS"), Runtime.getRuntime().availableProcessors());
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import com.google.cloud.functions.CloudEventsFunction;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.gson.Gson;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.unitvectory.crossfiresync.config.DeleteMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.ContentionTracker;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+import io.cloudevents.CloudEvent;
+import lombok.NonNull;
+
+/**
+ * The MultiDatabaseRuntime hosts the publisher and consumer pipelines of many databases in one
+ * process.
+ * 
+ * Firestore events are dispatched to the publisher of the database in their resource name and
+ * Pub/Sub messages to the consumer of the database named by their subscription, so one deployment
+ * receiving both kinds of events replaces a deployment per database. The pipelines share their
+ * clients, and each database is limited to a number of events processed at once and has its own
+ * statistics, state, and failures.
+ * 
+ * A pipeline that cannot be created fails the runtime, and an event that cannot be routed to a
+ * pipeline throws, so no event is acknowledged without being replicated.
+ * 
+ * This class is designed to be used as a Google Cloud Function.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class MultiDatabaseRuntime implements CloudEventsFunction, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(MultiDatabaseRuntime.class.getName());
+
+    private static final Gson gson = new Gson();
+
+    private static final String FIRESTORE_EVENT_TYPE = "google.cloud.firestore.document.v1.";
+
+    private static final String PUBSUB_EVENT_TYPE = "google.cloud.pubsub.topic.v1.";
+
+    private final Map<String, DatabasePipeline> pipelines;
+
+    private final String subscriptionPrefix;
+
+    private final SharedClientFactory sharedClients;
+
+    private final AtomicLong unroutedEvents = new AtomicLong();
+
+    /**
+     * Create a new MultiDatabaseRuntime.
+     */
+    public MultiDatabaseRuntime() {
+        this(MultiDatabaseConfig.builder().build());
+    }
+
+    /**
+     * Create a new MultiDatabaseRuntime.
+     * 
+     * @param config the configuration
+     */
+    public MultiDatabaseRuntime(@NonNull MultiDatabaseConfig config) {
+        this.subscriptionPrefix =
+                config.getSubscriptionPrefix() == null ? "" : config.getSubscriptionPrefix();
+
+        // Clients are only shared when the templates use the default factories
+        FirestoreChangeConfig publisherTemplate = config.getPublisherTemplate();
+        PubSubChangeConfig consumerTemplate = config.getConsumerTemplate();
+        boolean shared = publisherTemplate
+                .getFirestoreFactory() instanceof ConfigFirestoreFactoryDefault
+                || publisherTemplate.getPublisherFactory() instanceof ConfigPublisherFactoryDefault
+                || consumerTemplate.getFirestoreFactory() instanceof ConfigFirestoreFactoryDefault;
+        this.sharedClients =
+                shared ? new SharedClientFactory(config.getSharedExecutorThreads()) : null;
+
+        Map<String, DatabasePipeline> created = new LinkedHashMap<>();
+        for (String database : config.getDatabases()) {
+            if (created.containsKey(database)) {
+                continue;
+            }
+
+            // The publisher and consumer of a database share its tombstones
+            TombstoneStore tombstoneStore =
+                    usesTombstones(publisherTemplate, consumerTemplate) ? new TombstoneStore()
+                            : null;
+
+            FirestoreChangePublisher publisher = null;
+            PubSubChangeConsumer consumer = null;
+            try {
+                if (config.isPublish()) {
+                    publisher = new FirestoreChangePublisher(
+                            publisherConfig(publisherTemplate, database, tombstoneStore));
+                }
+                if (config.isConsume()) {
+                    consumer = new PubSubChangeConsumer(
+                            consumerConfig(consumerTemplate, database, tombstoneStore));
+                }
+            } catch (RuntimeException e) {
+                // Serving the other databases would acknowledge events this one never replicates
+                throw new CrossFireSyncException("Failed to create the pipeline for " + database,
+                        e);
+            }
+
+            // A client that fails to load only leaves the publisher or consumer not configured,
+            // dropping every event of the database
+            if ((publisher != null && !publisher.isConfigured())
+                    || (consumer != null && !consumer.isConfigured())) {
+                throw new CrossFireSyncException(
+                        "Failed to create the pipeline for " + database + ", not configured",
+                        null);
+            }
+
+            created.put(database, new DatabasePipeline(database, publisher, consumer,
+                    config.getMaxConcurrentEvents(), config.getAcquireTimeoutMillis()));
+        }
+
+        this.pipelines = Collections.unmodifiableMap(created);
+        logger.info(() -> "Serving databases " + this.pipelines.keySet());
+    }
+
+    /**
+     * Checks if the pipelines need a TombstoneStore, because a template has one or the consumer
+     * deletes in DIRECT delete mode.
+     */
+    private static boolean usesTombstones(FirestoreChangeConfig publisherTemplate,
+            PubSubChangeConfig consumerTemplate) {
+        return publisherTemplate.getTombstoneStore() != null
+                || consumerTemplate.getTombstoneStore() != null
+                || (DeleteMode.DIRECT.equals(consumerTemplate.getDeleteMode())
+                        && !consumerTemplate.isUnorderedDelivery());
+    }
+
+    /**
+     * Create the configuration of the publisher of a database from the template.
+     * 
+     * The state of each database is kept apart: the spool gets a directory per database, the
+     * tombstone store is the one of the database, and the digest, if the template has one, a new
+     * one per database.
+     */
+    private FirestoreChangeConfig publisherConfig(FirestoreChangeConfig template,
+            String database, TombstoneStore tombstoneStore) {
+        FirestoreChangeConfig.FirestoreChangeConfigBuilder builder =
+                template.toBuilder().databaseName(database);
+        if (this.sharedClients != null) {
+            if (template.getFirestoreFactory() instanceof ConfigFirestoreFactoryDefault) {
+                builder.firestoreFactory(this.sharedClients);
+            }
+            if (template.getPublisherFactory() instanceof ConfigPublisherFactoryDefault) {
+                builder.publisherFactory(this.sharedClients);
+            }
+        }
+        if (template.getSpool() != null) {
+            builder.spool(template.getSpool().toBuilder()
+                    .directory(Path.of(template.getSpool().getDirectory(), database).toString())
+                    .build());
+        }
+        builder.tombstoneStore(tombstoneStore);
+        if (template.getDigest() != null) {
+            builder.digest(new ReplicationDigest());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Create the configuration of the consumer of a database from the template.
+     */
+    private PubSubChangeConfig consumerConfig(PubSubChangeConfig template, String database,
+            TombstoneStore tombstoneStore) {
+        PubSubChangeConfig.PubSubChangeConfigBuilder builder =
+                template.toBuilder().databaseName(database);
+        if (this.sharedClients != null
+                && template.getFirestoreFactory() instanceof ConfigFirestoreFactoryDefault) {
+            builder.firestoreFactory(this.sharedClients);
+        }
+        builder.tombstoneStore(tombstoneStore);
+        if (template.getContentionTracker() != null) {
+            builder.contentionTracker(new ContentionTracker());
+        }
+        if (template.getDigest() != null) {
+            builder.digest(new ReplicationDigest());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void accept(CloudEvent event) throws InvalidProtocolBufferException {
+        String type = event.getType();
+        if (type != null && type.startsWith(FIRESTORE_EVENT_TYPE)) {
+            byte[] data = event.getData().toBytes();
+            process(DocumentEventData.parseFrom(data), data, event.getId());
+        } else if (type != null && type.startsWith(PUBSUB_EVENT_TYPE)) {
+            process(gson.fromJson(new String(event.getData().toBytes()), PubSubPublish.class));
+        } else {
+            throw unrouted("Unsupported event type " + type);
+        }
+    }
+
+    /**
+     * Process the Firestore event with the publisher of its database.
+     * 
+     * @param firestoreEventData the Firestore event; parsed from the data
+     * @param data the raw data; used for PubSub message replication
+     * @param eventId the ID of the CloudEvent; null if not known
+     * @throws CrossFireSyncException if the database is not published, so the event is redelivered
+     */
+    public void process(DocumentEventData firestoreEventData, byte[] data, String eventId) {
+        String resourceName = null;
+        if (firestoreEventData.hasValue()) {
+            resourceName = firestoreEventData.getValue().getName();
+        } else if (firestoreEventData.hasOldValue()) {
+            resourceName = firestoreEventData.getOldValue().getName();
+        }
+
+        String database =
+                resourceName == null ? null : DocumentResourceNameUtil.getDatabaseId(resourceName);
+        DatabasePipeline pipeline = database == null ? null : this.pipelines.get(database);
+        if (pipeline == null || pipeline.getPublisher() == null) {
+            throw unrouted("No publisher for database " + database);
+        }
+
+        pipeline.publish(firestoreEventData, data, eventId);
+    }
+
+    /**
+     * Process the Pub/Sub message with the consumer of the database named by its subscription.
+     * 
+     * @param data the Pub/Sub message
+     * @throws InvalidProtocolBufferException if the message is not a valid Firestore event
+     */
+    public void process(PubSubPublish data) throws InvalidProtocolBufferException {
+        process(getSubscriptionDatabase(data.getSubscription()), data);
+    }
+
+    /**
+     * Process the Pub/Sub message with the consumer of a database.
+     * 
+     * @param database the database the message is applied to
+     * @param data the Pub/Sub message
+     * @throws InvalidProtocolBufferException if the message is not a valid Firestore event
+     * @throws CrossFireSyncException if the database is not consumed, so the message is redelivered
+     */
+    public void process(String database, PubSubPublish data)
+            throws InvalidProtocolBufferException {
+        DatabasePipeline pipeline = database == null ? null : this.pipelines.get(database);
+        if (pipeline == null || pipeline.getConsumer() == null) {
+            throw unrouted("No consumer for database " + database);
+        }
+
+        pipeline.consume(data);
+    }
+
+    /**
+     * Count an event that cannot be routed to a pipeline and create the exception failing it.
+     * 
+     * @param message the reason
+     * @return the exception
+     */
+    private CrossFireSyncException unrouted(String message) {
+        this.unroutedEvents.incrementAndGet();
+        logger.warning(message);
+        return new CrossFireSyncException(message, null);
+    }
+
+    /**
+     * Gets the database a subscription delivers to.
+     * 
+     * @param subscription the subscription, such as projects/example/subscriptions/prefix-west
+     * @return the database; null if the subscription does not have the prefix
+     */
+    String getSubscriptionDatabase(String subscription) {
+        if (subscription == null) {
+            return null;
+        }
+
+        String name = subscription.substring(subscription.lastIndexOf('/') + 1);
+        if (!name.startsWith(this.subscriptionPrefix)) {
+            return null;
+        }
+
+        return name.substring(this.subscriptionPrefix.length());
+    }
+
+    /**
+     * Gets the databases that are served.
+     * 
+     * @return the database names
+     */
+    public Set<String> getDatabases() {
+        return this.pipelines.keySet();
+    }
+
+    /**
+     * Gets the publisher of a database.
+     * 
+     * @param database the database name
+     * @return the publisher; null if the database is not published
+     */
+    public FirestoreChangePublisher getPublisher(String database) {
+        DatabasePipeline pipeline = this.pipelines.get(database);
+        return pipeline == null ? null : pipeline.getPublisher();
+    }
+
+    /**
+     * Gets the consumer of a database.
+     * 
+     * @param database the database name
+     * @return the consumer; null if the database is not consumed
+     */
+    public PubSubChangeConsumer getConsumer(String database) {
+        DatabasePipeline pipeline = this.pipelines.get(database);
+        return pipeline == null ? null : pipeline.getConsumer();
+    }
+
+    /**
+     * Gets the statistics of the pipelines of each database.
+     * 
+     * @return the statistics by database name
+     */
+    public Map<String, DatabasePipelineStats> getStats() {
+        Map<String, DatabasePipelineStats> stats = new LinkedHashMap<>();
+        for (DatabasePipeline pipeline : this.pipelines.values()) {
+            stats.put(pipeline.getDatabase(), pipeline.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Gets the number of events that failed because they were not for a database that is served.
+     * 
+     * @return the number of events
+     */
+    public long getUnroutedEvents() {
+        return this.unroutedEvents.get();
+    }
+
+    /**
+     * Close the pipelines, saving their state and spools, and then the clients they share.
+     */
+    @Override
+    public void close() {
+        for (DatabasePipeline pipeline : this.pipelines.values()) {
+            pipeline.close();
+        }
+        if (this.sharedClients != null) {
+            this.sharedClients.close();
+        }
+    }
+}
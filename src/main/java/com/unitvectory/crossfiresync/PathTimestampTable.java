@@ -0,0 +1,366 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compact hash table from document path to timestamp and a small integer tag.
+ * 
+ * Paths are not stored; each entry is keyed by the 64-bit hash of the path and packed into a
+ * single ByteBuffer with open addressing, so an entry costs 24 bytes and no objects are allocated
+ * per entry. Collisions between 64-bit path hashes are ignored as they are vanishingly rare. The
+ * buffer can be allocated off the heap so large tables do not add to garbage collection.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class PathTimestampTable {
+
+    /**
+     * The bytes of each slot: the key, the seconds, the nanos, and the tag
+     */
+    static final int SLOT_BYTES = 24;
+
+    private static final int SECONDS_OFFSET = 8;
+
+    private static final int NANOS_OFFSET = 16;
+
+    private static final int TAG_OFFSET = 20;
+
+    /**
+     * The maximum number of slots so the buffer size fits in an int
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /**
+     * The key of an empty slot
+     */
+    private static final long EMPTY = 0;
+
+    private final boolean direct;
+
+    private ByteBuffer slots;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * Create a new PathTimestampTable.
+     * 
+     * @param expectedSize the expected number of entries
+     */
+    PathTimestampTable(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    /**
+     * Create a new PathTimestampTable.
+     * 
+     * @param expectedSize the expected number of entries
+     * @param direct true to allocate the table off the heap
+     */
+    PathTimestampTable(int expectedSize, boolean direct) {
+        this.direct = direct;
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Gets the key for a document path.
+     * 
+     * @param documentPath the document path
+     * @return the key
+     */
+    static long key(String documentPath) {
+        long hash = DocumentHasher.hashString(documentPath);
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Store the timestamp for a key if it is newer than the stored timestamp.
+     * 
+     * @param key the key
+     * @param seconds the seconds of the timestamp
+     * @param nanos the nanos of the timestamp
+     * @param tag the tag
+     * @return true if stored; false if the stored timestamp was newer or equal
+     */
+    boolean putIfNewer(long key, long seconds, int nanos, int tag) {
+        int slot = find(key);
+        if (slot >= 0) {
+            if (compare(seconds, nanos, seconds(slot), nanos(slot)) <= 0) {
+                return false;
+            }
+            write(slot, key, seconds, nanos, tag);
+            return true;
+        }
+
+        if ((this.size + 1) * 2 > capacity()) {
+            if (capacity() >= MAX_CAPACITY) {
+                throw new IllegalStateException("PathTimestampTable is full.");
+            }
+            resize(capacity() * 2);
+        }
+
+        insert(key, seconds, nanos, tag);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Find the slot for a key.
+     * 
+     * @param key the key
+     * @return the slot; -1 if the key is not present
+     */
+    int find(long key) {
+        int slot = home(key);
+        while (true) {
+            long current = this.slots.getLong(slot * SLOT_BYTES);
+            if (current == key) {
+                return slot;
+            } else if (current == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Gets the seconds stored in a slot.
+     * 
+     * @param slot the slot
+     * @return the seconds
+     */
+    long seconds(int slot) {
+        return this.slots.getLong(slot * SLOT_BYTES + SECONDS_OFFSET);
+    }
+
+    /**
+     * Gets the nanos stored in a slot.
+     * 
+     * @param slot the slot
+     * @return the nanos
+     */
+    int nanos(int slot) {
+        return this.slots.getInt(slot * SLOT_BYTES + NANOS_OFFSET);
+    }
+
+    /**
+     * Gets the tag stored in a slot.
+     * 
+     * @param slot the slot
+     * @return the tag
+     */
+    int tag(int slot) {
+        return this.slots.getInt(slot * SLOT_BYTES + TAG_OFFSET);
+    }
+
+    /**
+     * Remove a key.
+     * 
+     * @param key the key
+     * @return true if the key was present
+     */
+    boolean remove(long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+
+        // Shift the following entries of the probe sequence back so no gap breaks a lookup
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & this.mask;
+            long current = this.slots.getLong(next * SLOT_BYTES);
+            if (current == EMPTY) {
+                break;
+            }
+
+            int home = home(current);
+            boolean movable = gap <= next ? (home <= gap || home > next)
+                    : (home <= gap && home > next);
+            if (movable) {
+                copy(next, gap);
+                gap = next;
+            }
+        }
+
+        write(gap, EMPTY, 0, 0, 0);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Remove every entry older than a timestamp.
+     * 
+     * @param seconds the seconds of the timestamp
+     * @param nanos the nanos of the timestamp
+     * @return the number of entries removed
+     */
+    int removeOlderThan(long seconds, int nanos) {
+        ByteBuffer old = this.slots;
+        int oldCapacity = capacity();
+        int before = this.size;
+
+        allocate(oldCapacity);
+        this.size = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int offset = slot * SLOT_BYTES;
+            long key = old.getLong(offset);
+            long entrySeconds = old.getLong(offset + SECONDS_OFFSET);
+            int entryNanos = old.getInt(offset + NANOS_OFFSET);
+            if (key != EMPTY && compare(entrySeconds, entryNanos, seconds, nanos) >= 0) {
+                insert(key, entrySeconds, entryNanos, old.getInt(offset + TAG_OFFSET));
+                this.size++;
+            }
+        }
+
+        return before - this.size;
+    }
+
+    /**
+     * Visit every entry.
+     * 
+     * @param visitor the visitor
+     */
+    void forEach(EntryVisitor visitor) {
+        int capacity = capacity();
+        for (int slot = 0; slot < capacity; slot++) {
+            long key = this.slots.getLong(slot * SLOT_BYTES);
+            if (key != EMPTY) {
+                visitor.visit(key, seconds(slot), nanos(slot), tag(slot));
+            }
+        }
+    }
+
+    /**
+     * Copy every entry, packed as the key, the seconds, the nanos, and the tag.
+     * 
+     * @return the entries, positioned at the start
+     */
+    ByteBuffer copyEntries() {
+        ByteBuffer entries = ByteBuffer.allocate(this.size * SLOT_BYTES);
+        forEach((key, seconds, nanos, tag) -> entries.putLong(key).putLong(seconds).putInt(nanos)
+                .putInt(tag));
+        return entries.flip();
+    }
+
+    /**
+     * Gets the number of entries.
+     * 
+     * @return the number of entries
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    void clear() {
+        allocate(capacity());
+        this.size = 0;
+    }
+
+    /**
+     * Compare two timestamps.
+     * 
+     * @param seconds the seconds of the first timestamp
+     * @param nanos the nanos of the first timestamp
+     * @param otherSeconds the seconds of the second timestamp
+     * @param otherNanos the nanos of the second timestamp
+     * @return negative, zero, or positive as the first timestamp is before, equal, or after
+     */
+    static int compare(long seconds, int nanos, long otherSeconds, int otherNanos) {
+        int result = Long.compare(seconds, otherSeconds);
+        return result != 0 ? result : Integer.compare(nanos, otherNanos);
+    }
+
+    /**
+     * Visitor for the entries of a PathTimestampTable.
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+
+        /**
+         * Visit an entry.
+         * 
+         * @param key the key
+         * @param seconds the seconds of the timestamp
+         * @param nanos the nanos of the timestamp
+         * @param tag the tag
+         */
+        void visit(long key, long seconds, int nanos, int tag);
+    }
+
+    private int capacity() {
+        return this.mask + 1;
+    }
+
+    private int home(long key) {
+        return (int) (key ^ (key >>> 32)) & this.mask;
+    }
+
+    private void insert(long key, long seconds, int nanos, int tag) {
+        int slot = home(key);
+        while (this.slots.getLong(slot * SLOT_BYTES) != EMPTY) {
+            slot = (slot + 1) & this.mask;
+        }
+        write(slot, key, seconds, nanos, tag);
+    }
+
+    private void write(int slot, long key, long seconds, int nanos, int tag) {
+        int offset = slot * SLOT_BYTES;
+        this.slots.putLong(offset, key);
+        this.slots.putLong(offset + SECONDS_OFFSET, seconds);
+        this.slots.putInt(offset + NANOS_OFFSET, nanos);
+        this.slots.putInt(offset + TAG_OFFSET, tag);
+    }
+
+    private void copy(int from, int to) {
+        write(to, this.slots.getLong(from * SLOT_BYTES), seconds(from), nanos(from), tag(from));
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer old = this.slots;
+        int oldCapacity = capacity();
+        allocate(capacity);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int offset = slot * SLOT_BYTES;
+            long key = old.getLong(offset);
+            if (key != EMPTY) {
+                insert(key, old.getLong(offset + SECONDS_OFFSET),
+                        old.getInt(offset + NANOS_OFFSET), old.getInt(offset + TAG_OFFSET));
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.slots = this.direct ? ByteBuffer.allocateDirect(capacity * SLOT_BYTES)
+                : ByteBuffer.allocate(capacity * SLOT_BYTES);
+        this.mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2L && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -13,8 +13,19 @@
  */
 package com.unitvectory.crossfiresync;
 
+import com.unitvectory.crossfiresync.capture.EventCaptureLog;
+import com.unitvectory.crossfiresync.config.DeleteMode;
 import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.config.TransportProfile;
+import com.unitvectory.crossfiresync.config.TransportSettings;
+import com.unitvectory.crossfiresync.dedupe.DedupeSettings;
 import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import com.unitvectory.crossfiresync.firestore.ContentionTracker;
+import com.unitvectory.crossfiresync.logging.LogLimits;
+import com.unitvectory.crossfiresync.retry.DeadLetterSink;
+import com.unitvectory.crossfiresync.retry.FileDeadLetterSink;
+import com.unitvectory.crossfiresync.retry.RetryPolicy;
+import com.unitvectory.crossfiresync.tracing.Tracer;
 import lombok.Builder;
 import lombok.Value;
 
@@ -26,12 +37,30 @@ import lombok.Value;
  * <ul>
  * <li><b>REPLICATION_MODE</b>: The type of replication</li>
  * <li><b>DATABASE</b>: The Firestore database name</li>
+ * <li><b>DELETE_MODE</b>: How deletes are replicated in multi region primary mode</li>
+ * <li><b>UNORDERED_DELIVERY</b>: Resolve changes delivered out of order by timestamp</li>
+ * <li><b>DIRECT_WRITE</b>: Write the protocol buffer values without converting to a map</li>
+ * <li><b>TRANSPORT_PROFILE</b>: The preset of the gRPC transport tuning</li>
+ * <li><b>TRANSACTION_MAX_ATTEMPTS</b>: The maximum attempts for each transaction</li>
+ * <li><b>REFERENCE_CACHE_SIZE</b>: The maximum number of referenced documents cached</li>
+ * <li><b>HIGH_WATER_MARK_SIZE</b>: The maximum number of documents with a high-water mark</li>
+ * <li><b>HIGH_WATER_MARK_OFF_HEAP</b>: Keep the high-water marks off the heap</li>
+ * <li><b>DEDUPE_MAX_EVENTS</b>: The maximum number of applied event IDs remembered</li>
+ * <li><b>DEDUPE_TTL_SECONDS</b>: How long applied event IDs are remembered</li>
+ * <li><b>DEDUPE_BLOOM_FILTER_EVENTS</b>: The event IDs remembered by a Bloom filter</li>
+ * <li><b>RETRY_MAX_ATTEMPTS</b>: The maximum attempts for each write</li>
+ * <li><b>DEAD_LETTER_FILE</b>: The file changes that cannot be replicated are written to</li>
+ * <li><b>CAPTURE_FILE</b>: The file the incoming events are captured to</li>
+ * <li><b>STATE_SNAPSHOT_DIRECTORY</b>: The directory the replication state is saved to</li>
+ * <li><b>STATE_SNAPSHOT_INTERVAL_SECONDS</b>: How often the replication state is saved</li>
+ * <li><b>LOG_RATE_LIMIT</b>: The maximum messages logged per second for each kind of message</li>
+ * <li><b>LOG_SAMPLE_RATE</b>: Log one in this many messages of each kind</li>
  * </ul>
  * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 @Value
-@Builder
+@Builder(toBuilder = true)
 public class PubSubChangeConfig {
 
     /**
@@ -53,6 +82,50 @@ public class PubSubChangeConfig {
     @Builder.Default
     private final String databaseName = System.getenv("DATABASE");
 
+    /**
+     * How deletes are replicated in multi region primary mode
+     * 
+     * Use the DELETE_MODE environment variable to set this value.
+     * 
+     * @see DeleteMode
+     */
+    @Builder.Default
+    private final DeleteMode deleteMode =
+            DeleteMode.parseFallbackToFlag(System.getenv("DELETE_MODE"));
+
+    /**
+     * The tombstones of the documents deleted in DIRECT delete mode
+     * 
+     * Share the same TombstoneStore between the FirestoreChangePublisher and PubSubChangeConsumer
+     * running in the same process. Required in DIRECT delete mode, which is not configured without
+     * it, as a TombstoneStore the publisher cannot see would let the deletes be replicated back.
+     */
+    @Builder.Default
+    private final TombstoneStore tombstoneStore = null;
+
+    /**
+     * Resolve changes delivered out of order by the crossfiresync timestamp
+     * 
+     * Use the UNORDERED_DELIVERY environment variable to set this value. Every replicated write,
+     * including deletes, keeps the update time of the change in the crossfiresync attributes and
+     * only the latest change is applied. A deleted document is left flagged for delete until it is
+     * swept by the TombstoneSweeper, so the DELETE_MODE is not used.
+     */
+    @Builder.Default
+    private final boolean unorderedDelivery =
+            ConfigValues.parseBoolean(System.getenv("UNORDERED_DELIVERY"), false);
+
+    /**
+     * Write the protocol buffer values of the change directly instead of converting the document
+     * to a map that the Firestore client converts back
+     * 
+     * Use the DIRECT_WRITE environment variable to set this value. Direct writes use an update
+     * time precondition in place of a transaction.
+     */
+    @Builder.Default
+    private final boolean directWrite =
+            ConfigValues.parseBoolean(System.getenv("DIRECT_WRITE"), false);
+
     /**
      * The Firestore factory
      * 
@@ -62,4 +135,166 @@ public class PubSubChangeConfig {
     @Builder.Default
     private final ConfigFirestoreFactory firestoreFactory = new ConfigFirestoreFactoryDefault();
 
+    /**
+     * The tuning of the gRPC transport of the Firestore client
+     * 
+     * Use the TRANSPORT_PROFILE environment variable to select a TransportProfile preset:
+     * LOW_LATENCY, HIGH_THROUGHPUT, or SERVERLESS_MINIMAL. The library defaults are used when not
+     * set. Only applied by the default factory.
+     */
+    @Builder.Default
+    private final TransportSettings transport = TransportProfile
+            .parseFallbackToDefault(System.getenv("TRANSPORT_PROFILE")).getSettings();
+
+    /**
+     * The maximum number of attempts for each Firestore transaction before it fails as aborted
+     * 
+     * Use the TRANSACTION_MAX_ATTEMPTS environment variable to set this value.
+     */
+    @Builder.Default
+    private final int transactionMaxAttempts =
+            ConfigValues.parseInt(System.getenv("TRANSACTION_MAX_ATTEMPTS"), 5);
+
+    /**
+     * The number of in-process locks that transactions are striped across by document path
+     * 
+     * Changes to the same document processed concurrently by this instance wait for each other
+     * instead of aborting each other's transactions. Set to 0 to disable locking.
+     */
+    @Builder.Default
+    private final int lockStripes = 64;
+
+    /**
+     * The tracker of aborted transaction attempts for each document path
+     * 
+     * Documents whose transactions are repeatedly aborted are flagged as hot.
+     */
+    @Builder.Default
+    private final ContentionTracker contentionTracker = new ContentionTracker();
+
+    /**
+     * The maximum number of DocumentReference instances cached for referenced documents
+     * 
+     * Use the REFERENCE_CACHE_SIZE environment variable to set this value. Set to 0 to create a
+     * new DocumentReference for every reference value.
+     */
+    @Builder.Default
+    private final int referenceCacheSize =
+            ConfigValues.parseInt(System.getenv("REFERENCE_CACHE_SIZE"), 10000);
+
+    /**
+     * The maximum number of documents the update time of the latest applied change is cached for,
+     * so older changes are skipped without reading the document
+     * 
+     * Use the HIGH_WATER_MARK_SIZE environment variable to set this value. By default the
+     * high-water marks are not cached and every document is read.
+     */
+    @Builder.Default
+    private final int highWaterMarkSize =
+            ConfigValues.parseInt(System.getenv("HIGH_WATER_MARK_SIZE"), 0);
+
+    /**
+     * Keep the high-water marks in memory allocated off the heap
+     * 
+     * Use the HIGH_WATER_MARK_OFF_HEAP environment variable to set this value.
+     */
+    @Builder.Default
+    private final boolean highWaterMarkOffHeap =
+            ConfigValues.parseBoolean(System.getenv("HIGH_WATER_MARK_OFF_HEAP"), false);
+
+    /**
+     * The settings for skipping redelivered messages by the ID of the source event
+     * 
+     * Use the DEDUPE_MAX_EVENTS environment variable to set how many event IDs are remembered
+     * (default 10000, 0 to not skip duplicates), DEDUPE_TTL_SECONDS to set for how long (default
+     * 600), and DEDUPE_BLOOM_FILTER_EVENTS to also remember that many event IDs per period in a
+     * Bloom filter (default 0 for none).
+     */
+    @Builder.Default
+    private final DedupeSettings dedupe = DedupeSettings.builder()
+            .maxEvents(ConfigValues.parseInt(System.getenv("DEDUPE_MAX_EVENTS"), 10000))
+            .ttlSeconds(ConfigValues.parseLong(System.getenv("DEDUPE_TTL_SECONDS"), 600))
+            .bloomFilterEvents(
+                    ConfigValues.parseInt(System.getenv("DEDUPE_BLOOM_FILTER_EVENTS"), 0))
+            .build();
+
+    /**
+     * The digest updated with each applied change
+     * 
+     * Share the same ReplicationDigest between the FirestoreChangePublisher and
+     * PubSubChangeConsumer running in the same process. By default no digest is maintained.
+     */
+    @Builder.Default
+    private final ReplicationDigest digest = null;
+
+    /**
+     * The policy for retrying failed Firestore writes in process
+     * 
+     * Use the RETRY_MAX_ATTEMPTS environment variable to set the maximum attempts. By default a
+     * single attempt is made and failures are retried by redelivering the message.
+     */
+    @Builder.Default
+    private final RetryPolicy retryPolicy = RetryPolicy.builder()
+            .maxAttempts(ConfigValues.parseInt(System.getenv("RETRY_MAX_ATTEMPTS"), 1)).build();
+
+    /**
+     * The sink for changes that cannot be replicated
+     * 
+     * Use the DEAD_LETTER_FILE environment variable to write them to a file, or set a
+     * TopicDeadLetterSink to publish them to a topic. By default failures are thrown so the
+     * message is redelivered.
+     */
+    @Builder.Default
+    private final DeadLetterSink deadLetterSink =
+            FileDeadLetterSink.fromPath(System.getenv("DEAD_LETTER_FILE"));
+
+    /**
+     * The log the raw incoming events are captured to
+     * 
+     * Use the CAPTURE_FILE environment variable to capture to a file that EventReplay can replay.
+     * By default events are not captured.
+     */
+    @Builder.Default
+    private final EventCaptureLog captureLog =
+            EventCaptureLog.fromPath(System.getenv("CAPTURE_FILE"));
+
+    /**
+     * The directory the in-memory replication state is periodically saved to and loaded from at
+     * startup, so a restarted instance does not start cold
+     * 
+     * Use the STATE_SNAPSHOT_DIRECTORY environment variable to set this value. By default the
+     * state is not saved.
+     */
+    @Builder.Default
+    private final String stateSnapshotDirectory = System.getenv("STATE_SNAPSHOT_DIRECTORY");
+
+    /**
+     * How often the replication state is saved
+     * 
+     * Use the STATE_SNAPSHOT_INTERVAL_SECONDS environment variable to set this value.
+     */
+    @Builder.Default
+    private final long stateSnapshotIntervalSeconds =
+            ConfigValues.parseLong(System.getenv("STATE_SNAPSHOT_INTERVAL_SECONDS"), 60);
+
+    /**
+     * The limits for the messages logged for every event
+     * 
+     * Use the LOG_RATE_LIMIT environment variable to set the maximum messages per second for each
+     * kind of message (default 100, 0 for no limit) and LOG_SAMPLE_RATE to log only one in that
+     * many messages. Suppressed messages are counted in the next message logged.
+     */
+    @Builder.Default
+    private final LogLimits logLimits = LogLimits.builder()
+            .maxPerSecond(ConfigValues.parseInt(System.getenv("LOG_RATE_LIMIT"), 100))
+            .sampleRate(ConfigValues.parseInt(System.getenv("LOG_SAMPLE_RATE"), 1)).build();
+
+    /**
+     * The tracer the spans of each event are recorded with
+     * 
+     * The publisher starts a trace for each event and propagates it in the traceparent attribute
+     * of the Pub/Sub message so the consumer continues it. By default nothing is recorded.
+     */
+    @Builder.Default
+    private final Tracer tracer = Tracer.NOOP;
 }
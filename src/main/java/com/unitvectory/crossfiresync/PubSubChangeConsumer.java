@@ -20,17 +20,31 @@ import com.google.events.cloud.firestore.v1.Document;
 import com.google.events.cloud.firestore.v1.DocumentEventData;
 import com.google.gson.Gson;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.unitvectory.crossfiresync.capture.EventCaptureLog;
+import com.unitvectory.crossfiresync.config.DeleteMode;
 import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.dedupe.DedupeStats;
+import com.unitvectory.crossfiresync.dedupe.EventDeduplicator;
 import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
 import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.ReferenceCacheStats;
+import com.unitvectory.crossfiresync.logging.RateLimitedLogger;
 import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+import com.unitvectory.crossfiresync.retry.DeadLetter;
+import com.unitvectory.crossfiresync.retry.RetryExecutor;
+import com.unitvectory.crossfiresync.retry.RetryStats;
+import com.unitvectory.crossfiresync.tracing.Span;
+import com.unitvectory.crossfiresync.tracing.SpanContext;
+import com.unitvectory.crossfiresync.tracing.Tracer;
 import com.unitvectory.firestoreproto2map.FirestoreProto2Map;
 import io.cloudevents.CloudEvent;
 import lombok.NonNull;
 
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,7 +57,7 @@ import java.util.logging.Logger;
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 @SuppressWarnings("null")
-public class PubSubChangeConsumer implements CloudEventsFunction {
+public class PubSubChangeConsumer implements CloudEventsFunction, AutoCloseable {
 
     private static final Logger logger = Logger.getLogger(PubSubChangeConsumer.class.getName());
 
@@ -53,10 +67,34 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
 
     private final String database;
 
+    private final DeleteMode deleteMode;
+
+    private final boolean unorderedDelivery;
+
+    private final boolean directWrite;
+
+    private final TombstoneStore tombstoneStore;
+
+    private final HighWaterMarkCache highWaterMarks;
+
     private final CrossFireSyncFirestore firestore;
 
     private final FirestoreProto2Map firestoreProto2Map;
 
+    private final ReplicationDigest digest;
+
+    private final StateSnapshot stateSnapshot;
+
+    private final EventDeduplicator deduplicator;
+
+    private final RetryExecutor retryExecutor;
+
+    private final EventCaptureLog captureLog;
+
+    private final RateLimitedLogger eventLogger;
+
+    private final Tracer tracer;
+
     private final boolean configured;
 
     /**
@@ -74,6 +112,28 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
     public PubSubChangeConsumer(@NonNull PubSubChangeConfig config) {
         this.replicationMode = config.getReplicationMode();
         this.database = config.getDatabaseName();
+        this.deleteMode = config.getDeleteMode();
+        this.unorderedDelivery = config.isUnorderedDelivery();
+        this.directWrite = config.isDirectWrite();
+        this.tombstoneStore = config.getTombstoneStore();
+        this.highWaterMarks = config.getHighWaterMarkSize() > 0
+                ? new HighWaterMarkCache(config.getHighWaterMarkSize(),
+                        config.isHighWaterMarkOffHeap())
+                : null;
+        this.digest = config.getDigest();
+        this.deduplicator = new EventDeduplicator(config.getDedupe());
+
+        // Start warm from the state saved by the previous instance
+        Map<String, SnapshotState> states = new LinkedHashMap<>();
+        states.put("highWaterMarks", this.highWaterMarks);
+        states.put("tombstones", this.tombstoneStore);
+        this.stateSnapshot = StateSnapshot.open(config.getStateSnapshotDirectory(),
+                "consumer-" + config.getDatabaseName(), config.getStateSnapshotIntervalSeconds(),
+                states);
+        this.retryExecutor = new RetryExecutor(config.getRetryPolicy(), config.getDeadLetterSink());
+        this.captureLog = config.getCaptureLog();
+        this.eventLogger = new RateLimitedLogger(logger, config.getLogLimits());
+        this.tracer = config.getTracer();
 
         CrossFireSyncFirestore crossFireSyncFirestore = null;
         try {
@@ -87,7 +147,16 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
         this.firestore = crossFireSyncFirestore;
         this.firestoreProto2Map = new FirestoreProto2Map(this.firestore);
 
-        this.configured = isConfigured();
+        this.configured = checkConfigured();
+    }
+
+    /**
+     * Checks if the consumer is configured, so the events it processes are replicated.
+     * 
+     * @return true if configured properly; otherwise false
+     */
+    boolean isConfigured() {
+        return this.configured;
     }
 
     /**
@@ -95,7 +164,7 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
      * 
      * @return true if configured properly; otherwise false
      */
-    private boolean isConfigured() {
+    private boolean checkConfigured() {
         boolean valid = true;
 
         if (this.database == null || this.database.isBlank()) {
@@ -110,6 +179,13 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
             valid = false;
         }
 
+        if (DeleteMode.DIRECT.equals(this.deleteMode) && !this.unorderedDelivery
+                && this.tombstoneStore == null) {
+            // The publisher can only skip the replicated deletes with the same TombstoneStore
+            logger.severe("DIRECT delete mode requires a TombstoneStore shared with publisher.");
+            valid = false;
+        }
+
         if (this.firestore == null) {
             // Firestore must be set to be used
             logger.severe("CrossFireSyncFirestore could not be loaded.");
@@ -119,6 +195,72 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
         return valid;
     }
 
+    /**
+     * Gets the number of event messages suppressed by the log limits.
+     * 
+     * @return the suppressed messages by kind
+     */
+    public Map<String, Long> getSuppressedLogMessages() {
+        return this.eventLogger.getSuppressed();
+    }
+
+    /**
+     * Gets the statistics of the cache of the latest change applied to each document.
+     * 
+     * @return the statistics, or null if the changes are not cached
+     */
+    public HighWaterMarkStats getHighWaterMarkStats() {
+        return this.highWaterMarks == null ? null : this.highWaterMarks.getStats();
+    }
+
+    /**
+     * Gets the statistics of the redelivered messages skipped by the ID of the source event.
+     * 
+     * @return the statistics, or null if duplicates are not skipped
+     */
+    public DedupeStats getDedupeStats() {
+        return this.deduplicator.isEnabled() ? this.deduplicator.getStats() : null;
+    }
+
+    /**
+     * Gets the statistics of the snapshot of the replication state.
+     * 
+     * @return the statistics, or null if the state is not saved
+     */
+    public StateSnapshotStats getStateSnapshotStats() {
+        return this.stateSnapshot == null ? null : this.stateSnapshot.getStats();
+    }
+
+    /**
+     * Gets the statistics for the retried Firestore writes.
+     * 
+     * @return the statistics
+     */
+    public RetryStats getRetryStats() {
+        return this.retryExecutor.getStats();
+    }
+
+    /**
+     * Save the state snapshot and digest.
+     */
+    @Override
+    public void close() {
+        if (this.stateSnapshot != null) {
+            this.stateSnapshot.close();
+        }
+        if (this.digest != null) {
+            this.digest.close();
+        }
+    }
+
+    /**
+     * Gets the statistics of the cache of the DocumentReference for referenced documents.
+     * 
+     * @return the statistics, or null if references are not cached
+     */
+    public ReferenceCacheStats getReferenceCacheStats() {
+        return this.firestore == null ? null : this.firestore.getReferenceCacheStats();
+    }
 
     @Override
     public void accept(CloudEvent event) throws InvalidProtocolBufferException {
@@ -131,7 +273,7 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
         process(data);
 
         // Log the event
-        logger.finest("Pub/Sub message: " + event);
+        logger.finest(() -> "Pub/Sub message: " + event);
     }
 
     /**
@@ -142,6 +284,14 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
      */
     public void process(PubSubPublish data) throws InvalidProtocolBufferException {
 
+        // Capture the raw message for replay
+        if (this.captureLog != null && data.getMessage() != null
+                && data.getMessage().getData() != null) {
+            this.captureLog.captureConsumerEvent(data.getMessage().getAttributes(),
+                    data.getMessage().getOrderingKey(),
+                    Base64.getDecoder().decode(data.getMessage().getData()));
+        }
+
         // Check if the consumer is configured properly
         if (!this.configured) {
             logger.severe(
@@ -153,16 +303,58 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
 
         // Do not process updates when database change is for the same region
         if (pubsubDatabase == null) {
-            logger.info("PubSub message missing 'database' attribute");
+            this.eventLogger.info("missing-database",
+                    () -> "PubSub message missing 'database' attribute");
             return;
         } else if (this.database.equals(pubsubDatabase)) {
-            logger.info("Same database " + this.database + " skipping");
+            this.eventLogger.info("same-database",
+                    () -> "Same database " + this.database + " skipping");
+            return;
+        }
+
+        // Skip a redelivery of a change that was already applied without decoding it
+        String eventId = data.getMessage().getAttribute(EventDeduplicator.EVENT_ID);
+        String eventKey = eventId != null && this.deduplicator.isEnabled()
+                ? pubsubDatabase + "/" + eventId
+                : null;
+        if (eventKey != null && this.deduplicator.isDuplicate(eventKey)) {
+            this.eventLogger.fine("duplicate",
+                    () -> "Duplicate event " + eventKey + " skipping");
             return;
         }
 
+        // Continue the trace started by the publisher
+        Span span = this.tracer.startSpan("crossfiresync.apply",
+                data.getMessage().getAttribute(SpanContext.TRACEPARENT));
+        try {
+            apply(data, pubsubDatabase, span);
+            if (eventKey != null) {
+                this.deduplicator.record(eventKey);
+            }
+        } catch (RuntimeException | InvalidProtocolBufferException e) {
+            span.recordError(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Apply the change in the Pub/Sub message from another database.
+     * 
+     * @param data The Pub/Sub message
+     * @param pubsubDatabase the database the change was made in
+     * @param span the span of the message
+     * @throws InvalidProtocolBufferException
+     */
+    private void apply(PubSubPublish data, String pubsubDatabase, Span span)
+            throws InvalidProtocolBufferException {
+
         // Parse the Firestore Document change
+        Span decode = span.startChild("decode");
         DocumentEventData firestoreEventData = DocumentEventData
                 .parseFrom(Base64.getDecoder().decode(data.getMessage().getData()));
+        decode.end();
 
         // Get the resource name for the document for insert/update/delete
         String resourceName = null;
@@ -185,30 +377,131 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
             return;
         }
 
+        span.setAttribute("document", documentPath);
+        span.setAttribute("sourceDatabase", pubsubDatabase);
+        if (span.isRecording() && firestoreEventData.hasValue()) {
+            // The time from the commit in the source database until this message was received
+            span.setAttribute("lagMicros", Tracer.nowMicros()
+                    - Tracer.epochMicros(firestoreEventData.getValue().getUpdateTime()));
+        }
+
         DocumentReference documentReference = this.firestore.getDocument(documentPath);
+        DeadLetter.DeadLetterBuilder deadLetter = DeadLetter.builder().documentPath(documentPath)
+                .database(pubsubDatabase).change(firestoreEventData);
+        boolean applied;
+
+        // Only changes that wrote the document are tracked by the digest, so a change skipped as
+        // stale by a transaction is skipped the same way as one skipped before it
+        AtomicBoolean changed = new AtomicBoolean();
         if (firestoreEventData.hasValue()) {
             // Perform the update
 
             Document document = firestoreEventData.getValue();
-            Map<String, Object> record = this.firestoreProto2Map.convert(document);
-
             Timestamp updatedTime = Timestamp.fromProto(document.getUpdateTime());
 
-            // For cross region replication to work properly two additional attributes must
-            // be written to the document to indicate what region the replicated attribute
-            // came from and the timestamp of when the record was updated. This applies only to
-            // multi region primary mode
-            if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)) {
-                record.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, updatedTime);
-                record.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, pubsubDatabase);
+            // Skip changes older than a replicated delete so they do not recreate the document
+            if (this.tombstoneStore != null
+                    && this.tombstoneStore.isDeletedAfter(documentPath, updatedTime)) {
+                this.eventLogger.info("deleted-after",
+                        () -> "Document deleted after change, skipping: " + documentPath);
+                return;
             }
 
-            // Perform the update
-            this.firestore.updateTransaction(documentReference, updatedTime, record);
-            logger.info("Document set: " + documentPath);
+            // Skip changes older than a change already applied without reading the document
+            if (this.highWaterMarks != null
+                    && this.highWaterMarks.isStale(documentPath, updatedTime)) {
+                span.setAttribute("outcome", "stale");
+                this.eventLogger.fine("stale",
+                        () -> "Document changed after change, skipping: " + documentPath);
+                return;
+            }
+
+            if (this.directWrite) {
+                // Forward the protocol buffer values, the attributes are added the same way
+                String sourceDatabase = isTimestamped() ? pubsubDatabase : null;
+                applied = run(span, "transaction", () -> changed.set(this.firestore.writeDocument(
+                        documentReference, updatedTime, document, sourceDatabase)),
+                        deadLetter.operation("update"));
+            } else {
+                Span convert = span.startChild("convert");
+                Map<String, Object> record = this.firestoreProto2Map.convert(document);
+                convert.end();
+
+                // For cross region replication to work properly two additional attributes must
+                // be written to the document to indicate what region the replicated attribute
+                // came from and the timestamp of when the record was updated. This applies only
+                // to multi region primary mode or when changes are delivered out of order
+                if (isTimestamped()) {
+                    record.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, updatedTime);
+                    record.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, pubsubDatabase);
+                }
+
+                // Perform the update
+                applied = run(span, "transaction", () -> changed.set(this.firestore
+                        .updateTransaction(documentReference, updatedTime, record)),
+                        deadLetter.operation("update"));
+            }
+            if (applied && this.highWaterMarks != null) {
+                // The document now has this update time or a newer one
+                this.highWaterMarks.record(documentPath, updatedTime);
+            }
+            if (changed.get()) {
+                this.eventLogger.info("set", () -> "Document set: " + documentPath);
+            } else if (applied) {
+                span.setAttribute("outcome", "stale");
+                this.eventLogger.fine("stale",
+                        () -> "Document changed after change, skipping: " + documentPath);
+            }
         } else {
-            // Flag as delete
-            if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)) {
+            if (this.unorderedDelivery) {
+                // Keep a tombstone with the update time of the deleted version instead of
+                // deleting so that changes delivered after the delete are not applied
+                Document oldValue = firestoreEventData.getOldValue();
+                Timestamp deletedTime = oldValue.hasUpdateTime()
+                        ? Timestamp.fromProto(oldValue.getUpdateTime())
+                        : this.firestore.now();
+                Map<String, Object> tombstone = new HashMap<>();
+                tombstone.put(CrossFireSyncAttributes.DELETE_FIELD, true);
+                tombstone.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, pubsubDatabase);
+                tombstone.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, deletedTime);
+
+                applied = run(span, "tombstone",
+                        () -> changed.set(this.firestore.tombstoneTransaction(documentReference,
+                                deletedTime, tombstone)),
+                        deadLetter.operation("tombstone"));
+
+                if (applied && this.highWaterMarks != null) {
+                    this.highWaterMarks.record(documentPath, deletedTime);
+                }
+                if (changed.get()) {
+                    this.eventLogger.info("flag",
+                            () -> "Flagged document as deleted: " + documentPath);
+                }
+            } else if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)
+                    && DeleteMode.DIRECT.equals(this.deleteMode)) {
+                // Delete directly; the tombstone is recorded first so the publisher in this region
+                // recognizes the delete event as replicated and does not publish it back. It has
+                // the update time of the deleted version so a recreate committed in the source
+                // after the delete is newer than the tombstone however late it arrives
+                Document oldValue = firestoreEventData.getOldValue();
+                Timestamp deleteTimestamp = oldValue.hasUpdateTime()
+                        ? Timestamp.fromProto(oldValue.getUpdateTime())
+                        : this.firestore.now();
+                this.tombstoneStore.record(documentPath, pubsubDatabase, deleteTimestamp);
+
+                applied = run(span, "deleteWithPrecondition",
+                        () -> changed.set(this.firestore.deleteWithPrecondition(documentReference,
+                                deleteTimestamp)),
+                        deadLetter.operation("deleteWithPrecondition"));
+
+                if (changed.get()) {
+                    this.eventLogger.info("delete", () -> "Document deleted: " + documentPath);
+                } else {
+                    // Nothing was deleted so a later local delete must still be published
+                    this.tombstoneStore.remove(documentPath);
+                }
+            } else if (ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode)) {
+                // Flag as delete
                 // Prepare the updates, set the deleted flag instead of actually deleting so the
                 // delete in the remote regions will not redundantly cascade to other regions.
                 Map<String, Object> updates = new HashMap<>();
@@ -220,16 +513,64 @@ public class PubSubChangeConsumer implements CloudEventsFunction {
                 Timestamp deleteTimestamp = this.firestore.now();
                 updates.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, deleteTimestamp);
 
-                boolean flagged = this.firestore.deleteFlagTransaction(documentReference, updates);
+                applied = run(span, "deleteFlag",
+                        () -> changed.set(
+                                this.firestore.deleteFlagTransaction(documentReference, updates)),
+                        deadLetter.operation("deleteFlag"));
 
-                if (flagged) {
-                    logger.info("Flagged document as deleted: " + documentPath);
+                if (changed.get()) {
+                    this.eventLogger.info("flag",
+                            () -> "Flagged document as deleted: " + documentPath);
                 }
             } else {
                 // Delete the document in the remote region
-                this.firestore.deleteDocument(documentPath);
-                logger.info("Document deleted: " + documentPath);
+                applied = run(span, "delete", () -> this.firestore.deleteDocument(documentPath),
+                        deadLetter.operation("delete"));
+                if (applied) {
+                    changed.set(true);
+                    this.eventLogger.info("delete", () -> "Document deleted: " + documentPath);
+                }
             }
         }
+
+        // The deleted document is no longer newer than the changes that recreate it
+        if (!firestoreEventData.hasValue() && !this.unorderedDelivery
+                && this.highWaterMarks != null) {
+            this.highWaterMarks.remove(documentPath);
+        }
+
+        // Track the change if it was written, dead-lettered changes were not applied
+        if (changed.get() && this.digest != null) {
+            this.digest.apply(documentPath, firestoreEventData);
+        }
+    }
+
+    /**
+     * Test if replicated documents are written with the crossfiresync attributes.
+     * 
+     * @return true in multi region primary mode or when changes are delivered out of order
+     */
+    private boolean isTimestamped() {
+        return this.unorderedDelivery
+                || ReplicationMode.MULTI_REGION_PRIMARY.equals(this.replicationMode);
+    }
+
+    /**
+     * Run a Firestore write with retries in a child span.
+     * 
+     * @param span the span of the message
+     * @param name the name of the child span
+     * @param action the write
+     * @param deadLetter the dead letter if the write fails
+     * @return true if the write succeeded; false if it was dead-lettered
+     */
+    private boolean run(Span span, String name, Runnable action,
+            DeadLetter.DeadLetterBuilder deadLetter) {
+        Span step = span.startChild(name);
+        try {
+            return this.retryExecutor.run(action, deadLetter);
+        } finally {
+            step.end();
+        }
     }
 }
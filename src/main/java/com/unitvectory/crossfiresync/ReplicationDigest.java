@@ -0,0 +1,336 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+
+/**
+ * An order independent digest of the documents in each top level collection, maintained as changes
+ * are published and applied.
+ *
+ * Each change subtracts the hash of the old document and adds the hash of the new document, so
+ * the digest only depends on the final set of documents and not the order the changes were seen
+ * in. When every change has replicated, the digests in each region are equal; regions can compare
+ * their persisted digests cheaply and only fall back to an AntiEntropyScanner scan of the
+ * collections whose digests differ. Digests only cover the changes seen since the file was first
+ * created, so all regions should start tracking from a consistent state.
+ *
+ * A single instance should be shared by the FirestoreChangePublisher and PubSubChangeConsumer that
+ * run in the same process. Updating the digest does not allocate; a collection is added to the
+ * table the first time it is seen.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ReplicationDigest implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ReplicationDigest.class.getName());
+
+    /**
+     * The maximum number of top level collections tracked individually
+     */
+    private static final int CAPACITY = 1024;
+
+    /**
+     * The name of the slot used for collections that do not fit in the table
+     */
+    static final String OVERFLOW_COLLECTION = "*";
+
+    private final AtomicReferenceArray<String> collections;
+
+    private final AtomicLongArray digests;
+
+    private final AtomicLongArray counts;
+
+    private final Path file;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new ReplicationDigest that is only kept in memory.
+     */
+    public ReplicationDigest() {
+        this(null, 0);
+    }
+
+    /**
+     * Create a new ReplicationDigest; the file is loaded if it exists.
+     *
+     * @param file the file the digests are persisted to
+     * @param persistIntervalSeconds how often the digests are persisted; 0 to only persist when
+     *        flushed or closed
+     */
+    public ReplicationDigest(Path file, long persistIntervalSeconds) {
+        // The last slot is reserved for the overflow
+        this.collections = new AtomicReferenceArray<>(CAPACITY + 1);
+        this.digests = new AtomicLongArray(CAPACITY + 1);
+        this.counts = new AtomicLongArray(CAPACITY + 1);
+        this.collections.set(CAPACITY, OVERFLOW_COLLECTION);
+        this.file = file;
+
+        if (file != null && Files.exists(file)) {
+            for (CollectionDigest digest : load(file).values()) {
+                int slot = OVERFLOW_COLLECTION.equals(digest.getCollection()) ? CAPACITY
+                        : slot(digest.getCollection());
+                this.digests.set(slot, digest.getDigest());
+                this.counts.set(slot, digest.getCount());
+            }
+        }
+
+        if (file != null && persistIntervalSeconds > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "crossfiresync-digest");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::persist, persistIntervalSeconds,
+                    persistIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Apply a replicated change to the digest.
+     *
+     * @param documentPath the document path
+     * @param firestoreEventData the change
+     */
+    public void apply(String documentPath, DocumentEventData firestoreEventData) {
+        apply(documentPath,
+                firestoreEventData.hasOldValue() ? firestoreEventData.getOldValue() : null,
+                firestoreEventData.hasValue() ? firestoreEventData.getValue() : null);
+    }
+
+    /**
+     * Apply a replicated change to the digest.
+     *
+     * @param documentPath the document path
+     * @param oldValue the document before the change; null for an insert
+     * @param newValue the document after the change; null for a delete
+     */
+    public void apply(String documentPath, Document oldValue, Document newValue) {
+        long digest = 0;
+        long count = 0;
+
+        // Documents flagged for delete are treated as already deleted
+        if (oldValue != null && !oldValue.containsFields(CrossFireSyncAttributes.DELETE_FIELD)) {
+            digest -= DocumentHasher.hashEntry(documentPath, contentHash(oldValue));
+            count--;
+        }
+
+        if (newValue != null && !newValue.containsFields(CrossFireSyncAttributes.DELETE_FIELD)) {
+            digest += DocumentHasher.hashEntry(documentPath, DocumentHasher.hashDocument(newValue));
+            count++;
+        }
+
+        if (digest == 0 && count == 0) {
+            return;
+        }
+
+        int end = documentPath.indexOf('/');
+        int slot = slot(documentPath, end < 0 ? documentPath.length() : end);
+        this.digests.addAndGet(slot, digest);
+        this.counts.addAndGet(slot, count);
+    }
+
+    /**
+     * Gets the content hash of a document, sent with the old value when only its replication
+     * attributes were kept.
+     */
+    private static long contentHash(Document document) {
+        Value contentHash =
+                document.getFieldsOrDefault(CrossFireSyncAttributes.CONTENT_HASH_FIELD, null);
+        if (contentHash != null
+                && Value.ValueTypeCase.INTEGER_VALUE.equals(contentHash.getValueTypeCase())) {
+            return contentHash.getIntegerValue();
+        }
+
+        return DocumentHasher.hashDocument(document);
+    }
+
+    /**
+     * Gets the current digest of each collection.
+     *
+     * @return the digests by collection
+     */
+    public Map<String, CollectionDigest> getDigests() {
+        Map<String, CollectionDigest> map = new TreeMap<>();
+        for (int i = 0; i <= CAPACITY; i++) {
+            String collection = this.collections.get(i);
+            if (collection != null) {
+                long digest = this.digests.get(i);
+                long count = this.counts.get(i);
+                if (digest != 0 || count != 0) {
+                    map.put(collection, new CollectionDigest(collection, digest, count));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Persist the digests to the file.
+     */
+    public void flush() {
+        if (this.file == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        for (CollectionDigest digest : getDigests().values()) {
+            properties.setProperty("digest." + digest.getCollection(),
+                    Long.toHexString(digest.getDigest()));
+            properties.setProperty("count." + digest.getCollection(),
+                    Long.toString(digest.getCount()));
+        }
+
+        try {
+            Path parent = this.file.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, this.file.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "crossfiresync collection digests");
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to persist digests.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * Load persisted digests, such as the file persisted by another region.
+     *
+     * @param file the file
+     * @return the digests by collection
+     */
+    public static Map<String, CollectionDigest> load(Path file) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to load digests.", e);
+        }
+
+        Map<String, CollectionDigest> map = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("digest.")) {
+                String collection = name.substring("digest.".length());
+                long digest = Long.parseUnsignedLong(properties.getProperty(name), 16);
+                long count = Long.parseLong(properties.getProperty("count." + collection, "0"));
+                map.put(collection, new CollectionDigest(collection, digest, count));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Compare the digests of two regions.
+     *
+     * @param source the digests of the first region
+     * @param target the digests of the second region
+     * @return the collections whose digests differ
+     */
+    public static Set<String> compare(Map<String, CollectionDigest> source,
+            Map<String, CollectionDigest> target) {
+        Set<String> collections = new TreeSet<>(source.keySet());
+        collections.addAll(target.keySet());
+
+        Set<String> different = new TreeSet<>();
+        for (String collection : collections) {
+            CollectionDigest sourceDigest = source.get(collection);
+            CollectionDigest targetDigest = target.get(collection);
+            long sourceValue = sourceDigest == null ? 0 : sourceDigest.getDigest();
+            long targetValue = targetDigest == null ? 0 : targetDigest.getDigest();
+            long sourceCount = sourceDigest == null ? 0 : sourceDigest.getCount();
+            long targetCount = targetDigest == null ? 0 : targetDigest.getCount();
+            if (sourceValue != targetValue || sourceCount != targetCount) {
+                different.add(collection);
+            }
+        }
+        return Collections.unmodifiableSet(different);
+    }
+
+    private void persist() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to persist digests.", e);
+        }
+    }
+
+    private int slot(String collection) {
+        return slot(collection, collection.length());
+    }
+
+    /**
+     * Find the slot for the collection, the first length characters of the value, using open
+     * addressing so no substring is created once the collection is in the table.
+     *
+     * @param value the value starting with the collection
+     * @param length the length of the collection
+     * @return the slot
+     */
+    private int slot(String value, int length) {
+        int mask = CAPACITY - 1;
+        int index = (int) DocumentHasher.hashString(value, 0, length) & mask;
+        for (int probe = 0; probe < CAPACITY; probe++) {
+            String collection = this.collections.get(index);
+            if (collection == null) {
+                String candidate = value.substring(0, length);
+                if (this.collections.compareAndSet(index, null, candidate)) {
+                    return index;
+                }
+                collection = this.collections.get(index);
+            }
+
+            if (collection.length() == length && value.regionMatches(0, collection, 0, length)) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return CAPACITY;
+    }
+}
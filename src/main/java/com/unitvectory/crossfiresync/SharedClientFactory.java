@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.pubsub.v1.ProjectTopicName;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.pubsub.ConfigPublisherSettings;
+
+/**
+ * The factory for the clients shared by the pipelines of a MultiDatabaseRuntime.
+ * 
+ * The publisher and the consumer of a database share one Firestore client, and the pipelines
+ * publishing to the same topic share one Pub/Sub Publisher and with it its gRPC channel. Every
+ * Publisher batches and sends on one executor instead of each creating its own threads. Each
+ * pipeline still gets its own flow control and spool so one database cannot exhaust the capacity
+ * of another.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class SharedClientFactory extends ConfigPublisherFactoryDefault
+        implements ConfigFirestoreFactory, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SharedClientFactory.class.getName());
+
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, Firestore> firestores = new ConcurrentHashMap<>();
+
+    private final Map<String, Publisher> publishers = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new SharedClientFactory.
+     * 
+     * @param executorThreads the number of threads of the executor shared by the Publishers
+     */
+    SharedClientFactory(int executorThreads) {
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, executorThreads), r -> {
+            Thread thread = new Thread(r, "crossfiresync-shared-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CrossFireSyncFirestore getFirestore(ConfigFirestoreSettings settings) {
+        Firestore db = this.firestores.computeIfAbsent(settings.getDatabaseName(),
+                database -> TransportOptions.firestoreOptions(database, settings.getTransport())
+                        .getService());
+        return new CrossFireSyncFirestoreDefault(db, settings.getTransactionMaxAttempts(),
+                settings.getLockStripes(), settings.getContentionTracker(),
+                settings.getReferenceCacheSize());
+    }
+
+    @Override
+    Publisher createPublisher(ConfigPublisherSettings settings) throws IOException {
+        String key = settings.getProject() + "/" + settings.getTopic() + "/"
+                + settings.isMessageOrdering();
+        try {
+            return this.publishers.computeIfAbsent(key, k -> {
+                try {
+                    return TransportOptions
+                            .publisherBuilder(
+                                    ProjectTopicName.of(settings.getProject(),
+                                            settings.getTopic()),
+                                    settings.isMessageOrdering(), settings.getTransport())
+                            .setExecutorProvider(FixedExecutorProvider.create(this.executor))
+                            .build();
+                } catch (IOException e) {
+                    throw new CrossFireSyncException("Failed to create Publisher.", e);
+                }
+            });
+        } catch (CrossFireSyncException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Publisher publisher : this.publishers.values()) {
+            try {
+                publisher.shutdown();
+                publisher.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to shut down Publisher.", e);
+            }
+        }
+
+        for (Firestore firestore : this.firestores.values()) {
+            try {
+                firestore.close();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to close Firestore.", e);
+            }
+        }
+
+        this.executor.shutdown();
+    }
+}
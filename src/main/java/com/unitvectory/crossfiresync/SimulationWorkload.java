@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.time.Duration;
+import com.unitvectory.crossfiresync.memory.LatencyDistribution;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The synthetic workload driven by the TopologySimulator.
+ *
+ * Each writer repeatedly picks a region and a document and writes or deletes it, waiting a sampled
+ * interval between writes, so the writers run concurrently in simulated time.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class SimulationWorkload {
+
+    /**
+     * The number of concurrent writers.
+     */
+    @Builder.Default
+    private final int writers = 4;
+
+    /**
+     * The number of writes made by each writer.
+     */
+    @Builder.Default
+    private final int writesPerWriter = 100;
+
+    /**
+     * The collection the documents are written to.
+     */
+    @Builder.Default
+    private final String collection = "simulation";
+
+    /**
+     * The number of documents written.
+     */
+    @Builder.Default
+    private final int documents = 100;
+
+    /**
+     * The number of documents, out of all of the documents, that are hot.
+     */
+    @Builder.Default
+    private final int hotDocuments = 1;
+
+    /**
+     * The fraction of writes that go to one of the hot documents.
+     */
+    @Builder.Default
+    private final double hotWriteRate = 0;
+
+    /**
+     * The fraction of writes to an existing document that delete it.
+     */
+    @Builder.Default
+    private final double deleteRate = 0;
+
+    /**
+     * The time between the writes of each writer.
+     */
+    @Builder.Default
+    private final LatencyDistribution writeInterval =
+            LatencyDistribution.exponential(Duration.ofMillis(10));
+}
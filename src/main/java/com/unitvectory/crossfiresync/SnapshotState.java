@@ -0,0 +1,38 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+/**
+ * In-memory replication state that can be saved to and loaded from a StateSnapshot.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+interface SnapshotState {
+
+    /**
+     * Save a copy of the state.
+     *
+     * @param name the name of the section
+     * @return the section
+     */
+    StateSection saveState(String name);
+
+    /**
+     * Load the state from a snapshot, keeping any newer state already in memory.
+     *
+     * @param section the section
+     * @return the number of entries loaded
+     */
+    int loadState(StateSection section);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import lombok.Value;
+
+/**
+ * A section of a StateSnapshot holding the entries of a PathTimestampTable.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+class StateSection {
+
+    /**
+     * The name of the section.
+     */
+    private final String name;
+
+    /**
+     * The names the tags of the entries refer to, by tag.
+     */
+    private final List<String> tags;
+
+    /**
+     * The entries packed as the key, the seconds, the nanos, and the tag.
+     */
+    private final ByteBuffer entries;
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries
+     */
+    int getEntryCount() {
+        return this.entries.remaining() / PathTimestampTable.SLOT_BYTES;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * Periodically saves the in-memory replication state, such as the high-water marks and the
+ * tombstones, to a local file and loads it at startup so a restarted instance does not begin cold.
+ *
+ * The file starts with a header of the magic number, the format version, the number of sections,
+ * the length of the body, and the CRC32 of the body. Each section is its name, the names its tags
+ * refer to, and the packed entries of its table. The file is written to a temporary file through a
+ * memory mapping, forced to disk, and atomically moved into place; a file with the wrong magic
+ * number, version, length, or checksum is ignored so the instance starts empty instead.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class StateSnapshot implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(StateSnapshot.class.getName());
+
+    static final int MAGIC = 0x43465353;
+
+    static final int VERSION = 1;
+
+    /**
+     * The bytes of the header: the magic, the version, the section count, the body length, and the
+     * CRC32 of the body
+     */
+    static final int HEADER_BYTES = 28;
+
+    private final Path file;
+
+    private final Map<String, SnapshotState> states;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Thread shutdownHook;
+
+    private long loadedEntries;
+
+    private long loadNanos;
+
+    private long saves;
+
+    private long failures;
+
+    private long lastSaveBytes;
+
+    private long lastSaveNanos;
+
+    /**
+     * Create a new StateSnapshot; the file is loaded into the states if it exists.
+     *
+     * @param file the file the state is saved to
+     * @param persistIntervalSeconds how often the state is saved; 0 to only save when flushed or
+     *        closed
+     * @param states the states by section name
+     */
+    StateSnapshot(@NonNull Path file, long persistIntervalSeconds,
+            @NonNull Map<String, SnapshotState> states) {
+        this.file = file;
+        this.states = Collections.unmodifiableMap(new LinkedHashMap<>(states));
+
+        if (Files.exists(file)) {
+            load();
+        }
+
+        if (persistIntervalSeconds > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "crossfiresync-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::persist, persistIntervalSeconds,
+                    persistIntervalSeconds, TimeUnit.SECONDS);
+
+            // Save the latest state when the container is stopped during a rollout
+            this.shutdownHook = new Thread(this::persist, "crossfiresync-snapshot-shutdown");
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        } else {
+            this.scheduler = null;
+            this.shutdownHook = null;
+        }
+    }
+
+    /**
+     * Create a StateSnapshot for a component if a directory is configured.
+     *
+     * @param directory the directory; null to not save the state
+     * @param name the name of the file in the directory
+     * @param persistIntervalSeconds how often the state is saved
+     * @param states the states by section name; null states are skipped
+     * @return the snapshot; null if no directory is configured or there is no state
+     */
+    static StateSnapshot open(String directory, String name, long persistIntervalSeconds,
+            Map<String, SnapshotState> states) {
+        if (directory == null || directory.isBlank()) {
+            return null;
+        }
+
+        Map<String, SnapshotState> configured = new LinkedHashMap<>();
+        for (Map.Entry<String, SnapshotState> entry : states.entrySet()) {
+            if (entry.getValue() != null) {
+                configured.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (configured.isEmpty()) {
+            return null;
+        }
+
+        return new StateSnapshot(Path.of(directory, name + ".snapshot"), persistIntervalSeconds,
+                configured);
+    }
+
+    /**
+     * Save the state to the file.
+     */
+    public void flush() {
+        long start = System.nanoTime();
+        List<byte[]> names = new ArrayList<>();
+        List<StateSection> sections = new ArrayList<>();
+        long size = HEADER_BYTES;
+        for (Map.Entry<String, SnapshotState> entry : this.states.entrySet()) {
+            StateSection section = entry.getValue().saveState(entry.getKey());
+            sections.add(section);
+            size += 2 + utf8(section.getName(), names).length + 4 + 4
+                    + section.getEntries().remaining();
+            for (String tag : section.getTags()) {
+                size += 2 + utf8(tag, names).length;
+            }
+        }
+
+        try {
+            Path parent = this.file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, this.file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.position(HEADER_BYTES);
+                int name = 0;
+                for (StateSection section : sections) {
+                    put(buffer, names.get(name++));
+                    buffer.putInt(section.getTags().size());
+                    for (int tag = 0; tag < section.getTags().size(); tag++) {
+                        put(buffer, names.get(name++));
+                    }
+                    buffer.putInt(section.getEntryCount());
+                    buffer.put(section.getEntries());
+                }
+
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, sections.size());
+                buffer.putLong(12, size - HEADER_BYTES);
+                buffer.putLong(20, crc(buffer, (int) size));
+                buffer.force();
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            synchronized (this) {
+                this.failures++;
+            }
+            throw new CrossFireSyncException("Failed to save state snapshot.", e);
+        }
+
+        synchronized (this) {
+            this.saves++;
+            this.lastSaveBytes = size;
+            this.lastSaveNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Gets the statistics of the snapshot.
+     *
+     * @return the statistics
+     */
+    public synchronized StateSnapshotStats getStats() {
+        return StateSnapshotStats.builder().loadedEntries(this.loadedEntries)
+                .loadNanos(this.loadNanos).saves(this.saves).failures(this.failures)
+                .lastSaveBytes(this.lastSaveBytes).lastSaveNanos(this.lastSaveNanos).build();
+    }
+
+    @Override
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        if (this.shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, the hook saves the state
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Load the file into the states, ignoring a file that is not a valid snapshot.
+     */
+    private void load() {
+        long start = System.nanoTime();
+        long entries = 0;
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size " + size);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Invalid snapshot magic");
+            } else if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+            } else if (buffer.getLong(12) != size - HEADER_BYTES) {
+                throw new IOException("Truncated snapshot");
+            } else if (buffer.getLong(20) != crc(buffer, (int) size)) {
+                throw new IOException("Invalid snapshot checksum");
+            }
+
+            int sectionCount = buffer.getInt(8);
+            buffer.position(HEADER_BYTES);
+            for (int i = 0; i < sectionCount; i++) {
+                String name = get(buffer);
+                int tagCount = buffer.getInt();
+                List<String> tags = new ArrayList<>(tagCount);
+                for (int tag = 0; tag < tagCount; tag++) {
+                    tags.add(get(buffer));
+                }
+                int entryCount = buffer.getInt();
+                ByteBuffer section = buffer.slice(buffer.position(),
+                        entryCount * PathTimestampTable.SLOT_BYTES);
+                buffer.position(buffer.position() + section.remaining());
+
+                // Sections of states that are no longer configured are skipped
+                SnapshotState state = this.states.get(name);
+                if (state != null) {
+                    entries += state.loadState(new StateSection(name, tags, section));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Ignoring state snapshot " + this.file, e);
+            synchronized (this) {
+                this.failures++;
+            }
+            return;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long loaded = entries;
+        logger.info(() -> "Loaded " + loaded + " entries from state snapshot in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        synchronized (this) {
+            this.loadedEntries = loaded;
+            this.loadNanos = elapsed;
+        }
+    }
+
+    private void persist() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to save state snapshot.", e);
+        }
+    }
+
+    private static byte[] utf8(String value, List<byte[]> names) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new CrossFireSyncException("State snapshot name too long.", null);
+        }
+        names.add(bytes);
+        return bytes;
+    }
+
+    private static void put(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String get(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long crc(ByteBuffer buffer, int size) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(HEADER_BYTES, size - HEADER_BYTES));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a StateSnapshot.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class StateSnapshotStats {
+
+    /**
+     * The number of entries loaded from the snapshot at startup.
+     */
+    private final long loadedEntries;
+
+    /**
+     * The time taken to load the snapshot at startup in nanoseconds; 0 if there was none.
+     */
+    private final long loadNanos;
+
+    /**
+     * The number of times the snapshot was saved.
+     */
+    private final long saves;
+
+    /**
+     * The number of times the snapshot could not be loaded or saved.
+     */
+    private final long failures;
+
+    /**
+     * The size of the last saved snapshot in bytes.
+     */
+    private final long lastSaveBytes;
+
+    /**
+     * The time taken to save the last snapshot in nanoseconds.
+     */
+    private final long lastSaveNanos;
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.cloud.Timestamp;
+import lombok.NonNull;
+
+/**
+ * The TombstoneStore records the documents deleted by replication in DIRECT delete mode.
+ * 
+ * The PubSubChangeConsumer records a tombstone when it deletes a document. The
+ * FirestoreChangePublisher reads the tombstone to recognize the resulting delete event as a
+ * replicated delete that must not be published back, and the PubSubChangeConsumer reads it to
+ * skip updates older than the delete that would otherwise recreate the document. Tombstones are
+ * kept for the retention period; a tombstone is removed when the document is written again.
+ * 
+ * Tombstones are kept in a compact table keyed by the hash of the document path, so the store
+ * costs about 48 bytes per tombstone.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TombstoneStore implements SnapshotState {
+
+    /**
+     * How many tombstones are recorded between checks for expired tombstones
+     */
+    private static final int EXPIRE_INTERVAL = 1024;
+
+    private final long retentionSeconds;
+
+    private final int maxTombstones;
+
+    private final PathTimestampTable table;
+
+    private final List<String> databases = new ArrayList<>();
+
+    private final Map<String, Integer> databaseTags = new HashMap<>();
+
+    private int recordsSinceExpire;
+
+    /**
+     * Create a new TombstoneStore that keeps tombstones for a day, up to one million tombstones.
+     */
+    public TombstoneStore() {
+        this(Duration.ofDays(1), 1000000);
+    }
+
+    /**
+     * Create a new TombstoneStore.
+     * 
+     * @param retention how long tombstones are kept
+     * @param maxTombstones the maximum number of tombstones; the oldest are removed when full
+     */
+    public TombstoneStore(@NonNull Duration retention, int maxTombstones) {
+        this.retentionSeconds = Math.max(1, retention.getSeconds());
+        this.maxTombstones = Math.max(1, maxTombstones);
+        this.table = new PathTimestampTable(Math.min(this.maxTombstones, 1024));
+    }
+
+    /**
+     * Record a tombstone for a deleted document.
+     * 
+     * @param documentPath the document path
+     * @param sourceDatabase the database the delete was replicated from
+     * @param timestamp the timestamp of the delete
+     */
+    public synchronized void record(@NonNull String documentPath, @NonNull String sourceDatabase,
+            @NonNull Timestamp timestamp) {
+        if (++this.recordsSinceExpire >= EXPIRE_INTERVAL
+                || this.table.size() >= this.maxTombstones) {
+            this.recordsSinceExpire = 0;
+            expire(timestamp);
+        }
+
+        this.table.putIfNewer(PathTimestampTable.key(documentPath), timestamp.getSeconds(),
+                timestamp.getNanos(), tag(sourceDatabase));
+    }
+
+    /**
+     * Gets the tombstone for a document.
+     * 
+     * @param documentPath the document path
+     * @return the tombstone; null if there is none
+     */
+    public synchronized Tombstone get(@NonNull String documentPath) {
+        int slot = this.table.find(PathTimestampTable.key(documentPath));
+        if (slot < 0) {
+            return null;
+        }
+
+        return new Tombstone(documentPath, this.databases.get(this.table.tag(slot)), Timestamp
+                .ofTimeSecondsAndNanos(this.table.seconds(slot), this.table.nanos(slot)));
+    }
+
+    /**
+     * Checks if a delete of a document was replicated from another database.
+     * 
+     * @param documentPath the document path
+     * @param database the local database
+     * @return true if there is a tombstone for the document from another database
+     */
+    public synchronized boolean isReplicatedDelete(@NonNull String documentPath,
+            @NonNull String database) {
+        int slot = this.table.find(PathTimestampTable.key(documentPath));
+        return slot >= 0 && !database.equals(this.databases.get(this.table.tag(slot)));
+    }
+
+    /**
+     * Checks if a change is older than the tombstone for the document.
+     * 
+     * @param documentPath the document path
+     * @param timestamp the timestamp of the change
+     * @return true if there is a tombstone for the document at or after the timestamp
+     */
+    public synchronized boolean isDeletedAfter(@NonNull String documentPath,
+            @NonNull Timestamp timestamp) {
+        int slot = this.table.find(PathTimestampTable.key(documentPath));
+        return slot >= 0 && PathTimestampTable.compare(this.table.seconds(slot),
+                this.table.nanos(slot), timestamp.getSeconds(), timestamp.getNanos()) >= 0;
+    }
+
+    /**
+     * Remove the tombstone for a document that was written again.
+     * 
+     * @param documentPath the document path
+     */
+    public synchronized void remove(@NonNull String documentPath) {
+        if (this.table.size() > 0) {
+            this.table.remove(PathTimestampTable.key(documentPath));
+        }
+    }
+
+    /**
+     * Gets the number of tombstones.
+     * 
+     * @return the number of tombstones
+     */
+    public synchronized int size() {
+        return this.table.size();
+    }
+
+    @Override
+    public synchronized StateSection saveState(String name) {
+        return new StateSection(name, new ArrayList<>(this.databases), this.table.copyEntries());
+    }
+
+    @Override
+    public synchronized int loadState(StateSection section) {
+        ByteBuffer entries = section.getEntries();
+        int loaded = 0;
+        while (entries.hasRemaining() && this.table.size() < this.maxTombstones) {
+            long key = entries.getLong();
+            long seconds = entries.getLong();
+            int nanos = entries.getInt();
+            String database = section.getTags().get(entries.getInt());
+            this.table.putIfNewer(key, seconds, nanos, tag(database));
+            loaded++;
+        }
+        return loaded;
+    }
+
+    /**
+     * Remove the tombstones older than the retention, and if still full the oldest tombstones.
+     */
+    private void expire(Timestamp now) {
+        long retention = this.retentionSeconds;
+        this.table.removeOlderThan(now.getSeconds() - retention, 0);
+        while (this.table.size() >= this.maxTombstones && retention > 1) {
+            retention /= 2;
+            this.table.removeOlderThan(now.getSeconds() - retention, 0);
+        }
+    }
+
+    private int tag(String database) {
+        Integer tag = this.databaseTags.get(database);
+        if (tag == null) {
+            tag = this.databases.size();
+            this.databases.add(database);
+            this.databaseTags.put(database, tag);
+        }
+        return tag;
+    }
+}
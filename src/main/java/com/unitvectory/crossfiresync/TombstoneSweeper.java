@@ -0,0 +1,210 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.cloud.Timestamp;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import lombok.NonNull;
+
+/**
+ * This class is responsible for removing documents left flagged for delete in multi region
+ * primary mode.
+ *
+ * A flagged document is normally deleted by the FirestoreChangePublisher when it receives the
+ * flag update, but if that invocation fails the document lingers. The sweeper queries the
+ * documents flagged longer ago than the minimum age in pages and deletes them with a rate limited
+ * BulkWriter. Each delete has a precondition on the update time that was read so a document
+ * written again since it was flagged is left alone. The sweeper can be run on demand or started
+ * to run on a schedule.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TombstoneSweeper implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(TombstoneSweeper.class.getName());
+
+    private final List<String> collectionGroups;
+
+    private final long minAgeSeconds;
+
+    private final int maxDeletesPerSecond;
+
+    private final long intervalSeconds;
+
+    private final int pageSize;
+
+    private final CrossFireSyncFirestore firestore;
+
+    private final boolean configured;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new TombstoneSweeper.
+     */
+    public TombstoneSweeper() {
+        this(TombstoneSweeperConfig.builder().build());
+    }
+
+    /**
+     * Create a new TombstoneSweeper.
+     *
+     * @param config the configuration
+     */
+    public TombstoneSweeper(@NonNull TombstoneSweeperConfig config) {
+        this.collectionGroups = config.getCollectionGroups();
+        this.minAgeSeconds = config.getMinAgeSeconds();
+        this.maxDeletesPerSecond = config.getMaxDeletesPerSecond();
+        this.intervalSeconds = config.getIntervalSeconds();
+        this.pageSize = config.getPageSize();
+
+        CrossFireSyncFirestore crossFireSyncFirestore = null;
+        try {
+            ConfigFirestoreSettings settings = ConfigFirestoreSettings.builder()
+                    .databaseName(config.getDatabaseName()).build();
+            crossFireSyncFirestore = config.getFirestoreFactory().getFirestore(settings);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to load CrossFireSyncFirestore.", e);
+            crossFireSyncFirestore = null;
+        }
+
+        this.firestore = crossFireSyncFirestore;
+        this.configured = isConfigured(config);
+    }
+
+    private boolean isConfigured(TombstoneSweeperConfig config) {
+        boolean valid = true;
+
+        if (config.getDatabaseName() == null || config.getDatabaseName().isBlank()) {
+            logger.severe("Database name is not set.");
+            valid = false;
+        }
+
+        if (this.collectionGroups == null || this.collectionGroups.isEmpty()) {
+            logger.severe("Collection groups are not set.");
+            valid = false;
+        }
+
+        if (this.pageSize <= 0) {
+            logger.severe("Page size must be positive.");
+            valid = false;
+        }
+
+        if (this.firestore == null) {
+            logger.severe("CrossFireSyncFirestore is not set.");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Sweep all of the configured collection groups once.
+     *
+     * @return the result
+     */
+    public TombstoneSweepResult run() {
+        long pages = 0;
+        long found = 0;
+        long removed = 0;
+
+        if (!this.configured) {
+            logger.severe("Not configured, sweep will not be performed.");
+            return TombstoneSweepResult.builder().build();
+        }
+
+        Timestamp now = this.firestore.now();
+        Timestamp flaggedBefore =
+                Timestamp.ofTimeSecondsAndNanos(now.getSeconds() - this.minAgeSeconds,
+                        now.getNanos());
+
+        for (String collectionGroup : this.collectionGroups) {
+            Timestamp afterTimestamp = null;
+            String afterDocumentPath = null;
+
+            while (true) {
+                List<FirestoreDocument> page = this.firestore.queryFlaggedForDelete(
+                        collectionGroup, flaggedBefore, afterTimestamp, afterDocumentPath,
+                        this.pageSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                pages++;
+                found += page.size();
+                removed += this.firestore.bulkDelete(page, this.maxDeletesPerSecond);
+
+                // Continue after the page as documents that could not be deleted remain
+                FirestoreDocument last = page.get(page.size() - 1);
+                Object timestamp = last.getData() == null ? null
+                        : last.getData().get(CrossFireSyncAttributes.TIMESTAMP_FIELD);
+                if (timestamp instanceof Timestamp) {
+                    afterTimestamp = (Timestamp) timestamp;
+                    afterDocumentPath = last.getDocumentPath();
+                }
+
+                if (page.size() < this.pageSize || afterTimestamp == null) {
+                    break;
+                }
+            }
+        }
+
+        logger.info("Swept " + removed + " of " + found + " documents flagged for delete");
+        return TombstoneSweepResult.builder().pages(pages).found(found).removed(removed).build();
+    }
+
+    /**
+     * Start running the sweep on a schedule at the configured interval.
+     */
+    public synchronized void start() {
+        if (this.scheduler != null) {
+            return;
+        } else if (this.intervalSeconds <= 0) {
+            logger.warning("Sweep interval must be positive, sweep not scheduled.");
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crossfiresync-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::sweep, 0, this.intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    private void sweep() {
+        try {
+            run();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to sweep documents flagged for delete.", e);
+        }
+    }
+}
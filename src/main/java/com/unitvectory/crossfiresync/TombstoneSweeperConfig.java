@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for TombstoneSweeper allows for customization.
+ *
+ * By default, the configuration will use the following environment variables:
+ *
+ * <ul>
+ * <li><b>DATABASE</b>: The Firestore database name to sweep</li>
+ * <li><b>COLLECTION_GROUPS</b>: Comma separated collection group ids to sweep</li>
+ * <li><b>SWEEP_MIN_AGE_SECONDS</b>: How long a document must have been flagged to be removed</li>
+ * <li><b>SWEEP_MAX_DELETES_PER_SECOND</b>: The maximum rate of deletes</li>
+ * <li><b>SWEEP_INTERVAL_SECONDS</b>: How often the sweep runs once started</li>
+ * </ul>
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class TombstoneSweeperConfig {
+
+    /**
+     * The Firestore database name
+     *
+     * Use the DATABASE environment variable to set this value.
+     */
+    @Builder.Default
+    private final String databaseName = System.getenv("DATABASE");
+
+    /**
+     * The collection group ids to sweep
+     *
+     * Use the COLLECTION_GROUPS environment variable to set this value as a comma separated list.
+     */
+    @Builder.Default
+    private final List<String> collectionGroups =
+            ConfigValues.parseList(System.getenv("COLLECTION_GROUPS"));
+
+    /**
+     * How long a document must have been flagged for delete before it is removed, in seconds
+     *
+     * The FirestoreChangePublisher normally deletes flagged documents within seconds; the minimum
+     * age leaves it time to do so. Use the SWEEP_MIN_AGE_SECONDS environment variable to set this
+     * value.
+     */
+    @Builder.Default
+    private final long minAgeSeconds =
+            ConfigValues.parseLong(System.getenv("SWEEP_MIN_AGE_SECONDS"), 3600);
+
+    /**
+     * The maximum number of deletes per second; 0 for no limit
+     *
+     * Use the SWEEP_MAX_DELETES_PER_SECOND environment variable to set this value.
+     */
+    @Builder.Default
+    private final int maxDeletesPerSecond =
+            ConfigValues.parseInt(System.getenv("SWEEP_MAX_DELETES_PER_SECOND"), 100);
+
+    /**
+     * How often the sweep runs once started, in seconds
+     *
+     * Use the SWEEP_INTERVAL_SECONDS environment variable to set this value.
+     */
+    @Builder.Default
+    private final long intervalSeconds =
+            ConfigValues.parseLong(System.getenv("SWEEP_INTERVAL_SECONDS"), 3600);
+
+    /**
+     * The number of flagged documents read per page
+     *
+     * Each collection group requires an index on the crossfiresync:delete field, the
+     * crossfiresync:timestamp field, and the document id.
+     */
+    @Builder.Default
+    private final int pageSize = 500;
+
+    /**
+     * The Firestore factory
+     *
+     * Implement the ConfigFirestoreFactory interface to create a custom factory to provide a
+     * customized Firestore instance.
+     */
+    @Builder.Default
+    private final ConfigFirestoreFactory firestoreFactory = new ConfigFirestoreFactoryDefault();
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.List;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The report of a TopologySimulator run.
+ *
+ * The operation counts cover every region, including the writes made by the workload itself.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class TopologySimulationReport {
+
+    /**
+     * The replication mode.
+     */
+    private final ReplicationMode replicationMode;
+
+    /**
+     * The number of regions.
+     */
+    private final int regions;
+
+    /**
+     * The number of writes and deletes made by the workload.
+     */
+    private final long userWrites;
+
+    /**
+     * The number of messages published to the topic.
+     */
+    private final long messagesPublished;
+
+    /**
+     * The number of messages delivered to the consumers of all regions.
+     */
+    private final long messagesDelivered;
+
+    /**
+     * The number of documents written in all regions.
+     */
+    private final long documentWrites;
+
+    /**
+     * The number of documents read in all regions.
+     */
+    private final long documentReads;
+
+    /**
+     * The number of documents deleted in all regions.
+     */
+    private final long documentDeletes;
+
+    /**
+     * The number of FirestoreChangePublisher invocations.
+     */
+    private final long publisherInvocations;
+
+    /**
+     * The number of PubSubChangeConsumer invocations.
+     */
+    private final long consumerInvocations;
+
+    /**
+     * The simulated time from the last user write to the last change in any region.
+     */
+    private final long convergenceNanos;
+
+    /**
+     * True if the invocation limit was reached with changes still being replicated.
+     */
+    private final boolean loopDetected;
+
+    /**
+     * The documents that were still being replicated when the invocation limit was reached.
+     */
+    private final List<String> loopingDocuments;
+
+    /**
+     * The documents whose content differs between regions once replication stopped.
+     */
+    private final List<String> divergentDocuments;
+
+    /**
+     * Gets the number of messages published per user write.
+     * 
+     * @return the messages per user write
+     */
+    public double getMessagesPerWrite() {
+        return perWrite(this.messagesPublished);
+    }
+
+    /**
+     * Gets the number of documents written per user write, including the user write.
+     * 
+     * @return the writes per user write
+     */
+    public double getWritesPerWrite() {
+        return perWrite(this.documentWrites + this.documentDeletes);
+    }
+
+    /**
+     * Gets the number of documents read per user write.
+     * 
+     * @return the reads per user write
+     */
+    public double getReadsPerWrite() {
+        return perWrite(this.documentReads);
+    }
+
+    /**
+     * Gets the number of function invocations per user write.
+     * 
+     * @return the invocations per user write
+     */
+    public double getInvocationsPerWrite() {
+        return perWrite(this.publisherInvocations + this.consumerInvocations);
+    }
+
+    /**
+     * Test if every region ended with the same documents.
+     * 
+     * @return true if converged
+     */
+    public boolean isConverged() {
+        return !this.loopDetected && this.divergentDocuments.isEmpty();
+    }
+
+    private double perWrite(long count) {
+        return this.userWrites == 0 ? 0 : (double) count / this.userWrites;
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.config.DeleteMode;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.InMemoryChange;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryStats;
+import lombok.NonNull;
+
+/**
+ * Simulates a multi-region deployment in process to measure what replication costs.
+ *
+ * Each region has an InMemoryFirestore with a FirestoreChangePublisher invoked by a simulated
+ * Firestore trigger and a PubSubChangeConsumer subscribed to a shared in-memory topic, the same as
+ * the deployments in the README. The simulation runs on a simulated clock: the trigger and
+ * delivery latencies are sampled from the configured distributions and the events are processed
+ * one at a time in time order, so a run is repeatable for a seed and takes no longer than the
+ * replication work itself. Messages with the same ordering key are delivered to each region in
+ * publish order; trigger invocations are not ordered. A failed invocation is invoked again after
+ * another delivery latency, as Eventarc and Pub/Sub redeliver.
+ *
+ * The report gives the messages, writes, reads and function invocations per user write and the
+ * simulated time from the last user write until every region stopped changing. A run that exceeds
+ * the invocation limit is reported as a replication loop, and the documents that differ between
+ * regions once replication stops are reported as permanently divergent.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TopologySimulator {
+
+    private static final Logger logger = Logger.getLogger(TopologySimulator.class.getName());
+
+    /**
+     * The project used in resource names; matches the InMemoryFirestore references
+     */
+    private static final String PROJECT = "crossfiresync";
+
+    private static final String TOPIC = "crossfiresync-simulation";
+
+    private final TopologySimulatorConfig config;
+
+    /**
+     * Create a new TopologySimulator.
+     *
+     * @param config the configuration
+     */
+    public TopologySimulator(@NonNull TopologySimulatorConfig config) {
+        this.config = config;
+    }
+
+    private boolean isConfigured() {
+        boolean valid = true;
+
+        if (this.config.getRegions() < 2) {
+            logger.severe("At least 2 regions are required.");
+            valid = false;
+        }
+
+        if (ReplicationMode.NONE.equals(this.config.getReplicationMode())) {
+            logger.severe("ReplicationMode is not properly set.");
+            valid = false;
+        }
+
+        SimulationWorkload workload = this.config.getWorkload();
+        if (workload.getDocuments() <= 0 || workload.getHotDocuments() <= 0
+                || workload.getHotDocuments() > workload.getDocuments()) {
+            logger.severe("The workload must have documents and at most that many hot documents.");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Run the simulation.
+     *
+     * @return the report
+     */
+    public TopologySimulationReport run() {
+        if (!isConfigured()) {
+            logger.severe("Not configured, simulation will not be run.");
+            return TopologySimulationReport.builder()
+                    .replicationMode(this.config.getReplicationMode()).loopingDocuments(List.of())
+                    .divergentDocuments(List.of()).build();
+        }
+
+        return new Simulation(this.config).run();
+    }
+
+    /**
+     * Run the same simulation in single region primary and multi region primary mode.
+     *
+     * @param config the configuration; the replication mode is replaced
+     * @return the reports by replication mode
+     */
+    public static Map<ReplicationMode, TopologySimulationReport> compare(
+            @NonNull TopologySimulatorConfig config) {
+        Map<ReplicationMode, TopologySimulationReport> reports =
+                new EnumMap<>(ReplicationMode.class);
+        for (ReplicationMode replicationMode : new ReplicationMode[] {
+                ReplicationMode.SINGLE_REGION_PRIMARY, ReplicationMode.MULTI_REGION_PRIMARY}) {
+            reports.put(replicationMode, new TopologySimulator(
+                    config.toBuilder().replicationMode(replicationMode).build()).run());
+        }
+        return reports;
+    }
+
+    /**
+     * The state of a single run.
+     */
+    private static final class Simulation {
+
+        private final TopologySimulatorConfig config;
+
+        private final SimulationWorkload workload;
+
+        private final boolean multiRegion;
+
+        private final Random random;
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+        private final InMemoryPublisher topic;
+
+        private final List<InMemoryFirestore> databases = new ArrayList<>();
+
+        private final List<FirestoreChangePublisher> publishers = new ArrayList<>();
+
+        private final List<PubSubChangeConsumer> consumers = new ArrayList<>();
+
+        /**
+         * The time the last message for each region and ordering key is delivered
+         */
+        private final Map<String, Long> orderedDelivery = new HashMap<>();
+
+        private long now;
+
+        private long sequence;
+
+        private long userWrites;
+
+        private long lastUserWrite;
+
+        private long lastChange;
+
+        private long messagesDelivered;
+
+        private long publisherInvocations;
+
+        private long consumerInvocations;
+
+        private Simulation(TopologySimulatorConfig config) {
+            this.config = config;
+            this.workload = config.getWorkload();
+            this.multiRegion =
+                    ReplicationMode.MULTI_REGION_PRIMARY.equals(config.getReplicationMode());
+            this.random = new Random(config.getSeed());
+
+            InMemoryFirestoreFactory firestoreFactory =
+                    new InMemoryFirestoreFactory(config.getFaults());
+            InMemoryPublisherFactory publisherFactory = new InMemoryPublisherFactory();
+            this.topic = publisherFactory.getTopic(TOPIC);
+
+            for (int region = 0; region < config.getRegions(); region++) {
+                String database = "region-" + region;
+                InMemoryFirestore firestore = firestoreFactory.getDatabase(database);
+                TombstoneStore tombstoneStore =
+                        DeleteMode.DIRECT.equals(config.getDeleteMode()) ? new TombstoneStore()
+                                : null;
+
+                // In single region primary mode only the primary publishes and only the
+                // replicas consume
+                boolean primary = region == 0;
+                FirestoreChangePublisher publisher = this.multiRegion || primary
+                        ? new FirestoreChangePublisher(FirestoreChangeConfig.builder()
+                                .replicationMode(config.getReplicationMode())
+                                .databaseName(database).project(PROJECT).topic(TOPIC)
+                                .firestoreFactory(firestoreFactory)
+                                .publisherFactory(publisherFactory)
+                                .tombstoneStore(tombstoneStore).build())
+                        : null;
+                PubSubChangeConsumer consumer = this.multiRegion || !primary
+                        ? new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                                .replicationMode(config.getReplicationMode())
+                                .databaseName(database).deleteMode(config.getDeleteMode())
+                                .tombstoneStore(tombstoneStore)
+                                .firestoreFactory(firestoreFactory).build())
+                        : null;
+
+                this.databases.add(firestore);
+                this.publishers.add(publisher);
+                this.consumers.add(consumer);
+                firestore.addListener(change -> changed(publisher, change));
+            }
+        }
+
+        private TopologySimulationReport run() {
+            for (int writer = 0; writer < this.workload.getWriters(); writer++) {
+                scheduleWrite(writer, 0);
+            }
+
+            long plannedWrites =
+                    (long) this.workload.getWriters() * this.workload.getWritesPerWriter();
+            long maxInvocations =
+                    Math.max(1, plannedWrites) * this.config.getMaxInvocationsPerWrite();
+
+            boolean loopDetected = false;
+            while (!this.events.isEmpty()) {
+                if (this.publisherInvocations + this.consumerInvocations >= maxInvocations) {
+                    loopDetected = true;
+                    break;
+                }
+
+                Event event = this.events.poll();
+                this.now = event.time;
+                event.action.run();
+            }
+
+            Set<String> loopingDocuments = new TreeSet<>();
+            if (loopDetected) {
+                for (Event event : this.events) {
+                    if (event.documentPath != null) {
+                        loopingDocuments.add(event.documentPath);
+                    }
+                }
+                logger.warning("Replication loop detected for " + loopingDocuments.size()
+                        + " documents.");
+            }
+
+            long reads = 0;
+            long writes = 0;
+            long deletes = 0;
+            for (InMemoryFirestore firestore : this.databases) {
+                InMemoryStats stats = firestore.getStats();
+                reads += stats.getReads();
+                writes += stats.getWrites();
+                deletes += stats.getDeletes();
+            }
+
+            return TopologySimulationReport.builder()
+                    .replicationMode(this.config.getReplicationMode())
+                    .regions(this.config.getRegions()).userWrites(this.userWrites)
+                    .messagesPublished(this.topic.getPublished())
+                    .messagesDelivered(this.messagesDelivered).documentWrites(writes)
+                    .documentReads(reads).documentDeletes(deletes)
+                    .publisherInvocations(this.publisherInvocations)
+                    .consumerInvocations(this.consumerInvocations)
+                    .convergenceNanos(Math.max(0, this.lastChange - this.lastUserWrite))
+                    .loopDetected(loopDetected).loopingDocuments(List.copyOf(loopingDocuments))
+                    .divergentDocuments(loopDetected ? List.of() : divergentDocuments()).build();
+        }
+
+        private void scheduleWrite(int writer, int count) {
+            if (count >= this.workload.getWritesPerWriter()) {
+                return;
+            }
+
+            schedule(this.workload.getWriteInterval().sampleNanos(this.random), null, () -> {
+                write(writer, count);
+                scheduleWrite(writer, count + 1);
+            });
+        }
+
+        private void write(int writer, int count) {
+            int region = this.multiRegion ? this.random.nextInt(this.config.getRegions()) : 0;
+            int document = this.random.nextDouble() < this.workload.getHotWriteRate()
+                    ? this.random.nextInt(this.workload.getHotDocuments())
+                    : this.random.nextInt(this.workload.getDocuments());
+            String documentPath = this.workload.getCollection() + "/document-" + document;
+
+            InMemoryFirestore firestore = this.databases.get(region);
+            this.userWrites++;
+            this.lastUserWrite = this.now;
+            if (firestore.exists(documentPath)
+                    && this.random.nextDouble() < this.workload.getDeleteRate()) {
+                firestore.deleteDocument(documentPath);
+            } else {
+                Map<String, Object> data = new HashMap<>();
+                data.put("writer", (long) writer);
+                data.put("count", (long) count);
+                data.put("value", this.random.nextLong());
+                firestore.set(documentPath, data);
+            }
+        }
+
+        /**
+         * Every change in a region invokes the trigger of that region's publisher.
+         */
+        private void changed(FirestoreChangePublisher publisher, InMemoryChange change) {
+            this.lastChange = this.now;
+            if (publisher == null) {
+                return;
+            }
+
+            DocumentEventData firestoreEventData = DocumentEventConverter.toDocumentEventData(
+                    PROJECT, change.getDatabase(), change.getOldValue(), change.getValue());
+            byte[] data = firestoreEventData.toByteArray();
+            schedule(this.config.getTriggerLatency().sampleNanos(this.random),
+                    change.getDocumentPath(), () -> trigger(publisher, firestoreEventData, data,
+                            change.getDocumentPath()));
+        }
+
+        private void trigger(FirestoreChangePublisher publisher,
+                DocumentEventData firestoreEventData, byte[] data, String documentPath) {
+            this.publisherInvocations++;
+            try {
+                publisher.process(firestoreEventData, data);
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "Publisher failed, redelivering.", e);
+                schedule(this.config.getDeliveryLatency().sampleNanos(this.random), documentPath,
+                        () -> trigger(publisher, firestoreEventData, data, documentPath));
+            }
+
+            // Fan the published messages out to the subscription of each consuming region
+            for (PubsubMessage message : this.topic.drain()) {
+                for (int region = 0; region < this.consumers.size(); region++) {
+                    PubSubChangeConsumer consumer = this.consumers.get(region);
+                    if (consumer != null) {
+                        deliver(region, consumer, message);
+                    }
+                }
+            }
+        }
+
+        private void deliver(int region, PubSubChangeConsumer consumer, PubsubMessage message) {
+            String orderingKey = region + "/" + message.getOrderingKey();
+            long time = this.now + this.config.getDeliveryLatency().sampleNanos(this.random);
+            time = Math.max(time, this.orderedDelivery.getOrDefault(orderingKey, 0L));
+            this.orderedDelivery.put(orderingKey, time);
+
+            schedule(time - this.now, message.getOrderingKey(), () -> {
+                this.consumerInvocations++;
+                this.messagesDelivered++;
+                try {
+                    consumer.process(InMemoryPublisher.toPubSubPublish(message));
+                } catch (Exception e) {
+                    logger.log(Level.FINE, "Consumer failed, redelivering.", e);
+                    deliver(region, consumer, message);
+                }
+            });
+        }
+
+        private void schedule(long delayNanos, String documentPath, Runnable action) {
+            this.events.add(
+                    new Event(this.now + delayNanos, this.sequence++, documentPath, action));
+        }
+
+        /**
+         * Compare the content of every document across the regions; documents flagged for delete
+         * are treated as deleted.
+         */
+        private List<String> divergentDocuments() {
+            List<Map<String, Map<String, Object>>> snapshots = new ArrayList<>();
+            Set<String> documentPaths = new TreeSet<>();
+            for (InMemoryFirestore firestore : this.databases) {
+                Map<String, Map<String, Object>> snapshot = firestore.snapshot();
+                snapshots.add(snapshot);
+                documentPaths.addAll(snapshot.keySet());
+            }
+
+            List<String> divergent = new ArrayList<>();
+            for (String documentPath : documentPaths) {
+                long expected = 0;
+                for (int region = 0; region < snapshots.size(); region++) {
+                    Map<String, Object> data = snapshots.get(region).get(documentPath);
+                    long hash = data == null
+                            || data.containsKey(CrossFireSyncAttributes.DELETE_FIELD) ? 0
+                                    : DocumentHasher.hashDocument(data);
+                    if (region == 0) {
+                        expected = hash;
+                    } else if (expected != hash) {
+                        divergent.add(documentPath);
+                        break;
+                    }
+                }
+            }
+            return divergent;
+        }
+    }
+
+    /**
+     * A simulated event, ordered by time and then by the order it was scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+
+        private final long time;
+
+        private final long sequence;
+
+        private final String documentPath;
+
+        private final Runnable action;
+
+        private Event(long time, long sequence, String documentPath, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.documentPath = documentPath;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int compare = Long.compare(this.time, other.time);
+            return compare != 0 ? compare : Long.compare(this.sequence, other.sequence);
+        }
+    }
+}
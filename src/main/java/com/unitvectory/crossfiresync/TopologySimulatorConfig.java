@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.time.Duration;
+import com.unitvectory.crossfiresync.config.DeleteMode;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.FaultInjection;
+import com.unitvectory.crossfiresync.memory.LatencyDistribution;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for the TopologySimulator.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder(toBuilder = true)
+public class TopologySimulatorConfig {
+
+    /**
+     * The number of regions, each with its own database; must be at least 2.
+     */
+    @Builder.Default
+    private final int regions = 3;
+
+    /**
+     * The replication mode.
+     * 
+     * In single region primary mode only the first region is written to and only it runs a
+     * FirestoreChangePublisher.
+     */
+    @Builder.Default
+    private final ReplicationMode replicationMode = ReplicationMode.MULTI_REGION_PRIMARY;
+
+    /**
+     * The delete mode.
+     */
+    @Builder.Default
+    private final DeleteMode deleteMode = DeleteMode.FLAG;
+
+    /**
+     * The workload.
+     */
+    @Builder.Default
+    private final SimulationWorkload workload = SimulationWorkload.builder().build();
+
+    /**
+     * The time from a document changing to the Firestore trigger invoking the publisher.
+     */
+    @Builder.Default
+    private final LatencyDistribution triggerLatency =
+            LatencyDistribution.uniform(Duration.ofMillis(50), Duration.ofMillis(500));
+
+    /**
+     * The time from a message being published to it being delivered to the consumer of a region.
+     */
+    @Builder.Default
+    private final LatencyDistribution deliveryLatency =
+            LatencyDistribution.uniform(Duration.ofMillis(20), Duration.ofMillis(200));
+
+    /**
+     * The faults injected into the Firestore operations; injected latency is real time.
+     */
+    @Builder.Default
+    private final FaultInjection faults = FaultInjection.NONE;
+
+    /**
+     * The maximum number of function invocations per user write before a replication loop is
+     * reported.
+     */
+    @Builder.Default
+    private final int maxInvocationsPerWrite = 100;
+
+    /**
+     * The seed for the workload and latencies.
+     */
+    @Builder.Default
+    private final long seed = 0;
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.config.TransportProfile;
+import com.unitvectory.crossfiresync.config.TransportSettings;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+import com.unitvectory.crossfiresync.retry.RetryPolicy;
+import com.unitvectory.crossfiresync.retry.RetryStats;
+import lombok.NonNull;
+
+/**
+ * Compares the TransportProfile presets by replicating the same changes with each one against the
+ * in-memory stand-ins for Firestore and Pub/Sub.
+ *
+ * Each change is written to a source database, published by a FirestoreChangePublisher, and
+ * applied by a PubSubChangeConsumer to a replica, on as many threads as the executor of the
+ * profile, with the publishes and applies retried with the backoff and attempts of the profile.
+ * The stand-ins inject the configured latency and failures into every call. The stand-ins do not
+ * open gRPC channels or batch messages, so the channel pool, keepalive, and batching of a profile
+ * only change the result against the real services; the benchmark compares the concurrency,
+ * retries, and deadlines. The DEFAULT profile is measured without retries.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TransportBenchmark {
+
+    private static final String PROJECT = "crossfiresync";
+
+    private static final String TOPIC = "crossfiresync-benchmark";
+
+    private static final String SOURCE = "source";
+
+    private static final String REPLICA = "replica";
+
+    private final TransportBenchmarkConfig config;
+
+    /**
+     * Create a new TransportBenchmark.
+     *
+     * @param config the configuration
+     */
+    public TransportBenchmark(@NonNull TransportBenchmarkConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Run the benchmark for each profile.
+     *
+     * @return the results in the order of the profiles
+     */
+    public List<TransportBenchmarkResult> run() {
+        List<TransportBenchmarkResult> results = new ArrayList<>();
+        for (TransportProfile profile : this.config.getProfiles()) {
+            results.add(run(profile));
+        }
+        return results;
+    }
+
+    /**
+     * Run the benchmark for one profile with new stand-ins.
+     *
+     * @param profile the profile
+     * @return the result
+     */
+    public TransportBenchmarkResult run(@NonNull TransportProfile profile) {
+        TransportSettings transport = profile.getSettings();
+        InMemoryFirestoreFactory firestoreFactory =
+                new InMemoryFirestoreFactory(this.config.getFaults());
+        InMemoryPublisherFactory publisherFactory =
+                new InMemoryPublisherFactory(this.config.getFaults());
+        RetryPolicy retryPolicy = retryPolicy(transport);
+
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .databaseName(SOURCE).project(PROJECT).topic(TOPIC).transport(transport)
+                .retryPolicy(retryPolicy).deadLetterSink(null).captureLog(null).spool(null)
+                .stateSnapshotDirectory(null).firestoreFactory(firestoreFactory)
+                .publisherFactory(publisherFactory).build());
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName(REPLICA)
+                .transport(transport).retryPolicy(retryPolicy).deadLetterSink(null)
+                .captureLog(null).stateSnapshotDirectory(null).firestoreFactory(firestoreFactory)
+                .build());
+        InMemoryFirestore source = firestoreFactory.getDatabase(SOURCE);
+        InMemoryPublisher topic = publisherFactory.getTopic(TOPIC);
+
+        int events = Math.max(0, this.config.getEvents());
+        int documents = Math.max(1, this.config.getDocuments());
+        int concurrency = transport.getExecutorThreads() > 0 ? transport.getExecutorThreads()
+                : Math.max(1, this.config.getDefaultConcurrency());
+        long deadlineNanos = transport.isRetryTuned()
+                ? TimeUnit.MILLISECONDS.toNanos(transport.getRpcTimeoutMillis())
+                : Long.MAX_VALUE;
+
+        long[] latencies = new long[events];
+        LongAdder failedEvents = new LongAdder();
+        LongAdder deadlineExceeded = new LongAdder();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int worker = 0; worker < concurrency; worker++) {
+            executor.execute(() -> {
+                for (int i = next.getAndIncrement(); i < events; i = next.getAndIncrement()) {
+                    long eventStart = System.nanoTime();
+                    try {
+                        String documentPath = "benchmark/" + (i % documents);
+                        source.set(documentPath, Map.of("value", (long) i));
+                        DocumentEventData change = DocumentEventConverter.toDocumentEventData(
+                                PROJECT, SOURCE, null, source.readDocument(documentPath));
+                        publisher.process(change, change.toByteArray(), "event-" + i);
+                        long published = System.nanoTime();
+                        if (published - eventStart > deadlineNanos) {
+                            deadlineExceeded.increment();
+                        }
+
+                        PubsubMessage message = topic.poll();
+                        if (message == null) {
+                            throw new CrossFireSyncException("Change was not published.", null);
+                        }
+                        consumer.process(InMemoryPublisher.toPubSubPublish(message));
+                        if (System.nanoTime() - published > deadlineNanos) {
+                            deadlineExceeded.increment();
+                        }
+                    } catch (Exception e) {
+                        failedEvents.increment();
+                    }
+                    latencies[i] = System.nanoTime() - eventStart;
+                }
+            });
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new CrossFireSyncException("Interrupted.", e);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return TransportBenchmarkResult.builder().profile(profile).concurrency(concurrency)
+                .events(events).failedEvents(failedEvents.sum())
+                .deadlineExceeded(deadlineExceeded.sum())
+                .retries(retries(publisher.getRetryStats()) + retries(consumer.getRetryStats()))
+                .elapsedNanos(elapsed).p50Nanos(percentile(latencies, 0.50))
+                .p99Nanos(percentile(latencies, 0.99)).build();
+    }
+
+    /**
+     * Map the retries of the transport to the retry policy of the publisher and consumer, as the
+     * stand-ins are called directly instead of through the client library.
+     */
+    static RetryPolicy retryPolicy(TransportSettings transport) {
+        if (!transport.isRetryTuned()) {
+            return RetryPolicy.builder().build();
+        }
+
+        return RetryPolicy.builder()
+                .maxAttempts(transport.getMaxAttempts() > 0 ? transport.getMaxAttempts()
+                        : Integer.MAX_VALUE)
+                .initialBackoffMillis(transport.getInitialRetryDelayMillis())
+                .maxBackoffMillis(transport.getMaxRetryDelayMillis())
+                .backoffMultiplier(transport.getRetryDelayMultiplier()).build();
+    }
+
+    private static long retries(RetryStats stats) {
+        return stats.getAttempts() - stats.getOperations();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+}
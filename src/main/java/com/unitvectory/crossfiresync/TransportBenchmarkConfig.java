@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.time.Duration;
+import java.util.List;
+import com.unitvectory.crossfiresync.config.TransportProfile;
+import com.unitvectory.crossfiresync.memory.FaultInjection;
+import com.unitvectory.crossfiresync.memory.LatencyDistribution;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The configuration for the TransportBenchmark.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder(toBuilder = true)
+public class TransportBenchmarkConfig {
+
+    /**
+     * The profiles compared.
+     */
+    @Builder.Default
+    private final List<TransportProfile> profiles = List.of(TransportProfile.values());
+
+    /**
+     * The number of changes replicated with each profile.
+     */
+    @Builder.Default
+    private final int events = 500;
+
+    /**
+     * The number of documents the changes are spread across.
+     */
+    @Builder.Default
+    private final int documents = 50;
+
+    /**
+     * The latency and failures of every call to the in-memory Firestore and Pub/Sub.
+     */
+    @Builder.Default
+    private final FaultInjection faults = FaultInjection.builder()
+            .latency(LatencyDistribution.logNormal(Duration.ofMillis(2), 0.5)).errorRate(0.01)
+            .seed(1).build();
+
+    /**
+     * The number of events processed at once by a profile that does not size its executor.
+     */
+    @Builder.Default
+    private final int defaultConcurrency = Runtime.getRuntime().availableProcessors();
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import com.unitvectory.crossfiresync.config.TransportProfile;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The result of one profile in a TransportBenchmark run.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class TransportBenchmarkResult {
+
+    /**
+     * The profile.
+     */
+    private final TransportProfile profile;
+
+    /**
+     * The number of events processed at once.
+     */
+    private final int concurrency;
+
+    /**
+     * The number of changes replicated.
+     */
+    private final long events;
+
+    /**
+     * The number of changes that failed after every retry.
+     */
+    private final long failedEvents;
+
+    /**
+     * The number of publishes and applies that took longer than the RPC deadline of the profile.
+     */
+    private final long deadlineExceeded;
+
+    /**
+     * The number of retried attempts of the publishes and applies.
+     */
+    private final long retries;
+
+    /**
+     * The time to replicate every change in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * The median time to publish and apply a change in nanoseconds.
+     */
+    private final long p50Nanos;
+
+    /**
+     * The 99th percentile time to publish and apply a change in nanoseconds.
+     */
+    private final long p99Nanos;
+
+    /**
+     * Gets the changes replicated per second.
+     *
+     * @return the changes per second
+     */
+    public double getEventsPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.events * 1e9 / this.elapsedNanos;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.core.InstantiatingExecutorProvider;
+import com.google.api.gax.grpc.ChannelPoolSettings;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.v1.FirestoreSettings;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.cloud.pubsub.v1.TopicAdminSettings;
+import com.google.pubsub.v1.ProjectTopicName;
+import com.unitvectory.crossfiresync.config.TransportSettings;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Applies the TransportSettings to the options of the Firestore and Pub/Sub clients.
+ * 
+ * The channel executor of a thread count is created once and shared by the channels of every
+ * client, as a channel provider does not shut down an executor it is given; its threads are
+ * daemons that live as long as the process. The Pub/Sub publisher executor is created by an
+ * InstantiatingExecutorProvider and shut down with the publisher.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@UtilityClass
+class TransportOptions {
+
+    private static final Map<Integer, ExecutorService> channelExecutors =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Build the Firestore options for a database.
+     * 
+     * @param database the database name
+     * @param transport the transport settings
+     * @return the Firestore options
+     */
+    public static FirestoreOptions firestoreOptions(String database, TransportSettings transport) {
+        FirestoreOptions.Builder builder = FirestoreOptions.newBuilder().setDatabaseId(database);
+        if (transport.isChannelTuned()) {
+            builder.setChannelProvider(channelProvider(
+                    FirestoreSettings.defaultGrpcTransportProviderBuilder(), transport));
+        }
+        if (transport.isRetryTuned()) {
+            builder.setRetrySettings(retrySettings(transport));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Build the Pub/Sub publisher for a topic.
+     * 
+     * @param topicName the topic
+     * @param messageOrdering true to enable message ordering
+     * @param transport the transport settings
+     * @return the publisher builder
+     */
+    public static Publisher.Builder publisherBuilder(ProjectTopicName topicName,
+            boolean messageOrdering, TransportSettings transport) {
+        Publisher.Builder builder =
+                Publisher.newBuilder(topicName).setEnableMessageOrdering(messageOrdering);
+        if (transport.isChannelTuned()) {
+            builder.setChannelProvider(
+                    channelProvider(TopicAdminSettings.defaultGrpcTransportProviderBuilder(),
+                            transport));
+        }
+        if (transport.getExecutorThreads() > 0) {
+            builder.setExecutorProvider(InstantiatingExecutorProvider.newBuilder()
+                    .setExecutorThreadCount(transport.getExecutorThreads()).build());
+        }
+        if (transport.isRetryTuned()) {
+            builder.setRetrySettings(retrySettings(transport));
+        }
+        if (transport.isBatchingTuned()) {
+            builder.setBatchingSettings(BatchingSettings.newBuilder()
+                    .setElementCountThreshold(transport.getBatchMaxMessages())
+                    .setRequestByteThreshold(transport.getBatchMaxBytes())
+                    .setDelayThresholdDuration(
+                            Duration.ofMillis(Math.max(1, transport.getBatchMaxDelayMillis())))
+                    .build());
+        }
+        return builder;
+    }
+
+    /**
+     * Build the channel provider with the pool size, executor, and keepalive of the settings.
+     */
+    static InstantiatingGrpcChannelProvider channelProvider(
+            InstantiatingGrpcChannelProvider.Builder builder, TransportSettings transport) {
+        if (transport.getChannelCount() > 0) {
+            builder.setChannelPoolSettings(
+                    ChannelPoolSettings.staticallySized(transport.getChannelCount()));
+        }
+        if (transport.getExecutorThreads() > 0) {
+            builder.setExecutor(channelExecutor(transport.getExecutorThreads()));
+        }
+        if (transport.getKeepAliveTimeSeconds() > 0) {
+            builder.setKeepAliveTimeDuration(
+                    Duration.ofSeconds(transport.getKeepAliveTimeSeconds()))
+                    .setKeepAliveWithoutCalls(transport.isKeepAliveWithoutCalls());
+            if (transport.getKeepAliveTimeoutSeconds() > 0) {
+                builder.setKeepAliveTimeoutDuration(
+                        Duration.ofSeconds(transport.getKeepAliveTimeoutSeconds()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Gets the channel executor shared by the clients with a thread count.
+     * 
+     * @param threadCount the number of threads
+     * @return the executor
+     */
+    static ExecutorService channelExecutor(int threadCount) {
+        return channelExecutors.computeIfAbsent(threadCount, count -> {
+            AtomicInteger threads = new AtomicInteger();
+            return Executors.newFixedThreadPool(count, r -> {
+                Thread thread = new Thread(r, "crossfiresync-grpc-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        });
+    }
+
+    /**
+     * Build the retry settings with the deadlines and backoff of the settings.
+     */
+    static RetrySettings retrySettings(TransportSettings transport) {
+        Duration rpcTimeout = Duration.ofMillis(transport.getRpcTimeoutMillis());
+        return RetrySettings.newBuilder().setMaxAttempts(Math.max(0, transport.getMaxAttempts()))
+                .setInitialRetryDelayDuration(
+                        Duration.ofMillis(Math.max(0, transport.getInitialRetryDelayMillis())))
+                .setMaxRetryDelayDuration(
+                        Duration.ofMillis(Math.max(0, transport.getMaxRetryDelayMillis())))
+                .setRetryDelayMultiplier(Math.max(1.0, transport.getRetryDelayMultiplier()))
+                .setInitialRpcTimeoutDuration(rpcTimeout).setMaxRpcTimeoutDuration(rpcTimeout)
+                .setRpcTimeoutMultiplier(1.0)
+                .setTotalTimeoutDuration(Duration.ofMillis(Math
+                        .max(transport.getRpcTimeoutMillis(), transport.getTotalTimeoutMillis())))
+                .build();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.capture;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubMessage;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * An event read from an EventCaptureLog.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class CapturedEvent {
+
+    /**
+     * The function that received the event.
+     */
+    @NonNull
+    private final CapturedEventType type;
+
+    /**
+     * The time the event arrived, with microsecond precision.
+     */
+    @NonNull
+    private final Instant arrivalTime;
+
+    /**
+     * The message attributes; empty for publisher events.
+     */
+    @NonNull
+    @Builder.Default
+    private final Map<String, String> attributes = Map.of();
+
+    /**
+     * The message ordering key; empty for publisher events.
+     */
+    @NonNull
+    @Builder.Default
+    private final String orderingKey = "";
+
+    /**
+     * The serialized DocumentEventData.
+     */
+    @NonNull
+    private final byte[] data;
+
+    /**
+     * Convert a consumer event back to the push payload it arrived as.
+     * 
+     * @return the push payload
+     */
+    public PubSubPublish toPubSubPublish() {
+        PubSubMessage message = new PubSubMessage();
+        message.setAttributes(new HashMap<>(this.attributes));
+        message.setData(Base64.getEncoder().encodeToString(this.data));
+        message.setOrderingKey(this.orderingKey);
+
+        PubSubPublish publish = new PubSubPublish();
+        publish.setMessage(message);
+        return publish;
+    }
+}
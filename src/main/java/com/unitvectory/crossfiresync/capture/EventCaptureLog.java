@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * An append-only binary log of the raw events received by the FirestoreChangePublisher and
+ * PubSubChangeConsumer, for replaying production traffic offline with EventReplay.
+ * 
+ * The log starts with a magic number and version. Each record is the event type, the arrival time
+ * in microseconds since the epoch, the message attributes and ordering key, and the length
+ * prefixed event bytes exactly as received, so a record costs a few dozen bytes more than the
+ * event. Records are flushed as they are written; a record cut short by a crash is ignored by the
+ * EventCaptureReader.
+ * 
+ * A single instance is shared for each file so the publisher and consumer in the same process can
+ * capture to the same log. Failing to capture an event is logged and does not fail the event.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class EventCaptureLog implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(EventCaptureLog.class.getName());
+
+    /**
+     * The magic number at the start of the log, "CFSC"
+     */
+    static final int MAGIC = 0x43465343;
+
+    static final int VERSION = 1;
+
+    private static final Map<Path, EventCaptureLog> logs = new ConcurrentHashMap<>();
+
+    private final Path file;
+
+    private final DataOutputStream out;
+
+    private long events;
+
+    private EventCaptureLog(Path file) {
+        this.file = file;
+        try {
+            boolean empty = !Files.exists(file) || Files.size(file) == 0;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            if (empty) {
+                this.out.writeInt(MAGIC);
+                this.out.writeByte(VERSION);
+                this.out.flush();
+            }
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to open capture log.", e);
+        }
+    }
+
+    /**
+     * Open the capture log for a file, creating the file if it does not exist.
+     * 
+     * @param file the file
+     * @return the capture log shared by everything capturing to the file
+     */
+    public static EventCaptureLog open(@NonNull Path file) {
+        return logs.computeIfAbsent(file.toAbsolutePath().normalize(), EventCaptureLog::new);
+    }
+
+    /**
+     * Open the capture log from a path.
+     * 
+     * @param path the path
+     * @return the capture log; null if the path is not set
+     */
+    public static EventCaptureLog fromPath(String path) {
+        if (path == null || path.isBlank()) {
+            return null;
+        }
+
+        return open(Paths.get(path.trim()));
+    }
+
+    /**
+     * Capture a Firestore trigger event received by the publisher.
+     * 
+     * @param data the event data
+     */
+    public void capturePublisherEvent(byte[] data) {
+        capture(CapturedEventType.PUBLISHER, Map.of(), "", data);
+    }
+
+    /**
+     * Capture a Pub/Sub message received by the consumer.
+     * 
+     * @param attributes the message attributes
+     * @param orderingKey the message ordering key
+     * @param data the decoded message data
+     */
+    public void captureConsumerEvent(Map<String, String> attributes, String orderingKey,
+            byte[] data) {
+        capture(CapturedEventType.CONSUMER, attributes == null ? Map.of() : attributes,
+                orderingKey == null ? "" : orderingKey, data);
+    }
+
+    /**
+     * Gets the number of events captured by this instance.
+     * 
+     * @return the number of events
+     */
+    public synchronized long getEvents() {
+        return this.events;
+    }
+
+    /**
+     * Gets the file.
+     * 
+     * @return the file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    @Override
+    public synchronized void close() {
+        logs.remove(this.file, this);
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close capture log.", e);
+        }
+    }
+
+    private synchronized void capture(CapturedEventType type, Map<String, String> attributes,
+            String orderingKey, byte[] data) {
+        Instant now = Instant.now();
+        try {
+            this.out.writeByte(type.ordinal());
+            this.out.writeLong(ChronoUnit.MICROS.between(Instant.EPOCH, now));
+            this.out.writeShort(attributes.size());
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                this.out.writeUTF(entry.getKey());
+                this.out.writeUTF(entry.getValue());
+            }
+            this.out.writeUTF(orderingKey);
+            this.out.writeInt(data.length);
+            this.out.write(data);
+            this.out.flush();
+            this.events++;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to capture event.", e);
+        }
+    }
+}
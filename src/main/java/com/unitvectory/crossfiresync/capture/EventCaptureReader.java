@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * Reads the events written by an EventCaptureLog in the order they were captured.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class EventCaptureReader implements AutoCloseable {
+
+    private static final CapturedEventType[] TYPES = CapturedEventType.values();
+
+    private final DataInputStream in;
+
+    /**
+     * Open a capture log for reading.
+     * 
+     * @param file the file
+     */
+    public EventCaptureReader(@NonNull Path file) {
+        try {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            if (this.in.readInt() != EventCaptureLog.MAGIC) {
+                this.in.close();
+                throw new CrossFireSyncException("Not a capture log: " + file, null);
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != EventCaptureLog.VERSION) {
+                this.in.close();
+                throw new CrossFireSyncException("Unsupported capture log version: " + version,
+                        null);
+            }
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to open capture log.", e);
+        }
+    }
+
+    /**
+     * Read the next event.
+     * 
+     * @return the event; null at the end of the log or at a record cut short by a crash
+     */
+    public CapturedEvent next() {
+        try {
+            int type = this.in.read();
+            if (type < 0) {
+                return null;
+            } else if (type >= TYPES.length) {
+                throw new CrossFireSyncException("Invalid capture record type: " + type, null);
+            }
+
+            long micros = this.in.readLong();
+            int count = this.in.readUnsignedShort();
+            Map<String, String> attributes = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                attributes.put(this.in.readUTF(), this.in.readUTF());
+            }
+            String orderingKey = this.in.readUTF();
+            byte[] data = new byte[this.in.readInt()];
+            this.in.readFully(data);
+
+            return CapturedEvent.builder().type(TYPES[type])
+                    .arrivalTime(Instant.ofEpochSecond(TimeUnit.MICROSECONDS.toSeconds(micros),
+                            TimeUnit.MICROSECONDS.toNanos(micros % 1000000)))
+                    .attributes(attributes).orderingKey(orderingKey).data(data).build();
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to read capture log.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.in.close();
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to close capture log.", e);
+        }
+    }
+}
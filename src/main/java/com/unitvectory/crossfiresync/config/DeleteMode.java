@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.config;
+
+/**
+ * The DeleteMode is used to specify how deletes are replicated in multi region primary mode.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public enum DeleteMode {
+
+    /**
+     * The remote document is flagged for delete and the FirestoreChangePublisher in that region
+     * deletes it, so the delete is not replicated back.
+     */
+    FLAG,
+
+    /**
+     * The remote document is deleted directly with a precondition and a tombstone is recorded in
+     * the TombstoneStore so the FirestoreChangePublisher in that region does not replicate the
+     * delete back.
+     * 
+     * The same TombstoneStore must be shared by the FirestoreChangePublisher and
+     * PubSubChangeConsumer, so both must run in the same process; the PubSubChangeConsumer is not
+     * configured in this mode without a TombstoneStore. Separately deployed functions should use
+     * FLAG.
+     */
+    DIRECT,
+
+    ;
+
+    /**
+     * Parse the DeleteMode, but if the value is invalid FLAG will be used
+     * 
+     * @param value the value
+     * @return the DeleteMode
+     */
+    public static DeleteMode parseFallbackToFlag(String value) {
+        if (value == null) {
+            return FLAG;
+        }
+
+        try {
+            return DeleteMode.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return FLAG;
+        }
+    }
+}
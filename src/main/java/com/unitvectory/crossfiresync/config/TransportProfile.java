@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.config;
+
+/**
+ * The TransportProfile names a preset of the TransportSettings of the Firestore and Pub/Sub
+ * clients.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public enum TransportProfile {
+
+    /**
+     * The library defaults.
+     */
+    DEFAULT(TransportSettings.NONE),
+
+    /**
+     * Each message is sent as soon as it is published, over a few channels kept warm by keepalive
+     * pings, with short deadlines retried quickly so a slow call does not hold back the change.
+     */
+    LOW_LATENCY(TransportSettings.builder().channelCount(4).executorThreads(8)
+            .keepAliveTimeSeconds(30).keepAliveTimeoutSeconds(10).keepAliveWithoutCalls(true)
+            .rpcTimeoutMillis(5000).totalTimeoutMillis(30000).maxAttempts(5)
+            .initialRetryDelayMillis(10).maxRetryDelayMillis(1000).retryDelayMultiplier(1.5)
+            .batchMaxMessages(1).batchMaxBytes(1L << 20).batchMaxDelayMillis(1).build()),
+
+    /**
+     * Up to 1000 messages published at the same time are sent in one batch, over more channels and
+     * threads, with long deadlines and more patient retries so a sustained backlog is drained with
+     * the fewest RPCs.
+     * 
+     * Each publish waits for its message, so the batch is not held open for more messages.
+     */
+    HIGH_THROUGHPUT(TransportSettings.builder().channelCount(8).executorThreads(16)
+            .keepAliveTimeSeconds(60).keepAliveTimeoutSeconds(20).rpcTimeoutMillis(30000)
+            .totalTimeoutMillis(120000).maxAttempts(8).initialRetryDelayMillis(100)
+            .maxRetryDelayMillis(10000).retryDelayMultiplier(2.0).batchMaxMessages(1000)
+            .batchMaxBytes(4L << 20).batchMaxDelayMillis(1).build()),
+
+    /**
+     * One channel and one thread without keepalive pings, as a function instance handles few
+     * requests at once and its CPU is throttled between them.
+     */
+    SERVERLESS_MINIMAL(TransportSettings.builder().channelCount(1).executorThreads(1)
+            .rpcTimeoutMillis(10000).totalTimeoutMillis(60000).maxAttempts(3)
+            .initialRetryDelayMillis(100).maxRetryDelayMillis(5000).retryDelayMultiplier(2.0)
+            .batchMaxMessages(100).batchMaxBytes(1L << 20).batchMaxDelayMillis(1).build()),
+
+    ;
+
+    private final TransportSettings settings;
+
+    private TransportProfile(TransportSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Gets the transport settings of the profile.
+     * 
+     * @return the transport settings
+     */
+    public TransportSettings getSettings() {
+        return this.settings;
+    }
+
+    /**
+     * Parse the TransportProfile, but if the value is invalid DEFAULT will be used
+     * 
+     * @param value the value
+     * @return the TransportProfile
+     */
+    public static TransportProfile parseFallbackToDefault(String value) {
+        if (value == null) {
+            return DEFAULT;
+        }
+
+        try {
+            return TransportProfile.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return DEFAULT;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.config;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The tuning of the gRPC transport of the Firestore and Pub/Sub clients.
+ * 
+ * A value of 0 leaves the library default in place.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder(toBuilder = true)
+public class TransportSettings {
+
+    /**
+     * The library defaults.
+     */
+    public static final TransportSettings NONE = TransportSettings.builder().build();
+
+    /**
+     * The number of gRPC channels in the pool.
+     */
+    @Builder.Default
+    private final int channelCount = 0;
+
+    /**
+     * The number of threads of the executor the calls and callbacks run on.
+     */
+    @Builder.Default
+    private final int executorThreads = 0;
+
+    /**
+     * The seconds without activity after which a keepalive ping is sent.
+     */
+    @Builder.Default
+    private final long keepAliveTimeSeconds = 0;
+
+    /**
+     * The seconds to wait for the keepalive ping to be acknowledged before the channel is closed.
+     */
+    @Builder.Default
+    private final long keepAliveTimeoutSeconds = 0;
+
+    /**
+     * Send keepalive pings when there are no calls outstanding.
+     */
+    @Builder.Default
+    private final boolean keepAliveWithoutCalls = false;
+
+    /**
+     * The deadline of each RPC attempt in milliseconds; the retry settings are only applied when
+     * this is set.
+     */
+    @Builder.Default
+    private final long rpcTimeoutMillis = 0;
+
+    /**
+     * The deadline of an RPC across every attempt in milliseconds.
+     */
+    @Builder.Default
+    private final long totalTimeoutMillis = 60000;
+
+    /**
+     * The maximum number of attempts of an RPC; 0 to retry until the total timeout.
+     */
+    @Builder.Default
+    private final int maxAttempts = 0;
+
+    /**
+     * The delay before the first retry in milliseconds.
+     */
+    @Builder.Default
+    private final long initialRetryDelayMillis = 100;
+
+    /**
+     * The maximum delay between retries in milliseconds.
+     */
+    @Builder.Default
+    private final long maxRetryDelayMillis = 60000;
+
+    /**
+     * The multiplier applied to the delay after each retry.
+     */
+    @Builder.Default
+    private final double retryDelayMultiplier = 1.3;
+
+    /**
+     * The number of messages that triggers a Pub/Sub batch to be sent.
+     */
+    @Builder.Default
+    private final long batchMaxMessages = 0;
+
+    /**
+     * The bytes of messages that triggers a Pub/Sub batch to be sent.
+     */
+    @Builder.Default
+    private final long batchMaxBytes = 1000;
+
+    /**
+     * The milliseconds after the first message that a Pub/Sub batch is sent.
+     * 
+     * The publisher flushes each message it publishes and waits for it, so only messages published
+     * at the same time share a batch and a longer delay does not batch more of them.
+     */
+    @Builder.Default
+    private final long batchMaxDelayMillis = 1;
+
+    /**
+     * Checks if the channel pool, executor, or keepalive is tuned.
+     * 
+     * @return true if the channel is tuned
+     */
+    public boolean isChannelTuned() {
+        return this.channelCount > 0 || this.executorThreads > 0 || this.keepAliveTimeSeconds > 0;
+    }
+
+    /**
+     * Checks if the deadlines and retries are tuned.
+     * 
+     * @return true if the retries are tuned
+     */
+    public boolean isRetryTuned() {
+        return this.rpcTimeoutMillis > 0;
+    }
+
+    /**
+     * Checks if the Pub/Sub batching is tuned.
+     * 
+     * @return true if the batching is tuned
+     */
+    public boolean isBatchingTuned() {
+        return this.batchMaxMessages > 0;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.dedupe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A Bloom filter of strings that forgets them over time by rotating between two generations.
+ * 
+ * Strings are added to the current generation and looked up in both; when the current generation
+ * is older than the time to live it becomes the previous generation and the oldest is discarded,
+ * so a string is remembered for between one and two times the time to live.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+final class BloomFilter {
+
+    private final int bits;
+
+    private final int hashes;
+
+    private final long ttlNanos;
+
+    private long[] current;
+
+    private long[] previous;
+
+    private long rotatedNanos;
+
+    /**
+     * Create a new BloomFilter.
+     * 
+     * @param expectedStrings the number of strings expected within the time to live
+     * @param falsePositiveRate the target false positive rate
+     * @param ttlNanos how long each generation is used in nanoseconds
+     * @param nowNanos the current time in nanoseconds
+     */
+    BloomFilter(int expectedStrings, double falsePositiveRate, long ttlNanos, long nowNanos) {
+        double rate = Math.min(0.5, Math.max(Double.MIN_NORMAL, falsePositiveRate));
+        long optimal = (long) Math.ceil(
+                -Math.max(1, expectedStrings) * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimal));
+        this.hashes = Math.max(1,
+                (int) Math.round((double) this.bits / Math.max(1, expectedStrings) * Math.log(2)));
+        this.ttlNanos = ttlNanos;
+        this.current = new long[(this.bits + 63) / 64];
+        this.previous = new long[this.current.length];
+        this.rotatedNanos = nowNanos;
+    }
+
+    /**
+     * Add a string.
+     * 
+     * @param value the string
+     * @param nowNanos the current time in nanoseconds
+     */
+    void put(String value, long nowNanos) {
+        rotate(nowNanos);
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < this.hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, this.bits);
+            this.current[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Test if a string might have been added.
+     * 
+     * @param value the string
+     * @param nowNanos the current time in nanoseconds
+     * @return true if the string might have been added; false if it definitely was not
+     */
+    boolean mightContain(String value, long nowNanos) {
+        rotate(nowNanos);
+        long hash = hash(value);
+        return contains(this.current, hash) || contains(this.previous, hash);
+    }
+
+    /**
+     * Gets the number of bits in each generation.
+     * 
+     * @return the number of bits
+     */
+    int getBits() {
+        return this.bits;
+    }
+
+    /**
+     * Gets the number of hash functions.
+     * 
+     * @return the number of hash functions
+     */
+    int getHashes() {
+        return this.hashes;
+    }
+
+    private boolean contains(long[] generation, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < this.hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, this.bits);
+            if ((generation[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rotate(long nowNanos) {
+        long elapsed = nowNanos - this.rotatedNanos;
+        if (elapsed < this.ttlNanos) {
+            return;
+        }
+
+        // After two periods without a rotation both generations have expired
+        long[] cleared = this.previous;
+        Arrays.fill(cleared, 0);
+        if (elapsed >= 2 * this.ttlNanos) {
+            Arrays.fill(this.current, 0);
+        }
+        this.previous = this.current;
+        this.current = cleared;
+        this.rotatedNanos = nowNanos;
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of the UTF-8 bytes, mixed so both halves are well distributed.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.dedupe;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The settings for suppressing duplicate deliveries of the same source event.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class DedupeSettings {
+
+    /**
+     * Duplicate deliveries are not suppressed.
+     */
+    public static final DedupeSettings NONE = DedupeSettings.builder().build();
+
+    /**
+     * The maximum number of event IDs remembered exactly; 0 to not suppress duplicates.
+     */
+    @Builder.Default
+    private final int maxEvents = 0;
+
+    /**
+     * How long an event ID is remembered in seconds.
+     */
+    @Builder.Default
+    private final long ttlSeconds = 600;
+
+    /**
+     * The number of event IDs expected within the time to live remembered approximately by a Bloom
+     * filter after they are evicted from the exact tier; 0 for no Bloom filter.
+     */
+    @Builder.Default
+    private final int bloomFilterEvents = 0;
+
+    /**
+     * The probability the Bloom filter wrongly reports an event as a duplicate.
+     */
+    @Builder.Default
+    private final double bloomFilterFalsePositiveRate = 0.000001;
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.dedupe;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of an EventDeduplicator.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class DedupeStats {
+
+    /**
+     * The number of deliveries checked.
+     */
+    private final long deliveries;
+
+    /**
+     * The number of deliveries suppressed as duplicates by the exact tier.
+     */
+    private final long duplicates;
+
+    /**
+     * The number of deliveries suppressed as duplicates by the Bloom filter.
+     */
+    private final long bloomFilterDuplicates;
+
+    /**
+     * The number of event IDs remembered exactly.
+     */
+    private final int size;
+
+    /**
+     * Gets the fraction of deliveries that were duplicates.
+     * 
+     * @return the duplicate rate; 0 if there have been no deliveries
+     */
+    public double getDuplicateRate() {
+        return this.deliveries == 0 ? 0
+                : (double) (this.duplicates + this.bloomFilterDuplicates) / this.deliveries;
+    }
+}
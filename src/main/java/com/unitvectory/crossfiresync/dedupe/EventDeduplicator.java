@@ -0,0 +1,157 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.dedupe;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import lombok.NonNull;
+
+/**
+ * Remembers the IDs of the source events that were applied so a redelivery of the same event can
+ * be skipped before it is decoded.
+ * 
+ * The IDs are remembered exactly in insertion order until they expire or the maximum is reached.
+ * An optional Bloom filter tier remembers them approximately for at least as long, using a fixed
+ * amount of memory; a false positive skips a change that was not a duplicate, so its false
+ * positive rate should be kept very low.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class EventDeduplicator {
+
+    /**
+     * The name of the message attribute with the ID of the source event
+     */
+    public static final String EVENT_ID = "eventId";
+
+    private final int maxEvents;
+
+    private final long ttlNanos;
+
+    private final LongSupplier nanoTime;
+
+    private final LinkedHashMap<String, Long> events = new LinkedHashMap<>();
+
+    private final BloomFilter bloomFilter;
+
+    private long deliveries;
+
+    private long duplicates;
+
+    private long bloomFilterDuplicates;
+
+    /**
+     * Create a new EventDeduplicator.
+     * 
+     * @param settings the settings
+     */
+    public EventDeduplicator(@NonNull DedupeSettings settings) {
+        this(settings, System::nanoTime);
+    }
+
+    /**
+     * Create a new EventDeduplicator.
+     * 
+     * @param settings the settings
+     * @param nanoTime the source of the current time in nanoseconds
+     */
+    EventDeduplicator(@NonNull DedupeSettings settings, @NonNull LongSupplier nanoTime) {
+        this.maxEvents = Math.max(0, settings.getMaxEvents());
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, settings.getTtlSeconds()));
+        this.nanoTime = nanoTime;
+        this.bloomFilter = this.maxEvents > 0 && settings.getBloomFilterEvents() > 0
+                ? new BloomFilter(settings.getBloomFilterEvents(),
+                        settings.getBloomFilterFalsePositiveRate(), this.ttlNanos,
+                        nanoTime.getAsLong())
+                : null;
+    }
+
+    /**
+     * Test if duplicates are suppressed.
+     * 
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return this.maxEvents > 0;
+    }
+
+    /**
+     * Checks if an event was already applied, counting the delivery.
+     * 
+     * @param eventId the event ID
+     * @return true if the event is a duplicate
+     */
+    public synchronized boolean isDuplicate(@NonNull String eventId) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        long now = this.nanoTime.getAsLong();
+        this.deliveries++;
+        Long expires = this.events.get(eventId);
+        if (expires != null && expires - now > 0) {
+            this.duplicates++;
+            return true;
+        }
+
+        if (this.bloomFilter != null && this.bloomFilter.mightContain(eventId, now)) {
+            this.bloomFilterDuplicates++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Record that an event was applied.
+     * 
+     * @param eventId the event ID
+     */
+    public synchronized void record(@NonNull String eventId) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        long now = this.nanoTime.getAsLong();
+        this.events.remove(eventId);
+        this.events.put(eventId, now + this.ttlNanos);
+        if (this.bloomFilter != null) {
+            this.bloomFilter.put(eventId, now);
+        }
+
+        // The oldest events are first, remove them while expired or over the maximum
+        Iterator<Map.Entry<String, Long>> iterator = this.events.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (this.events.size() <= this.maxEvents && eldest.getValue() - now > 0) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Gets the statistics of the suppressed duplicates.
+     * 
+     * @return the statistics
+     */
+    public synchronized DedupeStats getStats() {
+        return DedupeStats.builder().deliveries(this.deliveries).duplicates(this.duplicates)
+                .bloomFilterDuplicates(this.bloomFilterDuplicates).size(this.events.size())
+                .build();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.firestore;
+
+import java.util.List;
+import com.google.cloud.Timestamp;
+
+/**
+ * The CollectionGroupListener receives the snapshots of a collection group listener.
+ *
+ * The first snapshot has every document in the collection group as added and each following
+ * snapshot has the documents changed since the previous one. Snapshots are delivered one at a
+ * time. After an error no more snapshots are delivered and the listener must be registered again.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public interface CollectionGroupListener {
+
+    /**
+     * Receive a snapshot.
+     *
+     * @param readTime the time the snapshot was read; every change up to this time is included
+     * @param changes the changes since the previous snapshot
+     */
+    void onSnapshot(Timestamp readTime, List<FirestoreDocumentChange> changes);
+
+    /**
+     * Receive the error that stopped the listener.
+     *
+     * @param error the error
+     */
+    void onError(Exception error);
+}
@@ -15,6 +15,7 @@ package com.unitvectory.crossfiresync.firestore;
 
 import com.unitvectory.crossfiresync.FirestoreChangeConfig;
 import com.unitvectory.crossfiresync.PubSubChangeConfig;
+import com.unitvectory.crossfiresync.config.TransportSettings;
 import lombok.Builder;
 import lombok.Value;
 
@@ -32,6 +33,38 @@ public class ConfigFirestoreSettings {
      */
     private final String databaseName;
 
+    /**
+     * The maximum number of attempts for each transaction.
+     */
+    @Builder.Default
+    private final int transactionMaxAttempts = 5;
+
+    /**
+     * The number of in-process locks transactions are striped across by document path; 0 to not
+     * lock.
+     */
+    @Builder.Default
+    private final int lockStripes = 64;
+
+    /**
+     * The tracker of aborted transaction attempts; null to not track them.
+     */
+    @Builder.Default
+    private final ContentionTracker contentionTracker = null;
+
+    /**
+     * The maximum number of DocumentReference instances cached for referenced documents; 0 to not
+     * cache them.
+     */
+    @Builder.Default
+    private final int referenceCacheSize = 10000;
+
+    /**
+     * The tuning of the gRPC transport.
+     */
+    @Builder.Default
+    private final TransportSettings transport = TransportSettings.NONE;
+
     /**
      * Builds the Firestore settings from the Firestore change configuration.
      * 
@@ -39,7 +72,8 @@ public class ConfigFirestoreSettings {
      * @return the Firestore settings
      */
     public static ConfigFirestoreSettings build(FirestoreChangeConfig config) {
-        return ConfigFirestoreSettings.builder().databaseName(config.getDatabaseName()).build();
+        return ConfigFirestoreSettings.builder().databaseName(config.getDatabaseName())
+                .transport(config.getTransport()).build();
     }
 
     /**
@@ -49,6 +83,11 @@ public class ConfigFirestoreSettings {
      * @return the Firestore settings
      */
     public static ConfigFirestoreSettings build(PubSubChangeConfig config) {
-        return ConfigFirestoreSettings.builder().databaseName(config.getDatabaseName()).build();
+        return ConfigFirestoreSettings.builder().databaseName(config.getDatabaseName())
+                .transactionMaxAttempts(config.getTransactionMaxAttempts())
+                .lockStripes(config.getLockStripes())
+                .contentionTracker(config.getContentionTracker())
+                .referenceCacheSize(config.getReferenceCacheSize())
+                .transport(config.getTransport()).build();
     }
 }
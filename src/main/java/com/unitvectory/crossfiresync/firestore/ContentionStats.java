@@ -0,0 +1,50 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.firestore;
+
+import lombok.Value;
+
+/**
+ * The contention seen by transactions on a single document.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+public class ContentionStats {
+
+    /**
+     * The document path.
+     */
+    private final String documentPath;
+
+    /**
+     * The number of transactions on the document that were aborted at least once.
+     */
+    private final long contendedTransactions;
+
+    /**
+     * The total number of aborted transaction attempts on the document.
+     */
+    private final long abortedAttempts;
+
+    /**
+     * The recent aborted attempts, decayed over time.
+     */
+    private final double score;
+
+    /**
+     * If the document is hot; its recent aborted attempts reached the threshold.
+     */
+    private final boolean hot;
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.firestore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import lombok.NonNull;
+
+/**
+ * The ContentionTracker counts the aborted transaction attempts for each document path.
+ * 
+ * Only documents whose transactions were aborted are tracked. Each aborted attempt adds one to the
+ * score of the document, and the score halves every half-life, so documents that keep hitting
+ * contention are flagged as hot and documents that stop are forgotten. Hot documents are where
+ * writes should be coalesced or backed off.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ContentionTracker {
+
+    private static final Logger logger = Logger.getLogger(ContentionTracker.class.getName());
+
+    private final double hotThreshold;
+
+    private final long halfLifeNanos;
+
+    private final int maxTrackedPaths;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder transactions = new LongAdder();
+
+    private final LongAdder abortedAttempts = new LongAdder();
+
+    /**
+     * Create a new ContentionTracker that flags a document as hot after 5 recent aborted attempts
+     * with a half-life of one minute, tracking up to 10000 documents.
+     */
+    public ContentionTracker() {
+        this(5, Duration.ofMinutes(1), 10000);
+    }
+
+    /**
+     * Create a new ContentionTracker.
+     * 
+     * @param hotThreshold the score at which a document is flagged as hot
+     * @param halfLife the time for the score of a document to halve
+     * @param maxTrackedPaths the maximum number of documents tracked
+     */
+    public ContentionTracker(double hotThreshold, @NonNull Duration halfLife,
+            int maxTrackedPaths) {
+        this.hotThreshold = hotThreshold;
+        this.halfLifeNanos = Math.max(1, halfLife.toNanos());
+        this.maxTrackedPaths = maxTrackedPaths;
+    }
+
+    /**
+     * Record a completed transaction.
+     * 
+     * @param documentPath the document path
+     * @param aborted the number of attempts of the transaction that were aborted
+     */
+    public void record(String documentPath, int aborted) {
+        this.transactions.increment();
+        if (aborted <= 0) {
+            return;
+        }
+
+        this.abortedAttempts.add(aborted);
+
+        long now = System.nanoTime();
+        Entry entry = this.entries.get(documentPath);
+        if (entry == null) {
+            if (this.entries.size() >= this.maxTrackedPaths) {
+                evict(now);
+            }
+            entry = this.entries.computeIfAbsent(documentPath, Entry::new);
+        }
+
+        boolean becameHot = entry.record(aborted, now);
+        if (becameHot) {
+            logger.warning("Hot document, transactions repeatedly aborted: " + documentPath);
+        }
+    }
+
+    /**
+     * Checks if a document is hot.
+     * 
+     * @param documentPath the document path
+     * @return true if recent transactions on the document were repeatedly aborted
+     */
+    public boolean isHot(String documentPath) {
+        Entry entry = this.entries.get(documentPath);
+        return entry != null && entry.score(System.nanoTime()) >= this.hotThreshold;
+    }
+
+    /**
+     * Gets the contention of a document.
+     * 
+     * @param documentPath the document path
+     * @return the contention; null if the document is not tracked
+     */
+    public ContentionStats getStats(String documentPath) {
+        Entry entry = this.entries.get(documentPath);
+        return entry == null ? null : entry.toStats(System.nanoTime());
+    }
+
+    /**
+     * Gets the hot documents, most contended first.
+     * 
+     * @return the hot documents
+     */
+    public List<ContentionStats> getHotDocuments() {
+        long now = System.nanoTime();
+        List<ContentionStats> hot = new ArrayList<>();
+        for (Entry entry : this.entries.values()) {
+            ContentionStats stats = entry.toStats(now);
+            if (stats.isHot()) {
+                hot.add(stats);
+            }
+        }
+        hot.sort(Comparator.comparingDouble(ContentionStats::getScore).reversed());
+        return hot;
+    }
+
+    /**
+     * Gets the total number of transactions recorded.
+     * 
+     * @return the number of transactions
+     */
+    public long getTransactions() {
+        return this.transactions.sum();
+    }
+
+    /**
+     * Gets the total number of aborted transaction attempts recorded.
+     * 
+     * @return the number of aborted attempts
+     */
+    public long getAbortedAttempts() {
+        return this.abortedAttempts.sum();
+    }
+
+    /**
+     * Forget the documents that have cooled down; if none have, forget the least contended.
+     */
+    private void evict(long now) {
+        this.entries.values().removeIf(entry -> entry.score(now) < 1);
+        if (this.entries.size() >= this.maxTrackedPaths) {
+            this.entries.values().stream()
+                    .min(Comparator.comparingDouble(entry -> entry.score(now)))
+                    .ifPresent(entry -> this.entries.remove(entry.documentPath));
+        }
+    }
+
+    private final class Entry {
+
+        private final String documentPath;
+
+        private long contendedTransactions;
+
+        private long abortedAttempts;
+
+        private double score;
+
+        private long updated;
+
+        private Entry(String documentPath) {
+            this.documentPath = documentPath;
+            this.updated = System.nanoTime();
+        }
+
+        private synchronized boolean record(int aborted, long now) {
+            boolean wasHot = decay(now) >= hotThreshold;
+            this.contendedTransactions++;
+            this.abortedAttempts += aborted;
+            this.score += aborted;
+            return !wasHot && this.score >= hotThreshold;
+        }
+
+        private synchronized double score(long now) {
+            return decay(now);
+        }
+
+        private synchronized ContentionStats toStats(long now) {
+            double current = decay(now);
+            return new ContentionStats(this.documentPath, this.contendedTransactions,
+                    this.abortedAttempts, current, current >= hotThreshold);
+        }
+
+        private double decay(long now) {
+            long elapsed = now - this.updated;
+            if (elapsed > 0) {
+                this.score *= Math.pow(0.5, (double) elapsed / halfLifeNanos);
+                this.updated = now;
+            }
+            return this.score;
+        }
+    }
+}
@@ -13,14 +13,25 @@
  */
 package com.unitvectory.crossfiresync.firestore;
 
+import java.util.List;
 import java.util.Map;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.events.cloud.firestore.v1.Document;
+import com.unitvectory.crossfiresync.CrossFireSyncAttributes;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.firestoreproto2map.FirestoreProto2Map;
 import com.unitvectory.firestoreproto2map.ValueToDocumentReferenceMapper;
 
 /**
  * The CrossFireSyncFirestore interface
  * 
+ * The operations used only by the optional components, such as the catch-up sync, the
+ * anti-entropy scanner, the DIRECT delete mode, the tombstone sweeper, and the listener publisher,
+ * have default implementations that throw a CrossFireSyncException so custom implementations
+ * only need to implement the operations they use.
+ * 
  * @author Jared Hatfield (UnitVectorY Labs)
  */
 public interface CrossFireSyncFirestore extends ValueToDocumentReferenceMapper {
@@ -49,16 +60,71 @@ public interface CrossFireSyncFirestore extends ValueToDocumentReferenceMapper {
      */
     boolean deleteFlagTransaction(DocumentReference documentReference, Map<String, Object> updates);
 
+    /**
+     * Replace a Firestore document with a tombstone flagged for delete with a transaction, unless
+     * the existing document has a crossfiresync timestamp after the deleted version.
+     * 
+     * The tombstone is written even if the document does not exist so a change to the deleted
+     * version that is delivered after the delete does not recreate the document.
+     * 
+     * @param documentReference The document reference
+     * @param deletedTime The update time of the deleted version of the document
+     * @param tombstone The tombstone, including the crossfiresync timestamp of the deleted time
+     * @return True if the tombstone was written
+     */
+    default boolean tombstoneTransaction(DocumentReference documentReference,
+            Timestamp deletedTime, Map<String, Object> tombstone) {
+        throw unsupported("tombstoneTransaction");
+    }
+
     /**
      * Update a Firestore document with a transaction.
      * 
      * @param documentReference The document reference
      * @param updatedTime The updated time
      * @param record The record to update
+     * @return True if the document was written; false if the existing document is newer
      */
-    void updateTransaction(DocumentReference documentReference, Timestamp updatedTime,
+    boolean updateTransaction(DocumentReference documentReference, Timestamp updatedTime,
             Map<String, Object> record);
 
+    /**
+     * Write a replicated document from the protocol buffer of the change, unless the existing
+     * document has a crossfiresync timestamp at or after the updated time.
+     * 
+     * By default the document is converted to a map and written with updateTransaction;
+     * implementations can write the protocol buffer values directly.
+     * 
+     * @param documentReference The document reference
+     * @param updatedTime The updated time
+     * @param document The document from the change
+     * @param sourceDatabase The database the change came from, written with the updated time to
+     *        the crossfiresync attributes; null to not add them
+     * @return True if the document was written; false if the existing document is newer
+     */
+    default boolean writeDocument(DocumentReference documentReference, Timestamp updatedTime,
+            Document document, String sourceDatabase) {
+        Map<String, Object> record = new FirestoreProto2Map(this).convert(document);
+        if (sourceDatabase != null) {
+            record.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, updatedTime);
+            record.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, sourceDatabase);
+        }
+        return updateTransaction(documentReference, updatedTime, record);
+    }
+
+    /**
+     * Delete a Firestore document unless it was written after the delete, using a precondition on
+     * the update time of the document that was checked.
+     * 
+     * @param documentReference The document reference
+     * @param deleteTimestamp The timestamp of the delete
+     * @return True if the document was deleted
+     */
+    default boolean deleteWithPrecondition(DocumentReference documentReference,
+            Timestamp deleteTimestamp) {
+        throw unsupported("deleteWithPrecondition");
+    }
+
     /**
      * Deletes the document
      * 
@@ -66,8 +132,112 @@ public interface CrossFireSyncFirestore extends ValueToDocumentReferenceMapper {
      */
     void deleteDocument(String documentPath);
 
+    /**
+     * Queries a page of documents in a collection group ordered by a timestamp field and then by
+     * document path, starting after the provided cursor.
+     *
+     * Documents that do not contain the timestamp field are not returned.
+     *
+     * @param collectionGroup the collection group id
+     * @param timestampField the name of the top level timestamp field
+     * @param afterTimestamp the timestamp cursor
+     * @param afterDocumentPath the document path cursor; null to start after the timestamp only
+     * @param limit the maximum number of documents to return
+     * @return the documents in the page
+     */
+    default List<FirestoreDocument> queryUpdatedAfter(String collectionGroup,
+            String timestampField, Timestamp afterTimestamp, String afterDocumentPath,
+            int limit) {
+        throw unsupported("queryUpdatedAfter");
+    }
+
+    /**
+     * Lists a page of documents in a collection group ordered by document path, starting after the
+     * provided cursor.
+     *
+     * @param collectionGroup the collection group id
+     * @param afterDocumentPath the document path cursor; null to start from the beginning
+     * @param limit the maximum number of documents to return
+     * @return the documents in the page
+     */
+    default List<FirestoreDocument> listDocuments(String collectionGroup,
+            String afterDocumentPath, int limit) {
+        throw unsupported("listDocuments");
+    }
+
+    /**
+     * Queries a page of documents in a collection group flagged for delete before a time, ordered
+     * by the crossfiresync timestamp and then by document path, starting after the provided
+     * cursor.
+     *
+     * @param collectionGroup the collection group id
+     * @param flaggedBefore only documents flagged before this time are returned
+     * @param afterTimestamp the timestamp cursor; null to start from the beginning
+     * @param afterDocumentPath the document path cursor; null to start after the timestamp only
+     * @param limit the maximum number of documents to return
+     * @return the documents in the page
+     */
+    default List<FirestoreDocument> queryFlaggedForDelete(String collectionGroup,
+            Timestamp flaggedBefore, Timestamp afterTimestamp, String afterDocumentPath,
+            int limit) {
+        throw unsupported("queryFlaggedForDelete");
+    }
+
+    /**
+     * Deletes documents in bulk, each only if it has not been updated since it was read.
+     *
+     * @param documents the documents to delete
+     * @param maxOpsPerSecond the maximum rate of deletes; 0 for no limit
+     * @return the number of documents deleted
+     */
+    default int bulkDelete(List<FirestoreDocument> documents, int maxOpsPerSecond) {
+        throw unsupported("bulkDelete");
+    }
+
+    /**
+     * Reads a document.
+     *
+     * @param documentPath the document path
+     * @return the document, or null if the document does not exist
+     */
+    default FirestoreDocument readDocument(String documentPath) {
+        throw unsupported("readDocument");
+    }
+
+    /**
+     * Listens to the changes to the documents in a collection group.
+     *
+     * @param collectionGroup the collection group id
+     * @param listener the listener the snapshots are delivered to
+     * @return the registration; removing it stops the listener
+     */
+    default ListenerRegistration listen(String collectionGroup,
+            CollectionGroupListener listener) {
+        throw unsupported("listen");
+    }
+
+    /**
+     * Gets the statistics of the cache of the DocumentReference for referenced documents.
+     *
+     * @return the statistics, or null if references are not cached
+     */
+    default ReferenceCacheStats getReferenceCacheStats() {
+        return null;
+    }
+
     @Override
     default DocumentReference convert(String referenceValue, String documentPath) {
         return getDocument(documentPath);
     }
+
+    /**
+     * Create the exception thrown by an operation the implementation does not support.
+     * 
+     * @param operation the name of the operation
+     * @return the exception
+     */
+    private static CrossFireSyncException unsupported(String operation) {
+        return new CrossFireSyncException(
+                "CrossFireSyncFirestore does not implement " + operation + ".", null);
+    }
 }
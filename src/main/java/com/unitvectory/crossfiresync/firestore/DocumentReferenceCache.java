@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.firestore;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import com.google.cloud.firestore.DocumentReference;
+
+/**
+ * A bounded cache interning the DocumentReference for each document path.
+ * 
+ * Documents that reference the same documents over and over, such as arrays of hundreds of
+ * references, resolve each path to the same DocumentReference instead of building a new one for
+ * every value. When the cache is full the references not used since the previous eviction are
+ * removed, a second chance policy that keeps the frequently referenced documents. Concurrent
+ * misses may briefly exceed the maximum size by the number of threads.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class DocumentReferenceCache {
+
+    private final int maxSize;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a new DocumentReferenceCache.
+     * 
+     * @param maxSize the maximum number of references cached; 0 to not cache
+     */
+    public DocumentReferenceCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * Gets the DocumentReference for a document path, creating it on a miss.
+     * 
+     * @param documentPath the document path
+     * @param loader creates the DocumentReference for a document path
+     * @return the DocumentReference
+     */
+    public DocumentReference get(String documentPath,
+            Function<String, DocumentReference> loader) {
+        Entry entry = this.entries.get(documentPath);
+        if (entry != null) {
+            this.hits.increment();
+            if (!entry.used) {
+                entry.used = true;
+            }
+            return entry.reference;
+        }
+
+        this.misses.increment();
+        DocumentReference reference = loader.apply(documentPath);
+        if (this.maxSize == 0) {
+            return reference;
+        }
+
+        if (this.entries.size() >= this.maxSize) {
+            evict();
+        }
+
+        Entry existing = this.entries.putIfAbsent(documentPath, new Entry(reference));
+        return existing != null ? existing.reference : reference;
+    }
+
+    /**
+     * Gets the statistics of the cache.
+     * 
+     * @return the statistics
+     */
+    public ReferenceCacheStats getStats() {
+        return ReferenceCacheStats.builder().hits(this.hits.sum()).misses(this.misses.sum())
+                .evictions(this.evictions.sum()).size(this.entries.size()).maxSize(this.maxSize)
+                .build();
+    }
+
+    /**
+     * Remove the references not used since the previous eviction; if every reference was used,
+     * remove references until there is room.
+     */
+    private synchronized void evict() {
+        if (this.entries.size() < this.maxSize) {
+            // Another thread already made room
+            return;
+        }
+
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.used) {
+                entry.used = false;
+            } else {
+                iterator.remove();
+                this.evictions.increment();
+            }
+        }
+
+        iterator = this.entries.values().iterator();
+        while (this.entries.size() >= this.maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            this.evictions.increment();
+        }
+    }
+
+    private static final class Entry {
+
+        private final DocumentReference reference;
+
+        private volatile boolean used;
+
+        private Entry(DocumentReference reference) {
+            this.reference = reference;
+        }
+    }
+}
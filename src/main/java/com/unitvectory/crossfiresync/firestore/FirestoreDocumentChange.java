@@ -0,0 +1,58 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.firestore;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A change to a document seen by a collection group listener.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class FirestoreDocumentChange {
+
+    /**
+     * The type of a change.
+     */
+    public enum Type {
+
+        /**
+         * The document was created, or is in the first snapshot of the listener
+         */
+        ADDED,
+
+        /**
+         * The document was updated
+         */
+        MODIFIED,
+
+        /**
+         * The document was deleted
+         */
+        REMOVED;
+    }
+
+    /**
+     * The type of the change.
+     */
+    private final Type type;
+
+    /**
+     * The document after the change; the last version of the document when it was removed.
+     */
+    private final FirestoreDocument document;
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.firestore;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a DocumentReferenceCache.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class ReferenceCacheStats {
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private final long hits;
+
+    /**
+     * The number of lookups that created a new DocumentReference.
+     */
+    private final long misses;
+
+    /**
+     * The number of references evicted to stay within the maximum size.
+     */
+    private final long evictions;
+
+    /**
+     * The number of references currently cached.
+     */
+    private final int size;
+
+    /**
+     * The maximum number of references cached.
+     */
+    private final int maxSize;
+
+    /**
+     * Gets the fraction of lookups answered from the cache.
+     * 
+     * @return the hit rate; 0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+}
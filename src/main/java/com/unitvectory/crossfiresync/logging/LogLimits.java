@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.logging;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The limits applied to each category of a RateLimitedLogger.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class LogLimits {
+
+    /**
+     * No limits, every message is logged.
+     */
+    public static final LogLimits NONE = LogLimits.builder().build();
+
+    /**
+     * The maximum number of messages logged per second for each category; 0 for no limit.
+     */
+    @Builder.Default
+    private final int maxPerSecond = 0;
+
+    /**
+     * Log one in this many messages of each category; 1 to log every message.
+     */
+    @Builder.Default
+    private final int sampleRate = 1;
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.logging;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.NonNull;
+
+/**
+ * A logger for messages written for every event, limited by category.
+ * 
+ * Messages are suppliers that are only evaluated when the message is logged, so a disabled level
+ * or a suppressed message costs no string building. Each category is sampled, logging one in every
+ * sample rate messages, and then rate limited with a token bucket that allows bursts of up to one
+ * second of messages. Suppressed messages are counted; the count is appended to the next message
+ * logged for the category and flush() logs the counts still pending.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class RateLimitedLogger {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final Logger logger;
+
+    private final int maxPerSecond;
+
+    private final int sampleRate;
+
+    private final Map<String, Category> categories = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new RateLimitedLogger.
+     * 
+     * @param logger the logger messages are written to
+     * @param limits the limits applied to each category
+     */
+    public RateLimitedLogger(@NonNull Logger logger, @NonNull LogLimits limits) {
+        this.logger = logger;
+        this.maxPerSecond = Math.max(0, limits.getMaxPerSecond());
+        this.sampleRate = Math.max(1, limits.getSampleRate());
+    }
+
+    /**
+     * Log a message at the INFO level.
+     * 
+     * @param category the category the message is limited by
+     * @param message the message
+     */
+    public void info(String category, Supplier<String> message) {
+        log(Level.INFO, category, message);
+    }
+
+    /**
+     * Log a message at the FINE level.
+     * 
+     * @param category the category the message is limited by
+     * @param message the message
+     */
+    public void fine(String category, Supplier<String> message) {
+        log(Level.FINE, category, message);
+    }
+
+    /**
+     * Log a message.
+     * 
+     * @param level the level
+     * @param category the category the message is limited by
+     * @param message the message
+     */
+    public void log(Level level, String category, Supplier<String> message) {
+        if (!this.logger.isLoggable(level)) {
+            return;
+        }
+
+        Category state = this.categories.get(category);
+        if (state == null) {
+            state = this.categories.computeIfAbsent(category, Category::new);
+        }
+
+        long suppressed = state.acquire(System.nanoTime());
+        if (suppressed < 0) {
+            return;
+        }
+
+        if (suppressed == 0) {
+            this.logger.log(level, message.get());
+        } else {
+            this.logger.log(level,
+                    message.get() + " (" + suppressed + " similar messages suppressed)");
+        }
+    }
+
+    /**
+     * Log the number of messages suppressed in each category since its last logged message.
+     */
+    public void flush() {
+        for (Category state : this.categories.values()) {
+            long pending = state.drain();
+            if (pending > 0) {
+                this.logger.info("Suppressed " + pending + " " + state.name + " messages");
+            }
+        }
+    }
+
+    /**
+     * Gets the total number of messages suppressed for each category.
+     * 
+     * @return the suppressed messages by category
+     */
+    public Map<String, Long> getSuppressed() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Category state : this.categories.values()) {
+            map.put(state.name, state.total());
+        }
+        return map;
+    }
+
+    private final class Category {
+
+        private final String name;
+
+        private long seen;
+
+        private double tokens;
+
+        private long refilled;
+
+        private long pending;
+
+        private long total;
+
+        private Category(String name) {
+            this.name = name;
+            this.tokens = maxPerSecond;
+            this.refilled = System.nanoTime();
+        }
+
+        /**
+         * Acquire permission to log a message.
+         * 
+         * @return the messages suppressed since the last logged message; -1 if this message is
+         *         suppressed
+         */
+        private synchronized long acquire(long now) {
+            this.seen++;
+            if (sampleRate > 1 && (this.seen - 1) % sampleRate != 0) {
+                return suppress();
+            }
+
+            if (maxPerSecond > 0) {
+                long elapsed = now - this.refilled;
+                if (elapsed > 0) {
+                    this.tokens = Math.min(maxPerSecond,
+                            this.tokens + (double) elapsed * maxPerSecond / NANOS_PER_SECOND);
+                    this.refilled = now;
+                }
+
+                if (this.tokens < 1) {
+                    return suppress();
+                }
+                this.tokens--;
+            }
+
+            return drain();
+        }
+
+        private long suppress() {
+            this.pending++;
+            this.total++;
+            return -1;
+        }
+
+        private synchronized long drain() {
+            long drained = this.pending;
+            this.pending = 0;
+            return drained;
+        }
+
+        private synchronized long total() {
+            return this.total;
+        }
+    }
+}
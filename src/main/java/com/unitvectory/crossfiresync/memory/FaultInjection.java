@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The latency and failures injected into the operations of the in-memory stand-ins.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class FaultInjection {
+
+    /**
+     * No latency and no failures
+     */
+    public static final FaultInjection NONE = FaultInjection.builder().build();
+
+    /**
+     * The latency of each operation
+     */
+    @Builder.Default
+    private final LatencyDistribution latency = LatencyDistribution.none();
+
+    /**
+     * The probability a transaction attempt is aborted as if by a conflicting write
+     */
+    @Builder.Default
+    private final double abortRate = 0;
+
+    /**
+     * The probability an operation fails with the error code
+     */
+    @Builder.Default
+    private final double errorRate = 0;
+
+    /**
+     * The gRPC status code name of the injected failures
+     */
+    @Builder.Default
+    private final String errorCode = "UNAVAILABLE";
+
+    /**
+     * The random seed so runs are repeatable; 0 for a random seed
+     */
+    @Builder.Default
+    private final long seed = 0;
+}
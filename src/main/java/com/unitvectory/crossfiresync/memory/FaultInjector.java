@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * Applies a FaultInjection to the operations of an in-memory stand-in.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+class FaultInjector {
+
+    private final FaultInjection faults;
+
+    private final Random random;
+
+    private final Status errorStatus;
+
+    private final LongAdder injectedFailures = new LongAdder();
+
+    FaultInjector(FaultInjection faults) {
+        this.faults = faults;
+        this.random = faults.getSeed() == 0 ? new Random() : new Random(faults.getSeed());
+        this.errorStatus = Status.fromCode(Status.Code.valueOf(faults.getErrorCode()))
+                .withDescription("Injected failure");
+    }
+
+    /**
+     * Wait for the sampled latency.
+     */
+    void delay() {
+        long nanos = this.faults.getLatency().sampleNanos(this.random);
+        if (nanos <= 0) {
+            return;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CrossFireSyncException("Interrupted.", e);
+        }
+    }
+
+    /**
+     * Wait for the sampled latency and then fail with the configured probability.
+     * 
+     * @param message the message of the failure
+     */
+    void operation(String message) {
+        delay();
+        if (this.faults.getErrorRate() > 0
+                && this.random.nextDouble() < this.faults.getErrorRate()) {
+            this.injectedFailures.increment();
+            throw new CrossFireSyncException(message, new StatusRuntimeException(this.errorStatus));
+        }
+    }
+
+    /**
+     * Checks if a transaction attempt is aborted.
+     * 
+     * @return true if the attempt is aborted
+     */
+    boolean abort() {
+        return this.faults.getAbortRate() > 0
+                && this.random.nextDouble() < this.faults.getAbortRate();
+    }
+
+    /**
+     * Gets the number of injected failures.
+     * 
+     * @return the number of injected failures
+     */
+    long getInjectedFailures() {
+        return this.injectedFailures.sum();
+    }
+
+    /**
+     * Create the exception for a transaction that ran out of attempts.
+     * 
+     * @param message the message
+     * @return the exception
+     */
+    static CrossFireSyncException aborted(String message) {
+        return new CrossFireSyncException(message, new StatusRuntimeException(
+                Status.ABORTED.withDescription("Too much contention")));
+    }
+}
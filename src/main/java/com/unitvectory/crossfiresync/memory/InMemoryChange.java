@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import lombok.Value;
+
+/**
+ * A change committed to an InMemoryFirestore, the equivalent of a Firestore document trigger.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+public class InMemoryChange {
+
+    /**
+     * The database the change was committed to.
+     */
+    private final String database;
+
+    /**
+     * The document path.
+     */
+    private final String documentPath;
+
+    /**
+     * The document before the change; null for an insert.
+     */
+    private final FirestoreDocument oldValue;
+
+    /**
+     * The document after the change; null for a delete.
+     */
+    private final FirestoreDocument value;
+}
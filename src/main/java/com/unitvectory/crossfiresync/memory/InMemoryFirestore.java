@@ -0,0 +1,577 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.unitvectory.crossfiresync.CrossFireSyncAttributes;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.CollectionGroupListener;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocumentChange;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import lombok.NonNull;
+
+/**
+ * An in-memory CrossFireSyncFirestore for tests and load experiments that need no network.
+ * 
+ * Documents are kept in a sorted map by path. Transactions are optimistic: the document is read,
+ * and the write only commits if the document has not changed since, otherwise the attempt is
+ * aborted and retried up to the attempt limit like the Firestore client does. Every write is
+ * given a strictly increasing update time which preconditions are checked against. Latency,
+ * aborts and failures can be injected with a FaultInjection, and every committed change is passed
+ * to the listeners the way a Firestore trigger would see it. Collection group listeners receive
+ * each change as its own snapshot.
+ * 
+ * DocumentReference instances are created by a Firestore client that never connects.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class InMemoryFirestore implements CrossFireSyncFirestore, AutoCloseable {
+
+    private final String database;
+
+    private final int transactionMaxAttempts;
+
+    private final FaultInjector faults;
+
+    private final Firestore references;
+
+    private final ConcurrentNavigableMap<String, Stored> documents = new ConcurrentSkipListMap<>();
+
+    private final List<Consumer<InMemoryChange>> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<Listen> listens = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final LongAdder reads = new LongAdder();
+
+    private final LongAdder writes = new LongAdder();
+
+    private final LongAdder deletes = new LongAdder();
+
+    private final LongAdder transactions = new LongAdder();
+
+    private final LongAdder aborts = new LongAdder();
+
+    private final LongAdder preconditionFailures = new LongAdder();
+
+    /**
+     * Create a new InMemoryFirestore without latency or failures.
+     * 
+     * @param database the database name
+     */
+    public InMemoryFirestore(String database) {
+        this(database, 5, FaultInjection.NONE);
+    }
+
+    /**
+     * Create a new InMemoryFirestore.
+     * 
+     * @param database the database name
+     * @param transactionMaxAttempts the maximum number of attempts for each transaction
+     * @param faults the latency and failures to inject
+     */
+    public InMemoryFirestore(@NonNull String database, int transactionMaxAttempts,
+            @NonNull FaultInjection faults) {
+        this.database = database;
+        this.transactionMaxAttempts = Math.max(1, transactionMaxAttempts);
+        this.faults = new FaultInjector(faults);
+        this.references = FirestoreOptions.newBuilder().setProjectId("crossfiresync")
+                .setDatabaseId(database).setCredentials(NoCredentials.getInstance()).build()
+                .getService();
+    }
+
+    /**
+     * Gets the database name.
+     * 
+     * @return the database name
+     */
+    public String getDatabase() {
+        return this.database;
+    }
+
+    /**
+     * Add a listener for the committed changes.
+     * 
+     * @param listener the listener
+     */
+    public void addListener(@NonNull Consumer<InMemoryChange> listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Stop every collection group listener with an unavailable error, as when the listen stream
+     * of the Firestore client fails.
+     */
+    public void disconnectListeners() {
+        for (Listen listen : this.listens) {
+            this.listens.remove(listen);
+            listen.listener.onError(new CrossFireSyncException("Listener disconnected.",
+                    new StatusRuntimeException(Status.UNAVAILABLE)));
+        }
+    }
+
+    /**
+     * Write a document as an application would, outside of replication.
+     * 
+     * @param documentPath the document path
+     * @param data the document data
+     * @return the update time
+     */
+    public Timestamp set(@NonNull String documentPath, @NonNull Map<String, Object> data) {
+        this.faults.operation("Failed to set document.");
+        Timestamp updateTime = now();
+        Stored stored = new Stored(new HashMap<>(data), updateTime);
+        Stored before = this.documents.put(documentPath, stored);
+        this.writes.increment();
+        notify(documentPath, before, stored);
+        return updateTime;
+    }
+
+    /**
+     * Test if a document exists without counting a read.
+     * 
+     * @param documentPath the document path
+     * @return true if the document exists
+     */
+    public boolean exists(@NonNull String documentPath) {
+        return this.documents.containsKey(documentPath);
+    }
+
+    /**
+     * Gets the number of documents.
+     * 
+     * @return the number of documents
+     */
+    public int size() {
+        return this.documents.size();
+    }
+
+    /**
+     * Gets a copy of every document, by path.
+     * 
+     * @return the documents
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new HashMap<>();
+        for (Map.Entry<String, Stored> entry : this.documents.entrySet()) {
+            snapshot.put(entry.getKey(), new HashMap<>(entry.getValue().data));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the operation counts.
+     * 
+     * @return the operation counts
+     */
+    public InMemoryStats getStats() {
+        return InMemoryStats.builder().reads(this.reads.sum()).writes(this.writes.sum())
+                .deletes(this.deletes.sum()).transactions(this.transactions.sum())
+                .aborts(this.aborts.sum()).preconditionFailures(this.preconditionFailures.sum())
+                .injectedFailures(this.faults.getInjectedFailures()).build();
+    }
+
+    @Override
+    public Timestamp now() {
+        // Strictly increasing so every write has a distinct update time
+        long wall = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long micros = this.clock.updateAndGet(previous -> Math.max(previous + 1, wall));
+        return Timestamp.ofTimeMicroseconds(micros);
+    }
+
+    @Override
+    public DocumentReference getDocument(String documentPath) {
+        return this.references.document(documentPath);
+    }
+
+    @Override
+    public boolean deleteFlagTransaction(DocumentReference documentReference,
+            Map<String, Object> updates) {
+        String documentPath = documentReference.getPath();
+        return transaction(documentPath, before -> {
+            if (before == null) {
+                return null;
+            }
+
+            Map<String, Object> data = new HashMap<>(before.data);
+            data.putAll(updates);
+            return new Stored(data, now());
+        }, "Failed to delete flag transaction.") != null;
+    }
+
+    @Override
+    public boolean tombstoneTransaction(DocumentReference documentReference, Timestamp deletedTime,
+            Map<String, Object> tombstone) {
+        String documentPath = documentReference.getPath();
+        return transaction(documentPath, before -> {
+            if (before != null) {
+                Object existing = before.data.get(CrossFireSyncAttributes.TIMESTAMP_FIELD);
+                if (existing instanceof Timestamp) {
+                    int compare = ((Timestamp) existing).compareTo(deletedTime);
+                    if (compare > 0 || (compare == 0
+                            && before.data.containsKey(CrossFireSyncAttributes.DELETE_FIELD))) {
+                        return null;
+                    }
+                }
+            }
+
+            return new Stored(new HashMap<>(tombstone), now());
+        }, "Failed to tombstone transaction.") != null;
+    }
+
+    @Override
+    public boolean updateTransaction(DocumentReference documentReference, Timestamp updatedTime,
+            Map<String, Object> record) {
+        String documentPath = documentReference.getPath();
+        return transaction(documentPath, before -> {
+            if (before != null) {
+                Object existing = before.data.get(CrossFireSyncAttributes.TIMESTAMP_FIELD);
+                if (existing instanceof Timestamp
+                        && updatedTime.compareTo((Timestamp) existing) <= 0) {
+                    return null;
+                }
+            }
+
+            return new Stored(new HashMap<>(record), now());
+        }, "Failed to update transaction.") != null;
+    }
+
+    @Override
+    public boolean deleteWithPrecondition(DocumentReference documentReference,
+            Timestamp deleteTimestamp) {
+        String documentPath = documentReference.getPath();
+        for (int attempt = 1;; attempt++) {
+            this.faults.operation("Failed to delete document with precondition.");
+            Stored before = this.documents.get(documentPath);
+            this.reads.increment();
+            if (before == null) {
+                return false;
+            }
+
+            Object existing = before.data.get(CrossFireSyncAttributes.TIMESTAMP_FIELD);
+            if (existing instanceof Timestamp
+                    && ((Timestamp) existing).compareTo(deleteTimestamp) > 0) {
+                return false;
+            }
+
+            this.faults.delay();
+            if (this.documents.remove(documentPath, before)) {
+                this.deletes.increment();
+                notify(documentPath, before, null);
+                return true;
+            }
+
+            this.preconditionFailures.increment();
+            if (attempt >= this.transactionMaxAttempts) {
+                throw new CrossFireSyncException("Failed to delete document with precondition.",
+                        new StatusRuntimeException(Status.FAILED_PRECONDITION));
+            }
+        }
+    }
+
+    @Override
+    public void deleteDocument(String documentPath) {
+        this.faults.operation("Failed to delete document.");
+        Stored before = this.documents.remove(documentPath);
+        this.deletes.increment();
+        if (before != null) {
+            notify(documentPath, before, null);
+        }
+    }
+
+    @Override
+    public List<FirestoreDocument> queryUpdatedAfter(String collectionGroup,
+            String timestampField, Timestamp afterTimestamp, String afterDocumentPath,
+            int limit) {
+        return query(collectionGroup, timestampField,
+                data -> data.get(timestampField) instanceof Timestamp, afterTimestamp,
+                afterDocumentPath, limit);
+    }
+
+    @Override
+    public List<FirestoreDocument> listDocuments(String collectionGroup, String afterDocumentPath,
+            int limit) {
+        this.faults.operation("Failed to list collection group.");
+        List<FirestoreDocument> page = new ArrayList<>();
+        Map<String, Stored> tail = afterDocumentPath == null ? this.documents
+                : this.documents.tailMap(afterDocumentPath, false);
+        for (Map.Entry<String, Stored> entry : tail.entrySet()) {
+            if (page.size() >= limit) {
+                break;
+            } else if (inCollectionGroup(entry.getKey(), collectionGroup)) {
+                page.add(entry.getValue().toDocument(entry.getKey()));
+            }
+        }
+        this.reads.add(page.size());
+        return page;
+    }
+
+    @Override
+    public List<FirestoreDocument> queryFlaggedForDelete(String collectionGroup,
+            Timestamp flaggedBefore, Timestamp afterTimestamp, String afterDocumentPath,
+            int limit) {
+        String timestampField = CrossFireSyncAttributes.TIMESTAMP_FIELD;
+        return query(collectionGroup, timestampField,
+                data -> Boolean.TRUE.equals(data.get(CrossFireSyncAttributes.DELETE_FIELD))
+                        && data.get(timestampField) instanceof Timestamp
+                        && ((Timestamp) data.get(timestampField)).compareTo(flaggedBefore) < 0,
+                afterTimestamp, afterDocumentPath, limit);
+    }
+
+    @Override
+    public int bulkDelete(List<FirestoreDocument> documents, int maxOpsPerSecond) {
+        long intervalNanos = maxOpsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxOpsPerSecond
+                : 0;
+        long next = System.nanoTime();
+        int deleted = 0;
+        for (FirestoreDocument document : documents) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CrossFireSyncException("Interrupted while deleting documents.", e);
+                }
+            }
+            next += intervalNanos;
+
+            try {
+                this.faults.operation("Failed to delete document.");
+            } catch (CrossFireSyncException e) {
+                continue;
+            }
+
+            String documentPath = document.getDocumentPath();
+            Stored before = this.documents.get(documentPath);
+            if (before != null && before.updateTime.equals(document.getUpdateTime())
+                    && this.documents.remove(documentPath, before)) {
+                this.deletes.increment();
+                notify(documentPath, before, null);
+                deleted++;
+            } else {
+                this.preconditionFailures.increment();
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public FirestoreDocument readDocument(String documentPath) {
+        this.faults.operation("Failed to read document.");
+        this.reads.increment();
+        Stored stored = this.documents.get(documentPath);
+        return stored == null ? null : stored.toDocument(documentPath);
+    }
+
+    @Override
+    public ListenerRegistration listen(String collectionGroup, CollectionGroupListener listener) {
+        this.faults.operation("Failed to listen to collection group.");
+        List<FirestoreDocumentChange> changes = new ArrayList<>();
+        for (Map.Entry<String, Stored> entry : this.documents.entrySet()) {
+            if (inCollectionGroup(entry.getKey(), collectionGroup)) {
+                changes.add(FirestoreDocumentChange.builder()
+                        .type(FirestoreDocumentChange.Type.ADDED)
+                        .document(entry.getValue().toDocument(entry.getKey())).build());
+            }
+        }
+        this.reads.add(changes.size());
+
+        Listen listen = new Listen(collectionGroup, listener);
+        this.listens.add(listen);
+        listener.onSnapshot(now(), changes);
+        return () -> this.listens.remove(listen);
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.references.close();
+    }
+
+    /**
+     * Run an optimistic transaction on a document.
+     * 
+     * @param documentPath the document path
+     * @param function computes the new document from the current document; null to not write
+     * @param message the message if the transaction fails
+     * @return the document written; null if nothing was written
+     */
+    private Stored transaction(String documentPath,
+            Function<Stored, Stored> function, String message) {
+        this.transactions.increment();
+        for (int attempt = 1; attempt <= this.transactionMaxAttempts; attempt++) {
+            this.faults.operation(message);
+            Stored before = this.documents.get(documentPath);
+            this.reads.increment();
+
+            Stored after = function.apply(before);
+
+            // The latency between the read and the commit is when conflicting writes happen
+            this.faults.delay();
+            if (this.faults.abort()) {
+                this.aborts.increment();
+                continue;
+            }
+
+            if (after == null) {
+                return null;
+            }
+
+            boolean committed = before == null ? this.documents.putIfAbsent(documentPath,
+                    after) == null : this.documents.replace(documentPath, before, after);
+            if (committed) {
+                this.writes.increment();
+                notify(documentPath, before, after);
+                return after;
+            }
+
+            this.aborts.increment();
+        }
+
+        throw FaultInjector.aborted(message);
+    }
+
+    private List<FirestoreDocument> query(String collectionGroup, String timestampField,
+            Predicate<Map<String, Object>> filter, Timestamp afterTimestamp,
+            String afterDocumentPath, int limit) {
+        this.faults.operation("Failed to query collection group.");
+        List<Map.Entry<String, Stored>> matches = new ArrayList<>();
+        for (Map.Entry<String, Stored> entry : this.documents.entrySet()) {
+            if (!inCollectionGroup(entry.getKey(), collectionGroup)
+                    || !filter.test(entry.getValue().data)) {
+                continue;
+            }
+
+            // Start after the cursor ordered by the timestamp field and then document path
+            if (afterTimestamp != null) {
+                Timestamp timestamp = (Timestamp) entry.getValue().data.get(timestampField);
+                int compare = timestamp.compareTo(afterTimestamp);
+                if (compare < 0 || (compare == 0 && (afterDocumentPath == null
+                        || entry.getKey().compareTo(afterDocumentPath) <= 0))) {
+                    continue;
+                }
+            }
+            matches.add(entry);
+        }
+
+        matches.sort(Comparator
+                .comparing((Map.Entry<String, Stored> entry) -> (Timestamp) entry.getValue().data
+                        .get(timestampField))
+                .thenComparing(Map.Entry::getKey));
+
+        List<FirestoreDocument> page = new ArrayList<>();
+        for (Map.Entry<String, Stored> entry : matches) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(entry.getValue().toDocument(entry.getKey()));
+        }
+        this.reads.add(page.size());
+        return page;
+    }
+
+    private void notify(String documentPath, Stored before, Stored after) {
+        for (Listen listen : this.listens) {
+            if (inCollectionGroup(documentPath, listen.collectionGroup)) {
+                FirestoreDocumentChange.Type type = before == null
+                        ? FirestoreDocumentChange.Type.ADDED
+                        : after == null ? FirestoreDocumentChange.Type.REMOVED
+                                : FirestoreDocumentChange.Type.MODIFIED;
+                Stored document = after == null ? before : after;
+                listen.listener.onSnapshot(after == null ? now() : after.updateTime,
+                        List.of(FirestoreDocumentChange.builder().type(type)
+                                .document(document.toDocument(documentPath)).build()));
+            }
+        }
+
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+
+        InMemoryChange change = new InMemoryChange(this.database, documentPath,
+                before == null ? null : before.toDocument(documentPath),
+                after == null ? null : after.toDocument(documentPath));
+        for (Consumer<InMemoryChange> listener : this.listeners) {
+            listener.accept(change);
+        }
+    }
+
+    private static boolean inCollectionGroup(String documentPath, String collectionGroup) {
+        int end = documentPath.lastIndexOf('/');
+        if (end < 0) {
+            return false;
+        }
+        int start = documentPath.lastIndexOf('/', end - 1) + 1;
+        return documentPath.regionMatches(start, collectionGroup, 0, end - start)
+                && collectionGroup.length() == end - start;
+    }
+
+    /**
+     * A registered collection group listener.
+     */
+    private static final class Listen {
+
+        private final String collectionGroup;
+
+        private final CollectionGroupListener listener;
+
+        private Listen(String collectionGroup, CollectionGroupListener listener) {
+            this.collectionGroup = collectionGroup;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * A stored document; compared by identity so a commit only succeeds against the version read.
+     */
+    private static final class Stored {
+
+        private final Map<String, Object> data;
+
+        private final Timestamp updateTime;
+
+        private Stored(Map<String, Object> data, Timestamp updateTime) {
+            this.data = data;
+            this.updateTime = updateTime;
+        }
+
+        private FirestoreDocument toDocument(String documentPath) {
+            return FirestoreDocument.builder().documentPath(documentPath)
+                    .data(new HashMap<>(this.data)).updateTime(this.updateTime).build();
+        }
+    }
+}
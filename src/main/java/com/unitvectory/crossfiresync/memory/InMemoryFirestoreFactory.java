@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreFactory;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import lombok.NonNull;
+
+/**
+ * A ConfigFirestoreFactory that provides an InMemoryFirestore for each database name.
+ * 
+ * The same factory returns the same InMemoryFirestore for a database name, so a publisher and a
+ * consumer configured with the same factory share the database.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class InMemoryFirestoreFactory implements ConfigFirestoreFactory {
+
+    private final FaultInjection faults;
+
+    private final Map<String, InMemoryFirestore> databases = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new InMemoryFirestoreFactory without latency or failures.
+     */
+    public InMemoryFirestoreFactory() {
+        this(FaultInjection.NONE);
+    }
+
+    /**
+     * Create a new InMemoryFirestoreFactory.
+     * 
+     * @param faults the latency and failures to inject into every database
+     */
+    public InMemoryFirestoreFactory(@NonNull FaultInjection faults) {
+        this.faults = faults;
+    }
+
+    @Override
+    public CrossFireSyncFirestore getFirestore(ConfigFirestoreSettings settings) {
+        return this.databases.computeIfAbsent(settings.getDatabaseName(),
+                database -> new InMemoryFirestore(database, settings.getTransactionMaxAttempts(),
+                        this.faults));
+    }
+
+    /**
+     * Gets the database, creating it if it does not exist.
+     * 
+     * @param database the database name
+     * @return the database
+     */
+    public InMemoryFirestore getDatabase(@NonNull String database) {
+        return (InMemoryFirestore) getFirestore(
+                ConfigFirestoreSettings.builder().databaseName(database).build());
+    }
+}
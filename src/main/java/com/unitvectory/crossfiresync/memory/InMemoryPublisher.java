@@ -0,0 +1,200 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.protobuf.Timestamp;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubMessage;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import lombok.NonNull;
+
+/**
+ * An in-memory CrossFireSyncPublish for tests and load experiments that need no network.
+ * 
+ * Published messages are assigned a message ID and publish time and queued in publish order, so
+ * messages with the same ordering key are always received in order. As with the Pub/Sub client,
+ * when a publish with an ordering key fails, later publishes with that ordering key fail until
+ * publishing is resumed for the key.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class InMemoryPublisher implements CrossFireSyncPublish {
+
+    private final String topic;
+
+    private final FaultInjector faults;
+
+    private final BlockingQueue<PubsubMessage> messages = new LinkedBlockingQueue<>();
+
+    private final Set<String> pausedOrderingKeys = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong messageIds = new AtomicLong();
+
+    /**
+     * Create a new InMemoryPublisher without latency or failures.
+     * 
+     * @param topic the topic name
+     */
+    public InMemoryPublisher(String topic) {
+        this(topic, FaultInjection.NONE);
+    }
+
+    /**
+     * Create a new InMemoryPublisher.
+     * 
+     * @param topic the topic name
+     * @param faults the latency and failures to inject
+     */
+    public InMemoryPublisher(String topic, @NonNull FaultInjection faults) {
+        this.topic = topic;
+        this.faults = new FaultInjector(faults);
+    }
+
+    /**
+     * Gets the topic name.
+     * 
+     * @return the topic name
+     */
+    public String getTopic() {
+        return this.topic;
+    }
+
+    @Override
+    public String publishMessage(PubsubMessage message) {
+        String orderingKey = message.getOrderingKey();
+        if (!orderingKey.isEmpty() && this.pausedOrderingKeys.contains(orderingKey)) {
+            throw new CrossFireSyncException("Failed to publish message.",
+                    new StatusRuntimeException(Status.FAILED_PRECONDITION
+                            .withDescription("Publishing paused for ordering key")));
+        }
+
+        try {
+            this.faults.operation("Failed to publish message.");
+        } catch (CrossFireSyncException e) {
+            if (!orderingKey.isEmpty()) {
+                this.pausedOrderingKeys.add(orderingKey);
+            }
+            throw e;
+        }
+
+        String messageId = Long.toString(this.messageIds.incrementAndGet());
+        long millis = System.currentTimeMillis();
+        this.messages.add(message.toBuilder().setMessageId(messageId)
+                .setPublishTime(Timestamp.newBuilder().setSeconds(millis / 1000)
+                        .setNanos((int) (millis % 1000) * 1000000))
+                .build());
+        return messageId;
+    }
+
+    /**
+     * Resume publishing for an ordering key after a failed publish.
+     * 
+     * @param orderingKey the ordering key
+     */
+    @Override
+    public void resumePublish(@NonNull String orderingKey) {
+        this.pausedOrderingKeys.remove(orderingKey);
+    }
+
+    /**
+     * Receive the next message.
+     * 
+     * @return the message; null if there are none
+     */
+    public PubsubMessage poll() {
+        return this.messages.poll();
+    }
+
+    /**
+     * Receive the next message, waiting for one to be published.
+     * 
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the message; null if none was published in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public PubsubMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.messages.poll(timeout, unit);
+    }
+
+    /**
+     * Receive all of the queued messages.
+     * 
+     * @return the messages in publish order
+     */
+    public List<PubsubMessage> drain() {
+        List<PubsubMessage> drained = new ArrayList<>();
+        this.messages.drainTo(drained);
+        return drained;
+    }
+
+    /**
+     * Gets the number of queued messages.
+     * 
+     * @return the number of queued messages
+     */
+    public int size() {
+        return this.messages.size();
+    }
+
+    /**
+     * Gets the number of messages published.
+     * 
+     * @return the number of messages published
+     */
+    public long getPublished() {
+        return this.messageIds.get();
+    }
+
+    /**
+     * Gets the number of injected failures.
+     * 
+     * @return the number of injected failures
+     */
+    public long getInjectedFailures() {
+        return this.faults.getInjectedFailures();
+    }
+
+    /**
+     * Convert a message to the push payload received by PubSubChangeConsumer.
+     * 
+     * @param message the message
+     * @return the push payload
+     */
+    public static PubSubPublish toPubSubPublish(@NonNull PubsubMessage message) {
+        PubSubMessage pubSubMessage = new PubSubMessage();
+        pubSubMessage.setAttributes(new HashMap<>(message.getAttributesMap()));
+        pubSubMessage.setData(Base64.getEncoder().encodeToString(message.getData().toByteArray()));
+        pubSubMessage.setMessageId(message.getMessageId());
+        pubSubMessage.setOrderingKey(message.getOrderingKey());
+
+        PubSubPublish publish = new PubSubPublish();
+        publish.setMessage(pubSubMessage);
+        return publish;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.unitvectory.crossfiresync.pubsub.ConfigPublisherFactory;
+import com.unitvectory.crossfiresync.pubsub.ConfigPublisherSettings;
+import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import lombok.NonNull;
+
+/**
+ * A ConfigPublisherFactory that provides an InMemoryPublisher for each topic.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class InMemoryPublisherFactory implements ConfigPublisherFactory {
+
+    private final FaultInjection faults;
+
+    private final Map<String, InMemoryPublisher> topics = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new InMemoryPublisherFactory without latency or failures.
+     */
+    public InMemoryPublisherFactory() {
+        this(FaultInjection.NONE);
+    }
+
+    /**
+     * Create a new InMemoryPublisherFactory.
+     * 
+     * @param faults the latency and failures to inject into every topic
+     */
+    public InMemoryPublisherFactory(@NonNull FaultInjection faults) {
+        this.faults = faults;
+    }
+
+    @Override
+    public CrossFireSyncPublish getPublisher(ConfigPublisherSettings settings) {
+        return getTopic(settings.getTopic());
+    }
+
+    /**
+     * Gets the topic, creating it if it does not exist.
+     * 
+     * @param topic the topic name
+     * @return the topic
+     */
+    public InMemoryPublisher getTopic(@NonNull String topic) {
+        return this.topics.computeIfAbsent(topic,
+                name -> new InMemoryPublisher(name, this.faults));
+    }
+}
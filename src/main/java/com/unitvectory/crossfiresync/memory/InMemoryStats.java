@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The operation counts of an InMemoryFirestore.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class InMemoryStats {
+
+    /**
+     * The number of documents read, including the reads in transactions and queries.
+     */
+    private final long reads;
+
+    /**
+     * The number of documents created or updated.
+     */
+    private final long writes;
+
+    /**
+     * The number of documents deleted.
+     */
+    private final long deletes;
+
+    /**
+     * The number of transactions committed or failed.
+     */
+    private final long transactions;
+
+    /**
+     * The number of transaction attempts aborted.
+     */
+    private final long aborts;
+
+    /**
+     * The number of writes rejected by a precondition.
+     */
+    private final long preconditionFailures;
+
+    /**
+     * The number of injected failures.
+     */
+    private final long injectedFailures;
+}
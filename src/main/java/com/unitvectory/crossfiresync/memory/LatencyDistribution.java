@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import java.time.Duration;
+import java.util.Random;
+import lombok.NonNull;
+
+/**
+ * The LatencyDistribution interface samples the latency injected into in-memory operations.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * Sample a latency.
+     * 
+     * @param random the random source
+     * @return the latency in nanoseconds
+     */
+    long sampleNanos(Random random);
+
+    /**
+     * No latency.
+     * 
+     * @return the distribution
+     */
+    static LatencyDistribution none() {
+        return random -> 0;
+    }
+
+    /**
+     * A fixed latency.
+     * 
+     * @param latency the latency
+     * @return the distribution
+     */
+    static LatencyDistribution fixed(@NonNull Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    /**
+     * A latency uniformly distributed between a minimum and maximum.
+     * 
+     * @param min the minimum latency
+     * @param max the maximum latency
+     * @return the distribution
+     */
+    static LatencyDistribution uniform(@NonNull Duration min, @NonNull Duration max) {
+        long minNanos = min.toNanos();
+        long range = Math.max(0, max.toNanos() - minNanos);
+        return random -> minNanos + (long) (random.nextDouble() * range);
+    }
+
+    /**
+     * An exponentially distributed latency, such as the time between independent events.
+     * 
+     * @param mean the mean latency
+     * @return the distribution
+     */
+    static LatencyDistribution exponential(@NonNull Duration mean) {
+        long meanNanos = mean.toNanos();
+        return random -> (long) (-Math.log(1 - random.nextDouble()) * meanNanos);
+    }
+
+    /**
+     * A log-normally distributed latency, the usual shape of network latency with a long tail.
+     * 
+     * @param median the median latency
+     * @param sigma the standard deviation of the logarithm; larger values give a longer tail
+     * @return the distribution
+     */
+    static LatencyDistribution logNormal(@NonNull Duration median, double sigma) {
+        double mu = Math.log(Math.max(1, median.toNanos()));
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+}
@@ -14,6 +14,7 @@
 package com.unitvectory.crossfiresync.pubsub;
 
 import com.unitvectory.crossfiresync.FirestoreChangeConfig;
+import com.unitvectory.crossfiresync.config.TransportSettings;
 import lombok.Builder;
 import lombok.Value;
 
@@ -36,6 +37,30 @@ public class ConfigPublisherSettings {
      */
     private final String topic;
 
+    /**
+     * Enable message ordering; the document path is used as the ordering key.
+     */
+    @Builder.Default
+    private final boolean messageOrdering = true;
+
+    /**
+     * The limits on the outstanding messages.
+     */
+    @Builder.Default
+    private final FlowControlSettings flowControl = FlowControlSettings.NONE;
+
+    /**
+     * The spool for the messages that cannot be published; null to not spool them.
+     */
+    @Builder.Default
+    private final SpoolSettings spool = null;
+
+    /**
+     * The tuning of the gRPC transport and the batching of the messages.
+     */
+    @Builder.Default
+    private final TransportSettings transport = TransportSettings.NONE;
+
     /**
      * Builds the publisher settings from the Firestore change configuration.
      * 
@@ -44,6 +69,8 @@ public class ConfigPublisherSettings {
      */
     public static ConfigPublisherSettings build(FirestoreChangeConfig config) {
         return ConfigPublisherSettings.builder().project(config.getProject())
-                .topic(config.getTopic()).build();
+                .topic(config.getTopic()).messageOrdering(!config.isUnorderedDelivery())
+                .flowControl(config.getFlowControl())
+                .spool(config.getSpool()).transport(config.getTransport()).build();
     }
 }
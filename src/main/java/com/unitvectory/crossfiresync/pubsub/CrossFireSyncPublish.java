@@ -13,6 +13,7 @@
  */
 package com.unitvectory.crossfiresync.pubsub;
 
+import java.util.concurrent.CompletableFuture;
 import com.google.pubsub.v1.PubsubMessage;
 
 /**
@@ -22,11 +23,66 @@ import com.google.pubsub.v1.PubsubMessage;
  */
 public interface CrossFireSyncPublish {
 
+    /**
+     * The result of a publish that was dropped because a newer change to the same document
+     * replaced it, so the message was not published.
+     */
+    String SUPERSEDED = "crossfiresync:superseded";
+
     /**
      * Publish the message to Pub/Sub
      * 
      * @param message the message
-     * @return the message ID
+     * @return the message ID; SUPERSEDED if the message was not published as a newer change to
+     *         the same document replaced it
      */
     String publishMessage(PubsubMessage message);
+
+    /**
+     * Publish the message to Pub/Sub without waiting for it to be sent. Messages published this
+     * way may be held to be sent together until flush() is called.
+     * 
+     * @param message the message
+     * @return the future of the message ID; SUPERSEDED if the message was not published as a
+     *         newer change to the same document replaced it
+     */
+    default CompletableFuture<String> publishMessageAsync(PubsubMessage message) {
+        try {
+            return CompletableFuture.completedFuture(publishMessage(message));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Send the messages published with publishMessageAsync that are being held.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Resume publishing for an ordering key after a failed publish paused it.
+     * 
+     * @param orderingKey the ordering key
+     */
+    default void resumePublish(String orderingKey) {
+    }
+
+    /**
+     * Gets the statistics of the flow control on the outstanding messages.
+     * 
+     * @return the statistics, or null if the outstanding messages are not limited
+     */
+    default FlowControlStats getFlowControlStats() {
+        return null;
+    }
+
+    /**
+     * Gets the statistics of the spool of the messages that could not be published.
+     * 
+     * @return the statistics, or null if messages are not spooled
+     */
+    default SpoolStats getSpoolStats() {
+        return null;
+    }
 }
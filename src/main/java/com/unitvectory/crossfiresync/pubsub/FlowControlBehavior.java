@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+/**
+ * The FlowControlBehavior specifies what a publish does when the outstanding messages or bytes
+ * are at their limit.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public enum FlowControlBehavior {
+
+    /**
+     * Wait until earlier publishes complete.
+     */
+    BLOCK,
+
+    /**
+     * Fail the publish immediately so the event is retried or redelivered.
+     */
+    FAIL_FAST,
+
+    /**
+     * Wait until earlier publishes complete, but a waiting publish is dropped when a newer change
+     * to the same document path arrives as the newer change replaces it. Changes are compared by
+     * the update time in their event, so an older change delivered late is the one dropped, and a
+     * dropped change is reported as not published.
+     */
+    SHED_SUPERSEDED,
+
+    ;
+
+    /**
+     * Parse the FlowControlBehavior, but if the value is invalid BLOCK will be used
+     * 
+     * @param value the value
+     * @return the FlowControlBehavior
+     */
+    public static FlowControlBehavior parseFallbackToBlock(String value) {
+        if (value == null) {
+            return BLOCK;
+        }
+
+        try {
+            return FlowControlBehavior.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return BLOCK;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The limits on the messages a publisher has outstanding.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class FlowControlSettings {
+
+    /**
+     * No limits on the outstanding messages.
+     */
+    public static final FlowControlSettings NONE = FlowControlSettings.builder().build();
+
+    /**
+     * The maximum number of messages outstanding; 0 for no limit.
+     */
+    @Builder.Default
+    private final int maxOutstandingMessages = 0;
+
+    /**
+     * The maximum number of bytes outstanding; 0 for no limit.
+     */
+    @Builder.Default
+    private final long maxOutstandingBytes = 0;
+
+    /**
+     * What a publish does when a limit is reached.
+     */
+    @Builder.Default
+    private final FlowControlBehavior behavior = FlowControlBehavior.BLOCK;
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a FlowController.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class FlowControlStats {
+
+    /**
+     * The number of messages currently outstanding.
+     */
+    private final int outstandingMessages;
+
+    /**
+     * The number of bytes currently outstanding.
+     */
+    private final long outstandingBytes;
+
+    /**
+     * The number of publishes currently waiting for capacity.
+     */
+    private final int waiting;
+
+    /**
+     * The number of publishes that had to wait for capacity.
+     */
+    private final long blocked;
+
+    /**
+     * The total time publishes spent waiting for capacity in nanoseconds.
+     */
+    private final long blockedNanos;
+
+    /**
+     * The number of publishes failed because a limit was reached.
+     */
+    private final long rejected;
+
+    /**
+     * The number of waiting publishes dropped because a newer change to the same document
+     * arrived.
+     */
+    private final long shed;
+}
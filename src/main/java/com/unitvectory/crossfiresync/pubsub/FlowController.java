@@ -0,0 +1,258 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * The FlowController keeps the messages a publisher has outstanding within a fixed number of
+ * messages and bytes.
+ * 
+ * A publish acquires capacity for its message before it is sent and releases it once Pub/Sub
+ * acknowledges it, so a slow Pub/Sub backend applies backpressure to the events being published
+ * instead of growing the memory of the publisher. A single message larger than the byte limit is
+ * allowed when nothing else is outstanding so it cannot wait forever.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FlowController {
+
+    /**
+     * The order of a change that is not known, so a later publish is taken to be the newer change.
+     */
+    public static final long ARRIVAL_ORDER = Long.MIN_VALUE;
+
+    private final int maxMessages;
+
+    private final long maxBytes;
+
+    private final FlowControlBehavior behavior;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private final Condition released = this.lock.newCondition();
+
+    private final Map<String, Waiter> waiters = new HashMap<>();
+
+    private int messages;
+
+    private long bytes;
+
+    private int waiting;
+
+    private long blocked;
+
+    private long blockedNanos;
+
+    private long rejected;
+
+    private long shed;
+
+    /**
+     * Create a new FlowController.
+     * 
+     * @param settings the limits
+     */
+    public FlowController(@NonNull FlowControlSettings settings) {
+        this.maxMessages = Math.max(0, settings.getMaxOutstandingMessages());
+        this.maxBytes = Math.max(0, settings.getMaxOutstandingBytes());
+        this.behavior = settings.getBehavior();
+    }
+
+    /**
+     * Checks if the controller limits anything.
+     * 
+     * @return true if there is a limit on the messages or bytes
+     */
+    public boolean isEnabled() {
+        return this.maxMessages > 0 || this.maxBytes > 0;
+    }
+
+    /**
+     * Checks if waiting changes are dropped when a newer change to the same document arrives.
+     * 
+     * @return true if the behavior is SHED_SUPERSEDED and there is a limit
+     */
+    public boolean isShedding() {
+        return isEnabled() && FlowControlBehavior.SHED_SUPERSEDED.equals(this.behavior);
+    }
+
+    /**
+     * Acquire capacity for a message whose order is not known, waiting or failing according to the
+     * behavior.
+     * 
+     * @param orderingKey the ordering key of the message, the document path; empty when unordered
+     * @param size the size of the message in bytes
+     * @return true if capacity was acquired and must be released; false if the message was
+     *         superseded by a newer change to the same document and must not be published
+     * @throws CrossFireSyncException if a limit is reached with FAIL_FAST or interrupted waiting
+     */
+    public boolean acquire(String orderingKey, long size) {
+        return acquire(orderingKey, ARRIVAL_ORDER, size);
+    }
+
+    /**
+     * Acquire capacity for a message, waiting or failing according to the behavior.
+     * 
+     * With SHED_SUPERSEDED a change waiting for capacity is dropped when a newer change to the
+     * same document arrives, and a change that arrives while a newer one is waiting is dropped
+     * right away. Changes are compared by their order, and by arrival when it is not known.
+     * 
+     * @param orderingKey the ordering key of the message, the document path; empty when unordered
+     * @param changeOrder the order of the change to the document, increasing with each change;
+     *        ARRIVAL_ORDER if not known
+     * @param size the size of the message in bytes
+     * @return true if capacity was acquired and must be released; false if the message was
+     *         superseded by a newer change to the same document and must not be published
+     * @throws CrossFireSyncException if a limit is reached with FAIL_FAST or interrupted waiting
+     */
+    public boolean acquire(String orderingKey, long changeOrder, long size) {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        this.lock.lock();
+        try {
+            boolean shedding = orderingKey != null && !orderingKey.isEmpty()
+                    && FlowControlBehavior.SHED_SUPERSEDED.equals(this.behavior);
+            if (shedding) {
+                Waiter waiting = this.waiters.get(orderingKey);
+                if (waiting != null && changeOrder != ARRIVAL_ORDER
+                        && waiting.changeOrder != ARRIVAL_ORDER
+                        && changeOrder <= waiting.changeOrder) {
+                    // A newer change to the same document is already waiting to replace this one
+                    this.shed++;
+                    return false;
+                } else if (waiting != null) {
+                    // This change replaces an older change to the same document still waiting
+                    this.waiters.remove(orderingKey);
+                    waiting.superseded = true;
+                    this.released.signalAll();
+                }
+            }
+
+            if (hasCapacity(size)) {
+                take(size);
+                return true;
+            }
+
+            if (FlowControlBehavior.FAIL_FAST.equals(this.behavior)) {
+                this.rejected++;
+                throw new CrossFireSyncException("Publisher flow control limit reached.", null);
+            }
+
+            Waiter waiter = new Waiter(changeOrder);
+            if (shedding) {
+                this.waiters.put(orderingKey, waiter);
+            }
+
+            this.waiting++;
+            this.blocked++;
+            long start = System.nanoTime();
+            try {
+                while (!waiter.superseded && !hasCapacity(size)) {
+                    this.released.await();
+                }
+
+                if (waiter.superseded) {
+                    this.shed++;
+                    return false;
+                }
+
+                take(size);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CrossFireSyncException("Interrupted waiting for publisher capacity.", e);
+            } finally {
+                this.waiting--;
+                this.blockedNanos += System.nanoTime() - start;
+                if (shedding) {
+                    this.waiters.remove(orderingKey, waiter);
+                }
+                // Wake the next waiter in case this one was superseded or left capacity
+                this.released.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Release the capacity acquired for a message once it is no longer outstanding.
+     * 
+     * @param size the size of the message in bytes
+     */
+    public void release(long size) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            this.messages--;
+            this.bytes -= size;
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the statistics of the controller.
+     * 
+     * @return the statistics
+     */
+    public FlowControlStats getStats() {
+        this.lock.lock();
+        try {
+            return FlowControlStats.builder().outstandingMessages(this.messages)
+                    .outstandingBytes(this.bytes).waiting(this.waiting).blocked(this.blocked)
+                    .blockedNanos(this.blockedNanos).rejected(this.rejected).shed(this.shed)
+                    .build();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean hasCapacity(long size) {
+        if (this.messages == 0) {
+            return true;
+        }
+
+        return (this.maxMessages == 0 || this.messages < this.maxMessages)
+                && (this.maxBytes == 0 || this.bytes + size <= this.maxBytes);
+    }
+
+    private void take(long size) {
+        this.messages++;
+        this.bytes += size;
+    }
+
+    private static final class Waiter {
+
+        private final long changeOrder;
+
+        private boolean superseded;
+
+        private Waiter(long changeOrder) {
+            this.changeOrder = changeOrder;
+        }
+    }
+}
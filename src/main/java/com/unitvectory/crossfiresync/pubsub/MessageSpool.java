@@ -0,0 +1,431 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * A durable first in, first out spool of Pub/Sub messages backed by memory-mapped segment files.
+ * 
+ * Each segment starts with a magic number, a version, and the offset of the next message to read.
+ * Each record is the length, the CRC32 of the message, and the serialized message; the length is
+ * written last and the segment is forced to disk so a record cut short by a crash is ignored when
+ * the spool is opened again. When a segment is full a new one is created, up to the maximum bytes,
+ * and a segment is deleted once every message in it has been read. The read offset is updated
+ * after each message is removed, so a crash can repeat the last message but never loses one.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class MessageSpool implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(MessageSpool.class.getName());
+
+    /**
+     * The magic number at the start of each segment, "CFSP"
+     */
+    static final int MAGIC = 0x43465350;
+
+    static final int VERSION = 1;
+
+    /**
+     * The bytes of the segment header: the magic, the version, the read offset, and reserved
+     */
+    static final int HEADER_BYTES = 16;
+
+    private static final int READ_OFFSET = 8;
+
+    /**
+     * The bytes before each message: the length and the CRC32
+     */
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private static final String PREFIX = "spool-";
+
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+
+    private final int segmentBytes;
+
+    private final long maxBytes;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSequence;
+
+    private long depth;
+
+    private long pendingBytes;
+
+    private long spooled;
+
+    private long drained;
+
+    private long rejected;
+
+    private long drainFailures;
+
+    private double drainRate;
+
+    /**
+     * Create a new MessageSpool, recovering the messages in existing segment files.
+     * 
+     * @param settings the settings
+     */
+    public MessageSpool(@NonNull SpoolSettings settings) {
+        this(Path.of(settings.getDirectory()), settings.getSegmentBytes(), settings.getMaxBytes());
+    }
+
+    /**
+     * Create a new MessageSpool, recovering the messages in existing segment files.
+     * 
+     * @param directory the directory of the segment files
+     * @param segmentBytes the size of each segment file in bytes
+     * @param maxBytes the maximum bytes of all of the segment files
+     */
+    public MessageSpool(@NonNull Path directory, int segmentBytes, long maxBytes) {
+        if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES || maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("Invalid spool sizes.");
+        }
+
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+
+        try {
+            Files.createDirectories(directory);
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> stream = Files.list(directory)) {
+                stream.filter(MessageSpool::isSegment).forEach(files::add);
+            }
+            files.sort((a, b) -> Long.compare(sequence(a), sequence(b)));
+
+            for (Path file : files) {
+                Segment segment = Segment.open(file);
+                if (segment == null) {
+                    logger.warning("Ignoring invalid spool segment: " + file);
+                    continue;
+                }
+
+                this.segments.add(segment);
+                this.depth += segment.pending;
+                this.pendingBytes += segment.pendingBytes;
+                this.nextSequence = sequence(file) + 1;
+            }
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to open spool.", e);
+        }
+
+        if (this.depth > 0) {
+            logger.info("Recovered " + this.depth + " spooled messages from " + directory);
+        }
+    }
+
+    /**
+     * Append a message to the spool.
+     * 
+     * @param message the message
+     * @return true if the message was spooled; false if the spool is full
+     */
+    public synchronized boolean append(@NonNull PubsubMessage message) {
+        byte[] data = message.toByteArray();
+        int needed = RECORD_HEADER_BYTES + data.length;
+        if (needed > this.segmentBytes - HEADER_BYTES) {
+            this.rejected++;
+            return false;
+        }
+
+        Segment tail = this.segments.peekLast();
+        if (tail == null || tail.remaining() < needed) {
+            if ((long) (this.segments.size() + 1) * this.segmentBytes > this.maxBytes) {
+                this.rejected++;
+                return false;
+            }
+
+            Path file = this.directory.resolve(PREFIX + this.nextSequence++ + SUFFIX);
+            try {
+                tail = Segment.create(file, this.segmentBytes);
+            } catch (IOException e) {
+                throw new CrossFireSyncException("Failed to create spool segment.", e);
+            }
+            this.segments.add(tail);
+        }
+
+        tail.write(data);
+        this.depth++;
+        this.pendingBytes += needed;
+        this.spooled++;
+        return true;
+    }
+
+    /**
+     * Gets the oldest message in the spool without removing it.
+     * 
+     * @return the message; null if the spool is empty
+     */
+    public synchronized PubsubMessage peek() {
+        Segment head = head();
+        if (head == null) {
+            return null;
+        }
+
+        try {
+            return PubsubMessage.parseFrom(head.read());
+        } catch (InvalidProtocolBufferException e) {
+            // The CRC matched so this is not expected; skip the message rather than block
+            logger.severe("Skipping unreadable spooled message in " + head.path);
+            remove();
+            return peek();
+        }
+    }
+
+    /**
+     * Remove the oldest message once it has been published.
+     */
+    public synchronized void remove() {
+        Segment head = head();
+        if (head == null) {
+            return;
+        }
+
+        this.pendingBytes -= head.advance();
+        this.depth--;
+        this.drained++;
+        head();
+    }
+
+    /**
+     * Checks if the spool is empty.
+     * 
+     * @return true if there are no messages waiting
+     */
+    public synchronized boolean isEmpty() {
+        return this.depth == 0;
+    }
+
+    /**
+     * Record the outcome of an attempt to drain the spool.
+     * 
+     * @param published the messages published
+     * @param elapsedNanos the time spent draining
+     * @param failed true if the drain stopped because a publish failed
+     */
+    synchronized void recordDrain(int published, long elapsedNanos, boolean failed) {
+        if (failed) {
+            this.drainFailures++;
+        }
+        if (published > 0) {
+            this.drainRate = published * 1_000_000_000.0 / Math.max(1, elapsedNanos);
+        }
+    }
+
+    /**
+     * Gets the statistics of the spool.
+     * 
+     * @return the statistics
+     */
+    public synchronized SpoolStats getStats() {
+        return SpoolStats.builder().depth(this.depth).pendingBytes(this.pendingBytes)
+                .segments(this.segments.size()).spooled(this.spooled).drained(this.drained)
+                .rejected(this.rejected).drainFailures(this.drainFailures)
+                .drainRate(this.drainRate).build();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : this.segments) {
+            segment.close();
+        }
+        this.segments.clear();
+    }
+
+    /**
+     * Gets the segment with the oldest message, deleting the segments before it that have been
+     * read; the last segment is kept for appending.
+     */
+    private Segment head() {
+        Segment head = this.segments.peekFirst();
+        while (head != null && head.pending == 0 && this.segments.size() > 1) {
+            this.segments.removeFirst();
+            head.delete();
+            head = this.segments.peekFirst();
+        }
+        return head == null || head.pending == 0 ? null : head;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX) && sequence(file) >= 0;
+    }
+
+    private static long sequence(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private int readOffset;
+
+        private int writeOffset;
+
+        private long pending;
+
+        private long pendingBytes;
+
+        private Segment(Path path, FileChannel channel, int size) throws IOException {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private static Segment create(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, channel, size);
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, VERSION);
+            segment.buffer.putInt(READ_OFFSET, HEADER_BYTES);
+            segment.buffer.force();
+            segment.readOffset = HEADER_BYTES;
+            segment.writeOffset = HEADER_BYTES;
+            return segment;
+        }
+
+        /**
+         * Open an existing segment, finding the end of the last complete record.
+         * 
+         * @return the segment; null if it is not a valid segment
+         */
+        private static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size <= HEADER_BYTES || size > Integer.MAX_VALUE) {
+                channel.close();
+                return null;
+            }
+
+            Segment segment = new Segment(path, channel, (int) size);
+            int readOffset = segment.buffer.getInt(READ_OFFSET);
+            if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION
+                    || readOffset < HEADER_BYTES || readOffset > size) {
+                segment.close();
+                return null;
+            }
+
+            segment.readOffset = readOffset;
+            int offset = readOffset;
+            while (offset + RECORD_HEADER_BYTES <= size) {
+                int length = segment.buffer.getInt(offset);
+                if (length <= 0 || offset + RECORD_HEADER_BYTES + length > size) {
+                    break;
+                }
+
+                byte[] data = new byte[length];
+                segment.buffer.get(offset + RECORD_HEADER_BYTES, data);
+                if (crc(data) != segment.buffer.getInt(offset + 4)) {
+                    break;
+                }
+
+                segment.pending++;
+                segment.pendingBytes += RECORD_HEADER_BYTES + length;
+                offset += RECORD_HEADER_BYTES + length;
+            }
+            segment.writeOffset = offset;
+            return segment;
+        }
+
+        private int remaining() {
+            return this.buffer.capacity() - this.writeOffset;
+        }
+
+        private void write(byte[] data) {
+            int offset = this.writeOffset;
+            this.buffer.put(offset + RECORD_HEADER_BYTES, data);
+            this.buffer.putInt(offset + 4, crc(data));
+            // The length makes the record visible so it is written last
+            this.buffer.putInt(offset, data.length);
+            this.buffer.force();
+            this.writeOffset = offset + RECORD_HEADER_BYTES + data.length;
+            this.pending++;
+            this.pendingBytes += RECORD_HEADER_BYTES + data.length;
+        }
+
+        private byte[] read() {
+            int length = this.buffer.getInt(this.readOffset);
+            byte[] data = new byte[length];
+            this.buffer.get(this.readOffset + RECORD_HEADER_BYTES, data);
+            return data;
+        }
+
+        private int advance() {
+            int bytes = RECORD_HEADER_BYTES + this.buffer.getInt(this.readOffset);
+            this.readOffset += bytes;
+            this.buffer.putInt(READ_OFFSET, this.readOffset);
+            this.pending--;
+            this.pendingBytes -= bytes;
+            return bytes;
+        }
+
+        private void close() {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close spool segment: " + this.path);
+            }
+        }
+
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(this.path);
+            } catch (IOException e) {
+                logger.warning("Failed to delete spool segment: " + this.path);
+            }
+        }
+    }
+}
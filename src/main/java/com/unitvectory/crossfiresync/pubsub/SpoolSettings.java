@@ -0,0 +1,52 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * The configuration of the spool messages are written to when they cannot be published.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder(toBuilder = true)
+public class SpoolSettings {
+
+    /**
+     * The directory of the segment files.
+     */
+    @NonNull
+    private final String directory;
+
+    /**
+     * The size of each segment file in bytes.
+     */
+    @Builder.Default
+    private final int segmentBytes = 16 << 20;
+
+    /**
+     * The maximum bytes of all of the segment files.
+     */
+    @Builder.Default
+    private final long maxBytes = 1L << 30;
+
+    /**
+     * The interval between attempts to drain the spool in milliseconds.
+     */
+    @Builder.Default
+    private final long drainIntervalMillis = 1000;
+}
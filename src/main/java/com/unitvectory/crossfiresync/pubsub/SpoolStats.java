@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a MessageSpool.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class SpoolStats {
+
+    /**
+     * The number of messages waiting in the spool.
+     */
+    private final long depth;
+
+    /**
+     * The number of bytes of the messages waiting in the spool.
+     */
+    private final long pendingBytes;
+
+    /**
+     * The number of segment files.
+     */
+    private final int segments;
+
+    /**
+     * The number of messages written to the spool.
+     */
+    private final long spooled;
+
+    /**
+     * The number of messages drained from the spool and published.
+     */
+    private final long drained;
+
+    /**
+     * The number of messages that could not be spooled because the spool was full.
+     */
+    private final long rejected;
+
+    /**
+     * The number of drain attempts that stopped because a publish failed.
+     */
+    private final long drainFailures;
+
+    /**
+     * The messages per second published by the most recent drain that published any.
+     */
+    private final double drainRate;
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * A CrossFireSyncPublish that writes the messages it cannot publish to a MessageSpool and publishes
+ * them in the background once Pub/Sub recovers.
+ * 
+ * While the spool has messages waiting every new message is appended to it as well, so messages
+ * are published in the order they arrived and the order of each ordering key is kept. The check
+ * for waiting messages and the append are made under one lock, so a message is never appended
+ * ahead of one that found the spool waiting first. When the spool is full the publish fails as it
+ * would without a spool so the event is redelivered.
+ * 
+ * A failed publish pauses its ordering key in the Pub/Sub client. Once the message is spooled the
+ * spool keeps the order of the key, so publishing is resumed for the key after each failure and
+ * the next drain can publish it again.
+ * 
+ * A spooled message is acknowledged to the caller without a message ID, so the event that produced
+ * it is not redelivered and the spool is its only copy. The spool directory must therefore be on a
+ * persistent disk that outlives the process, and the process must keep running to drain it; the
+ * spool is not enabled on Cloud Functions, whose file system is in memory.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class SpoolingPublish implements CrossFireSyncPublish, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SpoolingPublish.class.getName());
+
+    private final CrossFireSyncPublish delegate;
+
+    private final MessageSpool spool;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Object spoolLock = new Object();
+
+    /**
+     * Create a new SpoolingPublish that drains the spool in the background.
+     * 
+     * @param delegate the publisher messages are published with
+     * @param spool the spool
+     * @param drainIntervalMillis the interval between attempts to drain the spool; 0 to only drain
+     *        when drain() is called
+     */
+    public SpoolingPublish(@NonNull CrossFireSyncPublish delegate, @NonNull MessageSpool spool,
+            long drainIntervalMillis) {
+        this.delegate = delegate;
+        this.spool = spool;
+
+        if (drainIntervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "crossfiresync-spool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::drainQuietly, drainIntervalMillis,
+                    drainIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Publish the message, or spool it if it cannot be published.
+     * 
+     * @param message the message
+     * @return the message ID; null if the message was spooled
+     */
+    @Override
+    public String publishMessage(PubsubMessage message) {
+        synchronized (this.spoolLock) {
+            if (!this.spool.isEmpty()) {
+                // Keep the order behind the messages already waiting
+                spool(message, null);
+                return null;
+            }
+        }
+
+        try {
+            return this.delegate.publishMessage(message);
+        } catch (RuntimeException e) {
+            this.delegate.resumePublish(message.getOrderingKey());
+            synchronized (this.spoolLock) {
+                spool(message, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Publish the message without waiting for it, or spool it if it cannot be published.
+     * 
+     * @param message the message
+     * @return the future of the message ID; null if the message was spooled
+     */
+    @Override
+    public CompletableFuture<String> publishMessageAsync(PubsubMessage message) {
+        synchronized (this.spoolLock) {
+            if (!this.spool.isEmpty()) {
+                // Keep the order behind the messages already waiting
+                try {
+                    spool(message, null);
+                } catch (RuntimeException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        return this.delegate.publishMessageAsync(message).handle((messageId, error) -> {
+            if (error == null) {
+                return messageId;
+            }
+
+            RuntimeException failure = error instanceof RuntimeException
+                    ? (RuntimeException) error
+                    : new CrossFireSyncException("Failed to publish message.", error);
+            this.delegate.resumePublish(message.getOrderingKey());
+            synchronized (this.spoolLock) {
+                spool(message, failure);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void flush() {
+        this.delegate.flush();
+    }
+
+    /**
+     * Publish the spooled messages in order until the spool is empty or a publish fails.
+     * 
+     * @return the number of messages published
+     */
+    public synchronized int drain() {
+        long start = System.nanoTime();
+        int published = 0;
+        boolean failed = false;
+
+        PubsubMessage message;
+        while ((message = this.spool.peek()) != null) {
+            try {
+                this.delegate.publishMessage(message);
+            } catch (RuntimeException e) {
+                logger.fine(() -> "Spool drain stopped, publish failed: " + e.getMessage());
+                this.delegate.resumePublish(message.getOrderingKey());
+                failed = true;
+                break;
+            }
+
+            synchronized (this.spoolLock) {
+                this.spool.remove();
+            }
+            published++;
+        }
+
+        this.spool.recordDrain(published, System.nanoTime() - start, failed);
+        if (published > 0 && !failed) {
+            logger.info("Drained " + published + " spooled messages");
+        }
+        return published;
+    }
+
+    /**
+     * Gets the statistics of the spool.
+     * 
+     * @return the statistics
+     */
+    @Override
+    public SpoolStats getSpoolStats() {
+        return this.spool.getStats();
+    }
+
+    @Override
+    public FlowControlStats getFlowControlStats() {
+        return this.delegate.getFlowControlStats();
+    }
+
+    @Override
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        this.spool.close();
+    }
+
+    private void spool(PubsubMessage message, RuntimeException failure) {
+        if (this.spool.append(message)) {
+            if (failure != null) {
+                logger.warning("Failed to publish, spooled message: " + message.getOrderingKey());
+            }
+            return;
+        }
+
+        logger.severe("Spool is full, message not spooled: " + message.getOrderingKey());
+        throw failure != null ? failure
+                : new CrossFireSyncException("Publisher spool is full.", null);
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to drain spool.", e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import java.time.Instant;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A change that could not be replicated and was handed to a dead-letter sink.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class DeadLetter {
+
+    /**
+     * The operation that failed, such as publish, update, deleteFlag, or delete.
+     */
+    private final String operation;
+
+    /**
+     * The document path.
+     */
+    private final String documentPath;
+
+    /**
+     * The database the change originated in.
+     */
+    private final String database;
+
+    /**
+     * The decoded change.
+     */
+    private final DocumentEventData change;
+
+    /**
+     * The classification of the last failure.
+     */
+    private final ErrorClassification classification;
+
+    /**
+     * The message of the last failure.
+     */
+    private final String error;
+
+    /**
+     * The number of attempts made.
+     */
+    private final int attempts;
+
+    /**
+     * The time the change was dead-lettered.
+     */
+    private final Instant timestamp;
+}
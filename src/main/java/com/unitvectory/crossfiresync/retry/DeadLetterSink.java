@@ -0,0 +1,32 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+/**
+ * The DeadLetterSink interface receives the changes that could not be replicated.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public interface DeadLetterSink {
+
+    /**
+     * Store the change that could not be replicated.
+     * 
+     * An exception thrown by the sink causes the original failure to be thrown so the change is
+     * redelivered instead.
+     * 
+     * @param deadLetter the dead letter
+     */
+    void deadLetter(DeadLetter deadLetter);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+/**
+ * The ErrorClassification is used to decide whether a failed operation should be retried.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public enum ErrorClassification {
+
+    /**
+     * A transient failure, such as an unavailable backend or deadline, that may succeed if retried.
+     */
+    RETRYABLE,
+
+    /**
+     * A transaction aborted because of contention with another write to the same document.
+     */
+    CONTENTION,
+
+    /**
+     * A failure that will not succeed if retried, such as an invalid argument or permission error.
+     */
+    PERMANENT,
+
+    ;
+
+    /**
+     * Test if an operation that failed with this classification may be retried.
+     * 
+     * @return true if the operation may be retried
+     */
+    public boolean isRetryable() {
+        return !PERMANENT.equals(this);
+    }
+}
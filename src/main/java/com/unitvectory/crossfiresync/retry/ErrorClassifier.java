@@ -0,0 +1,142 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import com.google.api.gax.rpc.ApiException;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+import lombok.experimental.UtilityClass;
+
+/**
+ * The ErrorClassifier utility class classifies the exceptions thrown by Firestore and Pub/Sub.
+ * 
+ * The cause chain is searched for a gRPC status code; exceptions without a status code are
+ * classified by their type.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@UtilityClass
+public class ErrorClassifier {
+
+    /**
+     * Classify an exception.
+     * 
+     * @param throwable the exception
+     * @return the classification
+     */
+    public static ErrorClassification classify(Throwable throwable) {
+        Throwable current = throwable;
+        while (current != null) {
+            if (current instanceof InterruptedException) {
+                return ErrorClassification.PERMANENT;
+            }
+
+            String code = ownStatusCode(current);
+            if (code != null) {
+                return classifyCode(code);
+            }
+
+            if (current.getCause() == current) {
+                break;
+            }
+            current = current.getCause();
+        }
+
+        return classifyType(throwable);
+    }
+
+    /**
+     * Gets the name of the first gRPC status code in the cause chain of an exception.
+     * 
+     * @param throwable the exception
+     * @return the status code name, such as ABORTED; null if there is none
+     */
+    public static String statusCode(Throwable throwable) {
+        Throwable current = throwable;
+        while (current != null) {
+            String code = ownStatusCode(current);
+            if (code != null) {
+                return code;
+            }
+
+            if (current.getCause() == current) {
+                break;
+            }
+            current = current.getCause();
+        }
+
+        return null;
+    }
+
+    /**
+     * Classify a gRPC status code by name.
+     * 
+     * @param code the status code name
+     * @return the classification
+     */
+    static ErrorClassification classifyCode(String code) {
+        switch (code) {
+            case "ABORTED":
+                return ErrorClassification.CONTENTION;
+            case "UNAVAILABLE":
+            case "DEADLINE_EXCEEDED":
+            case "INTERNAL":
+            case "RESOURCE_EXHAUSTED":
+            case "UNKNOWN":
+            case "CANCELLED":
+                return ErrorClassification.RETRYABLE;
+            default:
+                return ErrorClassification.PERMANENT;
+        }
+    }
+
+    private static String ownStatusCode(Throwable throwable) {
+        if (throwable instanceof ApiException) {
+            return ((ApiException) throwable).getStatusCode().getCode().name();
+        } else if (throwable instanceof StatusRuntimeException) {
+            return ((StatusRuntimeException) throwable).getStatus().getCode().name();
+        } else if (throwable instanceof StatusException) {
+            return ((StatusException) throwable).getStatus().getCode().name();
+        }
+        return null;
+    }
+
+    private static ErrorClassification classifyType(Throwable throwable) {
+        Throwable current = throwable;
+        while (current != null) {
+            if (current instanceof InvalidProtocolBufferException) {
+                return ErrorClassification.PERMANENT;
+            } else if (current instanceof TimeoutException || current instanceof IOException) {
+                return ErrorClassification.RETRYABLE;
+            } else if (current instanceof IllegalArgumentException
+                    || current instanceof IllegalStateException
+                    || current instanceof NullPointerException
+                    || current instanceof ClassCastException
+                    || current instanceof UnsupportedOperationException) {
+                return ErrorClassification.PERMANENT;
+            }
+
+            if (current.getCause() == current) {
+                break;
+            }
+            current = current.getCause();
+        }
+
+        // Unknown failures are retried, the attempt limit bounds the cost
+        return ErrorClassification.RETRYABLE;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.protobuf.TextFormat;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * A DeadLetterSink that appends each dead letter as a line of JSON to a local file.
+ * 
+ * The change is written both as protocol buffer text for reading and as base64 encoded bytes that
+ * can be published to the replication topic to replay it.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FileDeadLetterSink implements DeadLetterSink {
+
+    private static final Gson gson = new Gson();
+
+    private final Path file;
+
+    /**
+     * Create a new FileDeadLetterSink.
+     * 
+     * @param file the file to append to
+     */
+    public FileDeadLetterSink(@NonNull Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Create a new FileDeadLetterSink from a path.
+     * 
+     * @param path the path
+     * @return the sink; null if the path is not set
+     */
+    public static FileDeadLetterSink fromPath(String path) {
+        if (path == null || path.isBlank()) {
+            return null;
+        }
+
+        return new FileDeadLetterSink(Paths.get(path.trim()));
+    }
+
+    @Override
+    public synchronized void deadLetter(DeadLetter deadLetter) {
+        JsonObject json = new JsonObject();
+        json.addProperty("operation", deadLetter.getOperation());
+        json.addProperty("documentPath", deadLetter.getDocumentPath());
+        json.addProperty("database", deadLetter.getDatabase());
+        json.addProperty("classification", String.valueOf(deadLetter.getClassification()));
+        json.addProperty("error", deadLetter.getError());
+        json.addProperty("attempts", deadLetter.getAttempts());
+        json.addProperty("timestamp", String.valueOf(deadLetter.getTimestamp()));
+        if (deadLetter.getChange() != null) {
+            json.addProperty("change",
+                    TextFormat.printer().printToString(deadLetter.getChange()));
+            json.addProperty("data", Base64.getEncoder()
+                    .encodeToString(deadLetter.getChange().toByteArray()));
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(gson.toJson(json));
+            writer.newLine();
+        } catch (IOException e) {
+            throw new CrossFireSyncException("Failed to write dead letter.", e);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import lombok.NonNull;
+
+/**
+ * The RetryExecutor runs an operation retrying failures in process according to a RetryPolicy.
+ * 
+ * Retrying in process avoids the message being redelivered and parsed and converted again. When
+ * a change cannot be applied it is handed to the DeadLetterSink if one is configured, otherwise
+ * the failure is thrown so the message is redelivered. When the retry budget is empty the failure
+ * is always thrown because most operations are failing and dead-lettering them all would only
+ * move the outage into the sink.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class RetryExecutor {
+
+    private static final Logger logger = Logger.getLogger(RetryExecutor.class.getName());
+
+    /**
+     * The retry budget is tracked in thousandths of a token
+     */
+    private static final long TOKEN_SCALE = 1000;
+
+    private final RetryPolicy policy;
+
+    private final DeadLetterSink deadLetterSink;
+
+    private final long maxTokens;
+
+    private final long tokensPerSuccess;
+
+    private final AtomicLong tokens;
+
+    private final LongAdder operations = new LongAdder();
+
+    private final LongAdder attempts = new LongAdder();
+
+    private final LongAdder retryableRetries = new LongAdder();
+
+    private final LongAdder contentionRetries = new LongAdder();
+
+    private final LongAdder permanentFailures = new LongAdder();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    private final LongAdder deadLettered = new LongAdder();
+
+    private final LongAdder retryNanos = new LongAdder();
+
+    /**
+     * Create a new RetryExecutor.
+     * 
+     * @param policy the retry policy
+     * @param deadLetterSink the dead-letter sink; null to throw the failure instead
+     */
+    public RetryExecutor(@NonNull RetryPolicy policy, DeadLetterSink deadLetterSink) {
+        this.policy = policy;
+        this.deadLetterSink = deadLetterSink;
+        this.maxTokens = (long) (policy.getRetryBudgetTokens() * TOKEN_SCALE);
+        this.tokensPerSuccess = (long) (policy.getRetryBudgetRatio() * TOKEN_SCALE);
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    /**
+     * Run the operation, retrying failures.
+     * 
+     * @param action the operation
+     * @param deadLetter the dead letter describing the change, the failure details are added by
+     *        the executor
+     * @return true if the operation succeeded; false if it was dead-lettered
+     */
+    public boolean run(@NonNull Runnable action, @NonNull DeadLetter.DeadLetterBuilder deadLetter) {
+        this.operations.increment();
+
+        long failedAt = 0;
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            this.attempts.increment();
+
+            RuntimeException failure;
+            try {
+                action.run();
+                earnToken();
+                if (failedAt != 0) {
+                    this.retryNanos.add(System.nanoTime() - failedAt);
+                }
+                return true;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            if (failedAt == 0) {
+                failedAt = System.nanoTime();
+            }
+
+            ErrorClassification classification = ErrorClassifier.classify(failure);
+            if (!classification.isRetryable()) {
+                this.permanentFailures.increment();
+                return fail(failure, classification, attempt, failedAt, deadLetter);
+            } else if (attempt >= this.policy.getMaxAttempts()) {
+                this.exhausted.increment();
+                return fail(failure, classification, attempt, failedAt, deadLetter);
+            } else if (!spendToken()) {
+                this.budgetExhausted.increment();
+                this.retryNanos.add(System.nanoTime() - failedAt);
+                throw failure;
+            }
+
+            if (ErrorClassification.CONTENTION.equals(classification)) {
+                this.contentionRetries.increment();
+            } else {
+                this.retryableRetries.increment();
+            }
+
+            logger.fine("Retrying after " + classification + " failure, attempt " + attempt);
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoffMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.retryNanos.add(System.nanoTime() - failedAt);
+                throw new CrossFireSyncException("Interrupted while retrying.", failure);
+            }
+        }
+    }
+
+    /**
+     * Gets the statistics.
+     * 
+     * @return the statistics
+     */
+    public RetryStats getStats() {
+        return RetryStats.builder().operations(this.operations.sum()).attempts(this.attempts.sum())
+                .retryableRetries(this.retryableRetries.sum())
+                .contentionRetries(this.contentionRetries.sum())
+                .permanentFailures(this.permanentFailures.sum()).exhausted(this.exhausted.sum())
+                .budgetExhausted(this.budgetExhausted.sum()).deadLettered(this.deadLettered.sum())
+                .retryNanos(this.retryNanos.sum()).build();
+    }
+
+    /**
+     * Calculate the delay before a retry using exponential backoff with equal jitter.
+     * 
+     * @param attempt the attempt that failed, starting at 1
+     * @return the delay in milliseconds
+     */
+    long backoffMillis(int attempt) {
+        double delay = this.policy.getInitialBackoffMillis()
+                * Math.pow(this.policy.getBackoffMultiplier(), attempt - 1);
+        long capped = (long) Math.min(delay, this.policy.getMaxBackoffMillis());
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(capped - half + 1);
+    }
+
+    private boolean fail(RuntimeException failure, ErrorClassification classification,
+            int attempt, long failedAt, DeadLetter.DeadLetterBuilder deadLetter) {
+        if (attempt > 1) {
+            this.retryNanos.add(System.nanoTime() - failedAt);
+        }
+
+        if (this.deadLetterSink == null) {
+            throw failure;
+        }
+
+        DeadLetter letter = deadLetter.classification(classification)
+                .error(String.valueOf(failure.getMessage())).attempts(attempt)
+                .timestamp(Instant.now()).build();
+        try {
+            this.deadLetterSink.deadLetter(letter);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed to dead-letter " + letter.getDocumentPath(), e);
+            failure.addSuppressed(e);
+            throw failure;
+        }
+
+        this.deadLettered.increment();
+        logger.log(Level.WARNING, "Dead-lettered " + letter.getOperation() + " of "
+                + letter.getDocumentPath() + " after " + attempt + " attempts", failure);
+        return false;
+    }
+
+    private void earnToken() {
+        if (this.tokensPerSuccess <= 0) {
+            return;
+        }
+
+        long current;
+        do {
+            current = this.tokens.get();
+            if (current >= this.maxTokens) {
+                return;
+            }
+        } while (!this.tokens.compareAndSet(current,
+                Math.min(this.maxTokens, current + this.tokensPerSuccess)));
+    }
+
+    private boolean spendToken() {
+        long current;
+        do {
+            current = this.tokens.get();
+            if (current < TOKEN_SCALE) {
+                return false;
+            }
+        } while (!this.tokens.compareAndSet(current, current - TOKEN_SCALE));
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The policy for retrying failed operations in process.
+ * 
+ * The delay before each retry grows exponentially from the initial backoff up to the maximum
+ * backoff; a random jitter of up to half the delay is subtracted so instances retrying the same
+ * failure spread out. The retry budget stops retries when most operations are failing: each retry
+ * spends a token and each success earns a fraction of a token back.
+ * 
+ * The default policy makes a single attempt, leaving retries to Pub/Sub and Eventarc redelivery.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class RetryPolicy {
+
+    /**
+     * The maximum number of attempts including the first
+     */
+    @Builder.Default
+    private final int maxAttempts = 1;
+
+    /**
+     * The delay before the first retry in milliseconds
+     */
+    @Builder.Default
+    private final long initialBackoffMillis = 100;
+
+    /**
+     * The maximum delay between retries in milliseconds
+     */
+    @Builder.Default
+    private final long maxBackoffMillis = 5000;
+
+    /**
+     * The multiplier applied to the delay after each retry
+     */
+    @Builder.Default
+    private final double backoffMultiplier = 2.0;
+
+    /**
+     * The maximum number of retry tokens that can be saved up
+     */
+    @Builder.Default
+    private final double retryBudgetTokens = 10.0;
+
+    /**
+     * The fraction of a retry token earned by each successful operation
+     */
+    @Builder.Default
+    private final double retryBudgetRatio = 0.1;
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The statistics of a RetryExecutor.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class RetryStats {
+
+    /**
+     * The number of operations executed.
+     */
+    private final long operations;
+
+    /**
+     * The number of attempts made, including the first attempt of each operation.
+     */
+    private final long attempts;
+
+    /**
+     * The number of retries after a retryable failure.
+     */
+    private final long retryableRetries;
+
+    /**
+     * The number of retries after a contention failure.
+     */
+    private final long contentionRetries;
+
+    /**
+     * The number of operations that failed with a permanent error.
+     */
+    private final long permanentFailures;
+
+    /**
+     * The number of operations that failed after using all of their attempts.
+     */
+    private final long exhausted;
+
+    /**
+     * The number of retries skipped because the retry budget was empty.
+     */
+    private final long budgetExhausted;
+
+    /**
+     * The number of failed operations handed to the dead-letter sink.
+     */
+    private final long deadLettered;
+
+    /**
+     * The total time spent retrying in nanoseconds, from the first failure of an operation until
+     * it completed.
+     */
+    private final long retryNanos;
+}
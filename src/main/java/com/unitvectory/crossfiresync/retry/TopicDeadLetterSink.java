@@ -0,0 +1,55 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * A DeadLetterSink that publishes each dead letter to a Pub/Sub topic.
+ * 
+ * The message data is the change in the same format as the replication topic, with the failure
+ * details in the attributes, so the messages can be republished to the replication topic to replay
+ * them.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@AllArgsConstructor
+public class TopicDeadLetterSink implements DeadLetterSink {
+
+    @NonNull
+    private final CrossFireSyncPublish publisher;
+
+    @Override
+    public void deadLetter(DeadLetter deadLetter) {
+        PubsubMessage.Builder builder = PubsubMessage.newBuilder()
+                .putAttributes("database", String.valueOf(deadLetter.getDatabase()))
+                .putAttributes("documentPath", String.valueOf(deadLetter.getDocumentPath()))
+                .putAttributes("operation", String.valueOf(deadLetter.getOperation()))
+                .putAttributes("classification", String.valueOf(deadLetter.getClassification()))
+                .putAttributes("error", String.valueOf(deadLetter.getError()))
+                .putAttributes("attempts", Integer.toString(deadLetter.getAttempts()))
+                .putAttributes("timestamp", String.valueOf(deadLetter.getTimestamp()));
+        if (deadLetter.getChange() != null) {
+            builder.setData(deadLetter.getChange().toByteString());
+        } else {
+            builder.setData(ByteString.EMPTY);
+        }
+
+        this.publisher.publishMessage(builder.build());
+    }
+}
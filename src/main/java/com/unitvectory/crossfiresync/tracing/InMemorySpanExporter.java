@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SpanExporter that keeps the completed spans in memory, for tests.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class InMemorySpanExporter implements SpanExporter {
+
+    private final List<SpanData> spans = new ArrayList<>();
+
+    @Override
+    public synchronized void export(SpanData span) {
+        this.spans.add(span);
+    }
+
+    /**
+     * Gets the exported spans in the order they ended.
+     * 
+     * @return the spans
+     */
+    public synchronized List<SpanData> getSpans() {
+        return List.copyOf(this.spans);
+    }
+
+    /**
+     * Gets the exported spans with a name in the order they ended.
+     * 
+     * @param name the name
+     * @return the spans
+     */
+    public synchronized List<SpanData> getSpans(String name) {
+        List<SpanData> named = new ArrayList<>();
+        for (SpanData span : this.spans) {
+            if (span.getName().equals(name)) {
+                named.add(span);
+            }
+        }
+        return named;
+    }
+
+    /**
+     * Remove the exported spans.
+     */
+    public synchronized void clear() {
+        this.spans.clear();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation in a trace.
+ * 
+ * Spans from a disabled Tracer are the shared NOOP span, whose methods do nothing, so tracing
+ * calls cost no allocation when tracing is disabled. Check isRecording() before computing an
+ * attribute value that is expensive to build.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public final class Span {
+
+    /**
+     * The span that records nothing.
+     */
+    public static final Span NOOP = new Span(null, null, null, null);
+
+    private final Tracer tracer;
+
+    private final SpanContext context;
+
+    private final String parentSpanId;
+
+    private final String name;
+
+    private final long startEpochNanos;
+
+    private final long startNanos;
+
+    private Map<String, String> attributes;
+
+    private String error;
+
+    private boolean ended;
+
+    Span(Tracer tracer, SpanContext context, String parentSpanId, String name) {
+        this.tracer = tracer;
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        if (tracer != null) {
+            Instant now = Instant.now();
+            this.startEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+            this.startNanos = System.nanoTime();
+        } else {
+            this.startEpochNanos = 0;
+            this.startNanos = 0;
+        }
+    }
+
+    /**
+     * Checks if the span is recorded.
+     * 
+     * @return true if the span is exported when it ends
+     */
+    public boolean isRecording() {
+        return this.tracer != null;
+    }
+
+    /**
+     * Gets the context to propagate so the trace can be continued.
+     * 
+     * @return the context; null for the NOOP span
+     */
+    public SpanContext getContext() {
+        return this.context;
+    }
+
+    /**
+     * Start a child span.
+     * 
+     * @param name the name of the child span
+     * @return the child span
+     */
+    public Span startChild(String name) {
+        if (this.tracer == null) {
+            return NOOP;
+        }
+
+        return new Span(this.tracer, new SpanContext(this.context.getTraceId(), Tracer.newSpanId()),
+                this.context.getSpanId(), name);
+    }
+
+    /**
+     * Set an attribute.
+     * 
+     * @param key the key
+     * @param value the value
+     * @return this span
+     */
+    public Span setAttribute(String key, String value) {
+        if (this.tracer != null) {
+            synchronized (this) {
+                if (this.attributes == null) {
+                    this.attributes = new LinkedHashMap<>();
+                }
+                this.attributes.put(key, value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Set an attribute.
+     * 
+     * @param key the key
+     * @param value the value
+     * @return this span
+     */
+    public Span setAttribute(String key, long value) {
+        if (this.tracer != null) {
+            setAttribute(key, Long.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Record the error the span failed with.
+     * 
+     * @param error the error
+     */
+    public void recordError(Throwable error) {
+        if (this.tracer != null) {
+            synchronized (this) {
+                this.error = error.toString();
+            }
+        }
+    }
+
+    /**
+     * End the span and export it; ending a span again has no effect.
+     */
+    public void end() {
+        if (this.tracer == null) {
+            return;
+        }
+
+        SpanData data;
+        synchronized (this) {
+            if (this.ended) {
+                return;
+            }
+            this.ended = true;
+
+            data = SpanData.builder().traceId(this.context.getTraceId())
+                    .spanId(this.context.getSpanId()).parentSpanId(this.parentSpanId)
+                    .name(this.name).startEpochNanos(this.startEpochNanos)
+                    .durationNanos(System.nanoTime() - this.startNanos)
+                    .attributes(this.attributes == null ? Collections.emptyMap()
+                            : Collections.unmodifiableMap(this.attributes))
+                    .error(this.error).build();
+        }
+
+        this.tracer.export(data);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * The identifiers of a span that are propagated to continue its trace, encoded as a W3C
+ * traceparent.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+public class SpanContext {
+
+    /**
+     * The name of the Pub/Sub message attribute the trace context is propagated in.
+     */
+    public static final String TRACEPARENT = "traceparent";
+
+    /**
+     * The trace id, 32 lowercase hex characters.
+     */
+    @NonNull
+    private final String traceId;
+
+    /**
+     * The span id, 16 lowercase hex characters.
+     */
+    @NonNull
+    private final String spanId;
+
+    /**
+     * Encode the context as a W3C traceparent with the sampled flag set.
+     * 
+     * @return the traceparent
+     */
+    public String toTraceparent() {
+        return "00-" + this.traceId + "-" + this.spanId + "-01";
+    }
+
+    /**
+     * Parse a W3C traceparent.
+     * 
+     * @param traceparent the traceparent
+     * @return the context; null if the traceparent is missing or invalid
+     */
+    public static SpanContext fromTraceparent(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55 || traceparent.charAt(2) != '-'
+                || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-'
+                || "ff".equals(traceparent.substring(0, 2))) {
+            return null;
+        }
+
+        String traceId = traceparent.substring(3, 35);
+        String spanId = traceparent.substring(36, 52);
+        if (!isHex(traceparent) || isZero(traceId) || isZero(spanId)) {
+            return null;
+        }
+
+        return new SpanContext(traceId, spanId);
+    }
+
+    private static boolean isHex(String traceparent) {
+        for (int i = 0; i < traceparent.length(); i++) {
+            char c = traceparent.charAt(i);
+            if (c != '-' && (c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+import java.util.Map;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A completed span passed to a SpanExporter.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@Value
+@Builder
+public class SpanData {
+
+    /**
+     * The trace id.
+     */
+    private final String traceId;
+
+    /**
+     * The span id.
+     */
+    private final String spanId;
+
+    /**
+     * The span id of the parent; null for the root of a trace.
+     */
+    private final String parentSpanId;
+
+    /**
+     * The name of the span.
+     */
+    private final String name;
+
+    /**
+     * The start of the span in nanoseconds since the epoch.
+     */
+    private final long startEpochNanos;
+
+    /**
+     * The duration of the span in nanoseconds.
+     */
+    private final long durationNanos;
+
+    /**
+     * The attributes of the span.
+     */
+    private final Map<String, String> attributes;
+
+    /**
+     * The error the span failed with; null if it did not fail.
+     */
+    private final String error;
+}
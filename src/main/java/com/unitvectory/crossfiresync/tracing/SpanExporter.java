@@ -0,0 +1,33 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+/**
+ * The SpanExporter receives each completed span.
+ * 
+ * Implement this interface to send spans to a tracing backend. Spans are exported on the thread
+ * that ends them so implementations should buffer rather than block.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+@FunctionalInterface
+public interface SpanExporter {
+
+    /**
+     * Export a completed span.
+     * 
+     * @param span the span
+     */
+    void export(SpanData span);
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.protobuf.Timestamp;
+import lombok.NonNull;
+
+/**
+ * The Tracer starts the spans of the publisher and consumer and sends them to a SpanExporter when
+ * they end.
+ * 
+ * The publisher starts a trace for each event and propagates it to the consumer in the
+ * traceparent attribute of the Pub/Sub message, so the time between the commit in one region and
+ * the apply in another can be broken down. The NOOP tracer is the default; it returns the NOOP
+ * span without reading the propagated context.
+ * 
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class Tracer {
+
+    private static final Logger logger = Logger.getLogger(Tracer.class.getName());
+
+    /**
+     * The tracer that records nothing.
+     */
+    public static final Tracer NOOP = new Tracer();
+
+    private final SpanExporter exporter;
+
+    private Tracer() {
+        this.exporter = null;
+    }
+
+    /**
+     * Create a new Tracer.
+     * 
+     * @param exporter the exporter the completed spans are sent to
+     */
+    public Tracer(@NonNull SpanExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * Checks if spans are recorded.
+     * 
+     * @return true if spans are exported
+     */
+    public boolean isEnabled() {
+        return this.exporter != null;
+    }
+
+    /**
+     * Start a span that begins a new trace.
+     * 
+     * @param name the name of the span
+     * @return the span
+     */
+    public Span startSpan(String name) {
+        return startSpan(name, (SpanContext) null);
+    }
+
+    /**
+     * Start a span that continues a propagated trace.
+     * 
+     * @param name the name of the span
+     * @param traceparent the propagated W3C traceparent; a new trace is started if it is missing
+     *        or invalid
+     * @return the span
+     */
+    public Span startSpan(String name, String traceparent) {
+        if (this.exporter == null) {
+            return Span.NOOP;
+        }
+
+        return startSpan(name, SpanContext.fromTraceparent(traceparent));
+    }
+
+    /**
+     * Start a span.
+     * 
+     * @param name the name of the span
+     * @param parent the context of the parent span; null to start a new trace
+     * @return the span
+     */
+    public Span startSpan(String name, SpanContext parent) {
+        if (this.exporter == null) {
+            return Span.NOOP;
+        }
+
+        if (parent == null) {
+            return new Span(this, new SpanContext(newTraceId(), newSpanId()), null, name);
+        }
+
+        return new Span(this, new SpanContext(parent.getTraceId(), newSpanId()),
+                parent.getSpanId(), name);
+    }
+
+    /**
+     * Export a completed span, failures are logged and do not fail the traced operation.
+     * 
+     * @param span the span
+     */
+    void export(SpanData span) {
+        try {
+            this.exporter.export(span);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to export span.", e);
+        }
+    }
+
+    /**
+     * Convert a timestamp to microseconds since the epoch for a span attribute.
+     * 
+     * @param timestamp the timestamp
+     * @return the microseconds since the epoch
+     */
+    public static long epochMicros(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000L + timestamp.getNanos() / 1000;
+    }
+
+    /**
+     * Gets the current time in microseconds since the epoch for a span attribute.
+     * 
+     * @return the microseconds since the epoch
+     */
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1000;
+    }
+
+    static String newTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return hex(random.nextLong(), random.nextLong() | 1);
+    }
+
+    static String newSpanId() {
+        return hex(ThreadLocalRandom.current().nextLong() | 1);
+    }
+
+    private static String hex(long... values) {
+        StringBuilder builder = new StringBuilder(values.length * 16);
+        for (long value : values) {
+            String digits = Long.toHexString(value);
+            for (int i = digits.length(); i < 16; i++) {
+                builder.append('0');
+            }
+            builder.append(digits);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubMessage;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+
+/**
+ * Checks the bytes allocated per event by the replication hot paths against the budgets in
+ * allocation/budgets.properties, using the allocation counter of the current thread.
+ *
+ * The Firestore and Pub/Sub backends do nothing so only the replication code is measured, and
+ * logging is limited to warnings as its allocation depends on the handlers configured.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class AllocationBudgetTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int WARMUP = 5000;
+
+    private static final int ITERATIONS = 2000;
+
+    private static final String[] LOGGERS = {FirestoreChangePublisher.class.getName(),
+            PubSubChangeConsumer.class.getName()};
+
+    private static Properties budgets;
+
+    private static Level[] levels;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        budgets = new Properties();
+        try (InputStream in =
+                AllocationBudgetTest.class.getResourceAsStream("/allocation/budgets.properties")) {
+            assertNotNull(in);
+            budgets.load(in);
+        }
+
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (!threads.isThreadAllocatedMemorySupported()) {
+                threads = null;
+            } else {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+
+        levels = new Level[LOGGERS.length];
+        for (int i = 0; i < LOGGERS.length; i++) {
+            Logger logger = Logger.getLogger(LOGGERS[i]);
+            levels[i] = logger.getLevel();
+            logger.setLevel(Level.WARNING);
+        }
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        for (int i = 0; i < LOGGERS.length; i++) {
+            Logger.getLogger(LOGGERS[i]).setLevel(levels[i]);
+        }
+    }
+
+    private static JsonNode fixture(String resource) throws Exception {
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream(resource)) {
+            return mapper.readTree(in);
+        }
+    }
+
+    /**
+     * Measure the bytes allocated per run after warming up and check it against the budget.
+     */
+    private static void checkBudget(String name, Runnable event) {
+        assumeTrue(threads != null, "Thread allocation counters are not supported");
+
+        for (int i = 0; i < WARMUP; i++) {
+            event.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) {
+            event.run();
+        }
+        long perEvent = (threads.getThreadAllocatedBytes(thread) - before) / ITERATIONS;
+
+        long budget = Long.parseLong(budgets.getProperty(name));
+        double tolerance = Double.parseDouble(budgets.getProperty("tolerance"));
+        assertTrue(perEvent <= budget * (1 + tolerance), name + " allocated " + perEvent
+                + " bytes per event, over the budget of " + budget);
+    }
+
+    /**
+     * An in-memory database whose replication writes do nothing.
+     */
+    private static InMemoryFirestore noopFirestore(String database) {
+        return new InMemoryFirestore(database) {
+
+            @Override
+            public boolean updateTransaction(DocumentReference documentReference,
+                    Timestamp updatedTime, Map<String, Object> record) {
+                return true;
+            }
+
+            @Override
+            public boolean deleteFlagTransaction(DocumentReference documentReference,
+                    Map<String, Object> updates) {
+                return true;
+            }
+
+            @Override
+            public void deleteDocument(String documentPath) {}
+        };
+    }
+
+    @Test
+    public void publisherProcessTest() throws Exception {
+        byte[] data = Base64.getDecoder()
+                .decode(fixture("/publisher/insertNoFields.json").get("input").get("protobuf")
+                        .asText());
+        DocumentEventData firestoreEventData = DocumentEventData.parseFrom(data);
+
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .databaseName("west").topic("topic")
+                .firestoreFactory(settings -> noopFirestore(settings.getDatabaseName()))
+                .publisherFactory(settings -> message -> "1").captureLog(null)
+                .deadLetterSink(null).build());
+
+        checkBudget("publisher.process", () -> publisher.process(firestoreEventData, data));
+    }
+
+    @Test
+    public void shouldReplicateTest() throws Exception {
+        DocumentEventData firestoreEventData = DocumentEventData.parseFrom(Base64.getDecoder()
+                .decode(fixture("/shouldReplicate/editWithFields.json").get("input").asText()));
+
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .databaseName("east4").topic("topic")
+                .firestoreFactory(settings -> noopFirestore(settings.getDatabaseName()))
+                .publisherFactory(settings -> message -> "1").captureLog(null)
+                .deadLetterSink(null).build());
+
+        checkBudget("publisher.shouldReplicate",
+                () -> publisher.shouldReplicate(firestoreEventData));
+    }
+
+    @Test
+    public void consumerProcessTest() throws Exception {
+        JsonNode input = fixture("/consumer/complexDocument.json").get("input");
+        PubSubPublish publish = new PubSubPublish();
+        publish.setMessage(mapper.treeToValue(input.get("message"), PubSubMessage.class));
+
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.valueOf(input.get("replicationMode").asText()))
+                .databaseName("east4")
+                .firestoreFactory(settings -> noopFirestore(settings.getDatabaseName()))
+                .captureLog(null).deadLetterSink(null).build());
+
+        checkBudget("consumer.process", () -> {
+            try {
+                consumer.process(publish);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.unitvectory.crossfiresync.Divergence.DivergenceType;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+
+/**
+ * The AntiEntropyScanner test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class AntiEntropyScannerTest {
+
+    private static final Timestamp TIME = Timestamp.ofTimeSecondsAndNanos(100, 0);
+
+    private static FirestoreDocument document(String path, Map<String, Object> data) {
+        return FirestoreDocument.builder().documentPath(path).data(data).updateTime(TIME).build();
+    }
+
+    private static List<FirestoreDocument> documents(int count) {
+        List<FirestoreDocument> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(document(String.format("test/%05d", i), Map.of("value", (long) i)));
+        }
+        return documents;
+    }
+
+    private static void list(CrossFireSyncFirestore firestore, List<FirestoreDocument> documents) {
+        when(firestore.listDocuments(eq("test"), any(), anyInt())).thenAnswer(invocation -> {
+            String afterDocumentPath = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            int start = 0;
+            if (afterDocumentPath != null) {
+                while (start < documents.size()
+                        && !documents.get(start).getDocumentPath().equals(afterDocumentPath)) {
+                    start++;
+                }
+                start++;
+            }
+            return documents.subList(start, Math.min(documents.size(), start + limit));
+        });
+    }
+
+    private static AntiEntropyScanner scanner(CrossFireSyncFirestore source,
+            CrossFireSyncFirestore target, ReplicationMode replicationMode, boolean repair) {
+        return new AntiEntropyScanner(AntiEntropyConfig.builder().replicationMode(replicationMode)
+                .sourceDatabaseName("west").databaseName("east").collectionGroups(List.of("test"))
+                .treeDepth(8).pageSize(10000).repair(repair)
+                .firestoreFactory(settings -> "west".equals(settings.getDatabaseName()) ? source
+                        : target)
+                .build());
+    }
+
+    @Test
+    public void consistentTest() {
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+        list(source, documents(1000));
+
+        // The replicated copy has the bookkeeping attributes which are not part of the content
+        List<FirestoreDocument> replicated = new ArrayList<>();
+        for (FirestoreDocument document : documents(1000)) {
+            Map<String, Object> data = new HashMap<>(document.getData());
+            data.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, TIME);
+            data.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, "west");
+            replicated.add(document(document.getDocumentPath(), data));
+        }
+        list(target, replicated);
+
+        AntiEntropyReport report =
+                scanner(source, target, ReplicationMode.MULTI_REGION_PRIMARY, false).run();
+
+        assertTrue(report.isConsistent());
+        assertEquals(1000, report.getSourceDocuments());
+        assertEquals(1000, report.getTargetDocuments());
+        assertEquals(1, report.getNodesCompared());
+    }
+
+    @Test
+    public void divergentTest() {
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+        when(target.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+
+        List<FirestoreDocument> sourceDocuments = documents(1000);
+        List<FirestoreDocument> targetDocuments = documents(1000);
+        targetDocuments.remove(10);
+        targetDocuments.set(20, document("test/00021", Map.of("value", -1L)));
+        targetDocuments.add(document("test/extra", Map.of("value", 0L)));
+
+        list(source, sourceDocuments);
+        list(target, targetDocuments);
+        when(source.readDocument(anyString())).thenAnswer(invocation -> document(
+                invocation.getArgument(0), Map.of("value", 1L)));
+        when(source.readDocument("test/extra")).thenReturn(null);
+        FirestoreDocument extra = document("test/extra", Map.of("value", 0L));
+        when(target.now()).thenReturn(Timestamp.ofTimeSecondsAndNanos(200, 0));
+        when(target.readDocument("test/extra")).thenReturn(extra);
+        when(target.bulkDelete(List.of(extra), 0)).thenReturn(1);
+
+        AntiEntropyReport report =
+                scanner(source, target, ReplicationMode.SINGLE_REGION_PRIMARY, true).run();
+
+        Set<Divergence> expected = new HashSet<>(
+                List.of(new Divergence("test/00010", DivergenceType.MISSING_IN_TARGET),
+                        new Divergence("test/00021", DivergenceType.CONTENT_MISMATCH),
+                        new Divergence("test/extra", DivergenceType.MISSING_IN_SOURCE)));
+        assertEquals(expected, new HashSet<>(report.getDivergences()));
+        assertEquals(3, report.getRepaired());
+
+        // Only the paths to the differing leaves are compared
+        assertTrue(report.getNodesCompared() < 100);
+
+        verify(target).bulkDelete(List.of(extra), 0);
+    }
+
+    @Test
+    public void createdDuringScanTest() {
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+        list(source, documents(1));
+        List<FirestoreDocument> targetDocuments = documents(1);
+        targetDocuments.add(document("test/created", Map.of("value", 0L)));
+        targetDocuments.add(document("test/recreated", Map.of("value", 0L)));
+        list(target, targetDocuments);
+        when(target.now()).thenReturn(Timestamp.ofTimeSecondsAndNanos(50, 0));
+
+        // Created in the source after it was listed and already replicated
+        when(source.readDocument("test/created"))
+                .thenReturn(document("test/created", Map.of("value", 0L)));
+
+        // Deleted in the source again but the target copy was written after the scan started
+        when(target.readDocument("test/recreated"))
+                .thenReturn(document("test/recreated", Map.of("value", 0L)));
+
+        AntiEntropyReport report =
+                scanner(source, target, ReplicationMode.SINGLE_REGION_PRIMARY, true).run();
+
+        assertEquals(2, report.getDivergences().size());
+        assertEquals(0, report.getRepaired());
+        verify(target, never()).bulkDelete(any(), anyInt());
+        verify(target, never()).deleteDocument(anyString());
+    }
+
+    @Test
+    public void multiRegionMissingInSourceTest() {
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+        list(source, documents(1));
+        List<FirestoreDocument> targetDocuments = documents(1);
+        targetDocuments.add(document("test/new", Map.of("value", 0L)));
+        list(target, targetDocuments);
+
+        AntiEntropyReport report =
+                scanner(source, target, ReplicationMode.MULTI_REGION_PRIMARY, true).run();
+
+        assertEquals(1, report.getDivergences().size());
+        assertEquals(0, report.getRepaired());
+        verify(target, never()).deleteDocument(anyString());
+    }
+
+    @Test
+    public void divergentRangeReadsTest() {
+        InMemoryFirestore source = new InMemoryFirestore("west");
+        InMemoryFirestore target = new InMemoryFirestore("east");
+        for (int i = 0; i < 2000; i++) {
+            String documentPath = String.format("test/%05d", i);
+            source.set(documentPath, Map.of("value", (long) i));
+            target.set(documentPath, Map.of("value", i == 1000 ? -1L : (long) i));
+        }
+
+        AntiEntropyReport report = new AntiEntropyScanner(AntiEntropyConfig.builder()
+                .replicationMode(ReplicationMode.SINGLE_REGION_PRIMARY).sourceDatabaseName("west")
+                .databaseName("east").collectionGroups(List.of("test")).treeDepth(8).pageSize(500)
+                .firestoreFactory(settings -> "west".equals(settings.getDatabaseName()) ? source
+                        : target)
+                .build()).run();
+
+        assertEquals(List.of(new Divergence("test/01000", DivergenceType.CONTENT_MISMATCH)),
+                report.getDivergences());
+
+        // Each database is listed once and then only the range of the divergent document
+        long sourceReads = source.getStats().getReads();
+        long targetReads = target.getStats().getReads();
+        assertTrue(sourceReads > 2000 && sourceReads < 2250, "source reads " + sourceReads);
+        assertTrue(targetReads > 2000 && targetReads < 2250, "target reads " + targetReads);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+
+/**
+ * The CatchUpSync test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class CatchUpSyncTest {
+
+    private static final String FIELD = CrossFireSyncAttributes.TIMESTAMP_FIELD;
+
+    @TempDir
+    Path tempDir;
+
+    private static FirestoreDocument document(String path, long seconds) {
+        Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(seconds, 0);
+        return FirestoreDocument.builder().documentPath(path)
+                .data(Map.of("foo", "bar", FIELD, timestamp)).updateTime(timestamp).build();
+    }
+
+    private static CatchUpSync catchUpSync(CrossFireSyncFirestore source,
+            CrossFireSyncFirestore target, Path checkpoint) {
+        return new CatchUpSync(CatchUpConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).sourceDatabaseName("west")
+                .databaseName("east").collectionGroups(List.of("test")).pageSize(2)
+                .checkpointFile(checkpoint.toString())
+                .firestoreFactory(settings -> "west".equals(settings.getDatabaseName()) ? source
+                        : target)
+                .build());
+    }
+
+    @Test
+    public void pagesAndCheckpointTest() {
+        Path checkpoint = tempDir.resolve("checkpoint.properties");
+
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+        when(target.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+
+        when(source.queryUpdatedAfter(eq("test"), eq(FIELD), any(), any(), eq(2))).thenReturn(
+                List.of(document("test/a", 10), document("test/b", 11)),
+                List.of(document("test/c", 12)));
+
+        CatchUpResult result = catchUpSync(source, target, checkpoint).run();
+
+        assertEquals(2, result.getPages());
+        assertEquals(3, result.getDocumentsRead());
+        assertEquals(3, result.getDocumentsReplicated());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, Object>> recordCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(target, times(3)).updateTransaction(any(), any(), recordCaptor.capture());
+        assertEquals("west",
+                recordCaptor.getValue().get(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD));
+
+        // A second run resumes from the checkpoint after the last document
+        CrossFireSyncFirestore resumedSource = mock(CrossFireSyncFirestore.class);
+        when(resumedSource.queryUpdatedAfter(anyString(), anyString(), any(), any(), eq(2)))
+                .thenReturn(Collections.emptyList());
+
+        CatchUpResult resumed = catchUpSync(resumedSource, target, checkpoint).run();
+        assertEquals(0, resumed.getDocumentsRead());
+        verify(resumedSource).queryUpdatedAfter("test", FIELD,
+                Timestamp.ofTimeSecondsAndNanos(12, 0), "test/c", 2);
+    }
+
+    @Test
+    public void flaggedForDeleteTest() {
+        Path checkpoint = tempDir.resolve("flagged.properties");
+
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+
+        Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(10, 0);
+        FirestoreDocument flagged = FirestoreDocument.builder().documentPath("test/a")
+                .data(Map.of(FIELD, timestamp, CrossFireSyncAttributes.DELETE_FIELD, true))
+                .updateTime(timestamp).build();
+        when(source.queryUpdatedAfter(anyString(), anyString(), any(), any(), eq(2)))
+                .thenReturn(List.of(flagged));
+
+        CatchUpResult result = catchUpSync(source, target, checkpoint).run();
+
+        assertEquals(1, result.getDocumentsRead());
+        assertEquals(0, result.getDocumentsReplicated());
+        verify(target, never()).updateTransaction(any(), any(), any());
+    }
+
+    @Test
+    public void replicatedFromTargetTest() {
+        Path checkpoint = tempDir.resolve("replicated.properties");
+
+        CrossFireSyncFirestore source = mock(CrossFireSyncFirestore.class);
+        CrossFireSyncFirestore target = mock(CrossFireSyncFirestore.class);
+        when(target.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+
+        // A copy of a document written in east is not written back over the original
+        Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(10, 0);
+        FirestoreDocument replicated = FirestoreDocument.builder().documentPath("test/a")
+                .data(Map.of("foo", "bar", FIELD, timestamp,
+                        CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, "east"))
+                .updateTime(timestamp).build();
+        when(source.queryUpdatedAfter(anyString(), anyString(), any(), any(), eq(2)))
+                .thenReturn(List.of(replicated, document("test/b", 11)));
+
+        CatchUpResult result = catchUpSync(source, target, checkpoint).run();
+
+        assertEquals(2, result.getDocumentsRead());
+        assertEquals(1, result.getDocumentsReplicated());
+        verify(target, times(1)).updateTransaction(any(), any(), any());
+    }
+
+    @Test
+    public void notConfiguredTest() {
+        CatchUpSync catchUpSync = new CatchUpSync(CatchUpConfig.builder()
+                .replicationMode(ReplicationMode.NONE).collectionGroups(List.of("test"))
+                .firestoreFactory(settings -> mock(CrossFireSyncFirestore.class)).build());
+
+        CatchUpResult result = catchUpSync.run();
+        assertEquals(0, result.getPages());
+        assertNull(new CatchUpCheckpoint(null).getDocumentPath("test"));
+    }
+
+    @Test
+    public void customFirestoreTest() {
+        // A custom implementation only needs the operations used by the publisher and consumer
+        CrossFireSyncFirestore custom = new CrossFireSyncFirestore() {
+            @Override
+            public Timestamp now() {
+                return Timestamp.now();
+            }
+
+            @Override
+            public DocumentReference getDocument(String documentPath) {
+                return null;
+            }
+
+            @Override
+            public boolean deleteFlagTransaction(DocumentReference documentReference,
+                    Map<String, Object> updates) {
+                return false;
+            }
+
+            @Override
+            public boolean updateTransaction(DocumentReference documentReference,
+                    Timestamp updatedTime, Map<String, Object> record) {
+                return true;
+            }
+
+            @Override
+            public void deleteDocument(String documentPath) {}
+        };
+
+        assertThrows(CrossFireSyncException.class, () -> custom.queryUpdatedAfter("test", FIELD,
+                Timestamp.MIN_VALUE, null, 10));
+        assertThrows(CrossFireSyncException.class, () -> custom.readDocument("test/a"));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.TransactionOptions;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.ContentionStats;
+import com.unitvectory.crossfiresync.firestore.ContentionTracker;
+
+import io.grpc.Status;
+
+/**
+ * The ContentionTracker test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ContentionTrackerTest {
+
+    private static final String PATH = "test/hot";
+
+    /**
+     * Mock Firestore where each transaction runs its function the given number of times, as the
+     * client does when attempts are aborted.
+     */
+    @SuppressWarnings("unchecked")
+    private static Firestore firestore(int attempts, boolean abortedAtEnd) throws Exception {
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.exists()).thenReturn(false);
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.get(any(DocumentReference.class)))
+                .thenReturn(ApiFutures.immediateFuture(snapshot));
+
+        Firestore db = mock(Firestore.class);
+        when(db.runTransaction(any(Transaction.Function.class), any(TransactionOptions.class)))
+                .thenAnswer(invocation -> {
+                    Transaction.Function<Object> function = invocation.getArgument(0);
+                    Object result = null;
+                    for (int i = 0; i < attempts; i++) {
+                        result = function.updateCallback(transaction);
+                    }
+
+                    if (abortedAtEnd) {
+                        return ApiFutures.immediateFailedFuture(ApiExceptionFactory
+                                .createException("aborted", null,
+                                        GrpcStatusCode.of(Status.Code.ABORTED), true));
+                    }
+                    return ApiFutures.immediateFuture(result);
+                });
+        return db;
+    }
+
+    private static DocumentReference reference() {
+        DocumentReference documentReference = mock(DocumentReference.class);
+        when(documentReference.getPath()).thenReturn(PATH);
+        return documentReference;
+    }
+
+    @Test
+    public void abortedAttemptsTest() throws Exception {
+        ContentionTracker tracker = new ContentionTracker(5, Duration.ofHours(1), 100);
+        CrossFireSyncFirestoreDefault firestore =
+                new CrossFireSyncFirestoreDefault(firestore(3, false), 5, 4, tracker);
+
+        firestore.updateTransaction(reference(), Timestamp.ofTimeSecondsAndNanos(1, 0),
+                Map.of("value", 1L));
+
+        ContentionStats stats = tracker.getStats(PATH);
+        assertEquals(1, stats.getContendedTransactions());
+        assertEquals(2, stats.getAbortedAttempts());
+        assertFalse(stats.isHot());
+        assertEquals(1, tracker.getTransactions());
+
+        // The transaction that runs out of attempts counts every attempt as aborted
+        CrossFireSyncFirestoreDefault exhausted =
+                new CrossFireSyncFirestoreDefault(firestore(5, true), 5, 4, tracker);
+        assertThrows(CrossFireSyncException.class,
+                () -> exhausted.deleteFlagTransaction(reference(), Map.of("value", 1L)));
+
+        stats = tracker.getStats(PATH);
+        assertEquals(7, stats.getAbortedAttempts());
+        assertTrue(stats.isHot());
+        assertTrue(tracker.isHot(PATH));
+        assertEquals(List.of(stats.getDocumentPath()),
+                tracker.getHotDocuments().stream().map(ContentionStats::getDocumentPath).toList());
+    }
+
+    @Test
+    public void uncontendedNotTrackedTest() throws Exception {
+        ContentionTracker tracker = new ContentionTracker();
+        CrossFireSyncFirestoreDefault firestore =
+                new CrossFireSyncFirestoreDefault(firestore(1, false), 5, 0, tracker);
+
+        firestore.updateTransaction(reference(), Timestamp.ofTimeSecondsAndNanos(1, 0),
+                Map.of("value", 1L));
+
+        assertNull(tracker.getStats(PATH));
+        assertEquals(1, tracker.getTransactions());
+        assertEquals(0, tracker.getAbortedAttempts());
+    }
+
+    @Test
+    public void decayTest() throws Exception {
+        ContentionTracker tracker = new ContentionTracker(2, Duration.ofMillis(1), 100);
+        tracker.record(PATH, 3);
+        Thread.sleep(50);
+        assertFalse(tracker.isHot(PATH));
+        assertEquals(3, tracker.getStats(PATH).getAbortedAttempts());
+    }
+
+    @Test
+    public void stripedLocksTest() throws Exception {
+        // Concurrent transactions on the same document never overlap in process
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Firestore db = mock(Firestore.class);
+        when(db.runTransaction(any(), any(TransactionOptions.class))).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return ApiFutures.immediateFuture(true);
+        });
+
+        CrossFireSyncFirestoreDefault firestore =
+                new CrossFireSyncFirestoreDefault(db, 5, 16, null);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> firestore.deleteFlagTransaction(reference(), Map.of()));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, maxRunning.get());
+    }
+}
@@ -14,18 +14,31 @@
 package com.unitvectory.crossfiresync;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 import com.google.api.core.ApiFuture;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.protobuf.Timestamp;
 import com.google.pubsub.v1.PubsubMessage;
 import com.google.cloud.pubsub.v1.Publisher;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.FlowControlBehavior;
+import com.unitvectory.crossfiresync.pubsub.FlowControlSettings;
+import com.unitvectory.crossfiresync.pubsub.FlowControlStats;
+import com.unitvectory.crossfiresync.pubsub.FlowController;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The CrossFireSyncPublish Default implementation tests.
@@ -87,4 +100,81 @@ public class CrossFireSyncPublishDefaultTest {
         verify(future).get();
     }
 
+    @Test
+    public void testFlowControlReleasedAfterFailure()
+            throws InterruptedException, ExecutionException {
+        CrossFireSyncPublishDefault limited = new CrossFireSyncPublishDefault(mockedPublisher,
+                new FlowController(FlowControlSettings.builder().maxOutstandingMessages(1)
+                        .behavior(FlowControlBehavior.FAIL_FAST).build()));
+        PubsubMessage message = PubsubMessage.newBuilder().setOrderingKey("test/a").build();
+        @SuppressWarnings("unchecked")
+        ApiFuture<String> future = mock(ApiFuture.class);
+        when(mockedPublisher.publish(message)).thenReturn(future);
+        when(future.get()).thenThrow(new ExecutionException("failed", new RuntimeException()))
+                .thenReturn("messageId");
+
+        assertThrows(CrossFireSyncException.class, () -> limited.publishMessage(message));
+        verify(mockedPublisher).resumePublish("test/a");
+        assertEquals("messageId", limited.publishMessage(message));
+
+        FlowControlStats stats = limited.getFlowControlStats();
+        assertEquals(0, stats.getOutstandingMessages());
+        assertEquals(0, stats.getRejected());
+        assertNull(crossFireSyncPublishDefault.getFlowControlStats());
+    }
+
+    private static PubsubMessage change(long seconds, boolean delete) {
+        Document document = Document.newBuilder().setName("test/a")
+                .setUpdateTime(Timestamp.newBuilder().setSeconds(seconds)).build();
+        DocumentEventData.Builder event = DocumentEventData.newBuilder();
+        if (delete) {
+            event.setOldValue(document);
+        } else {
+            event.setValue(document);
+        }
+        return PubsubMessage.newBuilder().setOrderingKey("test/a")
+                .setData(event.build().toByteString()).build();
+    }
+
+    @Test
+    public void testChangeOrder() {
+        // A delete comes after the write of the version it deleted, and before a later write
+        long write = CrossFireSyncPublishDefault.changeOrder(change(100, false));
+        long delete = CrossFireSyncPublishDefault.changeOrder(change(100, true));
+        long later = CrossFireSyncPublishDefault.changeOrder(change(101, false));
+        assertTrue(write < delete);
+        assertTrue(delete < later);
+        assertEquals(FlowController.ARRIVAL_ORDER,
+                CrossFireSyncPublishDefault.changeOrder(PubsubMessage.newBuilder().build()));
+    }
+
+    @Test
+    public void testSupersededNotPublished() throws Exception {
+        FlowController controller = new FlowController(FlowControlSettings.builder()
+                .maxOutstandingMessages(1).behavior(FlowControlBehavior.SHED_SUPERSEDED).build());
+        CrossFireSyncPublishDefault limited =
+                new CrossFireSyncPublishDefault(mockedPublisher, controller);
+        PubsubMessage newer = change(200, false);
+        PubsubMessage older = change(100, false);
+        @SuppressWarnings("unchecked")
+        ApiFuture<String> future = mock(ApiFuture.class);
+        when(mockedPublisher.publish(newer)).thenReturn(future);
+        when(future.get()).thenReturn("messageId");
+
+        // The newer change waits for the capacity held by another message
+        assertTrue(controller.acquire("test/b", 10));
+        CompletableFuture<String> waiting =
+                CompletableFuture.supplyAsync(() -> limited.publishMessage(newer));
+        while (controller.getStats().getWaiting() == 0) {
+            Thread.sleep(1);
+        }
+
+        // The older change delivered late is reported as not published
+        assertEquals(CrossFireSyncPublish.SUPERSEDED, limited.publishMessage(older));
+        verify(mockedPublisher, never()).publish(older);
+
+        controller.release(10);
+        assertEquals("messageId", waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, controller.getStats().getShed());
+    }
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.spi.v1.FirestoreRpc;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.CommitResponse;
+import com.google.firestore.v1.Write;
+import com.google.firestore.v1.WriteResult;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.firestoreproto2map.FirestoreProto2Map;
+
+import io.grpc.Status;
+
+/**
+ * The DirectDocumentWriter test class.
+ *
+ * The direct path is compared with the map path on the consumer fixtures: the document is
+ * converted to a map as PubSubChangeConsumer does and set with a Firestore client whose commit
+ * requests are captured, so the fields are compared with the encoding of the client.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class DirectDocumentWriterTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final String PROJECT = "crossfiresync";
+
+    private static final String DATABASE = "east4";
+
+    private static final String PREFIX =
+            "projects/" + PROJECT + "/databases/" + DATABASE + "/documents/";
+
+    private static final Timestamp EXISTING = Timestamp.ofTimeSecondsAndNanos(100, 0);
+
+    private static Document document(String resource) throws Exception {
+        JsonNode fixture;
+        try (InputStream in = DirectDocumentWriterTest.class.getResourceAsStream(resource)) {
+            fixture = mapper.readTree(in);
+        }
+
+        return DocumentEventData.parseFrom(Base64.getDecoder()
+                .decode(fixture.get("input").get("message").get("data").asText())).getValue();
+    }
+
+    /**
+     * A Firestore client whose commits are captured instead of sent.
+     */
+    private static class CapturingFirestore {
+
+        private final List<CommitRequest> commits = new ArrayList<>();
+
+        private final AtomicInteger preconditionFailures = new AtomicInteger();
+
+        private final Firestore db;
+
+        @SuppressWarnings("unchecked")
+        CapturingFirestore() {
+            UnaryCallable<CommitRequest, CommitResponse> commit =
+                    mock(UnaryCallable.class, CALLS_REAL_METHODS);
+            doAnswer(invocation -> {
+                this.commits.add(invocation.getArgument(0));
+                if (this.preconditionFailures.getAndDecrement() > 0) {
+                    return ApiFutures.immediateFailedFuture(ApiExceptionFactory.createException(
+                            "precondition", null,
+                            GrpcStatusCode.of(Status.Code.FAILED_PRECONDITION), false));
+                }
+                return ApiFutures.immediateFuture(CommitResponse.newBuilder()
+                        .setCommitTime(EXISTING.toProto())
+                        .addWriteResults(WriteResult.newBuilder().setUpdateTime(EXISTING.toProto()))
+                        .build());
+            }).when(commit).futureCall(any(), any());
+
+            FirestoreRpc rpc = mock(FirestoreRpc.class);
+            when(rpc.commitCallable()).thenReturn(commit);
+            this.db = FirestoreOptions.newBuilder().setProjectId(PROJECT).setDatabaseId(DATABASE)
+                    .setCredentials(NoCredentials.getInstance())
+                    .setServiceRpcFactory(options -> rpc).build().getService();
+        }
+
+        Write lastWrite() {
+            CommitRequest request = this.commits.get(this.commits.size() - 1);
+            assertEquals("projects/" + PROJECT + "/databases/" + DATABASE, request.getDatabase());
+            assertEquals(1, request.getWritesCount());
+            return request.getWrites(0);
+        }
+    }
+
+    /**
+     * A document reference read as the given snapshot.
+     */
+    private static DocumentReference reference(String documentPath, DocumentSnapshot snapshot) {
+        DocumentReference documentReference = mock(DocumentReference.class);
+        when(documentReference.getPath()).thenReturn(documentPath);
+        when(documentReference.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+        return documentReference;
+    }
+
+    private static DocumentSnapshot snapshot(Timestamp crossFireSyncTimestamp) {
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.exists()).thenReturn(true);
+        when(snapshot.getUpdateTime()).thenReturn(EXISTING);
+        when(snapshot.contains(CrossFireSyncAttributes.TIMESTAMP_FIELD))
+                .thenReturn(crossFireSyncTimestamp != null);
+        when(snapshot.getTimestamp(CrossFireSyncAttributes.TIMESTAMP_FIELD))
+                .thenReturn(crossFireSyncTimestamp);
+        return snapshot;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/consumer/complexDocument.json", "/consumer/insertReference.json",
+            "/consumer/insertArray.json", "/consumer/insertMissingAttribute.json",
+            "/consumer/insertNoFields.json"})
+    public void equivalentTest(String resource) throws Exception {
+        Document document = document(resource);
+        String documentPath = DocumentResourceNameUtil.getDocumentPath(document.getName());
+        Timestamp updatedTime = Timestamp.fromProto(document.getUpdateTime());
+
+        for (String sourceDatabase : new String[] {"west", null}) {
+            // The map path, encoded by the Firestore client
+            CapturingFirestore client = new CapturingFirestore();
+            CrossFireSyncFirestoreDefault firestore = new CrossFireSyncFirestoreDefault(client.db);
+            Map<String, Object> record = new FirestoreProto2Map(firestore).convert(document);
+            if (sourceDatabase != null) {
+                record.put(CrossFireSyncAttributes.TIMESTAMP_FIELD, updatedTime);
+                record.put(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, sourceDatabase);
+            }
+            firestore.getDocument(documentPath).set(record).get();
+            com.google.firestore.v1.Document expected = client.lastWrite().getUpdate();
+
+            // The direct path
+            com.google.firestore.v1.Document actual = DirectDocumentWriter.toDocument(PREFIX,
+                    documentPath, document, sourceDatabase);
+
+            assertEquals(PREFIX + documentPath, actual.getName());
+            assertFalse(actual.hasUpdateTime());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getFieldsMap(), actual.getFieldsMap(), resource);
+        }
+    }
+
+    @Test
+    public void referencesRewrittenTest() throws Exception {
+        Document document = document("/consumer/insertReference.json");
+        com.google.firestore.v1.Document actual =
+                DirectDocumentWriter.toDocument(PREFIX, "test/doc", document, "west");
+
+        boolean found = false;
+        for (com.google.firestore.v1.Value value : actual.getFieldsMap().values()) {
+            if (value.hasReferenceValue()) {
+                assertTrue(value.getReferenceValue().startsWith(PREFIX));
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void rewriteReferenceTest() {
+        assertEquals(PREFIX + "test/a", DirectDocumentWriter.rewriteReference(PREFIX + "test/a",
+                PREFIX));
+        assertEquals(PREFIX + "test/a", DirectDocumentWriter
+                .rewriteReference("projects/other/databases/west/documents/test/a", PREFIX));
+
+        Value nested = Value.newBuilder().setArrayValue(ArrayValue.newBuilder().addValues(Value
+                .newBuilder().setReferenceValue("projects/other/databases/west/documents/test/a")))
+                .build();
+        assertEquals(PREFIX + "test/a", DirectDocumentWriter.toValue(nested, PREFIX)
+                .getArrayValue().getValues(0).getReferenceValue());
+    }
+
+    @Test
+    public void writeDocumentTest() throws Exception {
+        Document document = document("/consumer/complexDocument.json");
+        String documentPath = DocumentResourceNameUtil.getDocumentPath(document.getName());
+        Timestamp updatedTime = Timestamp.fromProto(document.getUpdateTime());
+
+        // The first commit fails its precondition as the document was written after the read
+        CapturingFirestore client = new CapturingFirestore();
+        client.preconditionFailures.set(1);
+        CrossFireSyncFirestoreDefault firestore =
+                new CrossFireSyncFirestoreDefault(client.db, 5, 4, null);
+        firestore.writeDocument(reference(documentPath, snapshot(null)), updatedTime, document,
+                "west");
+
+        assertEquals(2, client.commits.size());
+        Write write = client.lastWrite();
+        assertEquals(EXISTING.toProto(), write.getCurrentDocument().getUpdateTime());
+        assertEquals(DirectDocumentWriter.toDocument(PREFIX, documentPath, document, "west"),
+                write.getUpdate());
+    }
+
+    @Test
+    public void writeDocumentMissingTest() throws Exception {
+        Document document = document("/consumer/insertArray.json");
+        String documentPath = DocumentResourceNameUtil.getDocumentPath(document.getName());
+
+        // A document that does not exist is only created if it still does not exist
+        DocumentSnapshot missing = mock(DocumentSnapshot.class);
+        when(missing.exists()).thenReturn(false);
+        CapturingFirestore client = new CapturingFirestore();
+        new CrossFireSyncFirestoreDefault(client.db).writeDocument(
+                reference(documentPath, missing), Timestamp.fromProto(document.getUpdateTime()),
+                document, "west");
+
+        assertEquals(1, client.commits.size());
+        assertFalse(client.lastWrite().getCurrentDocument().getExists());
+        assertTrue(client.lastWrite().getCurrentDocument().hasExists());
+    }
+
+    @Test
+    public void writeDocumentSkippedTest() throws Exception {
+        Document document = document("/consumer/complexDocument.json");
+        String documentPath = DocumentResourceNameUtil.getDocumentPath(document.getName());
+        Timestamp updatedTime = Timestamp.fromProto(document.getUpdateTime());
+
+        // A document already replicated at or after the change is not written
+        CapturingFirestore client = new CapturingFirestore();
+        new CrossFireSyncFirestoreDefault(client.db).writeDocument(
+                reference(documentPath, snapshot(updatedTime)), updatedTime, document, "west");
+        assertTrue(client.commits.isEmpty());
+    }
+
+    @Test
+    public void writeDocumentExhaustedTest() throws Exception {
+        Document document = document("/consumer/complexDocument.json");
+        String documentPath = DocumentResourceNameUtil.getDocumentPath(document.getName());
+        Timestamp updatedTime = Timestamp.fromProto(document.getUpdateTime());
+
+        // Every attempt fails its precondition
+        CapturingFirestore client = new CapturingFirestore();
+        client.preconditionFailures.set(Integer.MAX_VALUE);
+        CrossFireSyncFirestoreDefault firestore =
+                new CrossFireSyncFirestoreDefault(client.db, 3, 4, null);
+        assertThrows(CrossFireSyncException.class, () -> firestore.writeDocument(
+                reference(documentPath, snapshot(null)), updatedTime, document, "west"));
+        assertEquals(3, client.commits.size());
+    }
+
+    @Test
+    public void defaultWriteDocumentTest() throws Exception {
+        Document document = document("/consumer/complexDocument.json");
+        String documentPath = DocumentResourceNameUtil.getDocumentPath(document.getName());
+        Timestamp updatedTime = Timestamp.fromProto(document.getUpdateTime());
+
+        InMemoryFirestore firestore = new InMemoryFirestore(DATABASE);
+        firestore.writeDocument(firestore.getDocument(documentPath), updatedTime, document,
+                "west");
+
+        Map<String, Object> data = firestore.readDocument(documentPath).getData();
+        assertEquals("west", data.get(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD));
+        assertEquals(updatedTime, data.get(CrossFireSyncAttributes.TIMESTAMP_FIELD));
+        assertEquals(DocumentHasher.hashDocument(document), DocumentHasher.hashDocument(data));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.events.cloud.firestore.v1.ArrayValue;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.Value;
+import com.unitvectory.crossfiresync.firestore.DocumentReferenceCache;
+import com.unitvectory.crossfiresync.firestore.ReferenceCacheStats;
+import com.unitvectory.firestoreproto2map.FirestoreProto2Map;
+
+/**
+ * The DocumentReferenceCache test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class DocumentReferenceCacheTest {
+
+    private static DocumentReference reference(String documentPath) {
+        DocumentReference documentReference = mock(DocumentReference.class);
+        when(documentReference.getPath()).thenReturn(documentPath);
+        return documentReference;
+    }
+
+    private static Firestore firestore() {
+        Firestore db = mock(Firestore.class);
+        when(db.document(anyString()))
+                .thenAnswer(invocation -> reference(invocation.getArgument(0)));
+        return db;
+    }
+
+    @Test
+    public void internTest() {
+        DocumentReferenceCache cache = new DocumentReferenceCache(10);
+
+        DocumentReference first = cache.get("test/a", DocumentReferenceCacheTest::reference);
+        assertSame(first, cache.get("test/a", DocumentReferenceCacheTest::reference));
+        assertNotSame(first, cache.get("test/b", DocumentReferenceCacheTest::reference));
+
+        ReferenceCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getSize());
+        assertEquals(10, stats.getMaxSize());
+        assertEquals(1.0 / 3, stats.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void boundedTest() {
+        DocumentReferenceCache cache = new DocumentReferenceCache(4);
+
+        DocumentReference hot = cache.get("test/hot", DocumentReferenceCacheTest::reference);
+        for (int i = 0; i < 100; i++) {
+            cache.get("test/" + i, DocumentReferenceCacheTest::reference);
+            assertSame(hot, cache.get("test/hot", DocumentReferenceCacheTest::reference));
+        }
+
+        ReferenceCacheStats stats = cache.getStats();
+        assertTrue(stats.getSize() <= 4);
+        assertTrue(stats.getEvictions() >= 96);
+        assertEquals(100, stats.getHits());
+    }
+
+    @Test
+    public void disabledTest() {
+        DocumentReferenceCache cache = new DocumentReferenceCache(0);
+
+        DocumentReference first = cache.get("test/a", DocumentReferenceCacheTest::reference);
+        assertNotSame(first, cache.get("test/a", DocumentReferenceCacheTest::reference));
+        assertEquals(0, cache.getStats().getSize());
+        assertEquals(0, cache.getStats().getHitRate());
+    }
+
+    @Test
+    public void referenceArrayTest() {
+        Firestore db = firestore();
+        CrossFireSyncFirestoreDefault firestore =
+                new CrossFireSyncFirestoreDefault(db, 5, 0, null, 100);
+
+        ArrayValue.Builder array = ArrayValue.newBuilder();
+        for (int i = 0; i < 500; i++) {
+            array.addValues(Value.newBuilder().setReferenceValue(
+                    "projects/test/databases/west/documents/test/" + (i % 5)));
+        }
+        Document document = Document.newBuilder()
+                .putFields("refs", Value.newBuilder().setArrayValue(array).build()).build();
+
+        Map<String, Object> data = new FirestoreProto2Map(firestore).convert(document);
+
+        List<?> refs = (List<?>) data.get("refs");
+        assertEquals(500, refs.size());
+        assertSame(refs.get(0), refs.get(5));
+        assertEquals("test/3", ((DocumentReference) refs.get(3)).getPath());
+        verify(db, times(5)).document(anyString());
+
+        ReferenceCacheStats stats = firestore.getReferenceCacheStats();
+        assertEquals(495, stats.getHits());
+        assertEquals(5, stats.getMisses());
+    }
+
+    @Test
+    public void notCachedTest() {
+        Firestore db = firestore();
+        CrossFireSyncFirestoreDefault firestore = new CrossFireSyncFirestoreDefault(db);
+
+        firestore.convert("projects/test/databases/west/documents/test/a", "test/a");
+        firestore.convert("projects/test/databases/west/documents/test/a", "test/a");
+
+        verify(db, times(2)).document("test/a");
+        assertNull(firestore.getReferenceCacheStats());
+    }
+}
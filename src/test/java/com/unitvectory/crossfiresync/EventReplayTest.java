@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.unitvectory.crossfiresync.capture.CapturedEvent;
+import com.unitvectory.crossfiresync.capture.CapturedEventType;
+import com.unitvectory.crossfiresync.capture.EventCaptureLog;
+import com.unitvectory.crossfiresync.capture.EventCaptureReader;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+
+/**
+ * The EventCaptureLog and EventReplay test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class EventReplayTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static DocumentEventData change(String documentPath, long value) {
+        return DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .setName("projects/example/databases/east/documents/" + documentPath)
+                .putFields("value", Value.newBuilder().setIntegerValue(value).build())
+                .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(value)))
+                .build();
+    }
+
+    private static FirestoreChangePublisher publisher(EventCaptureLog captureLog,
+            InMemoryPublisherFactory topics) {
+        return new FirestoreChangePublisher(FirestoreChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName("east")
+                .topic("topic").firestoreFactory(new InMemoryFirestoreFactory())
+                .publisherFactory(topics).captureLog(captureLog).build());
+    }
+
+    private static PubSubChangeConsumer consumer(EventCaptureLog captureLog,
+            InMemoryFirestoreFactory factory) {
+        return new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName("west")
+                .firestoreFactory(factory).captureLog(captureLog).build());
+    }
+
+    /**
+     * Capture a publisher event and the message it published received by a consumer.
+     */
+    private Path capture(int changes) throws Exception {
+        Path file = this.tempDir.resolve("capture.bin");
+        try (EventCaptureLog captureLog = EventCaptureLog.open(file)) {
+            InMemoryPublisherFactory topics = new InMemoryPublisherFactory();
+            FirestoreChangePublisher publisher = publisher(captureLog, topics);
+            PubSubChangeConsumer consumer = consumer(captureLog, new InMemoryFirestoreFactory());
+
+            for (int i = 1; i <= changes; i++) {
+                DocumentEventData change = change("test/" + i, i);
+                publisher.process(change, change.toByteArray());
+                consumer.process(
+                        InMemoryPublisher.toPubSubPublish(topics.getTopic("topic").poll()));
+            }
+            assertEquals(changes * 2, captureLog.getEvents());
+        }
+        return file;
+    }
+
+    @Test
+    public void captureTest() throws Exception {
+        Path file = capture(1);
+
+        try (EventCaptureReader reader = new EventCaptureReader(file)) {
+            CapturedEvent published = reader.next();
+            assertEquals(CapturedEventType.PUBLISHER, published.getType());
+            assertArrayEquals(change("test/1", 1).toByteArray(), published.getData());
+
+            CapturedEvent consumed = reader.next();
+            assertEquals(CapturedEventType.CONSUMER, consumed.getType());
+            assertEquals(Map.of("database", "east"), consumed.getAttributes());
+            assertEquals("test/1", consumed.getOrderingKey());
+            assertArrayEquals(published.getData(), consumed.getData());
+            assertTrue(!consumed.getArrivalTime().isBefore(published.getArrivalTime()));
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void truncatedTest() throws Exception {
+        Path file = capture(2);
+
+        // A record cut short by a crash ends the log
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3),
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        int events = 0;
+        try (EventCaptureReader reader = new EventCaptureReader(file)) {
+            while (reader.next() != null) {
+                events++;
+            }
+        }
+        assertEquals(3, events);
+    }
+
+    @Test
+    public void replayTest() throws Exception {
+        Path file = capture(20);
+
+        InMemoryFirestoreFactory target = new InMemoryFirestoreFactory();
+        InMemoryPublisherFactory topics = new InMemoryPublisherFactory();
+        EventReplayReport report = new EventReplay(EventReplayConfig.builder()
+                .captureFile(file.toString()).speed(0).concurrency(4)
+                .publisher(publisher(null, topics)).consumer(consumer(null, target)).build())
+                .run();
+
+        assertEquals(40, report.getEvents());
+        assertEquals(20, report.getPublisherEvents());
+        assertEquals(20, report.getConsumerEvents());
+        assertEquals(0, report.getFailures());
+        assertEquals(20, topics.getTopic("topic").size());
+        assertEquals(20, target.getDatabase("west").size());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getP50Nanos() <= report.getP99Nanos());
+        assertTrue(report.getP99Nanos() <= report.getMaxNanos());
+    }
+
+    @Test
+    public void skippedTest() throws Exception {
+        Path file = capture(5);
+
+        EventReplayReport report = new EventReplay(EventReplayConfig.builder()
+                .captureFile(file.toString()).speed(10)
+                .consumer(consumer(null, new InMemoryFirestoreFactory())).build()).run();
+
+        assertEquals(5, report.getEvents());
+        assertEquals(5, report.getSkippedEvents());
+    }
+
+    @Test
+    public void percentileTest() {
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i + 1;
+        }
+
+        assertEquals(50, EventReplay.percentile(sorted, 0.50));
+        assertEquals(99, EventReplay.percentile(sorted, 0.99));
+        assertEquals(0, EventReplay.percentile(new long[0], 0.99));
+        assertEquals(1.0, EventReplayConfig.parseSpeed(null));
+        assertEquals(0.0, EventReplayConfig.parseSpeed("max"));
+        assertEquals(10.0, EventReplayConfig.parseSpeed("10"));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+
+/**
+ * The FunctionMain test class; with the native profile it also runs the fixture events through
+ * the native executables and compares their startup time and RSS against the JVM.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FunctionMainTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {FunctionMain.PUBLISHER, FunctionMain.CONSUMER})
+    public void fixturesTest(String function) throws Exception {
+        FunctionMain main = FunctionMain.create(function, true, database(function),
+                ReplicationMode.MULTI_REGION_PRIMARY);
+        assertEquals(function, main.getFunction());
+
+        List<Path> files = eventFiles(function);
+        assertFalse(files.isEmpty());
+        for (Path file : files) {
+            assertTrue(main.process(file.getFileName().toString(), Files.readAllBytes(file)));
+        }
+
+        assertEquals(files.size(), main.getEvents());
+        assertEquals(0, main.getFailures());
+
+        // Data that is not an event is counted as a failure
+        assertFalse(main.process("invalid", "invalid".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, main.getFailures());
+        assertTrue(main.report(Duration.ofMillis(5)).startsWith("startupMillis=5 events="));
+    }
+
+    @Test
+    public void unknownFunctionTest() {
+        assertThrows(CrossFireSyncException.class,
+                () -> FunctionMain.create("unknown", true, "west", ReplicationMode.NONE));
+    }
+
+    @Test
+    public void peakRssTest() {
+        long rss = FunctionMain.peakRssKb();
+        if (Files.exists(Path.of("/proc/self/status"))) {
+            assertTrue(rss > 0);
+        } else {
+            assertEquals(-1, rss);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {FunctionMain.PUBLISHER, FunctionMain.CONSUMER})
+    public void nativeSmokeTest(String function) throws Exception {
+        String directory = System.getProperty("crossfiresync.native.directory");
+        assumeTrue(directory != null, "Only run by the native profile");
+        Path executable = Path.of(directory, "crossfiresync-" + function);
+        assumeTrue(Files.isExecutable(executable), "Native executable not built");
+
+        List<String> arguments = new ArrayList<>(List.of("--in-memory", "--database",
+                database(function), "--replication-mode", "MULTI_REGION_PRIMARY", "--report"));
+        for (Path file : eventFiles(function)) {
+            arguments.add(file.toString());
+        }
+
+        List<String> nativeCommand = new ArrayList<>(List.of(executable.toString()));
+        nativeCommand.addAll(arguments);
+        String nativeReport = run(nativeCommand);
+
+        List<String> jvmCommand = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+                System.getProperty("java.class.path"),
+                (FunctionMain.PUBLISHER.equals(function) ? PublisherMain.class
+                        : ConsumerMain.class).getName()));
+        jvmCommand.addAll(arguments);
+        String jvmReport = run(jvmCommand);
+
+        assertTrue(nativeReport.contains(" failures=0 "));
+        assertTrue(jvmReport.contains(" failures=0 "));
+        assertEquals(reportValue(jvmReport, "events"), reportValue(nativeReport, "events"));
+
+        // The native executable starts faster and with less memory than the JVM
+        long nativeStartup = reportValue(nativeReport, "startupMillis");
+        long jvmStartup = reportValue(jvmReport, "startupMillis");
+        assertTrue(nativeStartup < jvmStartup, nativeReport + " / " + jvmReport);
+        long nativeRss = reportValue(nativeReport, "maxRssKb");
+        long jvmRss = reportValue(jvmReport, "maxRssKb");
+        if (nativeRss > 0 && jvmRss > 0) {
+            assertTrue(nativeRss < jvmRss, nativeReport + " / " + jvmReport);
+        }
+    }
+
+    /**
+     * Gets a value of the report printed with --report, such as startupMillis=12.
+     */
+    private static long reportValue(String report, String name) {
+        Matcher matcher = Pattern.compile("\\b" + name + "=(-?\\d+)").matcher(report);
+        assertTrue(matcher.find(), name + " missing from " + report);
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Write the data of each fixture event to a file: the Firestore event protobuf for the
+     * publisher and the Pub/Sub push JSON for the consumer.
+     */
+    private List<Path> eventFiles(String function) throws IOException {
+        Path directory = Files.createDirectories(this.tempDir.resolve(function));
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> fixtures = Files.list(fixtureDirectory(function))) {
+            for (Path fixture : fixtures.sorted().toList()) {
+                JsonNode input = mapper.readTree(fixture.toFile()).get("input");
+                String name = fixture.getFileName().toString().replace(".json", "");
+                if (FunctionMain.PUBLISHER.equals(function)) {
+                    Path file = directory.resolve(name + ".bin");
+                    Files.write(file, Base64.getDecoder().decode(input.get("protobuf").asText()));
+                    files.add(file);
+                } else {
+                    Path file = directory.resolve(name + ".json");
+                    Files.write(file, mapper.writeValueAsBytes(input));
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Path fixtureDirectory(String function) {
+        try {
+            return Path.of(FunctionMainTest.class.getResource("/" + function + "/").toURI());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String database(String function) {
+        return FunctionMain.PUBLISHER.equals(function) ? "west" : "east4";
+    }
+
+    private static String run(List<String> command) throws Exception {
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor(), "Failed: " + String.join(" ", command));
+
+        String report = output.lines().filter(line -> line.startsWith("startupMillis="))
+                .findFirst().orElse(null);
+        assertNotNull(report);
+        return report;
+    }
+}
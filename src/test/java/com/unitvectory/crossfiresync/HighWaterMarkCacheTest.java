@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Base64;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubMessage;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+
+/**
+ * The HighWaterMarkCache test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class HighWaterMarkCacheTest {
+
+    private static final String NAME = "projects/example/databases/east/documents/test/a";
+
+    private static Timestamp time(long seconds) {
+        return Timestamp.ofTimeSecondsAndNanos(seconds, 0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void staleTest(boolean offHeap) {
+        HighWaterMarkCache cache = new HighWaterMarkCache(100, offHeap);
+        assertFalse(cache.isStale("test/a", time(10)));
+
+        cache.record("test/a", time(10));
+        assertTrue(cache.isStale("test/a", time(9)));
+        assertTrue(cache.isStale("test/a", time(10)));
+        assertFalse(cache.isStale("test/a", time(11)));
+        assertFalse(cache.isStale("test/b", time(1)));
+
+        // An older change does not lower the mark
+        cache.record("test/a", time(5));
+        assertTrue(cache.isStale("test/a", time(9)));
+
+        cache.remove("test/a");
+        assertFalse(cache.isStale("test/a", time(9)));
+
+        HighWaterMarkStats stats = cache.getStats();
+        assertEquals(4, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(3, stats.getSkips());
+        assertEquals(0, stats.getSize());
+        assertEquals(4.0 / 7, stats.getHitRate());
+    }
+
+    @Test
+    public void evictionTest() {
+        HighWaterMarkCache cache = new HighWaterMarkCache(100, false);
+        for (int i = 0; i < 100; i++) {
+            cache.record("old/" + i, time(1000));
+        }
+        for (int i = 0; i < 50; i++) {
+            cache.record("new/" + i, time(100000 + i));
+        }
+
+        // The oldest marks are evicted first
+        HighWaterMarkStats stats = cache.getStats();
+        assertEquals(100, stats.getEvictions());
+        assertEquals(50, stats.getSize());
+        assertTrue(cache.isStale("new/0", time(100000)));
+        assertFalse(cache.isStale("old/0", time(1000)));
+
+        // Recent marks are evicted by halving the age until there is room
+        for (int i = 50; i < 200; i++) {
+            cache.record("new/" + i, time(100000 + i));
+        }
+        assertTrue(cache.getStats().getSize() <= 100);
+    }
+
+    @Test
+    public void consumerSkipsStaleTest() throws Exception {
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        DocumentReference documentReference = mock(DocumentReference.class);
+        when(firestore.getDocument(anyString())).thenReturn(documentReference);
+
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .highWaterMarkSize(10).firestoreFactory(settings -> firestore).build());
+
+        consumer.process(update(20));
+        consumer.process(update(20));
+        consumer.process(update(10));
+        verify(firestore, times(1)).updateTransaction(any(), any(), any());
+
+        consumer.process(update(30));
+        verify(firestore, times(2)).updateTransaction(any(), any(), any());
+
+        HighWaterMarkStats stats = consumer.getHighWaterMarkStats();
+        assertEquals(2, stats.getSkips());
+        assertEquals(1, stats.getMisses());
+        assertEquals(3, stats.getHits());
+        assertEquals(1, stats.getSize());
+
+        // The cache is off by default
+        PubSubChangeConsumer disabled = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .firestoreFactory(settings -> firestore).build());
+        assertNull(disabled.getHighWaterMarkStats());
+    }
+
+    private static PubSubPublish update(long seconds) {
+        DocumentEventData change = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().setName(NAME).setUpdateTime(
+                        com.google.protobuf.Timestamp.newBuilder().setSeconds(seconds)))
+                .build();
+        PubSubMessage message = new PubSubMessage();
+        message.setAttributes(Map.of("database", "east"));
+        message.setData(Base64.getEncoder().encodeToString(change.toByteArray()));
+        PubSubPublish data = new PubSubPublish();
+        data.setMessage(message);
+        return data;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.cloud.Timestamp;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.dedupe.EventDeduplicator;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+
+/**
+ * The ListenerPublisher test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ListenerPublisherTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final InMemoryFirestoreFactory firestoreFactory = new InMemoryFirestoreFactory();
+
+    private final InMemoryPublisherFactory publisherFactory = new InMemoryPublisherFactory();
+
+    private ListenerPublisher listenerPublisher(String checkpointFile, long reconnectDelayMillis) {
+        return new ListenerPublisher(ListenerPublisherConfig.builder()
+                .publisherConfig(FirestoreChangeConfig.builder()
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                        .databaseName("west").project("project").topic("topic")
+                        .firestoreFactory(this.firestoreFactory)
+                        .publisherFactory(this.publisherFactory).build())
+                .collectionGroups(List.of("test")).checkpointFile(checkpointFile)
+                .reconnectDelayMillis(reconnectDelayMillis).maxReconnectDelayMillis(1000)
+                .build());
+    }
+
+    private static DocumentEventData change(PubsubMessage message) throws Exception {
+        return DocumentEventData.parseFrom(message.getData());
+    }
+
+    @Test
+    public void publishTest() throws Exception {
+        InMemoryFirestore west = this.firestoreFactory.getDatabase("west");
+        west.set("test/a", Map.of("value", 1));
+
+        ListenerPublisher listenerPublisher = listenerPublisher(null, 1000);
+        listenerPublisher.start();
+
+        // The documents before the listener started are not published
+        InMemoryPublisher topic = this.publisherFactory.getTopic("topic");
+        assertEquals(0, topic.size());
+        assertEquals(1, listenerPublisher.getStats().getSkipped());
+
+        west.set("test/b", Map.of("value", 2));
+        west.set("test/a", Map.of("value", 3));
+        west.deleteDocument("test/b");
+        west.set("other/c", Map.of("value", 4));
+
+        PubsubMessage insert = topic.poll();
+        assertFalse(change(insert).hasOldValue());
+        assertEquals("projects/project/databases/west/documents/test/b",
+                change(insert).getValue().getName());
+        assertTrue(insert.getAttributesOrThrow(EventDeduplicator.EVENT_ID)
+                .startsWith("listener:test/b@"));
+
+        DocumentEventData update = change(topic.poll());
+        assertTrue(update.hasOldValue());
+        assertEquals(3, update.getValue().getFieldsOrThrow("value").getIntegerValue());
+
+        DocumentEventData delete = change(topic.poll());
+        assertFalse(delete.hasValue());
+        assertEquals(2, delete.getOldValue().getFieldsOrThrow("value").getIntegerValue());
+        assertNull(topic.poll());
+
+        // A replicated insert is not published, but an application update to it is
+        Timestamp replicated = Timestamp.ofTimeSecondsAndNanos(100, 0);
+        west.set("test/d", Map.of("value", 5, CrossFireSyncAttributes.TIMESTAMP_FIELD, replicated,
+                CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, "east"));
+        assertNull(topic.poll());
+        west.set("test/d", Map.of("value", 6, CrossFireSyncAttributes.TIMESTAMP_FIELD, replicated,
+                CrossFireSyncAttributes.SOURCE_DATABASE_FIELD, "east"));
+        assertEquals(6, change(topic.poll()).getValue().getFieldsOrThrow("value")
+                .getIntegerValue());
+
+        ListenerPublisherStats stats = listenerPublisher.getStats();
+        assertEquals(6, stats.getSnapshots());
+        assertEquals(5, stats.getChanges());
+        assertEquals(2, stats.getTrackedDocuments());
+
+        // Closed listeners receive no more changes
+        listenerPublisher.close();
+        west.set("test/e", Map.of("value", 7));
+        assertNull(topic.poll());
+    }
+
+    @Test
+    public void reconnectTest() throws Exception {
+        InMemoryFirestore west = this.firestoreFactory.getDatabase("west");
+        west.set("test/a", Map.of("value", 1));
+        west.set("test/b", Map.of("value", 2));
+
+        ListenerPublisher listenerPublisher = listenerPublisher(null, 200);
+        listenerPublisher.start();
+        InMemoryPublisher topic = this.publisherFactory.getTopic("topic");
+
+        // Changed while the listener is disconnected
+        west.disconnectListeners();
+        west.set("test/a", Map.of("value", 3));
+        west.deleteDocument("test/b");
+        assertNull(topic.poll());
+
+        DocumentEventData update = change(topic.poll(5, TimeUnit.SECONDS));
+        assertEquals("projects/project/databases/west/documents/test/a",
+                update.getValue().getName());
+        DocumentEventData delete = change(topic.poll(5, TimeUnit.SECONDS));
+        assertEquals("projects/project/databases/west/documents/test/b",
+                delete.getOldValue().getName());
+        assertFalse(delete.hasValue());
+
+        // Closing waits for the snapshot being published
+        listenerPublisher.close();
+        ListenerPublisherStats stats = listenerPublisher.getStats();
+        assertEquals(1, stats.getReconnects());
+        assertEquals(1, stats.getMissedDeletes());
+        assertEquals(2, stats.getSkipped());
+    }
+
+    @Test
+    public void resumeTest() throws Exception {
+        InMemoryFirestore west = this.firestoreFactory.getDatabase("west");
+        west.set("test/a", Map.of("value", 1));
+        west.set("test/b", Map.of("value", 2));
+
+        String checkpointFile = this.tempDir.resolve("listener.properties").toString();
+        ListenerPublisher first = listenerPublisher(checkpointFile, 1000);
+        first.start();
+        first.close();
+
+        // Changed while no publisher was running
+        west.set("test/b", Map.of("value", 3));
+        west.set("test/c", Map.of("value", 4));
+
+        ListenerPublisher second = listenerPublisher(checkpointFile, 1000);
+        second.start();
+        InMemoryPublisher topic = this.publisherFactory.getTopic("topic");
+        assertEquals(2, topic.size());
+        assertEquals(3, change(topic.poll()).getValue().getFieldsOrThrow("value")
+                .getIntegerValue());
+        assertEquals(4, change(topic.poll()).getValue().getFieldsOrThrow("value")
+                .getIntegerValue());
+        assertEquals(1, second.getStats().getSkipped());
+        second.close();
+    }
+
+    @Test
+    public void flushTest() throws Exception {
+        InMemoryFirestore west = this.firestoreFactory.getDatabase("west");
+        west.set("test/a", Map.of("value", 1));
+
+        String checkpointFile = this.tempDir.resolve("listener.properties").toString();
+        ListenerPublisher first = listenerPublisher(checkpointFile, 1000);
+        first.start();
+        first.close();
+
+        west.set("test/a", Map.of("value", 2));
+        west.set("test/b", Map.of("value", 3));
+        west.set("test/c", Map.of("value", 4));
+
+        InMemoryPublisher topic = spy(new InMemoryPublisher("topic"));
+        ListenerPublisher second = new ListenerPublisher(ListenerPublisherConfig.builder()
+                .publisherConfig(FirestoreChangeConfig.builder()
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                        .databaseName("west").project("project").topic("topic")
+                        .firestoreFactory(this.firestoreFactory)
+                        .publisherFactory(settings -> topic).build())
+                .collectionGroups(List.of("test")).checkpointFile(checkpointFile).build());
+        second.start();
+
+        // The changes of the first snapshot are published together and sent with one flush
+        assertEquals(3, topic.size());
+        verify(topic, times(3)).publishMessageAsync(any());
+        verify(topic, times(1)).flush();
+        second.close();
+
+        // A snapshot with nothing to publish is not flushed
+        ListenerPublisher third = new ListenerPublisher(ListenerPublisherConfig.builder()
+                .publisherConfig(FirestoreChangeConfig.builder()
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                        .databaseName("west").project("project").topic("topic")
+                        .firestoreFactory(this.firestoreFactory)
+                        .publisherFactory(settings -> topic).build())
+                .collectionGroups(List.of("test")).checkpointFile(checkpointFile).build());
+        third.start();
+        verify(topic, times(1)).flush();
+        verify(topic, times(3)).publishMessageAsync(any());
+        third.close();
+    }
+
+    @Test
+    public void digestTest() throws Exception {
+        ReplicationDigest digest = new ReplicationDigest();
+        ListenerPublisher listenerPublisher = new ListenerPublisher(ListenerPublisherConfig
+                .builder()
+                .publisherConfig(FirestoreChangeConfig.builder()
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                        .databaseName("west").project("project").topic("topic").digest(digest)
+                        .firestoreFactory(this.firestoreFactory)
+                        .publisherFactory(this.publisherFactory).build())
+                .collectionGroups(List.of("test")).build());
+        listenerPublisher.start();
+
+        InMemoryFirestore west = this.firestoreFactory.getDatabase("west");
+        west.set("test/a", Map.of("value", 1));
+        west.set("test/b", Map.of("value", 2));
+        west.set("test/a", Map.of("value", 3));
+        west.deleteDocument("test/b");
+        listenerPublisher.close();
+
+        // The update subtracts the hash of the full old document though only its hash was kept
+        ReplicationDigest expected = new ReplicationDigest();
+        expected.apply("test/a", null, Document.newBuilder()
+                .putFields("value", Value.newBuilder().setIntegerValue(3).build()).build());
+        assertEquals(expected.getDigests(), digest.getDigests());
+    }
+
+    @Test
+    public void unsupportedValueTest() {
+        // A value without a protocol buffer conversion fails instead of replicating its string
+        assertThrows(CrossFireSyncException.class,
+                () -> DocumentEventConverter.toValue("project", "west", new Object()));
+        assertThrows(CrossFireSyncException.class, () -> DocumentEventConverter
+                .toValue("project", "west", List.of(Map.of("vector", new Object()))));
+    }
+}
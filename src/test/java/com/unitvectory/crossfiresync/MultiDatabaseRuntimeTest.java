@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.config.DeleteMode;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+
+/**
+ * The MultiDatabaseRuntime test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class MultiDatabaseRuntimeTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final InMemoryFirestoreFactory firestoreFactory = new InMemoryFirestoreFactory();
+
+    private final InMemoryPublisherFactory publisherFactory = new InMemoryPublisherFactory();
+
+    private MultiDatabaseConfig.MultiDatabaseConfigBuilder config(String... databases) {
+        return MultiDatabaseConfig.builder().databases(List.of(databases))
+                .publisherTemplate(FirestoreChangeConfig.builder()
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName(null)
+                        .project("project").topic("topic").firestoreFactory(this.firestoreFactory)
+                        .publisherFactory(this.publisherFactory).build())
+                .consumerTemplate(PubSubChangeConfig.builder()
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName(null)
+                        .firestoreFactory(this.firestoreFactory).build())
+                .subscriptionPrefix("crossfiresync-");
+    }
+
+    private DocumentEventData write(String database, String documentPath) {
+        InMemoryFirestore firestore = this.firestoreFactory.getDatabase(database);
+        firestore.set(documentPath, Map.of("value", 1L));
+        return DocumentEventConverter.toDocumentEventData("project", database, null,
+                firestore.readDocument(documentPath));
+    }
+
+    private static PubSubPublish delivery(PubSubPublish message, String database) {
+        message.setSubscription("projects/project/subscriptions/crossfiresync-" + database);
+        return message;
+    }
+
+    @Test
+    public void dispatchTest() throws Exception {
+        MultiDatabaseRuntime runtime =
+                new MultiDatabaseRuntime(config("east", "west", "central").build());
+        assertEquals(List.of("east", "west", "central"), List.copyOf(runtime.getDatabases()));
+
+        // The change is published by the pipeline of the database it was written to
+        DocumentEventData change = write("east", "test/a");
+        runtime.process(change, change.toByteArray(), "event-1");
+        InMemoryPublisher topic = this.publisherFactory.getTopic("topic");
+        PubsubMessage message = topic.poll();
+        assertEquals("east", message.getAttributesOrThrow("database"));
+
+        // Each region receives it on its own subscription
+        runtime.process(delivery(InMemoryPublisher.toPubSubPublish(message), "west"));
+        runtime.process(delivery(InMemoryPublisher.toPubSubPublish(message), "central"));
+        assertTrue(this.firestoreFactory.getDatabase("west").exists("test/a"));
+        assertTrue(this.firestoreFactory.getDatabase("central").exists("test/a"));
+
+        Map<String, DatabasePipelineStats> stats = runtime.getStats();
+        assertEquals(1, stats.get("east").getPublishedEvents());
+        assertEquals(0, stats.get("east").getConsumedEvents());
+        assertEquals(1, stats.get("west").getConsumedEvents());
+        assertEquals(1, stats.get("central").getConsumedEvents());
+
+        // Each database has its own state
+        assertEquals(1, runtime.getConsumer("west").getDedupeStats().getDeliveries());
+        assertEquals(1, runtime.getConsumer("central").getDedupeStats().getDeliveries());
+
+        // Events for databases that are not served are counted and fail so they are redelivered
+        DocumentEventData other = write("north", "test/a");
+        assertThrows(CrossFireSyncException.class,
+                () -> runtime.process(other, other.toByteArray(), "event-2"));
+        assertThrows(CrossFireSyncException.class, () -> runtime
+                .process(delivery(InMemoryPublisher.toPubSubPublish(message), "north")));
+        PubSubPublish unnamed = InMemoryPublisher.toPubSubPublish(message);
+        unnamed.setSubscription("projects/project/subscriptions/other-west");
+        assertThrows(CrossFireSyncException.class, () -> runtime.process(unnamed));
+        assertEquals(3, runtime.getUnroutedEvents());
+        assertNull(topic.poll());
+        assertNull(runtime.getPublisher("north"));
+    }
+
+    @Test
+    public void unconfiguredPipelineTest() {
+        // A client that fails to load fails the runtime instead of dropping the events
+        MultiDatabaseConfig config = config("east", "west").build();
+        MultiDatabaseConfig publisherFails = config.toBuilder().publisherTemplate(
+                config.getPublisherTemplate().toBuilder().publisherFactory(settings -> {
+                    throw new IOException("Publisher unavailable");
+                }).build()).build();
+        assertThrows(CrossFireSyncException.class,
+                () -> new MultiDatabaseRuntime(publisherFails));
+
+        MultiDatabaseConfig consumerFails = config.toBuilder().publish(false).consumerTemplate(
+                config.getConsumerTemplate().toBuilder().firestoreFactory(settings -> {
+                    throw new IllegalStateException("Firestore unavailable");
+                }).build()).build();
+        assertThrows(CrossFireSyncException.class,
+                () -> new MultiDatabaseRuntime(consumerFails));
+    }
+
+    @Test
+    public void closeTest() throws Exception {
+        MultiDatabaseConfig config = config("east", "west").build();
+        config = config.toBuilder().consumerTemplate(config.getConsumerTemplate().toBuilder()
+                .highWaterMarkSize(100).stateSnapshotDirectory(this.tempDir.toString())
+                .stateSnapshotIntervalSeconds(0).build()).build();
+        MultiDatabaseRuntime runtime = new MultiDatabaseRuntime(config);
+
+        DocumentEventData change = write("east", "test/a");
+        runtime.process(change, change.toByteArray(), "event-1");
+        InMemoryPublisher topic = this.publisherFactory.getTopic("topic");
+        runtime.process(delivery(InMemoryPublisher.toPubSubPublish(topic.poll()), "west"));
+
+        // Closing the runtime saves the state of each pipeline
+        Path snapshot = this.tempDir.resolve("consumer-west.snapshot");
+        assertFalse(Files.exists(snapshot));
+        runtime.close();
+        assertTrue(Files.exists(snapshot));
+
+        MultiDatabaseRuntime restarted = new MultiDatabaseRuntime(config);
+        assertTrue(restarted.getConsumer("west").getStateSnapshotStats().getLoadedEntries() > 0);
+        restarted.close();
+    }
+
+    @Test
+    public void subscriptionDatabaseTest() {
+        MultiDatabaseRuntime runtime = new MultiDatabaseRuntime(config("west").build());
+        assertEquals("west", runtime
+                .getSubscriptionDatabase("projects/project/subscriptions/crossfiresync-west"));
+        assertEquals("west", runtime.getSubscriptionDatabase("crossfiresync-west"));
+        assertNull(runtime.getSubscriptionDatabase("projects/project/subscriptions/west"));
+        assertNull(runtime.getSubscriptionDatabase(null));
+    }
+
+    @Test
+    public void concurrencyLimitTest() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CrossFireSyncFirestore blocked = mock(CrossFireSyncFirestore.class);
+        when(blocked.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+        doAnswer(invocation -> {
+            entered.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return true;
+        }).when(blocked).updateTransaction(any(), any(), any());
+
+        // The west database is slow while central is not
+        MultiDatabaseConfig config = config("west", "central").maxConcurrentEvents(1)
+                .acquireTimeoutMillis(50).publish(false).build();
+        config = config.toBuilder().consumerTemplate(config.getConsumerTemplate().toBuilder()
+                .firestoreFactory(settings -> "west".equals(settings.getDatabaseName()) ? blocked
+                        : this.firestoreFactory.getFirestore(settings))
+                .build()).build();
+        MultiDatabaseRuntime runtime = new MultiDatabaseRuntime(config);
+
+        DocumentEventData change = write("east", "test/a");
+        PubSubPublish first = delivery(message(change, "event-1"), "west");
+        Thread thread = new Thread(() -> {
+            try {
+                runtime.process(first);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // A second event for west is rejected so it is redelivered
+        assertThrows(CrossFireSyncException.class,
+                () -> runtime.process(delivery(message(change, "event-2"), "west")));
+        assertEquals(1, runtime.getStats().get("west").getInFlight());
+        assertEquals(1, runtime.getStats().get("west").getRejected());
+
+        // The other database is not held back
+        runtime.process(delivery(message(change, "event-1"), "central"));
+        assertTrue(this.firestoreFactory.getDatabase("central").exists("test/a"));
+
+        release.countDown();
+        thread.join();
+        DatabasePipelineStats west = runtime.getStats().get("west");
+        assertEquals(1, west.getConsumedEvents());
+        assertEquals(0, west.getInFlight());
+        assertEquals(0, west.getFailures());
+        assertEquals(0, runtime.getStats().get("central").getRejected());
+    }
+
+    private PubSubPublish message(DocumentEventData change, String eventId) {
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .databaseName("east").project("project").topic("source")
+                .firestoreFactory(this.firestoreFactory).publisherFactory(this.publisherFactory)
+                .build());
+        publisher.process(change, change.toByteArray(), eventId);
+        return InMemoryPublisher.toPubSubPublish(this.publisherFactory.getTopic("source").poll());
+    }
+
+    @Test
+    public void sharedTombstoneStoreTest() throws Exception {
+        MultiDatabaseConfig config = config("east", "west").build();
+        config = config.toBuilder().consumerTemplate(
+                config.getConsumerTemplate().toBuilder().deleteMode(DeleteMode.DIRECT).build())
+                .build();
+        MultiDatabaseRuntime runtime = new MultiDatabaseRuntime(config);
+
+        // The document is replicated to west and then deleted in east
+        DocumentEventData change = write("east", "test/a");
+        runtime.process(change, change.toByteArray(), "event-1");
+        InMemoryPublisher topic = this.publisherFactory.getTopic("topic");
+        runtime.process(delivery(InMemoryPublisher.toPubSubPublish(topic.poll()), "west"));
+        assertTrue(this.firestoreFactory.getDatabase("west").exists("test/a"));
+
+        DocumentEventData replica = DocumentEventConverter.toDocumentEventData("project", "west",
+                null, this.firestoreFactory.getDatabase("west").readDocument("test/a"));
+        DocumentEventData delete = DocumentEventData.newBuilder()
+                .setOldValue(change.getValue()).build();
+        runtime.process(delete, delete.toByteArray(), "event-2");
+        runtime.process(delivery(InMemoryPublisher.toPubSubPublish(topic.poll()), "west"));
+        assertFalse(this.firestoreFactory.getDatabase("west").exists("test/a"));
+
+        // The publisher of west sees the tombstone of its consumer and does not publish it back
+        DocumentEventData echo =
+                DocumentEventData.newBuilder().setOldValue(replica.getValue()).build();
+        runtime.process(echo, echo.toByteArray(), "event-3");
+        assertNull(topic.poll());
+    }
+}
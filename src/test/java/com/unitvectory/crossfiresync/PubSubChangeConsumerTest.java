@@ -15,7 +15,6 @@ package com.unitvectory.crossfiresync;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
@@ -79,7 +78,8 @@ public class PubSubChangeConsumerTest extends JsonNodeParamUnit {
             @SuppressWarnings("unchecked")
             ArgumentCaptor<Map<String, Object>> updateCaptor = ArgumentCaptor.forClass(Map.class);
 
-            doNothing().when(firestore).updateTransaction(any(), any(), updateCaptor.capture());
+            when(firestore.updateTransaction(any(), any(), updateCaptor.capture()))
+                    .thenReturn(true);
 
             // Needing to capture the update argment to use as part of the test case output
             @SuppressWarnings("unchecked")
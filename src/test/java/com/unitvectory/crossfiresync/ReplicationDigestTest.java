@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.Timestamp;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+import com.unitvectory.firestoreproto2map.FirestoreProto2Map;
+
+/**
+ * The ReplicationDigest test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class ReplicationDigestTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private static Document document(String value) {
+        return Document.newBuilder().putFields("foo", Value.newBuilder().setStringValue(value).build())
+                .build();
+    }
+
+    @Test
+    public void orderIndependentTest() {
+        ReplicationDigest first = new ReplicationDigest();
+        first.apply("test/a", null, document("1"));
+        first.apply("test/a", document("1"), document("2"));
+        first.apply("test/b", null, document("3"));
+        first.apply("other/c", null, document("4"));
+        first.apply("other/c", document("4"), null);
+
+        ReplicationDigest second = new ReplicationDigest();
+        second.apply("test/b", null, document("3"));
+        second.apply("other/c", null, document("4"));
+        second.apply("test/a", null, document("1"));
+        second.apply("other/c", document("4"), null);
+        second.apply("test/a", document("1"), document("2"));
+
+        ReplicationDigest expected = new ReplicationDigest();
+        expected.apply("test/a", null, document("2"));
+        expected.apply("test/b", null, document("3"));
+
+        assertEquals(expected.getDigests(), first.getDigests());
+        assertEquals(expected.getDigests(), second.getDigests());
+        assertEquals(2, first.getDigests().get("test").getCount());
+        assertTrue(ReplicationDigest.compare(first.getDigests(), second.getDigests()).isEmpty());
+    }
+
+    @Test
+    public void subcollectionTest() {
+        ReplicationDigest digest = new ReplicationDigest();
+        digest.apply("test/a/sub/b", null, document("1"));
+        digest.apply("test", null, document("1"));
+
+        assertEquals(Set.of("test"), digest.getDigests().keySet());
+    }
+
+    @Test
+    public void flaggedForDeleteTest() {
+        Document flagged = document("1").toBuilder()
+                .putFields(CrossFireSyncAttributes.DELETE_FIELD,
+                        Value.newBuilder().setBooleanValue(true).build())
+                .build();
+
+        ReplicationDigest digest = new ReplicationDigest();
+        digest.apply("test/a", null, document("1"));
+        digest.apply("test/a", document("1"), flagged);
+        digest.apply("test/a", flagged, null);
+
+        assertTrue(digest.getDigests().isEmpty());
+    }
+
+    @Test
+    public void persistAndCompareTest() {
+        Path file = tempDir.resolve("digest.properties");
+
+        ReplicationDigest digest = new ReplicationDigest(file, 0);
+        digest.apply("test/a", null, document("1"));
+        digest.apply("other/b", null, document("2"));
+        digest.close();
+
+        ReplicationDigest reloaded = new ReplicationDigest(file, 0);
+        assertEquals(digest.getDigests(), reloaded.getDigests());
+        assertEquals(digest.getDigests(), ReplicationDigest.load(file));
+
+        reloaded.apply("test/a", document("1"), document("changed"));
+        assertEquals(Set.of("test"),
+                ReplicationDigest.compare(ReplicationDigest.load(file), reloaded.getDigests()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/consumer/complexDocument.json", "/consumer/insertReference.json"})
+    public void protobufMatchesMapTest(String resource) throws Exception {
+        JsonNode fixture;
+        try (InputStream in = ReplicationDigestTest.class.getResourceAsStream(resource)) {
+            fixture = mapper.readTree(in);
+        }
+
+        DocumentEventData firestoreEventData = DocumentEventData.parseFrom(Base64.getDecoder()
+                .decode(fixture.get("input").get("message").get("data").asText()));
+        Document document = firestoreEventData.getValue();
+
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        when(firestore.convert(anyString(), anyString())).thenAnswer(invocation -> {
+            DocumentReference documentReference = mock(DocumentReference.class);
+            when(documentReference.getPath()).thenReturn(invocation.getArgument(1));
+            return documentReference;
+        });
+        Map<String, Object> data = new FirestoreProto2Map(firestore).convert(document);
+
+        assertEquals(DocumentHasher.hashDocument(data), DocumentHasher.hashDocument(document));
+        assertNotEquals(DocumentHasher.hashDocument(document),
+                DocumentHasher.hashDocument(document("other")));
+    }
+
+    @Test
+    public void supersededNotTrackedTest() {
+        ReplicationDigest digest = new ReplicationDigest();
+        CrossFireSyncPublish superseded = message -> CrossFireSyncPublish.SUPERSEDED;
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.SINGLE_REGION_PRIMARY)
+                .databaseName("west").project("project").topic("topic").digest(digest)
+                .firestoreFactory(new InMemoryFirestoreFactory())
+                .publisherFactory(settings -> superseded).build());
+
+        // A change replaced by a newer one before it was published is not tracked
+        DocumentEventData change = DocumentEventData.newBuilder().setValue(document("1").toBuilder()
+                .setName("projects/project/databases/west/documents/test/a")).build();
+        publisher.process(change, change.toByteArray(), "event-1");
+        assertTrue(digest.getDigests().isEmpty());
+    }
+
+    @Test
+    public void staleChangeNotTrackedTest() throws Exception {
+        ReplicationDigest digest = new ReplicationDigest();
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName("west")
+                .firestoreFactory(new InMemoryFirestoreFactory()).digest(digest).build());
+
+        // A redelivery and an older change are skipped by the transaction and not tracked
+        consumer.process(delivery(change("2", 2)));
+        consumer.process(delivery(change("2", 2)));
+        consumer.process(delivery(change("1", 1)));
+
+        ReplicationDigest expected = new ReplicationDigest();
+        expected.apply("test/a", null, document("2"));
+        assertEquals(expected.getDigests(), digest.getDigests());
+    }
+
+    private static DocumentEventData change(String value, long seconds) {
+        return DocumentEventData.newBuilder().setValue(document(value).toBuilder()
+                .setName("projects/project/databases/east/documents/test/a")
+                .setUpdateTime(Timestamp.newBuilder().setSeconds(seconds)))
+                .build();
+    }
+
+    private static PubSubPublish delivery(DocumentEventData change) {
+        return InMemoryPublisher.toPubSubPublish(PubsubMessage.newBuilder()
+                .setData(change.toByteString()).putAttributes("database", "east").build());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubMessage;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+
+/**
+ * The StateSnapshot test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class StateSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static Timestamp time(long seconds) {
+        return Timestamp.ofTimeSecondsAndNanos(seconds, 42);
+    }
+
+    private static StateSnapshot snapshot(Path file, HighWaterMarkCache highWaterMarks,
+            TombstoneStore tombstones) {
+        return new StateSnapshot(file, 0,
+                Map.of("highWaterMarks", highWaterMarks, "tombstones", tombstones));
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        Path file = tempDir.resolve("state/consumer.snapshot");
+
+        HighWaterMarkCache highWaterMarks = new HighWaterMarkCache(1000, false);
+        TombstoneStore tombstones = new TombstoneStore();
+        for (int i = 0; i < 500; i++) {
+            highWaterMarks.record("test/" + i, time(1000 + i));
+        }
+        tombstones.record("test/a", "east", time(2000));
+        tombstones.record("test/b", "central", time(2001));
+
+        StateSnapshot snapshot = snapshot(file, highWaterMarks, tombstones);
+        snapshot.close();
+        assertEquals(1, snapshot.getStats().getSaves());
+        assertEquals(snapshot.getStats().getLastSaveBytes(), Files.size(file));
+
+        // A restarted instance loads the state
+        HighWaterMarkCache reloadedMarks = new HighWaterMarkCache(1000, true);
+        TombstoneStore reloadedTombstones = new TombstoneStore();
+        StateSnapshot reloaded = snapshot(file, reloadedMarks, reloadedTombstones);
+
+        StateSnapshotStats stats = reloaded.getStats();
+        assertEquals(502, stats.getLoadedEntries());
+        assertTrue(stats.getLoadNanos() > 0);
+        assertEquals(0, stats.getFailures());
+
+        assertTrue(reloadedMarks.isStale("test/7", time(1007)));
+        assertFalse(reloadedMarks.isStale("test/7", time(1008)));
+        assertEquals(500, reloadedMarks.getStats().getSize());
+        assertEquals("central", reloadedTombstones.get("test/b").getSourceDatabase());
+        assertEquals(time(2000), reloadedTombstones.get("test/a").getTimestamp());
+        assertTrue(reloadedTombstones.isReplicatedDelete("test/a", "west"));
+    }
+
+    @Test
+    public void corruptSnapshotIgnoredTest() throws Exception {
+        Path file = tempDir.resolve("consumer.snapshot");
+        HighWaterMarkCache highWaterMarks = new HighWaterMarkCache(10, false);
+        highWaterMarks.record("test/a", time(1000));
+        snapshot(file, highWaterMarks, new TombstoneStore()).flush();
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        HighWaterMarkCache reloadedMarks = new HighWaterMarkCache(10, false);
+        StateSnapshot reloaded = snapshot(file, reloadedMarks, new TombstoneStore());
+        assertEquals(0, reloaded.getStats().getLoadedEntries());
+        assertEquals(1, reloaded.getStats().getFailures());
+        assertEquals(0, reloadedMarks.getStats().getSize());
+
+        // A snapshot from a newer version is ignored the same way
+        bytes[bytes.length - 1] ^= 1;
+        bytes[7] = (byte) (StateSnapshot.VERSION + 1);
+        Files.write(file, bytes);
+        assertEquals(1, snapshot(file, reloadedMarks, new TombstoneStore()).getStats()
+                .getFailures());
+    }
+
+    @Test
+    public void consumerStartsWarmTest() throws Exception {
+        HighWaterMarkCache highWaterMarks = new HighWaterMarkCache(10, false);
+        highWaterMarks.record("test/a", Timestamp.ofTimeSecondsAndNanos(20, 0));
+        new StateSnapshot(tempDir.resolve("consumer-west.snapshot"), 0,
+                Map.of("highWaterMarks", highWaterMarks)).flush();
+
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        when(firestore.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .stateSnapshotDirectory(tempDir.toString()).stateSnapshotIntervalSeconds(0)
+                .highWaterMarkSize(10).firestoreFactory(settings -> firestore).build());
+        assertEquals(1, consumer.getStateSnapshotStats().getLoadedEntries());
+
+        // The change was applied by the previous instance
+        DocumentEventData change = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder()
+                        .setName("projects/example/databases/east/documents/test/a")
+                        .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(20)))
+                .build();
+        PubSubMessage message = new PubSubMessage();
+        message.setAttributes(Map.of("database", "east"));
+        message.setData(Base64.getEncoder().encodeToString(change.toByteArray()));
+        PubSubPublish data = new PubSubPublish();
+        data.setMessage(message);
+        consumer.process(data);
+        verify(firestore, never()).updateTransaction(any(), any(), any());
+
+        PubSubChangeConsumer unsaved = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .stateSnapshotDirectory(null).firestoreFactory(settings -> firestore).build());
+        assertNull(unsaved.getStateSnapshotStats());
+    }
+}
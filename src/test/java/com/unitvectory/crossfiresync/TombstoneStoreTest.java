@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.unitvectory.crossfiresync.config.DeleteMode;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.pubsub.CrossFireSyncPublish;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubMessage;
+import com.unitvectory.crossfiresync.pubsub.model.PubSubPublish;
+
+/**
+ * The TombstoneStore test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TombstoneStoreTest {
+
+    private static final String NAME = "projects/example/databases/east/documents/test/a";
+
+    private static final Timestamp TIME = Timestamp.ofTimeSecondsAndNanos(1000, 0);
+
+    @Test
+    public void tableMatchesMapTest() {
+        Random random = new Random(42);
+        PathTimestampTable table = new PathTimestampTable(4);
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 20000; i++) {
+            // A small key space so keys collide in the table and are removed often
+            long key = PathTimestampTable.key("test/" + random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, table.remove(key));
+            } else {
+                long seconds = random.nextInt(1000);
+                boolean newer = !expected.containsKey(key) || seconds > expected.get(key);
+                assertEquals(newer, table.putIfNewer(key, seconds, 0, 0));
+                if (newer) {
+                    expected.put(key, seconds);
+                }
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            int slot = table.find(entry.getKey());
+            assertTrue(slot >= 0);
+            assertEquals(entry.getValue(), table.seconds(slot));
+        }
+
+        int removed = table.removeOlderThan(500, 0);
+        expected.values().removeIf(seconds -> seconds < 500);
+        assertEquals(expected.size(), table.size());
+        assertTrue(removed > 0);
+    }
+
+    @Test
+    public void storeTest() {
+        TombstoneStore store = new TombstoneStore(Duration.ofSeconds(100), 1000);
+        store.record("test/a", "east", TIME);
+
+        assertEquals(new Tombstone("test/a", "east", TIME), store.get("test/a"));
+        assertNull(store.get("test/b"));
+        assertTrue(store.isReplicatedDelete("test/a", "west"));
+        assertFalse(store.isReplicatedDelete("test/a", "east"));
+        assertTrue(store.isDeletedAfter("test/a", Timestamp.ofTimeSecondsAndNanos(999, 0)));
+        assertFalse(store.isDeletedAfter("test/a", Timestamp.ofTimeSecondsAndNanos(1000, 1)));
+
+        // Recording when full expires the tombstones older than the retention
+        TombstoneStore full = new TombstoneStore(Duration.ofSeconds(100), 2);
+        full.record("test/a", "east", TIME);
+        full.record("test/b", "east", TIME);
+        full.record("test/c", "east", Timestamp.ofTimeSecondsAndNanos(2000, 0));
+        assertEquals(1, full.size());
+        assertNull(full.get("test/a"));
+    }
+
+    @Test
+    public void directDeleteTest() throws Exception {
+        TombstoneStore store = new TombstoneStore();
+
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        DocumentReference documentReference = mock(DocumentReference.class);
+        when(firestore.getDocument(anyString())).thenReturn(documentReference);
+        when(firestore.now()).thenReturn(TIME);
+        when(firestore.deleteWithPrecondition(documentReference, TIME)).thenReturn(true);
+
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .deleteMode(DeleteMode.DIRECT).tombstoneStore(store)
+                .firestoreFactory(settings -> firestore).build());
+
+        CrossFireSyncPublish publish = mock(CrossFireSyncPublish.class);
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(
+                FirestoreChangeConfig.builder().databaseName("west")
+                        .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                        .tombstoneStore(store).firestoreFactory(settings -> firestore)
+                        .publisherFactory(settings -> publish).build());
+
+        // The delete replicated from east is applied with a single delete
+        DocumentEventData delete = DocumentEventData.newBuilder()
+                .setOldValue(Document.newBuilder().setName(NAME)).build();
+        PubSubMessage message = new PubSubMessage();
+        message.setAttributes(Map.of("database", "east"));
+        message.setData(Base64.getEncoder().encodeToString(delete.toByteArray()));
+        PubSubPublish data = new PubSubPublish();
+        data.setMessage(message);
+        consumer.process(data);
+
+        verify(firestore).deleteWithPrecondition(documentReference, TIME);
+        verify(firestore, never()).deleteFlagTransaction(any(), any());
+
+        // The resulting delete event in west is not published back
+        DocumentEventData echo = DocumentEventData.newBuilder().setOldValue(Document.newBuilder()
+                .setName("projects/example/databases/west/documents/test/a")).build();
+        publisher.process(echo, echo.toByteArray());
+        verify(publish, never()).publishMessage(any());
+
+        // An update older than the delete is skipped
+        DocumentEventData stale = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().setName(NAME)
+                        .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(999)))
+                .build();
+        message.setData(Base64.getEncoder().encodeToString(stale.toByteArray()));
+        consumer.process(data);
+        verify(firestore, never()).updateTransaction(any(), any(), any());
+    }
+
+    @Test
+    public void directDeleteRecreateTest() throws Exception {
+        TombstoneStore store = new TombstoneStore();
+
+        // The delete arrives long after it was committed in east
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        DocumentReference documentReference = mock(DocumentReference.class);
+        when(firestore.getDocument(anyString())).thenReturn(documentReference);
+        when(firestore.now()).thenReturn(Timestamp.ofTimeSecondsAndNanos(2000, 0));
+        when(firestore.deleteWithPrecondition(documentReference, TIME)).thenReturn(true);
+
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .deleteMode(DeleteMode.DIRECT).tombstoneStore(store)
+                .firestoreFactory(settings -> firestore).build());
+
+        // The tombstone and the precondition have the update time of the deleted version
+        DocumentEventData delete = DocumentEventData.newBuilder()
+                .setOldValue(Document.newBuilder().setName(NAME).setUpdateTime(
+                        com.google.protobuf.Timestamp.newBuilder().setSeconds(1000)))
+                .build();
+        PubSubMessage message = new PubSubMessage();
+        message.setAttributes(Map.of("database", "east"));
+        message.setData(Base64.getEncoder().encodeToString(delete.toByteArray()));
+        PubSubPublish data = new PubSubPublish();
+        data.setMessage(message);
+        consumer.process(data);
+
+        verify(firestore).deleteWithPrecondition(documentReference, TIME);
+        assertEquals(new Tombstone("test/a", "east", TIME), store.get("test/a"));
+
+        // The document recreated in east during the lag is applied
+        DocumentEventData recreate = DocumentEventData.newBuilder()
+                .setValue(Document.newBuilder().setName(NAME)
+                        .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(1001)))
+                .build();
+        message.setData(Base64.getEncoder().encodeToString(recreate.toByteArray()));
+        consumer.process(data);
+        verify(firestore).updateTransaction(any(), any(), any());
+    }
+
+    @Test
+    public void directDeleteRequiresStoreTest() throws Exception {
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+
+        // Without a TombstoneStore shared with the publisher DIRECT mode is not configured
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .deleteMode(DeleteMode.DIRECT).firestoreFactory(settings -> firestore).build());
+
+        DocumentEventData delete = DocumentEventData.newBuilder()
+                .setOldValue(Document.newBuilder().setName(NAME)).build();
+        PubSubMessage message = new PubSubMessage();
+        message.setAttributes(Map.of("database", "east"));
+        message.setData(Base64.getEncoder().encodeToString(delete.toByteArray()));
+        PubSubPublish data = new PubSubPublish();
+        data.setMessage(message);
+        consumer.process(data);
+
+        verify(firestore, never()).deleteWithPrecondition(any(), any());
+        verify(firestore, never()).deleteFlagTransaction(any(), any());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.Timestamp;
+import com.unitvectory.crossfiresync.firestore.CrossFireSyncFirestore;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+
+/**
+ * The TombstoneSweeper test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TombstoneSweeperTest {
+
+    private static List<FirestoreDocument> flagged(int from, int count) {
+        List<FirestoreDocument> documents = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(i, 0);
+            documents.add(FirestoreDocument.builder().documentPath(String.format("test/%05d", i))
+                    .data(Map.of(CrossFireSyncAttributes.DELETE_FIELD, true,
+                            CrossFireSyncAttributes.TIMESTAMP_FIELD, timestamp))
+                    .updateTime(timestamp).build());
+        }
+        return documents;
+    }
+
+    @Test
+    public void sweepTest() {
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        when(firestore.now()).thenReturn(Timestamp.ofTimeSecondsAndNanos(10000, 0));
+
+        Timestamp flaggedBefore = Timestamp.ofTimeSecondsAndNanos(10000 - 3600, 0);
+        when(firestore.queryFlaggedForDelete(eq("test"), eq(flaggedBefore), isNull(), isNull(),
+                eq(2))).thenReturn(flagged(0, 2));
+        when(firestore.queryFlaggedForDelete("test", flaggedBefore,
+                Timestamp.ofTimeSecondsAndNanos(1, 0), "test/00001", 2)).thenReturn(flagged(2, 1));
+
+        // One document was written again after being read and is left alone
+        when(firestore.bulkDelete(anyList(), anyInt())).thenAnswer(
+                invocation -> invocation.getArgument(0, List.class).size() == 2 ? 2 : 0);
+
+        TombstoneSweeper sweeper = new TombstoneSweeper(TombstoneSweeperConfig.builder()
+                .databaseName("east").collectionGroups(List.of("test")).minAgeSeconds(3600)
+                .maxDeletesPerSecond(50).pageSize(2).firestoreFactory(settings -> firestore)
+                .build());
+
+        TombstoneSweepResult result = sweeper.run();
+        assertEquals(2, result.getPages());
+        assertEquals(3, result.getFound());
+        assertEquals(2, result.getRemoved());
+        verify(firestore).bulkDelete(flagged(2, 1), 50);
+    }
+
+    @Test
+    public void notConfiguredTest() {
+        CrossFireSyncFirestore firestore = mock(CrossFireSyncFirestore.class);
+        TombstoneSweeper sweeper = new TombstoneSweeper(TombstoneSweeperConfig.builder()
+                .databaseName("east").collectionGroups(List.of())
+                .firestoreFactory(settings -> firestore).build());
+
+        assertEquals(TombstoneSweepResult.builder().build(), sweeper.run());
+        verify(firestore, never()).bulkDelete(any(), anyInt());
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.unitvectory.crossfiresync.config.DeleteMode;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.LatencyDistribution;
+
+/**
+ * The TopologySimulator test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TopologySimulatorTest {
+
+    /**
+     * A single writer waiting longer than the replication latency between writes.
+     */
+    private static SimulationWorkload.SimulationWorkloadBuilder sequential() {
+        return SimulationWorkload.builder().writers(1).writesPerWriter(100).documents(50)
+                .writeInterval(LatencyDistribution.fixed(Duration.ofSeconds(1)));
+    }
+
+    private static TopologySimulatorConfig.TopologySimulatorConfigBuilder config() {
+        return TopologySimulatorConfig.builder().regions(3).seed(42)
+                .workload(sequential().build());
+    }
+
+    @Test
+    public void multiRegionTest() {
+        TopologySimulationReport report = new TopologySimulator(config().build()).run();
+
+        assertEquals(ReplicationMode.MULTI_REGION_PRIMARY, report.getReplicationMode());
+        assertEquals(100, report.getUserWrites());
+        assertTrue(report.isConverged(), report.getDivergentDocuments().toString());
+
+        // Only the user writes are published and every region receives every message
+        assertEquals(100, report.getMessagesPublished());
+        assertEquals(300, report.getMessagesDelivered());
+        assertEquals(1.0, report.getMessagesPerWrite());
+        assertTrue(report.getWritesPerWrite() >= 3.0);
+        assertTrue(report.getConvergenceNanos() > 0);
+    }
+
+    @Test
+    public void singleRegionTest() {
+        TopologySimulationReport report = new TopologySimulator(
+                config().replicationMode(ReplicationMode.SINGLE_REGION_PRIMARY).build()).run();
+
+        assertTrue(report.isConverged(), report.getDivergentDocuments().toString());
+        assertEquals(100, report.getMessagesPublished());
+        assertEquals(200, report.getMessagesDelivered());
+        assertEquals(100, report.getPublisherInvocations());
+    }
+
+    @Test
+    public void deletesTest() {
+        for (DeleteMode deleteMode : DeleteMode.values()) {
+            TopologySimulationReport report = new TopologySimulator(config().deleteMode(deleteMode)
+                    .workload(sequential().documents(10).deleteRate(0.3).build()).build()).run();
+
+            assertFalse(report.isLoopDetected(), deleteMode.name());
+            assertTrue(report.getDocumentDeletes() > 0, deleteMode.name());
+            assertTrue(report.getDivergentDocuments().isEmpty(),
+                    deleteMode + " " + report.getDivergentDocuments());
+        }
+    }
+
+    @Test
+    public void hotDocumentTest() {
+        TopologySimulationReport report = new TopologySimulator(config()
+                .workload(SimulationWorkload.builder().writers(8).writesPerWriter(25)
+                        .documents(50).hotDocuments(1).hotWriteRate(1).build())
+                .build()).run();
+
+        assertFalse(report.isLoopDetected());
+        assertEquals(200, report.getUserWrites());
+        assertEquals(200, report.getMessagesPublished());
+    }
+
+    @Test
+    public void divergenceDetectedTest() {
+        // Two writers write the same document at the same time; when they write in different
+        // regions each region applies the other region's write last
+        boolean diverged = false;
+        for (long seed = 0; seed < 20; seed++) {
+            TopologySimulationReport report = new TopologySimulator(TopologySimulatorConfig
+                    .builder().regions(2).seed(seed)
+                    .triggerLatency(LatencyDistribution.fixed(Duration.ofMillis(100)))
+                    .deliveryLatency(LatencyDistribution.fixed(Duration.ofMillis(100)))
+                    .workload(SimulationWorkload.builder().writers(2).writesPerWriter(1)
+                            .documents(1).writeInterval(
+                                    LatencyDistribution.fixed(Duration.ofMillis(10)))
+                            .build())
+                    .build()).run();
+
+            assertFalse(report.isLoopDetected());
+            if (!report.getDivergentDocuments().isEmpty()) {
+                assertEquals(List.of("simulation/document-0"), report.getDivergentDocuments());
+                assertFalse(report.isConverged());
+                diverged = true;
+            }
+        }
+        assertTrue(diverged);
+    }
+
+    @Test
+    public void loopDetectedTest() {
+        TopologySimulationReport report =
+                new TopologySimulator(config().maxInvocationsPerWrite(1).build()).run();
+
+        assertTrue(report.isLoopDetected());
+        assertFalse(report.isConverged());
+        assertFalse(report.getLoopingDocuments().isEmpty());
+    }
+
+    @Test
+    public void compareTest() {
+        Map<ReplicationMode, TopologySimulationReport> reports =
+                TopologySimulator.compare(config().build());
+
+        assertEquals(2, reports.size());
+        double single = reports.get(ReplicationMode.SINGLE_REGION_PRIMARY).getInvocationsPerWrite();
+        double multi = reports.get(ReplicationMode.MULTI_REGION_PRIMARY).getInvocationsPerWrite();
+        assertTrue(single < multi);
+    }
+
+    @Test
+    public void notConfiguredTest() {
+        TopologySimulationReport report = new TopologySimulator(config().regions(1).build()).run();
+
+        assertEquals(0, report.getUserWrites());
+        assertTrue(report.getDivergentDocuments().isEmpty());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.gax.retrying.RetrySettings;
+import com.unitvectory.crossfiresync.config.TransportProfile;
+import com.unitvectory.crossfiresync.config.TransportSettings;
+import com.unitvectory.crossfiresync.firestore.ConfigFirestoreSettings;
+import com.unitvectory.crossfiresync.memory.FaultInjection;
+import com.unitvectory.crossfiresync.memory.LatencyDistribution;
+import com.unitvectory.crossfiresync.pubsub.ConfigPublisherSettings;
+import com.unitvectory.crossfiresync.retry.RetryPolicy;
+
+/**
+ * The TransportBenchmark test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TransportBenchmarkTest {
+
+    @Test
+    public void profileTest() {
+        assertSame(TransportSettings.NONE, TransportProfile.DEFAULT.getSettings());
+        assertFalse(TransportSettings.NONE.isChannelTuned());
+        assertFalse(TransportSettings.NONE.isRetryTuned());
+        assertFalse(TransportSettings.NONE.isBatchingTuned());
+
+        TransportSettings lowLatency = TransportProfile.LOW_LATENCY.getSettings();
+        assertTrue(lowLatency.isChannelTuned());
+        assertEquals(1, lowLatency.getBatchMaxMessages());
+        assertTrue(TransportProfile.HIGH_THROUGHPUT.getSettings().getBatchMaxMessages() > 1);
+        assertEquals(1, TransportProfile.HIGH_THROUGHPUT.getSettings().getBatchMaxDelayMillis());
+        assertEquals(0,
+                TransportProfile.SERVERLESS_MINIMAL.getSettings().getKeepAliveTimeSeconds());
+
+        assertEquals(TransportProfile.LOW_LATENCY,
+                TransportProfile.parseFallbackToDefault("LOW_LATENCY"));
+        assertEquals(TransportProfile.DEFAULT, TransportProfile.parseFallbackToDefault("FAST"));
+        assertEquals(TransportProfile.DEFAULT, TransportProfile.parseFallbackToDefault(null));
+    }
+
+    @Test
+    public void settingsTest() {
+        TransportSettings transport = TransportProfile.SERVERLESS_MINIMAL.getSettings();
+        assertSame(transport, ConfigFirestoreSettings
+                .build(PubSubChangeConfig.builder().transport(transport).build()).getTransport());
+        assertSame(transport, ConfigPublisherSettings
+                .build(FirestoreChangeConfig.builder().transport(transport).build())
+                .getTransport());
+
+        RetrySettings retrySettings = TransportOptions.retrySettings(transport);
+        assertEquals(3, retrySettings.getMaxAttempts());
+        assertEquals(2.0, retrySettings.getRetryDelayMultiplier());
+        assertEquals(1.0, retrySettings.getRpcTimeoutMultiplier());
+
+        RetryPolicy retryPolicy = TransportBenchmark.retryPolicy(transport);
+        assertEquals(3, retryPolicy.getMaxAttempts());
+        assertEquals(100, retryPolicy.getInitialBackoffMillis());
+        assertEquals(1, TransportBenchmark.retryPolicy(TransportSettings.NONE).getMaxAttempts());
+    }
+
+    @Test
+    public void benchmarkTest() {
+        TransportBenchmark benchmark = new TransportBenchmark(TransportBenchmarkConfig.builder()
+                .profiles(
+                        List.of(TransportProfile.LOW_LATENCY, TransportProfile.SERVERLESS_MINIMAL))
+                .events(40).documents(10)
+                .faults(FaultInjection.builder()
+                        .latency(LatencyDistribution.fixed(Duration.ofMillis(1))).build())
+                .build());
+
+        List<TransportBenchmarkResult> results = benchmark.run();
+        assertEquals(2, results.size());
+        assertEquals(TransportProfile.LOW_LATENCY, results.get(0).getProfile());
+        assertEquals(8, results.get(0).getConcurrency());
+        assertEquals(1, results.get(1).getConcurrency());
+        for (TransportBenchmarkResult result : results) {
+            assertEquals(40, result.getEvents());
+            assertEquals(0, result.getFailedEvents());
+            assertEquals(0, result.getDeadlineExceeded());
+            assertTrue(result.getP50Nanos() >= Duration.ofMillis(1).toNanos());
+            assertTrue(result.getP99Nanos() >= result.getP50Nanos());
+            assertTrue(result.getEventsPerSecond() > 0);
+        }
+    }
+
+    @Test
+    public void retriesTest() {
+        TransportBenchmarkResult result = new TransportBenchmark(TransportBenchmarkConfig
+                .builder().events(50).documents(10)
+                .faults(FaultInjection.builder().errorRate(0.2).seed(7).build()).build())
+                .run(TransportProfile.HIGH_THROUGHPUT);
+
+        // Injected failures are retried with the backoff of the profile
+        assertTrue(result.getRetries() > 0);
+        assertEquals(16, result.getConcurrency());
+    }
+}
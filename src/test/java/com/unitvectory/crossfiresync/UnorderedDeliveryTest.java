@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestore;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+
+/**
+ * The unordered delivery test class; changes are delivered shuffled and duplicated and the
+ * replica must still converge on the source.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class UnorderedDeliveryTest {
+
+    private static final String[] PATHS = {"test/a", "test/b", "test/c", "other/d"};
+
+    private final InMemoryFirestoreFactory firestoreFactory = new InMemoryFirestoreFactory();
+
+    private final InMemoryPublisherFactory publisherFactory = new InMemoryPublisherFactory();
+
+    private FirestoreChangePublisher publisher(String database, String topic,
+            ReplicationMode replicationMode) {
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(replicationMode).databaseName(database)
+                .project("project").topic(topic).unorderedDelivery(true)
+                .firestoreFactory(this.firestoreFactory).publisherFactory(this.publisherFactory)
+                .build());
+        this.firestoreFactory.getDatabase(database).addListener(change -> {
+            DocumentEventData firestoreEventData = DocumentEventConverter.toDocumentEventData(
+                    "project", change.getDatabase(), change.getOldValue(), change.getValue());
+            publisher.process(firestoreEventData, firestoreEventData.toByteArray());
+        });
+        return publisher;
+    }
+
+    private PubSubChangeConsumer consumer(String database, ReplicationMode replicationMode,
+            boolean directWrite) {
+        return new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(replicationMode).databaseName(database)
+                .unorderedDelivery(true).directWrite(directWrite)
+                .firestoreFactory(this.firestoreFactory).build());
+    }
+
+    /**
+     * Write, delete, and recreate documents in the source region.
+     */
+    private static void workload(InMemoryFirestore east, Random random) {
+        for (int i = 0; i < 200; i++) {
+            String documentPath = PATHS[random.nextInt(PATHS.length)];
+            if (random.nextInt(4) == 0) {
+                east.deleteDocument(documentPath);
+            } else {
+                east.set(documentPath, Map.of("value", (long) i, "name", "v" + i));
+            }
+        }
+    }
+
+    /**
+     * Shuffle the messages and redeliver some of them.
+     */
+    private static List<PubsubMessage> shuffle(List<PubsubMessage> messages, Random random) {
+        List<PubsubMessage> delivered = new ArrayList<>(messages);
+        for (PubsubMessage message : messages) {
+            if (random.nextInt(5) == 0) {
+                delivered.add(message);
+            }
+        }
+        Collections.shuffle(delivered, random);
+        return delivered;
+    }
+
+    /**
+     * The hash of each document, documents flagged for delete are treated as deleted.
+     */
+    private static Map<String, Long> hashes(InMemoryFirestore firestore) {
+        Map<String, Long> hashes = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : firestore.snapshot().entrySet()) {
+            if (!entry.getValue().containsKey(CrossFireSyncAttributes.DELETE_FIELD)) {
+                hashes.put(entry.getKey(), DocumentHasher.hashDocument(entry.getValue()));
+            }
+        }
+        return hashes;
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3, 4, 5, 6, 7, 8})
+    public void shuffledDeliveryConvergesTest(long seed) throws Exception {
+        Random random = new Random(seed);
+        boolean directWrite = seed % 2 == 0;
+        ReplicationMode replicationMode = seed % 4 < 2 ? ReplicationMode.MULTI_REGION_PRIMARY
+                : ReplicationMode.SINGLE_REGION_PRIMARY;
+
+        publisher("east", "east-topic", replicationMode);
+        if (ReplicationMode.MULTI_REGION_PRIMARY.equals(replicationMode)) {
+            publisher("west", "west-topic", replicationMode);
+        }
+        PubSubChangeConsumer consumer = consumer("west", replicationMode, directWrite);
+
+        InMemoryFirestore east = this.firestoreFactory.getDatabase("east");
+        workload(east, random);
+
+        List<PubsubMessage> messages = this.publisherFactory.getTopic("east-topic").drain();
+        for (PubsubMessage message : shuffle(messages, random)) {
+            assertTrue(message.getOrderingKey().isEmpty());
+            consumer.process(InMemoryPublisher.toPubSubPublish(message));
+        }
+
+        assertEquals(hashes(east), hashes(this.firestoreFactory.getDatabase("west")));
+
+        // The replicated writes and tombstones are not published back
+        assertEquals(0, this.publisherFactory.getTopic("west-topic").size());
+    }
+
+    @Test
+    public void deleteBeforeInsertTest() throws Exception {
+        publisher("east", "east-topic", ReplicationMode.MULTI_REGION_PRIMARY);
+        PubSubChangeConsumer consumer =
+                consumer("west", ReplicationMode.MULTI_REGION_PRIMARY, false);
+
+        InMemoryFirestore east = this.firestoreFactory.getDatabase("east");
+        east.set("test/a", Map.of("value", 1L));
+        east.set("test/a", Map.of("value", 2L));
+        east.deleteDocument("test/a");
+
+        List<PubsubMessage> messages = this.publisherFactory.getTopic("east-topic").drain();
+        assertEquals(3, messages.size());
+        Collections.reverse(messages);
+        for (PubsubMessage message : messages) {
+            consumer.process(InMemoryPublisher.toPubSubPublish(message));
+        }
+
+        // The tombstone keeps the update time of the deleted version so older writes are ignored
+        Map<String, Object> tombstone =
+                this.firestoreFactory.getDatabase("west").snapshot().get("test/a");
+        assertEquals(true, tombstone.get(CrossFireSyncAttributes.DELETE_FIELD));
+        assertEquals("east", tombstone.get(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD));
+        assertEquals(3, tombstone.size());
+
+        // A recreated document is newer than the tombstone
+        east.set("test/a", Map.of("value", 3L));
+        consumer.process(InMemoryPublisher.toPubSubPublish(
+                this.publisherFactory.getTopic("east-topic").poll()));
+        assertEquals(hashes(east), hashes(this.firestoreFactory.getDatabase("west")));
+    }
+}
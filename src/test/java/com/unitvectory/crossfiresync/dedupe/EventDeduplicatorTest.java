@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.dedupe;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.FirestoreChangeConfig;
+import com.unitvectory.crossfiresync.FirestoreChangePublisher;
+import com.unitvectory.crossfiresync.PubSubChangeConfig;
+import com.unitvectory.crossfiresync.PubSubChangeConsumer;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+
+/**
+ * The EventDeduplicator test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class EventDeduplicatorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void exactTest() {
+        AtomicLong now = new AtomicLong();
+        EventDeduplicator deduplicator = new EventDeduplicator(
+                DedupeSettings.builder().maxEvents(2).ttlSeconds(10).build(), now::get);
+
+        assertFalse(deduplicator.isDuplicate("a"));
+        deduplicator.record("a");
+        assertTrue(deduplicator.isDuplicate("a"));
+
+        // The oldest event is evicted when over the maximum
+        deduplicator.record("b");
+        deduplicator.record("c");
+        assertFalse(deduplicator.isDuplicate("a"));
+        assertTrue(deduplicator.isDuplicate("c"));
+
+        // Events expire after the time to live
+        now.addAndGet(11 * SECOND);
+        assertFalse(deduplicator.isDuplicate("c"));
+        deduplicator.record("d");
+        assertEquals(1, deduplicator.getStats().getSize());
+
+        DedupeStats stats = deduplicator.getStats();
+        assertEquals(5, stats.getDeliveries());
+        assertEquals(2, stats.getDuplicates());
+        assertEquals(0, stats.getBloomFilterDuplicates());
+        assertEquals(0.4, stats.getDuplicateRate());
+    }
+
+    @Test
+    public void bloomFilterTest() {
+        AtomicLong now = new AtomicLong();
+        EventDeduplicator deduplicator = new EventDeduplicator(DedupeSettings.builder()
+                .maxEvents(10).ttlSeconds(60).bloomFilterEvents(10000).build(), now::get);
+
+        for (int i = 0; i < 1000; i++) {
+            deduplicator.record("event-" + i);
+        }
+
+        // Evicted from the exact tier but remembered by the Bloom filter
+        assertTrue(deduplicator.isDuplicate("event-0"));
+        assertEquals(1, deduplicator.getStats().getBloomFilterDuplicates());
+
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (deduplicator.isDuplicate("event-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertEquals(0, falsePositives);
+
+        // Remembered for one more period after the rotation and then forgotten
+        now.addAndGet(61 * SECOND);
+        assertTrue(deduplicator.isDuplicate("event-5"));
+        now.addAndGet(61 * SECOND);
+        assertFalse(deduplicator.isDuplicate("event-5"));
+    }
+
+    @Test
+    public void bloomFilterSizeTest() {
+        BloomFilter filter = new BloomFilter(1000000, 0.000001, SECOND, 0);
+        assertEquals(28755176, filter.getBits());
+        assertEquals(20, filter.getHashes());
+    }
+
+    @Test
+    public void disabledTest() {
+        EventDeduplicator deduplicator = new EventDeduplicator(DedupeSettings.NONE);
+        assertFalse(deduplicator.isEnabled());
+        deduplicator.record("a");
+        assertFalse(deduplicator.isDuplicate("a"));
+    }
+
+    @Test
+    public void redeliveryTest() throws Exception {
+        InMemoryFirestoreFactory firestoreFactory = new InMemoryFirestoreFactory();
+        InMemoryPublisherFactory publisherFactory = new InMemoryPublisherFactory();
+
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .databaseName("east").project("project").topic("topic")
+                .firestoreFactory(firestoreFactory).publisherFactory(publisherFactory).build());
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName("west")
+                .dedupe(DedupeSettings.builder().maxEvents(100).build())
+                .firestoreFactory(firestoreFactory).build());
+
+        DocumentEventData change = DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .setName("projects/project/databases/east/documents/test/a")
+                .putFields("value", Value.newBuilder().setIntegerValue(1).build())
+                .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(100)))
+                .build();
+
+        // Eventarc retries the event so it is published twice
+        publisher.process(change, change.toByteArray(), "event-1");
+        publisher.process(change, change.toByteArray(), "event-1");
+
+        InMemoryPublisher topic = publisherFactory.getTopic("topic");
+        PubsubMessage message = topic.poll();
+        assertEquals("event-1", message.getAttributesOrThrow(EventDeduplicator.EVENT_ID));
+        consumer.process(InMemoryPublisher.toPubSubPublish(message));
+        consumer.process(InMemoryPublisher.toPubSubPublish(topic.poll()));
+
+        assertEquals(1, firestoreFactory.getDatabase("west").getStats().getTransactions());
+        DedupeStats stats = consumer.getDedupeStats();
+        assertEquals(2, stats.getDeliveries());
+        assertEquals(1, stats.getDuplicates());
+        assertEquals(0.5, stats.getDuplicateRate());
+
+        PubSubChangeConsumer disabled = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName("west")
+                .dedupe(DedupeSettings.NONE).firestoreFactory(firestoreFactory).build());
+        assertNull(disabled.getDedupeStats());
+    }
+}
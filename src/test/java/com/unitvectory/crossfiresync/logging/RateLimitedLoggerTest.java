@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The RateLimitedLogger test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class RateLimitedLoggerTest {
+
+    private final List<String> messages = new ArrayList<>();
+
+    private Logger logger;
+
+    private Handler handler;
+
+    @BeforeEach
+    public void setUp() {
+        this.logger = Logger.getLogger(RateLimitedLoggerTest.class.getName());
+        this.logger.setUseParentHandlers(false);
+        this.logger.setLevel(Level.INFO);
+        this.handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        this.logger.addHandler(this.handler);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.logger.removeHandler(this.handler);
+        this.logger.setUseParentHandlers(true);
+    }
+
+    @Test
+    public void lazyTest() {
+        RateLimitedLogger limited = new RateLimitedLogger(this.logger, LogLimits.NONE);
+        AtomicInteger built = new AtomicInteger();
+
+        limited.fine("test", () -> "fine " + built.incrementAndGet());
+        assertEquals(0, built.get());
+        assertTrue(this.messages.isEmpty());
+
+        limited.info("test", () -> "info " + built.incrementAndGet());
+        assertEquals(1, built.get());
+        assertEquals(List.of("info 1"), this.messages);
+    }
+
+    @Test
+    public void rateLimitTest() {
+        RateLimitedLogger limited =
+                new RateLimitedLogger(this.logger, LogLimits.builder().maxPerSecond(5).build());
+        AtomicInteger built = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            limited.info("set", () -> "set " + built.incrementAndGet());
+        }
+        limited.info("other", () -> "other");
+
+        // The burst allows one second of messages, the rest are counted
+        assertTrue(this.messages.size() >= 6 && this.messages.size() <= 7);
+        assertEquals(this.messages.size(), built.get() + 1);
+        long suppressed = limited.getSuppressed().get("set");
+        assertEquals(100 - built.get(), suppressed);
+        assertEquals(0L, limited.getSuppressed().get("other"));
+
+        limited.flush();
+        assertEquals("Suppressed " + suppressed + " set messages",
+                this.messages.get(this.messages.size() - 1));
+
+        // Nothing is pending after the flush
+        limited.flush();
+        assertEquals(built.get() + 2, this.messages.size());
+    }
+
+    @Test
+    public void sampleTest() {
+        RateLimitedLogger limited =
+                new RateLimitedLogger(this.logger, LogLimits.builder().sampleRate(10).build());
+
+        for (int i = 0; i < 25; i++) {
+            int value = i;
+            limited.info("set", () -> "set " + value);
+        }
+
+        assertEquals(List.of("set 0", "set 10 (9 similar messages suppressed)",
+                "set 20 (9 similar messages suppressed)"), this.messages);
+        assertEquals(Map.of("set", 22L), limited.getSuppressed());
+
+        limited.flush();
+        assertEquals("Suppressed 4 set messages", this.messages.get(3));
+    }
+}
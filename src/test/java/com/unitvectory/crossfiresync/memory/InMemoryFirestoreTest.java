@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.CrossFireSyncAttributes;
+import com.unitvectory.crossfiresync.PubSubChangeConfig;
+import com.unitvectory.crossfiresync.PubSubChangeConsumer;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.firestore.FirestoreDocument;
+import com.unitvectory.crossfiresync.retry.ErrorClassification;
+import com.unitvectory.crossfiresync.retry.ErrorClassifier;
+
+/**
+ * The InMemoryFirestore and InMemoryPublisher test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class InMemoryFirestoreTest {
+
+    @Test
+    public void updateTransactionTest() {
+        InMemoryFirestore firestore = new InMemoryFirestore("east");
+        List<InMemoryChange> changes = new ArrayList<>();
+        firestore.addListener(changes::add);
+
+        DocumentReference reference = firestore.getDocument("test/a");
+        assertEquals("test/a", reference.getPath());
+
+        Timestamp newer = Timestamp.ofTimeSecondsAndNanos(200, 0);
+        Timestamp older = Timestamp.ofTimeSecondsAndNanos(100, 0);
+        firestore.updateTransaction(reference, newer,
+                Map.of("value", 2L, CrossFireSyncAttributes.TIMESTAMP_FIELD, newer));
+
+        // The stale write guard rejects the older change
+        firestore.updateTransaction(reference, older,
+                Map.of("value", 1L, CrossFireSyncAttributes.TIMESTAMP_FIELD, older));
+
+        assertEquals(2L, firestore.readDocument("test/a").getData().get("value"));
+        assertEquals(1, changes.size());
+        assertNull(changes.get(0).getOldValue());
+        assertEquals(1, firestore.getStats().getWrites());
+        assertEquals(2, firestore.getStats().getTransactions());
+    }
+
+    @Test
+    public void abortsTest() {
+        InMemoryFirestore firestore = new InMemoryFirestore("east", 3,
+                FaultInjection.builder().abortRate(1).seed(1).build());
+
+        CrossFireSyncException e = assertThrows(CrossFireSyncException.class,
+                () -> firestore.updateTransaction(firestore.getDocument("test/a"),
+                        Timestamp.ofTimeSecondsAndNanos(1, 0), Map.of("value", 1L)));
+
+        assertEquals(ErrorClassification.CONTENTION, ErrorClassifier.classify(e));
+        assertEquals(3, firestore.getStats().getAborts());
+        assertEquals(0, firestore.size());
+    }
+
+    @Test
+    public void errorInjectionTest() {
+        InMemoryFirestore firestore = new InMemoryFirestore("east", 5,
+                FaultInjection.builder().errorRate(1).errorCode("DEADLINE_EXCEEDED").build());
+
+        CrossFireSyncException e = assertThrows(CrossFireSyncException.class,
+                () -> firestore.readDocument("test/a"));
+        assertEquals("DEADLINE_EXCEEDED", ErrorClassifier.statusCode(e));
+        assertEquals(1, firestore.getStats().getInjectedFailures());
+    }
+
+    @Test
+    public void preconditionTest() {
+        InMemoryFirestore firestore = new InMemoryFirestore("east");
+        firestore.set("test/a", Map.of("value", 1L));
+        firestore.set("test/b", Map.of("value", 1L));
+
+        List<FirestoreDocument> documents = firestore.listDocuments("test", null, 10);
+        assertEquals(2, documents.size());
+
+        // The document written since it was read is not deleted
+        firestore.set("test/b", Map.of("value", 2L));
+        assertEquals(1, firestore.bulkDelete(documents, 0));
+        assertEquals(1, firestore.getStats().getPreconditionFailures());
+        assertEquals(List.of("test/b"),
+                firestore.listDocuments("test", null, 10).stream()
+                        .map(FirestoreDocument::getDocumentPath).toList());
+    }
+
+    @Test
+    public void collectionGroupTest() {
+        InMemoryFirestore firestore = new InMemoryFirestore("east");
+        firestore.set("test/a", Map.of());
+        firestore.set("other/b/test/c", Map.of());
+        firestore.set("tests/d", Map.of());
+        firestore.set("test/a/other/e", Map.of());
+
+        assertEquals(List.of("other/b/test/c", "test/a"),
+                firestore.listDocuments("test", null, 10).stream()
+                        .map(FirestoreDocument::getDocumentPath).toList());
+    }
+
+    @Test
+    public void orderingKeyTest() {
+        InMemoryPublisher publisher = new InMemoryPublisher("topic",
+                FaultInjection.builder().errorRate(0.5).seed(7).build());
+
+        int published = 0;
+        boolean paused = false;
+        for (int i = 0; i < 20; i++) {
+            try {
+                publisher.publishMessage(
+                        PubsubMessage.newBuilder().setOrderingKey("test/a").build());
+                assertFalse(paused, "Published after a failure without resuming");
+                published++;
+            } catch (CrossFireSyncException e) {
+                paused = true;
+            }
+        }
+
+        assertTrue(paused);
+        assertEquals(published, publisher.drain().size());
+
+        publisher.resumePublish("test/a");
+        assertEquals(published, publisher.getPublished());
+    }
+
+    @Test
+    public void consumerTest() throws Exception {
+        InMemoryFirestoreFactory factory = new InMemoryFirestoreFactory();
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .databaseName("west").replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .firestoreFactory(factory).build());
+
+        DocumentEventData change = DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .setName("projects/example/databases/east/documents/test/a")
+                .putFields("value", Value.newBuilder().setIntegerValue(1).build())
+                .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(100)))
+                .build();
+        InMemoryPublisher topic = new InMemoryPublisher("topic");
+        topic.publishMessage(PubsubMessage.newBuilder().setOrderingKey("test/a")
+                .putAttributes("database", "east")
+                .setData(ByteString.copyFrom(change.toByteArray())).build());
+
+        consumer.process(InMemoryPublisher.toPubSubPublish(topic.poll()));
+
+        Map<String, Object> data = factory.getDatabase("west").readDocument("test/a").getData();
+        assertEquals(1L, data.get("value"));
+        assertEquals("east", data.get(CrossFireSyncAttributes.SOURCE_DATABASE_FIELD));
+        assertEquals(Timestamp.ofTimeSecondsAndNanos(100, 0),
+                data.get(CrossFireSyncAttributes.TIMESTAMP_FIELD));
+    }
+}
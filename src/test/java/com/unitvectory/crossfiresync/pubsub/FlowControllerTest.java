@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+
+/**
+ * The FlowController test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class FlowControllerTest {
+
+    private static FlowController controller(FlowControlBehavior behavior) {
+        return new FlowController(FlowControlSettings.builder().maxOutstandingMessages(2)
+                .maxOutstandingBytes(100).behavior(behavior).build());
+    }
+
+    private static void awaitWaiting(FlowController controller, int waiting) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (controller.getStats().getWaiting() < waiting) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void unlimitedTest() {
+        FlowController controller = new FlowController(FlowControlSettings.NONE);
+        assertFalse(controller.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(controller.acquire("test/a", 1000));
+        }
+    }
+
+    @Test
+    public void failFastTest() {
+        FlowController controller = controller(FlowControlBehavior.FAIL_FAST);
+        assertTrue(controller.acquire("test/a", 10));
+        assertTrue(controller.acquire("test/b", 10));
+        assertThrows(CrossFireSyncException.class, () -> controller.acquire("test/c", 10));
+
+        controller.release(10);
+        assertTrue(controller.acquire("test/c", 10));
+
+        FlowControlStats stats = controller.getStats();
+        assertEquals(2, stats.getOutstandingMessages());
+        assertEquals(20, stats.getOutstandingBytes());
+        assertEquals(1, stats.getRejected());
+    }
+
+    @Test
+    public void bytesTest() {
+        FlowController controller = controller(FlowControlBehavior.FAIL_FAST);
+
+        // A message over the byte limit is allowed when nothing else is outstanding
+        assertTrue(controller.acquire("test/a", 500));
+        assertThrows(CrossFireSyncException.class, () -> controller.acquire("test/b", 1));
+        controller.release(500);
+
+        assertTrue(controller.acquire("test/a", 60));
+        assertThrows(CrossFireSyncException.class, () -> controller.acquire("test/b", 60));
+        assertTrue(controller.acquire("test/b", 40));
+    }
+
+    @Test
+    public void blockTest() throws Exception {
+        FlowController controller = controller(FlowControlBehavior.BLOCK);
+        assertTrue(controller.acquire("test/a", 10));
+        assertTrue(controller.acquire("test/b", 10));
+
+        CompletableFuture<Boolean> blocked =
+                CompletableFuture.supplyAsync(() -> controller.acquire("test/c", 10));
+        awaitWaiting(controller, 1);
+        assertFalse(blocked.isDone());
+
+        controller.release(10);
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+
+        FlowControlStats stats = controller.getStats();
+        assertEquals(2, stats.getOutstandingMessages());
+        assertEquals(0, stats.getWaiting());
+        assertEquals(1, stats.getBlocked());
+        assertTrue(stats.getBlockedNanos() > 0);
+    }
+
+    @Test
+    public void shedSupersededTest() throws Exception {
+        FlowController controller = controller(FlowControlBehavior.SHED_SUPERSEDED);
+        assertTrue(controller.acquire("test/a", 10));
+        assertTrue(controller.acquire("test/b", 10));
+
+        CompletableFuture<Boolean> older =
+                CompletableFuture.supplyAsync(() -> controller.acquire("test/c", 10));
+        awaitWaiting(controller, 1);
+        CompletableFuture<Boolean> newer =
+                CompletableFuture.supplyAsync(() -> controller.acquire("test/c", 10));
+
+        // The older change to the same document is dropped in favor of the newer one
+        assertFalse(older.get(5, TimeUnit.SECONDS));
+        awaitWaiting(controller, 1);
+        assertFalse(newer.isDone());
+
+        controller.release(10);
+        assertTrue(newer.get(5, TimeUnit.SECONDS));
+
+        FlowControlStats stats = controller.getStats();
+        assertEquals(1, stats.getShed());
+        assertEquals(2, stats.getOutstandingMessages());
+    }
+
+    @Test
+    public void shedOlderArrivalTest() throws Exception {
+        FlowController controller = controller(FlowControlBehavior.SHED_SUPERSEDED);
+        assertTrue(controller.acquire("test/a", 10));
+        assertTrue(controller.acquire("test/b", 10));
+
+        CompletableFuture<Boolean> newer =
+                CompletableFuture.supplyAsync(() -> controller.acquire("test/c", 200, 10));
+        awaitWaiting(controller, 1);
+
+        // An older change delivered after the newer one is dropped and the newer one keeps waiting
+        assertFalse(controller.acquire("test/c", 100, 10));
+        assertFalse(newer.isDone());
+
+        controller.release(10);
+        assertTrue(newer.get(5, TimeUnit.SECONDS));
+        assertEquals(1, controller.getStats().getShed());
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.pubsub;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+import com.unitvectory.crossfiresync.memory.FaultInjection;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+
+/**
+ * The MessageSpool and SpoolingPublish test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class MessageSpoolTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static PubsubMessage message(int i) {
+        return PubsubMessage.newBuilder().setOrderingKey("test/" + (i % 3))
+                .putAttributes("database", "east")
+                .setData(ByteString.copyFromUtf8("change " + i)).build();
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(this.tempDir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void orderAndRotationTest() throws Exception {
+        try (MessageSpool spool = new MessageSpool(this.tempDir, 256, 1 << 20)) {
+            assertTrue(spool.isEmpty());
+            assertNull(spool.peek());
+
+            for (int i = 0; i < 20; i++) {
+                assertTrue(spool.append(message(i)));
+            }
+            assertTrue(spool.getStats().getSegments() > 1);
+            assertEquals(20, spool.getStats().getDepth());
+
+            for (int i = 0; i < 20; i++) {
+                assertEquals(message(i), spool.peek());
+                spool.remove();
+            }
+
+            assertTrue(spool.isEmpty());
+            assertNull(spool.peek());
+            SpoolStats stats = spool.getStats();
+            assertEquals(20, stats.getSpooled());
+            assertEquals(20, stats.getDrained());
+            assertEquals(0, stats.getPendingBytes());
+
+            // Drained segments are deleted, the last is kept for appending
+            assertEquals(1, stats.getSegments());
+            assertEquals(1, segmentFiles());
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws Exception {
+        try (MessageSpool spool = new MessageSpool(this.tempDir, 256, 1 << 20)) {
+            for (int i = 0; i < 10; i++) {
+                spool.append(message(i));
+            }
+            for (int i = 0; i < 4; i++) {
+                spool.remove();
+            }
+        }
+
+        try (MessageSpool spool = new MessageSpool(this.tempDir, 256, 1 << 20)) {
+            assertEquals(6, spool.getStats().getDepth());
+            for (int i = 4; i < 10; i++) {
+                assertEquals(message(i), spool.peek());
+                spool.remove();
+            }
+            assertTrue(spool.isEmpty());
+
+            // Appending continues after the recovered messages
+            spool.append(message(10));
+            assertEquals(message(10), spool.peek());
+        }
+    }
+
+    @Test
+    public void tornRecordTest() throws Exception {
+        Path file;
+        try (MessageSpool spool = new MessageSpool(this.tempDir, 4096, 1 << 20)) {
+            spool.append(message(0));
+            spool.append(message(1));
+            try (Stream<Path> files = Files.list(this.tempDir)) {
+                file = files.findFirst().get();
+            }
+        }
+
+        // Corrupt the second record as if the process crashed while writing it
+        int second = MessageSpool.HEADER_BYTES + MessageSpool.RECORD_HEADER_BYTES
+                + message(0).toByteArray().length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}),
+                    second + MessageSpool.RECORD_HEADER_BYTES);
+        }
+
+        try (MessageSpool spool = new MessageSpool(this.tempDir, 4096, 1 << 20)) {
+            assertEquals(1, spool.getStats().getDepth());
+            assertEquals(message(0), spool.peek());
+
+            // The torn record is overwritten by the next append
+            spool.append(message(2));
+            spool.remove();
+            assertEquals(message(2), spool.peek());
+        }
+    }
+
+    @Test
+    public void boundedTest() throws Exception {
+        try (MessageSpool spool = new MessageSpool(this.tempDir, 256, 512)) {
+            int appended = 0;
+            while (spool.append(message(appended))) {
+                appended++;
+            }
+
+            assertTrue(appended > 2);
+            assertEquals(2, spool.getStats().getSegments());
+            assertEquals(1, spool.getStats().getRejected());
+            assertTrue(segmentFiles() <= 2);
+
+            // Too large for a segment
+            PubsubMessage large = PubsubMessage.newBuilder()
+                    .setData(ByteString.copyFrom(new byte[1024])).build();
+            assertFalse(spool.append(large));
+        }
+    }
+
+    @Test
+    public void spoolingPublishTest() throws Exception {
+        List<PubsubMessage> published = new ArrayList<>();
+        boolean[] available = {false};
+        CrossFireSyncPublish delegate = message -> {
+            if (!available[0]) {
+                throw new CrossFireSyncException("Failed to publish message.", null);
+            }
+            published.add(message);
+            return "id";
+        };
+
+        try (SpoolingPublish publish =
+                new SpoolingPublish(delegate, new MessageSpool(this.tempDir, 4096, 1 << 20), 0)) {
+            assertNull(publish.publishMessage(message(0)));
+
+            // Queued behind the spooled message even though Pub/Sub is back
+            available[0] = true;
+            assertNull(publish.publishMessage(message(1)));
+            assertTrue(published.isEmpty());
+            assertEquals(2, publish.getSpoolStats().getDepth());
+
+            assertEquals(2, publish.drain());
+            assertEquals(List.of(message(0), message(1)), published);
+            assertEquals("id", publish.publishMessage(message(2)));
+
+            SpoolStats stats = publish.getSpoolStats();
+            assertEquals(0, stats.getDepth());
+            assertEquals(2, stats.getDrained());
+            assertTrue(stats.getDrainRate() > 0);
+        }
+    }
+
+    @Test
+    public void pausedOrderingKeyTest() throws Exception {
+        // A failed publish pauses its ordering key as the Pub/Sub client does
+        InMemoryPublisher delegate = new InMemoryPublisher("topic",
+                FaultInjection.builder().errorRate(0.5).seed(7).build());
+
+        try (SpoolingPublish publish =
+                new SpoolingPublish(delegate, new MessageSpool(this.tempDir, 4096, 1 << 20), 0)) {
+            for (int i = 0; i < 30; i++) {
+                publish.publishMessage(message(i));
+            }
+            assertTrue(delegate.getInjectedFailures() > 0);
+
+            for (int attempt = 0; attempt < 1000 && publish.getSpoolStats().getDepth() > 0;
+                    attempt++) {
+                publish.drain();
+            }
+            assertEquals(0, publish.getSpoolStats().getDepth());
+
+            // Every message is published once and each ordering key stays in order
+            List<PubsubMessage> published = delegate.drain();
+            assertEquals(30, published.size());
+            for (int key = 0; key < 3; key++) {
+                String orderingKey = "test/" + key;
+                List<String> data = published.stream()
+                        .filter(message -> message.getOrderingKey().equals(orderingKey))
+                        .map(message -> message.getData().toStringUtf8()).toList();
+                List<String> expected = new ArrayList<>();
+                for (int i = key; i < 30; i += 3) {
+                    expected.add("change " + i);
+                }
+                assertEquals(expected, data);
+            }
+        }
+    }
+
+    @Test
+    public void spoolFullTest() throws Exception {
+        CrossFireSyncPublish delegate = message -> {
+            throw new CrossFireSyncException("Failed to publish message.", null);
+        };
+
+        try (SpoolingPublish publish =
+                new SpoolingPublish(delegate, new MessageSpool(this.tempDir, 256, 256), 0)) {
+            assertThrows(CrossFireSyncException.class, () -> {
+                for (int i = 0; i < 100; i++) {
+                    publish.publishMessage(message(i));
+                }
+            });
+            assertEquals(0, publish.drain());
+            assertEquals(1, publish.getSpoolStats().getDrainFailures());
+        }
+    }
+}
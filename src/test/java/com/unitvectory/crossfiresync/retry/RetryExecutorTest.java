@@ -0,0 +1,197 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.unitvectory.crossfiresync.exception.CrossFireSyncException;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * The RetryExecutor test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class RetryExecutorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static RetryPolicy policy(int maxAttempts) {
+        return RetryPolicy.builder().maxAttempts(maxAttempts).initialBackoffMillis(1)
+                .maxBackoffMillis(2).build();
+    }
+
+    private static DeadLetter.DeadLetterBuilder deadLetter() {
+        return DeadLetter.builder().operation("update").documentPath("test/a").database("west")
+                .change(DocumentEventData.newBuilder()
+                        .setValue(Document.newBuilder().setName(
+                                "projects/example/databases/west/documents/test/a"))
+                        .build());
+    }
+
+    private static RuntimeException failure(Status status) {
+        return new CrossFireSyncException("Failed to update document.",
+                new StatusRuntimeException(status));
+    }
+
+    @Test
+    public void classifyTest() {
+        assertEquals(ErrorClassification.CONTENTION,
+                ErrorClassifier.classify(failure(Status.ABORTED)));
+        assertEquals(ErrorClassification.RETRYABLE,
+                ErrorClassifier.classify(failure(Status.UNAVAILABLE)));
+        assertEquals(ErrorClassification.PERMANENT,
+                ErrorClassifier.classify(failure(Status.PERMISSION_DENIED)));
+        assertEquals(ErrorClassification.PERMANENT,
+                ErrorClassifier.classify(new IllegalArgumentException("invalid")));
+        assertEquals(ErrorClassification.RETRYABLE,
+                ErrorClassifier.classify(new CrossFireSyncException("unknown", null)));
+    }
+
+    @Test
+    public void retrySucceedsTest() {
+        AtomicInteger calls = new AtomicInteger();
+        RetryExecutor executor = new RetryExecutor(policy(5), null);
+
+        boolean applied = executor.run(() -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                throw failure(Status.ABORTED);
+            } else if (call == 2) {
+                throw failure(Status.UNAVAILABLE);
+            }
+        }, deadLetter());
+
+        assertTrue(applied);
+        assertEquals(3, calls.get());
+
+        RetryStats stats = executor.getStats();
+        assertEquals(1, stats.getOperations());
+        assertEquals(3, stats.getAttempts());
+        assertEquals(1, stats.getContentionRetries());
+        assertEquals(1, stats.getRetryableRetries());
+        assertTrue(stats.getRetryNanos() > 0);
+    }
+
+    @Test
+    public void exhaustedWithoutSinkThrowsTest() {
+        RuntimeException failure = failure(Status.UNAVAILABLE);
+        RetryExecutor executor = new RetryExecutor(policy(3), null);
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> executor.run(() -> {
+            throw failure;
+        }, deadLetter()));
+
+        assertSame(failure, thrown);
+        assertEquals(3, executor.getStats().getAttempts());
+        assertEquals(1, executor.getStats().getExhausted());
+    }
+
+    @Test
+    public void permanentDeadLetteredTest() {
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        RetryExecutor executor = new RetryExecutor(policy(5), deadLetters::add);
+
+        boolean applied = executor.run(() -> {
+            throw failure(Status.INVALID_ARGUMENT);
+        }, deadLetter());
+
+        assertFalse(applied);
+        assertEquals(1, deadLetters.size());
+        DeadLetter letter = deadLetters.get(0);
+        assertEquals(ErrorClassification.PERMANENT, letter.getClassification());
+        assertEquals(1, letter.getAttempts());
+        assertEquals("test/a", letter.getDocumentPath());
+        assertEquals("projects/example/databases/west/documents/test/a",
+                letter.getChange().getValue().getName());
+        assertEquals(1, executor.getStats().getPermanentFailures());
+        assertEquals(1, executor.getStats().getDeadLettered());
+    }
+
+    @Test
+    public void retryBudgetTest() {
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        RetryExecutor executor = new RetryExecutor(RetryPolicy.builder().maxAttempts(3)
+                .initialBackoffMillis(1).maxBackoffMillis(1).retryBudgetTokens(2).build(),
+                deadLetters::add);
+
+        // The first operation spends both tokens
+        assertFalse(executor.run(() -> {
+            throw failure(Status.UNAVAILABLE);
+        }, deadLetter()));
+
+        // With the budget empty the failure is thrown without retrying or dead-lettering
+        assertThrows(RuntimeException.class, () -> executor.run(() -> {
+            throw failure(Status.UNAVAILABLE);
+        }, deadLetter()));
+
+        assertEquals(1, deadLetters.size());
+        assertEquals(4, executor.getStats().getAttempts());
+        assertEquals(1, executor.getStats().getBudgetExhausted());
+    }
+
+    @Test
+    public void backoffTest() {
+        RetryExecutor executor = new RetryExecutor(RetryPolicy.builder().initialBackoffMillis(100)
+                .maxBackoffMillis(1000).backoffMultiplier(2.0).build(), null);
+
+        for (int i = 0; i < 100; i++) {
+            long first = executor.backoffMillis(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = executor.backoffMillis(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = executor.backoffMillis(10);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void fileDeadLetterSinkTest() throws Exception {
+        Path file = tempDir.resolve("deadletter.jsonl");
+        RetryExecutor executor =
+                new RetryExecutor(policy(1), FileDeadLetterSink.fromPath(file.toString()));
+
+        executor.run(() -> {
+            throw failure(Status.UNAVAILABLE);
+        }, deadLetter());
+        executor.run(() -> {
+            throw failure(Status.NOT_FOUND);
+        }, deadLetter());
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"classification\":\"RETRYABLE\""));
+        assertTrue(lines.get(1).contains("\"classification\":\"PERMANENT\""));
+        assertTrue(lines.get(0).contains("\"documentPath\":\"test/a\""));
+        assertTrue(lines.get(0).contains("\"data\":"));
+    }
+}
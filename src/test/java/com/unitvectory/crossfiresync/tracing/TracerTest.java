@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.unitvectory.crossfiresync.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.events.cloud.firestore.v1.Document;
+import com.google.events.cloud.firestore.v1.DocumentEventData;
+import com.google.events.cloud.firestore.v1.Value;
+import com.google.pubsub.v1.PubsubMessage;
+import com.unitvectory.crossfiresync.FirestoreChangeConfig;
+import com.unitvectory.crossfiresync.FirestoreChangePublisher;
+import com.unitvectory.crossfiresync.PubSubChangeConfig;
+import com.unitvectory.crossfiresync.PubSubChangeConsumer;
+import com.unitvectory.crossfiresync.config.ReplicationMode;
+import com.unitvectory.crossfiresync.memory.InMemoryFirestoreFactory;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisher;
+import com.unitvectory.crossfiresync.memory.InMemoryPublisherFactory;
+
+/**
+ * The Tracer test class.
+ *
+ * @author Jared Hatfield (UnitVectorY Labs)
+ */
+public class TracerTest {
+
+    @Test
+    public void traceparentTest() {
+        SpanContext context =
+                new SpanContext("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7");
+        assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01",
+                context.toTraceparent());
+        assertEquals(context, SpanContext.fromTraceparent(context.toTraceparent()));
+
+        assertNull(SpanContext.fromTraceparent(null));
+        assertNull(SpanContext.fromTraceparent("invalid"));
+        assertNull(SpanContext
+                .fromTraceparent("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"));
+        assertNull(SpanContext
+                .fromTraceparent("00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+        assertNull(SpanContext
+                .fromTraceparent("ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+    }
+
+    @Test
+    public void noopTest() {
+        Span span = Tracer.NOOP.startSpan("test",
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+        assertSame(Span.NOOP, span);
+        assertSame(Span.NOOP, span.startChild("child"));
+        assertFalse(span.isRecording());
+        assertFalse(Tracer.NOOP.isEnabled());
+        span.setAttribute("key", "value").setAttribute("count", 1);
+        span.end();
+    }
+
+    @Test
+    public void spanTest() {
+        InMemorySpanExporter exporter = new InMemorySpanExporter();
+        Tracer tracer = new Tracer(exporter);
+
+        Span root = tracer.startSpan("root");
+        Span child = root.startChild("child");
+        child.setAttribute("count", 2);
+        child.recordError(new IllegalStateException("failed"));
+        child.end();
+        child.end();
+        root.end();
+
+        List<SpanData> spans = exporter.getSpans();
+        assertEquals(2, spans.size());
+        SpanData childData = spans.get(0);
+        SpanData rootData = spans.get(1);
+        assertEquals("child", childData.getName());
+        assertEquals(rootData.getTraceId(), childData.getTraceId());
+        assertEquals(rootData.getSpanId(), childData.getParentSpanId());
+        assertNull(rootData.getParentSpanId());
+        assertEquals("2", childData.getAttributes().get("count"));
+        assertTrue(childData.getError().contains("failed"));
+        assertNotEquals(rootData.getSpanId(), childData.getSpanId());
+        assertEquals(32, rootData.getTraceId().length());
+        assertEquals(16, rootData.getSpanId().length());
+
+        Span invalid = tracer.startSpan("invalid", "invalid");
+        assertNotNull(invalid.getContext());
+    }
+
+    @Test
+    public void propagationTest() throws Exception {
+        InMemorySpanExporter exporter = new InMemorySpanExporter();
+        Tracer tracer = new Tracer(exporter);
+        InMemoryFirestoreFactory firestoreFactory = new InMemoryFirestoreFactory();
+        InMemoryPublisherFactory publisherFactory = new InMemoryPublisherFactory();
+
+        FirestoreChangePublisher publisher = new FirestoreChangePublisher(FirestoreChangeConfig
+                .builder().replicationMode(ReplicationMode.MULTI_REGION_PRIMARY)
+                .databaseName("east").project("project").topic("topic")
+                .firestoreFactory(firestoreFactory).publisherFactory(publisherFactory)
+                .tracer(tracer).build());
+        PubSubChangeConsumer consumer = new PubSubChangeConsumer(PubSubChangeConfig.builder()
+                .replicationMode(ReplicationMode.MULTI_REGION_PRIMARY).databaseName("west")
+                .firestoreFactory(firestoreFactory).tracer(tracer).build());
+
+        DocumentEventData change = DocumentEventData.newBuilder().setValue(Document.newBuilder()
+                .setName("projects/project/databases/east/documents/test/a")
+                .putFields("value", Value.newBuilder().setIntegerValue(1).build())
+                .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(100)))
+                .build();
+        publisher.process(change, change.toByteArray());
+
+        PubsubMessage message = publisherFactory.getTopic("topic").poll();
+        String traceparent = message.getAttributesOrThrow(SpanContext.TRACEPARENT);
+        consumer.process(InMemoryPublisher.toPubSubPublish(message));
+
+        SpanData publish = exporter.getSpans("crossfiresync.publish").get(0);
+        assertEquals(publish.getTraceId(), SpanContext.fromTraceparent(traceparent).getTraceId());
+        assertEquals("test/a", publish.getAttributes().get("document"));
+        assertEquals("publish", publish.getAttributes().get("outcome"));
+        assertEquals("100000000", publish.getAttributes().get("commitTimeMicros"));
+        assertEquals(publish.getSpanId(),
+                exporter.getSpans("publish").get(0).getParentSpanId());
+
+        SpanData apply = exporter.getSpans("crossfiresync.apply").get(0);
+        assertEquals(publish.getTraceId(), apply.getTraceId());
+        assertEquals(publish.getSpanId(), apply.getParentSpanId());
+        assertEquals("east", apply.getAttributes().get("sourceDatabase"));
+        assertTrue(Long.parseLong(apply.getAttributes().get("lagMicros")) > 0);
+        for (String step : new String[] {"decode", "convert", "transaction"}) {
+            assertEquals(apply.getSpanId(), exporter.getSpans(step).get(0).getParentSpanId(),
+                    step);
+        }
+        assertNull(apply.getError());
+    }
+}